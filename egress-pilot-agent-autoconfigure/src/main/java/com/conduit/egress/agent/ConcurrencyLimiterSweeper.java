@@ -0,0 +1,32 @@
+package com.conduit.egress.agent;
+
+import com.conduit.egress.core.AdaptiveConcurrencyLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Periodically drops concurrency limits of keys that have had nothing in flight since
+ * the previous sweep. Shares the in-memory bucket sweep interval.
+ */
+public class ConcurrencyLimiterSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyLimiterSweeper.class);
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimiterSweeper(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Scheduled(
+            initialDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}",
+            fixedDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}"
+    )
+    public void sweep() {
+        int dropped = limiter.sweepIdle();
+        if (dropped > 0) {
+            log.debug("Dropped {} idle concurrency limits, {} remaining", dropped, limiter.size());
+        }
+    }
+}
@@ -1,28 +1,51 @@
 package com.conduit.egress.agent;
 
+import com.conduit.egress.core.AdaptiveConcurrencyLimiter;
+import com.conduit.egress.core.AsyncRateLimitBackend;
+import com.conduit.egress.core.FallbackLayer;
 import com.conduit.egress.core.InMemoryTokenBucketBackend;
+import com.conduit.egress.core.LatencyBudgetLayer;
+import com.conduit.egress.core.LocalQuotaStore;
+import com.conduit.egress.core.NegativeCacheLayer;
+import com.conduit.egress.core.OffHeapTokenBucketBackend;
+import com.conduit.egress.core.QuotaLimiter;
+import com.conduit.egress.core.QuotaStore;
 import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitBackendChain;
+import com.conduit.egress.core.RateLimitBackendDecorator;
+import com.conduit.egress.core.Ticker;
+import com.conduit.egress.core.TimingLayer;
+import com.conduit.egress.redis.PipelinedRedisTokenBucketBackend;
+import com.conduit.egress.redis.ReactiveRedisTokenBucketBackend;
+import com.conduit.egress.redis.RedisQuotaStore;
 import com.conduit.egress.redis.RedisTokenBucketBackend;
 import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import reactor.core.scheduler.Schedulers;
 
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 @AutoConfiguration
@@ -35,7 +58,7 @@ public class EgressAgentAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean
     public Clock egressAgentClock() {
-        return Clock.systemUTC();
+        return Ticker.system();
     }
 
     @Bean
@@ -69,13 +92,103 @@ public class EgressAgentAutoConfiguration {
     @ConditionalOnMissingBean
     public RateLimitBackend egressRateLimitBackend(
             EgressAgentProperties properties,
-            StringRedisTemplate egressAgentRedisTemplate
+            StringRedisTemplate egressAgentRedisTemplate,
+            MeterRegistry meterRegistry,
+            Clock egressAgentClock
     ) {
         if ("redis".equalsIgnoreCase(properties.getBackend())
                 || "dragonfly".equalsIgnoreCase(properties.getBackend())) {
+            EgressAgentProperties.RedisPipelineProperties pipeline = properties.getRedisPipeline();
+            if (pipeline.isEnabled()) {
+                return PipelinedRedisTokenBucketBackend.create(properties.getRedisUri(), pipeline.getMaxBatchSize(),
+                        Duration.ofNanos(pipeline.getMaxDelayMicros() * 1_000L), Duration.ofSeconds(5));
+            }
             return new RedisTokenBucketBackend(egressAgentRedisTemplate);
         }
-        return new InMemoryTokenBucketBackend();
+        if ("shared-memory".equalsIgnoreCase(properties.getBackend())) {
+            EgressAgentProperties.SharedMemoryProperties shared = properties.getSharedMemory();
+            OffHeapTokenBucketBackend backend = OffHeapTokenBucketBackend.shared(
+                    shared.getMaxBuckets(), Path.of(shared.getFile()), egressAgentClock);
+            backend.bindTo(meterRegistry);
+            return backend;
+        }
+        if ("off-heap".equalsIgnoreCase(properties.getBackend())) {
+            EgressAgentProperties.OffHeapProperties offHeap = properties.getOffHeap();
+            OffHeapTokenBucketBackend backend = offHeap.getPersistFile() == null || offHeap.getPersistFile().isBlank()
+                    ? new OffHeapTokenBucketBackend(offHeap.getMaxBuckets())
+                    : new OffHeapTokenBucketBackend(offHeap.getMaxBuckets(), Path.of(offHeap.getPersistFile()),
+                            egressAgentClock);
+            backend.bindTo(meterRegistry);
+            return backend;
+        }
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend(
+                properties.getInMemory().getMaxBuckets(), properties.getInMemory().getStripes());
+        backend.bindTo(meterRegistry);
+        return backend;
+    }
+
+    /**
+     * Non-blocking view of the backend used by the WebClient filter: the reactive Lettuce
+     * client for Redis / Dragonfly, the pipelined Redis backend and local backends as-is,
+     * and any other blocking backend on Reactor's bounded elastic scheduler.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public AsyncRateLimitBackend egressAsyncRateLimitBackend(
+            RateLimitBackend backend,
+            StringRedisTemplate egressAgentRedisTemplate
+    ) {
+        if (backend instanceof RedisTokenBucketBackend
+                && egressAgentRedisTemplate.getConnectionFactory() instanceof ReactiveRedisConnectionFactory reactive) {
+            return new ReactiveRedisTokenBucketBackend(new ReactiveStringRedisTemplate(reactive));
+        }
+        return AsyncRateLimitBackend.adapt(backend, Schedulers.boundedElastic()::schedule);
+    }
+
+    /**
+     * Layers the filter and the aspect see the backend through, outermost first:
+     * {@link RateLimitBackendDecorator} beans in their order, then timing, negative
+     * cache, fallback and latency budget as enabled under {@code layers}. The backend
+     * beans themselves stay undecorated, so the sweeper and the health indicator reach
+     * the real backend.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RateLimitBackendChain egressRateLimitBackendChain(
+            EgressAgentProperties properties,
+            MeterRegistry meterRegistry,
+            ObjectProvider<RateLimitBackendDecorator> decorators
+    ) {
+        EgressAgentProperties.LayerProperties layerProperties = properties.getLayers();
+        List<RateLimitBackendDecorator> layers = new ArrayList<>(decorators.orderedStream().toList());
+        if (layerProperties.isTiming()) {
+            layers.add(new TimingLayer(meterRegistry));
+        }
+        if (layerProperties.isNegativeCache()) {
+            NegativeCacheLayer cache = new NegativeCacheLayer(layerProperties.getNegativeCacheMaxEntries());
+            cache.bindTo(meterRegistry);
+            layers.add(cache);
+        }
+        if ("in-memory".equalsIgnoreCase(layerProperties.getFallback())) {
+            FallbackLayer fallback = new FallbackLayer(
+                    new InMemoryTokenBucketBackend(properties.getInMemory().getMaxBuckets(),
+                            properties.getInMemory().getStripes()));
+            fallback.bindTo(meterRegistry);
+            layers.add(fallback);
+        }
+        if (layerProperties.getLatencyBudgetMs() > 0) {
+            layers.add(new LatencyBudgetLayer(Duration.ofMillis(layerProperties.getLatencyBudgetMs())));
+        }
+        return new RateLimitBackendChain(layers);
+    }
+
+    @Bean
+    public InMemoryBucketSweeper inMemoryBucketSweeper(
+            RateLimitBackend backend,
+            RateLimitBackendChain egressRateLimitBackendChain,
+            Clock egressAgentClock
+    ) {
+        return new InMemoryBucketSweeper(backend, egressRateLimitBackendChain, egressAgentClock);
     }
 
     @Bean
@@ -88,15 +201,73 @@ public class EgressAgentAutoConfiguration {
         return new RuleCache(client, meterRegistry);
     }
 
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "conduit.egress.agent.concurrency", name = "enabled", havingValue = "true")
+    public AdaptiveConcurrencyLimiter egressConcurrencyLimiter(EgressAgentProperties properties, MeterRegistry meterRegistry) {
+        EgressAgentProperties.ConcurrencyProperties concurrency = properties.getConcurrency();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                concurrency.getInitialLimit(),
+                concurrency.getMinLimit(),
+                concurrency.getMaxLimit(),
+                Duration.ofMillis(concurrency.getLatencyThresholdMs()),
+                concurrency.getBackoffRatio()
+        );
+        limiter.bindTo(meterRegistry);
+        return limiter;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "conduit.egress.agent.concurrency", name = "enabled", havingValue = "true")
+    public ConcurrencyLimiterSweeper concurrencyLimiterSweeper(AdaptiveConcurrencyLimiter limiter) {
+        return new ConcurrencyLimiterSweeper(limiter);
+    }
+
+    /**
+     * Durable quota counters: in Redis for the Redis / Dragonfly backends, in this process
+     * (persisted to quota.file when set) for the local ones.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public QuotaStore egressQuotaStore(
+            EgressAgentProperties properties,
+            StringRedisTemplate egressAgentRedisTemplate,
+            Clock egressAgentClock
+    ) {
+        if ("redis".equalsIgnoreCase(properties.getBackend())
+                || "dragonfly".equalsIgnoreCase(properties.getBackend())) {
+            return new RedisQuotaStore(egressAgentRedisTemplate);
+        }
+        String file = properties.getQuota().getFile();
+        return file == null || file.isBlank()
+                ? new LocalQuotaStore()
+                : new LocalQuotaStore(Path.of(file), egressAgentClock);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public QuotaLimiter egressQuotaLimiter(QuotaStore egressQuotaStore, EgressAgentProperties properties) {
+        return new QuotaLimiter(egressQuotaStore, properties.getQuota().getLeaseSize());
+    }
+
+    @Bean
+    public QuotaLeaseSweeper quotaLeaseSweeper(QuotaLimiter egressQuotaLimiter, Clock egressAgentClock) {
+        return new QuotaLeaseSweeper(egressQuotaLimiter, egressAgentClock);
+    }
+
     @Bean
     public WebClientRateLimiterFilter webClientRateLimiterFilter(
             RuleCache ruleCache,
-            RateLimitBackend backend,
+            AsyncRateLimitBackend backend,
+            RateLimitBackendChain egressRateLimitBackendChain,
             Clock egressAgentClock,
             MeterRegistry meterRegistry,
-            EgressAgentProperties properties
+            EgressAgentProperties properties,
+            ObjectProvider<AdaptiveConcurrencyLimiter> concurrencyLimiter,
+            QuotaLimiter egressQuotaLimiter
     ) {
-        return new WebClientRateLimiterFilter(ruleCache, backend, egressAgentClock, meterRegistry, properties);
+        return new WebClientRateLimiterFilter(ruleCache, egressRateLimitBackendChain.decorateAsync(backend),
+                egressAgentClock, meterRegistry, properties, concurrencyLimiter.getIfAvailable(), egressQuotaLimiter);
     }
 
     @Bean
@@ -109,11 +280,14 @@ public class EgressAgentAutoConfiguration {
     public EgressRateLimitAspect egressRateLimitAspect(
             RuleCache ruleCache,
             RateLimitBackend backend,
+            RateLimitBackendChain egressRateLimitBackendChain,
             Clock egressAgentClock,
             MeterRegistry meterRegistry,
-            EgressAgentProperties properties
+            EgressAgentProperties properties,
+            QuotaLimiter egressQuotaLimiter
     ) {
-        return new EgressRateLimitAspect(ruleCache, backend, egressAgentClock, meterRegistry, properties);
+        return new EgressRateLimitAspect(ruleCache, egressRateLimitBackendChain.decorate(backend), egressAgentClock,
+                meterRegistry, properties, egressQuotaLimiter);
     }
 
     @Bean
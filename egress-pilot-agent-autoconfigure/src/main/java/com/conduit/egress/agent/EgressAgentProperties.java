@@ -1,6 +1,9 @@
 package com.conduit.egress.agent;
 
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -34,7 +37,8 @@ public class EgressAgentProperties {
     private String serviceName = "sample-client";
 
     /**
-     * Backend to use for token buckets. Valid values: in-memory, redis, dragonfly.
+     * Backend to use for token buckets. Valid values: in-memory, off-heap, shared-memory,
+     * redis, dragonfly.
      */
     @NotBlank
     private String backend = "in-memory";
@@ -51,6 +55,34 @@ public class EgressAgentProperties {
     @Valid
     private PoolProperties redisPool = new PoolProperties();
 
+    /**
+     * Pipelined Redis mode used when backend=redis/dragonfly: rate limit calls share one
+     * multiplexed connection and are flushed to Redis in batches instead of borrowing a
+     * pooled connection each.
+     */
+    @Valid
+    private RedisPipelineProperties redisPipeline = new RedisPipelineProperties();
+
+    /**
+     * In-memory bucket store settings used when backend=in-memory.
+     */
+    @Valid
+    private InMemoryProperties inMemory = new InMemoryProperties();
+
+    /**
+     * Off-heap bucket table settings used when backend=off-heap. Idle sweeps use
+     * in-memory.sweep-interval-ms.
+     */
+    @Valid
+    private OffHeapProperties offHeap = new OffHeapProperties();
+
+    /**
+     * Host-wide bucket table settings used when backend=shared-memory. Idle sweeps use
+     * in-memory.sweep-interval-ms.
+     */
+    @Valid
+    private SharedMemoryProperties sharedMemory = new SharedMemoryProperties();
+
     /**
      * Interval in seconds between rule refreshes from control-plane.
      */
@@ -67,6 +99,12 @@ public class EgressAgentProperties {
      */
     private BehaviorOnExhaustion behaviorOnExhaustion = BehaviorOnExhaustion.BLOCK;
 
+    /**
+     * How the WebClient filter reports a denial: as a {@code RateLimitExceededException}
+     * error, or as a local 429 response with {@code Retry-After}.
+     */
+    private DenyResponse denyResponse = DenyResponse.EXCEPTION;
+
     /**
      * Queue configuration, used when behaviorOnExhaustion = QUEUE.
      */
@@ -79,12 +117,43 @@ public class EgressAgentProperties {
     @Valid
     private SmoothFlowProperties smooth = new SmoothFlowProperties();
 
+    /**
+     * Adaptive per-key in-flight limit applied by the WebClient filter.
+     */
+    @Valid
+    private ConcurrencyProperties concurrency = new ConcurrencyProperties();
+
+    /**
+     * Daily / monthly quotas of rules that define one.
+     */
+    @Valid
+    private QuotaProperties quota = new QuotaProperties();
+
+    /**
+     * Layers wrapped around the backend used by the WebClient filter and the annotation
+     * aspect. All are off by default.
+     */
+    @Valid
+    private LayerProperties layers = new LayerProperties();
+
     public enum BehaviorOnExhaustion {
         BLOCK,
         QUEUE,
         SMOOTH_FLOW
     }
 
+    public enum DenyResponse {
+        /**
+         * Fail the exchange with a {@code RateLimitExceededException}.
+         */
+        EXCEPTION,
+        /**
+         * Complete the exchange with a synthesized 429 response carrying
+         * {@code Retry-After} in seconds, without calling the remote service.
+         */
+        TOO_MANY_REQUESTS
+    }
+
     public static class QueueProperties {
 
         @Min(1)
@@ -135,6 +204,349 @@ public class EgressAgentProperties {
         }
     }
 
+    public static class ConcurrencyProperties {
+
+        /**
+         * Caps in-flight calls per rate limit key, in addition to the token buckets.
+         */
+        private boolean enabled = false;
+
+        @Min(1)
+        private int initialLimit = 20;
+
+        @Min(1)
+        private int minLimit = 1;
+
+        @Min(1)
+        private int maxLimit = 200;
+
+        /**
+         * Calls slower than this shrink the limit; faster ones let it grow.
+         */
+        @Min(1)
+        private long latencyThresholdMs = 1_000L;
+
+        /**
+         * Factor applied to the limit after a slow or failed call.
+         */
+        @DecimalMin(value = "0.0", inclusive = false)
+        @DecimalMax(value = "1.0", inclusive = false)
+        private double backoffRatio = 0.9d;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public long getLatencyThresholdMs() {
+            return latencyThresholdMs;
+        }
+
+        public void setLatencyThresholdMs(long latencyThresholdMs) {
+            this.latencyThresholdMs = latencyThresholdMs;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+    }
+
+    public static class RedisPipelineProperties {
+
+        /**
+         * Whether the Redis / Dragonfly backends use the pipelined connection instead of
+         * the pooled template.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Commands queued on the connection before they are flushed at once.
+         */
+        @Min(1)
+        private int maxBatchSize = 128;
+
+        /**
+         * Longest a queued command waits for the batch to fill, in microseconds; 0 flushes
+         * every command as it is queued.
+         */
+        @Min(0)
+        private long maxDelayMicros = 50L;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getMaxDelayMicros() {
+            return maxDelayMicros;
+        }
+
+        public void setMaxDelayMicros(long maxDelayMicros) {
+            this.maxDelayMicros = maxDelayMicros;
+        }
+    }
+
+    public static class InMemoryProperties {
+
+        /**
+         * Maximum number of buckets held before the least frequently used are evicted.
+         */
+        @Min(1)
+        private int maxBuckets = 100_000;
+
+        /**
+         * Interval between sweeps that drop buckets which have refilled to capacity.
+         */
+        @Min(1000)
+        private long sweepIntervalMs = 30_000L;
+
+        /**
+         * Cells to split the bucket of a token-bucket rule without dimensions across, so
+         * that its single hot key scales with cores at a small cost in precision; 0 or 1
+         * keeps a single CAS word.
+         */
+        @Min(0)
+        private int stripes = 0;
+
+        public int getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        public long getSweepIntervalMs() {
+            return sweepIntervalMs;
+        }
+
+        public void setSweepIntervalMs(long sweepIntervalMs) {
+            this.sweepIntervalMs = sweepIntervalMs;
+        }
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+    }
+
+    public static class OffHeapProperties {
+
+        /**
+         * Number of buckets the table is sized for; direct memory is reserved up front.
+         */
+        @Min(1)
+        @Max(25_165_824)
+        private int maxBuckets = 1_048_576;
+
+        /**
+         * File the table is memory-mapped from, so bucket state survives restarts; unset
+         * keeps the table in anonymous direct memory. The file must be local to the pod.
+         */
+        private String persistFile;
+
+        public int getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        public String getPersistFile() {
+            return persistFile;
+        }
+
+        public void setPersistFile(String persistFile) {
+            this.persistFile = persistFile;
+        }
+    }
+
+    public static class SharedMemoryProperties {
+
+        /**
+         * File mapped by every JVM on the host that shares the limits; all must use the
+         * same file and max-buckets.
+         */
+        @NotBlank
+        private String file = "/dev/shm/conduit-egress-buckets";
+
+        /**
+         * Number of buckets the shared table is sized for, across all processes.
+         */
+        @Min(1)
+        @Max(25_165_824)
+        private int maxBuckets = 1_048_576;
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public int getMaxBuckets() {
+            return maxBuckets;
+        }
+
+        public void setMaxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+    }
+
+    public static class QuotaProperties {
+
+        /**
+         * Units an agent takes from a quota counter at a time and then spends from memory.
+         * Larger leases mean fewer counter updates but more quota held unspent by each
+         * agent when it runs out.
+         */
+        @Min(1)
+        private long leaseSize = 100;
+
+        /**
+         * File the local backends persist quota counters to, so a restart does not reset
+         * them; counters are kept in memory only if unset. Redis backends keep counters
+         * in Redis.
+         */
+        private String file;
+
+        public long getLeaseSize() {
+            return leaseSize;
+        }
+
+        public void setLeaseSize(long leaseSize) {
+            this.leaseSize = leaseSize;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+    }
+
+    public static class LayerProperties {
+
+        /**
+         * Record conduit.egress.agent.backend.latency for every backend operation.
+         */
+        private boolean timing = false;
+
+        /**
+         * Deny acquires on buckets known to be empty locally, until their next token is
+         * due, instead of asking the backend again.
+         */
+        private boolean negativeCache = false;
+
+        /**
+         * Most keys held by the negative cache.
+         */
+        @Min(1)
+        private int negativeCacheMaxEntries = 10_000;
+
+        /**
+         * Backend that serves operations the configured one fails: none, or in-memory for
+         * per-instance limiting while a shared backend is unreachable.
+         */
+        private String fallback = "none";
+
+        /**
+         * Fail async backend operations that take longer than this (and use the fallback,
+         * if any); 0 for no budget.
+         */
+        @Min(0)
+        private long latencyBudgetMs = 0L;
+
+        public boolean isTiming() {
+            return timing;
+        }
+
+        public void setTiming(boolean timing) {
+            this.timing = timing;
+        }
+
+        public boolean isNegativeCache() {
+            return negativeCache;
+        }
+
+        public void setNegativeCache(boolean negativeCache) {
+            this.negativeCache = negativeCache;
+        }
+
+        public int getNegativeCacheMaxEntries() {
+            return negativeCacheMaxEntries;
+        }
+
+        public void setNegativeCacheMaxEntries(int negativeCacheMaxEntries) {
+            this.negativeCacheMaxEntries = negativeCacheMaxEntries;
+        }
+
+        public String getFallback() {
+            return fallback;
+        }
+
+        public void setFallback(String fallback) {
+            this.fallback = fallback;
+        }
+
+        public long getLatencyBudgetMs() {
+            return latencyBudgetMs;
+        }
+
+        public void setLatencyBudgetMs(long latencyBudgetMs) {
+            this.latencyBudgetMs = latencyBudgetMs;
+        }
+    }
+
     public static class PoolProperties {
         @Min(1)
         private int maxTotal = 8;
@@ -213,6 +625,14 @@ public class EgressAgentProperties {
         this.behaviorOnExhaustion = behaviorOnExhaustion;
     }
 
+    public DenyResponse getDenyResponse() {
+        return denyResponse;
+    }
+
+    public void setDenyResponse(DenyResponse denyResponse) {
+        this.denyResponse = denyResponse;
+    }
+
     public QueueProperties getQueue() {
         return queue;
     }
@@ -269,6 +689,54 @@ public class EgressAgentProperties {
         this.redisUri = redisUri;
     }
 
+    public ConcurrencyProperties getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(ConcurrencyProperties concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public QuotaProperties getQuota() {
+        return quota;
+    }
+
+    public void setQuota(QuotaProperties quota) {
+        this.quota = quota;
+    }
+
+    public LayerProperties getLayers() {
+        return layers;
+    }
+
+    public void setLayers(LayerProperties layers) {
+        this.layers = layers;
+    }
+
+    public InMemoryProperties getInMemory() {
+        return inMemory;
+    }
+
+    public void setInMemory(InMemoryProperties inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    public OffHeapProperties getOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(OffHeapProperties offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public SharedMemoryProperties getSharedMemory() {
+        return sharedMemory;
+    }
+
+    public void setSharedMemory(SharedMemoryProperties sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
     public PoolProperties getRedisPool() {
         return redisPool;
     }
@@ -276,4 +744,12 @@ public class EgressAgentProperties {
     public void setRedisPool(PoolProperties redisPool) {
         this.redisPool = redisPool;
     }
+
+    public RedisPipelineProperties getRedisPipeline() {
+        return redisPipeline;
+    }
+
+    public void setRedisPipeline(RedisPipelineProperties redisPipeline) {
+        this.redisPipeline = redisPipeline;
+    }
 }
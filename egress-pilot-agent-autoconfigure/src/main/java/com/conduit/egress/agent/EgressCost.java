@@ -0,0 +1,13 @@
+package com.conduit.egress.agent;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks the parameter of an {@link EgressRateLimited} method that carries the call's
+ * cost: a number, or a collection or array whose size is the number of permits to take.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface EgressCost {
+}
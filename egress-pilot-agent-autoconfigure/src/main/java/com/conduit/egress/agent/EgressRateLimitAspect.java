@@ -1,5 +1,7 @@
 package com.conduit.egress.agent;
 
+import com.conduit.egress.core.QuotaLimiter;
+import com.conduit.egress.core.QuotaPolicy;
 import com.conduit.egress.core.RateLimitBackend;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitExceededException;
@@ -13,8 +15,11 @@ import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Aspect
 public class EgressRateLimitAspect {
@@ -26,6 +31,8 @@ public class EgressRateLimitAspect {
     private final Clock clock;
     private final MeterRegistry meterRegistry;
     private final EgressAgentProperties properties;
+    private final QuotaLimiter quotaLimiter;
+    private final Map<Method, Integer> costParameters = new ConcurrentHashMap<>();
 
     public EgressRateLimitAspect(
             RuleCache ruleCache,
@@ -33,11 +40,25 @@ public class EgressRateLimitAspect {
             Clock clock,
             MeterRegistry meterRegistry,
             EgressAgentProperties properties) {
+        this(ruleCache, backend, clock, meterRegistry, properties, null);
+    }
+
+    /**
+     * Creates an aspect that also charges rule quotas to {@code quotaLimiter}, if not null.
+     */
+    public EgressRateLimitAspect(
+            RuleCache ruleCache,
+            RateLimitBackend backend,
+            Clock clock,
+            MeterRegistry meterRegistry,
+            EgressAgentProperties properties,
+            QuotaLimiter quotaLimiter) {
         this.ruleCache = ruleCache;
         this.backend = backend;
         this.clock = clock;
         this.meterRegistry = meterRegistry;
         this.properties = properties;
+        this.quotaLimiter = quotaLimiter;
     }
 
     @Around("@annotation(com.conduit.egress.agent.EgressRateLimited)")
@@ -61,9 +82,11 @@ public class EgressRateLimitAspect {
                 .pkg(method.getDeclaringClass().getPackageName())
                 .build();
 
+        long permits = rule.getCost().permits(costArgument(method, pjp.getArgs()), config);
+
         boolean allowed;
         try {
-            allowed = backend.tryAcquire(key, 1, config, clock);
+            allowed = backend.tryAcquire(key, permits, config, clock);
         } catch (Exception ex) {
             meterRegistry.counter("conduit.egress.agent.backend_error", "rule", config.getName()).increment();
             log.error("Backend failure in annotation rate limiter for rule {}", config.getName(), ex);
@@ -75,11 +98,19 @@ public class EgressRateLimitAspect {
 
         if (!allowed) {
             meterRegistry.counter("conduit.egress.agent.denied", "rule", config.getName()).increment();
-            long retryAfterMillis = config.getRefillPeriod().toMillis();
-            log.warn("Rate limit exceeded for annotation rule {}", config.getName());
+            long retryAfterMillis = Math.max(1L, config.getRefillPeriod().toMillis());
+            log.debug("Rate limit exceeded for annotation rule {}", config.getName());
             throw new RateLimitExceededException(key, "Rate limit exceeded", retryAfterMillis);
         }
 
+        QuotaPolicy quota = rule.getQuota();
+        if (quota != null && quotaLimiter != null && !tryChargeQuota(key, permits, quota)) {
+            meterRegistry.counter("conduit.egress.agent.quota.exhausted", "rule", config.getName()).increment();
+            meterRegistry.counter("conduit.egress.agent.denied", "rule", config.getName()).increment();
+            log.debug("Quota {} exhausted for annotation rule {}", quota, config.getName());
+            throw new RateLimitExceededException(key, "Quota exhausted", quotaLimiter.millisToReset(quota, clock));
+        }
+
         Timer.Sample sample = Timer.start(meterRegistry);
         try {
             Object result = pjp.proceed();
@@ -90,4 +121,35 @@ public class EgressRateLimitAspect {
             throw t;
         }
     }
+
+    private boolean tryChargeQuota(RateLimitKey key, long permits, QuotaPolicy quota) {
+        try {
+            return quotaLimiter.tryAcquire(key, permits, quota, clock);
+        } catch (RuntimeException ex) {
+            meterRegistry.counter("conduit.egress.agent.backend_error", "rule", key.getName()).increment();
+            log.error("Quota store failure in annotation rate limiter for rule {}", key.getName(), ex);
+            if (properties.isFailOpen()) {
+                return true;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Value of the method's {@link EgressCost} parameter, or null if it has none.
+     */
+    private Object costArgument(Method method, Object[] args) {
+        int index = costParameters.computeIfAbsent(method, m -> {
+            Annotation[][] annotations = m.getParameterAnnotations();
+            for (int i = 0; i < annotations.length; i++) {
+                for (Annotation annotation : annotations[i]) {
+                    if (annotation instanceof EgressCost) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        });
+        return index < 0 || index >= args.length ? null : args[index];
+    }
 }
@@ -0,0 +1,55 @@
+package com.conduit.egress.agent;
+
+import com.conduit.egress.core.FallbackLayer;
+import com.conduit.egress.core.LocalBucketBackend;
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitBackendChain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Periodically drops local (in-memory or off-heap) buckets that have refilled to capacity,
+ * in the backend and in the local fallback of any {@link FallbackLayer}. No-op for other
+ * backends.
+ */
+public class InMemoryBucketSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryBucketSweeper.class);
+
+    private final List<LocalBucketBackend> locals = new ArrayList<>();
+    private final Clock clock;
+
+    public InMemoryBucketSweeper(RateLimitBackend backend, Clock clock) {
+        this(backend, RateLimitBackendChain.empty(), clock);
+    }
+
+    public InMemoryBucketSweeper(RateLimitBackend backend, RateLimitBackendChain chain, Clock clock) {
+        if (backend instanceof LocalBucketBackend local) {
+            locals.add(local);
+        }
+        chain.getLayers().forEach(layer -> {
+            if (layer instanceof FallbackLayer fallback && fallback.getFallback() instanceof LocalBucketBackend local) {
+                locals.add(local);
+            }
+        });
+        this.clock = clock;
+    }
+
+    @Scheduled(
+            initialDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}",
+            fixedDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}"
+    )
+    public void sweep() {
+        for (LocalBucketBackend local : locals) {
+            int dropped = local.sweepIdleBuckets(clock);
+            if (dropped > 0) {
+                log.debug("Dropped {} idle local buckets, {} remaining", dropped, local.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.conduit.egress.agent;
+
+import com.conduit.egress.agent.dto.ControlPlaneRuleDTO;
+import com.conduit.egress.core.RateLimitConfig;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+
+/**
+ * Number of permits a call costs under a rule: read from a request header, else from a
+ * request attribute set by the caller, else the rule's constant cost (1 by default).
+ * <p>
+ * A value may be a number, a numeric string, a collection or an array (its size, for
+ * batch calls priced per item). Missing or unparsable values, and any below 1, fall back
+ * to the constant. Costs above the rule's capacity are capped at it, since such a call could
+ * otherwise never be admitted.
+ * <p>
+ * A rule may also name a response header carrying the call's actual cost, for upstreams
+ * that meter usage only once they have served the call. The cost acquired up front is
+ * then an estimate, {@linkplain #settledPermits settled} against the response.
+ */
+public final class PermitCost {
+
+    public static final PermitCost ONE = new PermitCost(1L, null, null, null);
+
+    private final long constant;
+    private final String header;
+    private final String attribute;
+    private final String responseHeader;
+
+    private PermitCost(long constant, String header, String attribute, String responseHeader) {
+        this.constant = constant;
+        this.header = header;
+        this.attribute = attribute;
+        this.responseHeader = responseHeader;
+    }
+
+    public static PermitCost of(long constant, String header, String attribute) {
+        return of(constant, header, attribute, null);
+    }
+
+    public static PermitCost of(long constant, String header, String attribute, String responseHeader) {
+        if (constant < 0) {
+            throw new IllegalArgumentException("cost must be >= 0");
+        }
+        if (constant == 1L && isBlank(header) && isBlank(attribute) && isBlank(responseHeader)) {
+            return ONE;
+        }
+        return new PermitCost(constant, isBlank(header) ? null : header, isBlank(attribute) ? null : attribute,
+                isBlank(responseHeader) ? null : responseHeader);
+    }
+
+    static PermitCost from(ControlPlaneRuleDTO dto) {
+        return of(dto.getCost() == null ? 1L : dto.getCost(), dto.getCostHeader(), dto.getCostAttribute(),
+                dto.getCostResponseHeader());
+    }
+
+    /**
+     * Permits {@code request} costs under a rule with {@code config}.
+     */
+    public long permits(ClientRequest request, RateLimitConfig config) {
+        long cost = -1L;
+        if (header != null) {
+            cost = parse(request.headers().getFirst(header));
+        }
+        if (cost < 0 && attribute != null) {
+            cost = parse(request.attribute(attribute).orElse(null));
+        }
+        return cap(cost < 0 ? constant : cost, config);
+    }
+
+    /**
+     * Permits a method call costs: {@code value} when it is usable, the constant otherwise.
+     */
+    public long permits(Object value, RateLimitConfig config) {
+        long cost = parse(value);
+        return cap(cost < 0 ? constant : cost, config);
+    }
+
+    /**
+     * Actual cost reported by {@code response}, or -1 if the rule reads none or the
+     * response does not carry a usable one, in which case the estimate stands. Unlike the
+     * estimate it is not capped: the call has already been made.
+     */
+    public long settledPermits(ClientResponse response) {
+        if (responseHeader == null) {
+            return -1L;
+        }
+        return parse(response.headers().asHttpHeaders().getFirst(responseHeader));
+    }
+
+    public long getConstant() {
+        return constant;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public String getResponseHeader() {
+        return responseHeader;
+    }
+
+    private static long cap(long cost, RateLimitConfig config) {
+        return Math.min(cost, config.getCapacity());
+    }
+
+    /**
+     * Cost carried by {@code value}, or -1 if it carries none usable: a call that costs
+     * nothing is priced by the rule, not by the caller.
+     */
+    private static long parse(Object value) {
+        long cost = count(value);
+        return cost >= 1 ? cost : -1L;
+    }
+
+    private static long count(Object value) {
+        if (value == null) {
+            return -1L;
+        }
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (value.getClass().isArray()) {
+            return Array.getLength(value);
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            return -1L;
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
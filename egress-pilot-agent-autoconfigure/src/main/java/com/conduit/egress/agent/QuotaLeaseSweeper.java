@@ -0,0 +1,36 @@
+package com.conduit.egress.agent;
+
+import com.conduit.egress.core.QuotaLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Clock;
+
+/**
+ * Periodically drops quota leases of windows that have ended. Shares the in-memory
+ * bucket sweep interval.
+ */
+public class QuotaLeaseSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(QuotaLeaseSweeper.class);
+
+    private final QuotaLimiter limiter;
+    private final Clock clock;
+
+    public QuotaLeaseSweeper(QuotaLimiter limiter, Clock clock) {
+        this.limiter = limiter;
+        this.clock = clock;
+    }
+
+    @Scheduled(
+            initialDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}",
+            fixedDelayString = "${conduit.egress.agent.in-memory.sweep-interval-ms:30000}"
+    )
+    public void sweep() {
+        int dropped = limiter.sweepExpired(clock);
+        if (dropped > 0) {
+            log.debug("Dropped {} expired quota leases, {} remaining", dropped, limiter.size());
+        }
+    }
+}
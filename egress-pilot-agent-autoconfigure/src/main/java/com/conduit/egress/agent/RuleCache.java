@@ -1,6 +1,10 @@
 package com.conduit.egress.agent;
 
+import com.conduit.egress.agent.dto.ControlPlaneBandDTO;
 import com.conduit.egress.agent.dto.ControlPlaneRuleDTO;
+import com.conduit.egress.core.QuotaPeriod;
+import com.conduit.egress.core.QuotaPolicy;
+import com.conduit.egress.core.RateLimitAlgorithm;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitDimension;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -11,6 +15,8 @@ import org.springframework.scheduling.annotation.Scheduled;
 import reactor.core.publisher.Flux;
 
 import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -28,10 +34,14 @@ public class RuleCache {
     public static final class CachedRule {
         private final ControlPlaneRuleDTO dto;
         private final RateLimitConfig config;
+        private final PermitCost cost;
+        private final QuotaPolicy quota;
 
         CachedRule(ControlPlaneRuleDTO dto, RateLimitConfig config) {
             this.dto = dto;
             this.config = config;
+            this.cost = PermitCost.from(dto);
+            this.quota = quota(dto);
         }
 
         public ControlPlaneRuleDTO getDto() {
@@ -41,6 +51,27 @@ public class RuleCache {
         public RateLimitConfig getConfig() {
             return config;
         }
+
+        public PermitCost getCost() {
+            return cost;
+        }
+
+        /**
+         * Daily or monthly quota of the rule, or null if it has none.
+         */
+        public QuotaPolicy getQuota() {
+            return quota;
+        }
+
+        private static QuotaPolicy quota(ControlPlaneRuleDTO dto) {
+            if (dto.getQuotaLimit() == null || dto.getQuotaPeriod() == null) {
+                return null;
+            }
+            ZoneId zone = dto.getQuotaZone() == null || dto.getQuotaZone().isBlank()
+                    ? ZoneOffset.UTC
+                    : ZoneId.of(dto.getQuotaZone());
+            return new QuotaPolicy(dto.getQuotaLimit(), QuotaPeriod.valueOf(dto.getQuotaPeriod()), zone);
+        }
     }
 
     private final ControlPlaneClient client;
@@ -80,13 +111,26 @@ public class RuleCache {
                 } else {
                     dims = EnumSet.of(RateLimitDimension.HOST, RateLimitDimension.PATH);
                 }
-                RateLimitConfig config = new RateLimitConfig(
-                        dto.getName(),
-                        dto.getCapacity(),
-                        dto.getRefillTokens(),
-                        dto.getRefillPeriod(),
-                        dims
-                );
+                RateLimitAlgorithm algorithm = dto.getAlgorithm() == null
+                        ? RateLimitAlgorithm.TOKEN_BUCKET
+                        : RateLimitAlgorithm.valueOf(dto.getAlgorithm());
+                Duration warmUp = dto.getWarmUpSeconds() == null ? null : Duration.ofSeconds(dto.getWarmUpSeconds());
+                RateLimitConfig config = dto.getRatePerSecond() != null
+                        ? RateLimitConfig.ofRate(dto.getName(), dto.getRatePerSecond(), dto.getCapacity(),
+                                dims, algorithm, warmUp)
+                        : new RateLimitConfig(
+                                dto.getName(),
+                                dto.getCapacity(),
+                                dto.getRefillTokens(),
+                                dto.getRefillPeriod(),
+                                dims,
+                                algorithm,
+                                warmUp);
+                if (dto.getBands() != null) {
+                    for (ControlPlaneBandDTO band : dto.getBands()) {
+                        config = config.withBand(band.getCapacity(), band.getRefillTokens(), band.getRefillPeriod());
+                    }
+                }
                 next.add(new CachedRule(dto, config));
             }
             currentRules.set(Collections.unmodifiableList(next));
@@ -1,50 +1,114 @@
 package com.conduit.egress.agent;
 
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.AdaptiveConcurrencyLimiter;
+import com.conduit.egress.core.AsyncRateLimitBackend;
+import com.conduit.egress.core.MultiAcquireResult;
 import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.QuotaLimiter;
+import com.conduit.egress.core.QuotaPolicy;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitDimension;
 import com.conduit.egress.core.RateLimitExceededException;
 import com.conduit.egress.core.RateLimitKey;
-import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
+import com.conduit.egress.core.Ticker;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.util.AntPathMatcher;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.ExchangeFunction;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
 
 import java.net.URI;
 import java.time.Clock;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.EnumSet;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WebClientRateLimiterFilter implements ExchangeFilterFunction {
 
     private static final Logger log = LoggerFactory.getLogger(WebClientRateLimiterFilter.class);
+    private static final AcquireResult FAIL_OPEN =
+            new AcquireResult(true, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN);
+    private static final String BLOCK_EXCEEDED = "Rate limit exceeded (BLOCK mode)";
+    private static final String SMOOTH_FLOW_EXCEEDED = "Rate limit exceeded (SMOOTH_FLOW mode)";
+    private static final String QUEUE_EXPIRED = "Queued request expired while waiting for capacity";
 
     private final RuleCache ruleCache;
-    private final RateLimitBackend backend;
+    private final AsyncRateLimitBackend backend;
     private final Clock clock;
     private final MeterRegistry meterRegistry;
     private final EgressAgentProperties properties;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final QuotaLimiter quotaLimiter;
     private final AntPathMatcher pathMatcher = new AntPathMatcher();
 
+    /**
+     * Creates a filter over a blocking backend. Unless the backend is already
+     * asynchronous, its calls run on Reactor's bounded elastic scheduler so that they
+     * never block the event loop.
+     */
     public WebClientRateLimiterFilter(RuleCache ruleCache,
                                       RateLimitBackend backend,
                                       Clock clock,
                                       MeterRegistry meterRegistry,
                                       EgressAgentProperties properties) {
+        this(ruleCache, AsyncRateLimitBackend.adapt(backend, Schedulers.boundedElastic()::schedule),
+                clock, meterRegistry, properties);
+    }
+
+    public WebClientRateLimiterFilter(RuleCache ruleCache,
+                                      AsyncRateLimitBackend backend,
+                                      Clock clock,
+                                      MeterRegistry meterRegistry,
+                                      EgressAgentProperties properties) {
+        this(ruleCache, backend, clock, meterRegistry, properties, null);
+    }
+
+    /**
+     * Creates a filter that also caps in-flight calls per key with
+     * {@code concurrencyLimiter}, if not null, once the rate limit has admitted them.
+     */
+    public WebClientRateLimiterFilter(RuleCache ruleCache,
+                                      AsyncRateLimitBackend backend,
+                                      Clock clock,
+                                      MeterRegistry meterRegistry,
+                                      EgressAgentProperties properties,
+                                      AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(ruleCache, backend, clock, meterRegistry, properties, concurrencyLimiter, null);
+    }
+
+    /**
+     * Creates a filter that also charges the daily / monthly quota of rules that define
+     * one to {@code quotaLimiter}, if not null, once the rate limit has admitted a call.
+     */
+    public WebClientRateLimiterFilter(RuleCache ruleCache,
+                                      AsyncRateLimitBackend backend,
+                                      Clock clock,
+                                      MeterRegistry meterRegistry,
+                                      EgressAgentProperties properties,
+                                      AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                      QuotaLimiter quotaLimiter) {
         this.ruleCache = ruleCache;
         this.backend = backend;
         this.clock = clock;
         this.meterRegistry = meterRegistry;
         this.properties = properties;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.quotaLimiter = quotaLimiter;
     }
 
     @Override
@@ -54,164 +118,555 @@ public class WebClientRateLimiterFilter implements ExchangeFilterFunction {
         String host = uri.getHost();
         String path = uri.getPath();
 
-        RuleCache.CachedRule matched = findMatchingRule(host, path, method);
-        if (matched == null) {
+        List<RuleCache.CachedRule> rules = findMatchingRules(host, path, method);
+        if (rules.isEmpty()) {
             return next.exchange(request);
         }
+        if (rules.size() > 1) {
+            List<AcquireRequest> requests = new ArrayList<>(rules.size());
+            Charges charges = null;
+            for (RuleCache.CachedRule rule : rules) {
+                RateLimitConfig config = rule.getConfig();
+                RateLimitKey key = buildKey(rule, host, path, method, request);
+                long permits = rule.getCost().permits(request, config);
+                requests.add(new AcquireRequest(key, permits, config));
+                charges = Charges.add(charges, rule, key, permits);
+            }
+            return applyAllRulesBehavior(withoutCostHeaders(request, rules), next, requests, charges,
+                    queueDeadlineNanos(), 0);
+        }
 
+        RuleCache.CachedRule matched = rules.get(0);
         RateLimitConfig cfg = matched.getConfig();
         RateLimitKey key = buildKey(matched, host, path, method, request);
+        long permits = matched.getCost().permits(request, cfg);
+        Charges charges = Charges.add(null, matched, key, permits);
+        ClientRequest upstream = withoutCostHeaders(request, rules);
 
         EgressAgentProperties.BehaviorOnExhaustion behavior = properties.getBehaviorOnExhaustion();
         switch (behavior) {
             case QUEUE:
-                return applyQueueBehavior(request, next, cfg, key, 0);
+                return applyQueueBehavior(upstream, next, cfg, key, permits, charges, queueDeadlineNanos(), 0);
             case SMOOTH_FLOW:
-                return applySmoothFlowBehavior(request, next, cfg, key);
+                return applySmoothFlowBehavior(upstream, next, cfg, key, permits, charges);
             case BLOCK:
             default:
-                return applyBlockBehavior(request, next, cfg, key);
+                return applyBlockBehavior(upstream, next, cfg, key, permits, charges);
+        }
+    }
+
+    /**
+     * Copy of {@code request} without the headers the matched rules read its cost from,
+     * which are meant for this filter rather than the upstream; {@code request} itself if
+     * it carries none.
+     */
+    private static ClientRequest withoutCostHeaders(ClientRequest request, List<RuleCache.CachedRule> rules) {
+        List<String> present = null;
+        for (RuleCache.CachedRule rule : rules) {
+            String header = rule.getCost().getHeader();
+            if (header != null && request.headers().containsKey(header)) {
+                if (present == null) {
+                    present = new ArrayList<>(rules.size());
+                }
+                present.add(header);
+            }
+        }
+        if (present == null) {
+            return request;
         }
+        List<String> stripped = present;
+        return ClientRequest.from(request).headers(headers -> stripped.forEach(headers::remove)).build();
     }
 
     private Mono<ClientResponse> applyBlockBehavior(ClientRequest request,
                                                     ExchangeFunction next,
                                                     RateLimitConfig cfg,
-                                                    RateLimitKey key) {
-        boolean allowed = tryAcquireOrFailOpen(key, 1, cfg);
-        if (!allowed) {
-            long retryAfter = estimateRetryAfterMillis(key, cfg);
-            meterRegistry.counter("conduit.egress.agent.denied").increment();
-            log.debug("Rate limit exhausted for key={}, behavior=BLOCK, retryAfterMs={}", key, retryAfter);
-            return Mono.error(new RateLimitExceededException(
-                    key,
-                    "Rate limit exceeded (BLOCK mode)",
-                    retryAfter
-            ));
-        }
+                                                    RateLimitKey key,
+                                                    long permits,
+                                                    Charges charges) {
+        return tryAcquireOrFailOpen(key, permits, cfg).flatMap(result -> {
+            if (!result.isAllowed()) {
+                long retryAfter = retryAfterMillis(result);
+                meterRegistry.counter("conduit.egress.agent.denied").increment();
+                log.debug("Rate limit exhausted for key={}, behavior=BLOCK, retryAfterMs={}", key, retryAfter);
+                return deny(request, key, BLOCK_EXCEEDED, retryAfter);
+            }
 
-        meterRegistry.counter("conduit.egress.agent.allowed").increment();
-        return next.exchange(request);
+            meterRegistry.counter("conduit.egress.agent.allowed").increment();
+            return exchange(request, next, key, charges);
+        });
     }
 
+    /**
+     * Reserves a permit within the queue's max wait and sleeps once until it is due.
+     * Backends that cannot hold future capacity deny with a retry hint instead; the
+     * request then sleeps for that hint and reserves again until the deadline passes.
+     */
     private Mono<ClientResponse> applyQueueBehavior(ClientRequest request,
                                                     ExchangeFunction next,
                                                     RateLimitConfig cfg,
                                                     RateLimitKey key,
+                                                    long permits,
+                                                    Charges charges,
+                                                    long deadlineNanos,
                                                     int attempt) {
-        long backoffMs = properties.getQueue().getBackoffMs();
-        long maxWaitMs = properties.getQueue().getMaxWaitMs();
-        long maxAttempts = Math.max(1, maxWaitMs / Math.max(1, backoffMs)) + 1;
-        Instant enqueueTime = clock.instant();
+        long backoffMs = Math.max(1L, properties.getQueue().getBackoffMs());
+        long maxAttempts = Math.max(1, properties.getQueue().getMaxWaitMs() / backoffMs) + 1;
 
         return Mono.defer(() -> {
-            long waited = Duration.between(enqueueTime, clock.instant()).toMillis();
-            if (waited > maxWaitMs || attempt >= maxAttempts) {
-                meterRegistry.counter("conduit.egress.agent.queue.dropped").increment();
-                meterRegistry.counter("conduit.egress.agent.denied").increment();
-                return Mono.error(new RateLimitExceededException(
-                        key,
-                        "Queued request expired while waiting for capacity",
-                        estimateRetryAfterMillis(key, cfg)
-                ));
-            }
-
-            boolean allowed = tryAcquireOrFailOpen(key, 1, cfg);
-            if (allowed) {
-                meterRegistry.counter("conduit.egress.agent.allowed").increment();
-                return next.exchange(request);
-            }
-
-            long retryAfter = estimateRetryAfterMillis(key, cfg);
-            long delay = Math.max(backoffMs, retryAfter);
+            Duration budget = Duration.ofNanos(deadlineNanos - Ticker.nanos(clock));
+            Duration maxWait = budget.isNegative() ? Duration.ZERO : budget;
 
-            log.debug("Rate limit exhausted for key={}, behavior=QUEUE, delayMs={} (retryAfterMs={})",
-                    key, delay, retryAfter);
+            return reserveOrFailOpen(key, permits, cfg, maxWait).flatMap(reservation -> {
+                long waitMs = reservation.getWaitNanos() == AcquireResult.UNKNOWN
+                        ? 1_000L
+                        : (reservation.getWaitNanos() + 999_999L) / 1_000_000L;
 
-            meterRegistry.counter("conduit.egress.agent.queued").increment();
-            return Mono.delay(Duration.ofMillis(delay))
-                    .then(applyQueueBehavior(request, next, cfg, key, attempt + 1));
+                if (reservation.isGranted()) {
+                    meterRegistry.counter("conduit.egress.agent.allowed").increment();
+                    if (reservation.getWaitNanos() == 0L) {
+                        return exchange(request, next, key, charges);
+                    }
+                    log.debug("Rate limit exhausted for key={}, behavior=QUEUE, reserved permit in {}ms", key, waitMs);
+                    meterRegistry.counter("conduit.egress.agent.queued").increment();
+                    return Mono.delay(Duration.ofNanos(reservation.getWaitNanos()))
+                            .then(Mono.defer(() -> exchange(request, next, key, charges)));
+                }
+
+                if (maxWait.isZero() || waitMs > maxWait.toMillis() || attempt + 1 >= maxAttempts) {
+                    meterRegistry.counter("conduit.egress.agent.queue.dropped").increment();
+                    meterRegistry.counter("conduit.egress.agent.denied").increment();
+                    return deny(request, key, QUEUE_EXPIRED, waitMs);
+                }
+
+                long delay = Math.max(backoffMs, waitMs);
+                log.debug("Rate limit exhausted for key={}, behavior=QUEUE, delayMs={} (retryAfterMs={})",
+                        key, delay, waitMs);
+                meterRegistry.counter("conduit.egress.agent.queued").increment();
+                return Mono.delay(Duration.ofMillis(delay))
+                        .then(applyQueueBehavior(request, next, cfg, key, permits, charges, deadlineNanos, attempt + 1));
+            });
         });
     }
 
     private Mono<ClientResponse> applySmoothFlowBehavior(ClientRequest request,
                                                          ExchangeFunction next,
                                                          RateLimitConfig cfg,
-                                                         RateLimitKey key) {
+                                                         RateLimitKey key,
+                                                         long permits,
+                                                         Charges charges) {
         long intervalMs = properties.getSmooth().getIntervalMs();
 
         log.trace("Applying smooth-flow delay {}ms for key={}", intervalMs, key);
 
         return Mono.delay(Duration.ofMillis(intervalMs))
-                .flatMap(t -> {
-                    boolean allowed = tryAcquireOrFailOpen(key, 1, cfg);
-                    if (!allowed) {
-                        long retryAfter = estimateRetryAfterMillis(key, cfg);
+                .then(tryAcquireOrFailOpen(key, permits, cfg))
+                .flatMap(result -> {
+                    if (!result.isAllowed()) {
+                        long retryAfter = retryAfterMillis(result);
                         meterRegistry.counter("conduit.egress.agent.denied").increment();
                         log.debug("Rate limit exhausted for key={}, behavior=SMOOTH_FLOW, retryAfterMs={}",
                                 key, retryAfter);
-                        return Mono.error(new RateLimitExceededException(
-                                key,
-                                "Rate limit exceeded (SMOOTH_FLOW mode)",
-                                retryAfter
-                        ));
+                        return deny(request, key, SMOOTH_FLOW_EXCEEDED, retryAfter);
                     }
                     meterRegistry.counter("conduit.egress.agent.allowed").increment();
-                    return next.exchange(request);
+                    return exchange(request, next, key, charges);
+                });
+    }
+
+    /**
+     * Takes one permit from every matching rule's bucket, or from none. A denial names
+     * the binding bucket's key and takes retry-after from it; {@code QUEUE} retries after
+     * that hint until its deadline, since several buckets cannot be reserved together.
+     */
+    private Mono<ClientResponse> applyAllRulesBehavior(ClientRequest request,
+                                                       ExchangeFunction next,
+                                                       List<AcquireRequest> requests,
+                                                       Charges charges,
+                                                       long deadlineNanos,
+                                                       int attempt) {
+        EgressAgentProperties.BehaviorOnExhaustion behavior = properties.getBehaviorOnExhaustion();
+        Mono<MultiAcquireResult> acquire = tryAcquireAllOrFailOpen(requests);
+        if (behavior == EgressAgentProperties.BehaviorOnExhaustion.SMOOTH_FLOW) {
+            acquire = Mono.delay(Duration.ofMillis(properties.getSmooth().getIntervalMs())).then(acquire);
+        }
+        return acquire.flatMap(result -> {
+            if (result.isAllowed()) {
+                meterRegistry.counter("conduit.egress.agent.allowed").increment();
+                return exchange(request, next, requests.get(0).getKey(), charges);
+            }
+            RateLimitKey binding = requests.get(result.getBindingIndex()).getKey();
+            long retryAfter = retryAfterMillis(result.getBindingResult());
+
+            if (behavior == EgressAgentProperties.BehaviorOnExhaustion.QUEUE) {
+                long backoffMs = Math.max(1L, properties.getQueue().getBackoffMs());
+                long maxAttempts = Math.max(1, properties.getQueue().getMaxWaitMs() / backoffMs) + 1;
+                long budgetMs = Duration.ofNanos(deadlineNanos - Ticker.nanos(clock)).toMillis();
+                if (budgetMs > 0 && retryAfter <= budgetMs && attempt + 1 < maxAttempts) {
+                    long delay = Math.max(backoffMs, retryAfter);
+                    log.debug("Rate limit exhausted for key={}, behavior=QUEUE, delayMs={} (binding rule {})",
+                            binding, delay, binding.getName());
+                    meterRegistry.counter("conduit.egress.agent.queued").increment();
+                    return Mono.delay(Duration.ofMillis(delay))
+                            .then(applyAllRulesBehavior(request, next, requests, charges, deadlineNanos, attempt + 1));
+                }
+                meterRegistry.counter("conduit.egress.agent.queue.dropped").increment();
+                meterRegistry.counter("conduit.egress.agent.denied").increment();
+                return deny(request, binding, QUEUE_EXPIRED, retryAfter);
+            }
+
+            meterRegistry.counter("conduit.egress.agent.denied").increment();
+            log.debug("Rate limit exhausted for key={}, behavior={}, retryAfterMs={} (binding rule {})",
+                    binding, behavior, retryAfter, binding.getName());
+            return deny(request, binding, behavior == EgressAgentProperties.BehaviorOnExhaustion.SMOOTH_FLOW
+                    ? SMOOTH_FLOW_EXCEEDED
+                    : BLOCK_EXCEEDED, retryAfter);
+        });
+    }
+
+    /**
+     * Reports a denial the way {@code deny-response} asks: a stackless
+     * {@link RateLimitExceededException}, or a 429 built locally with {@code Retry-After}
+     * rounded up to whole seconds, which WebClient retry and backoff filters treat like
+     * one from the remote service.
+     */
+    private Mono<ClientResponse> deny(ClientRequest request, RateLimitKey key, String message, long retryAfterMillis) {
+        if (properties.getDenyResponse() == EgressAgentProperties.DenyResponse.TOO_MANY_REQUESTS) {
+            long seconds = Math.max(0L, (retryAfterMillis + 999L) / 1_000L);
+            return Mono.just(ClientResponse.create(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                    .request(asHttpRequest(request))
+                    .build());
+        }
+        return Mono.error(new RateLimitExceededException(key, message, retryAfterMillis));
+    }
+
+    /**
+     * The request a synthesized response reports, so that the
+     * {@code WebClientResponseException} raised from it names the call's method and URI.
+     */
+    private static HttpRequest asHttpRequest(ClientRequest request) {
+        return new HttpRequest() {
+            @Override
+            public HttpMethod getMethod() {
+                return request.method();
+            }
+
+            @Override
+            public URI getURI() {
+                return request.url();
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return request.headers();
+            }
+        };
+    }
+
+    /**
+     * Runs an admitted call with whatever it still owes: its quota charges first, then
+     * the exchange, then the settlement of costs read from the response.
+     */
+    private Mono<ClientResponse> exchange(ClientRequest request,
+                                          ExchangeFunction next,
+                                          RateLimitKey key,
+                                          Charges charges) {
+        if (charges == null) {
+            return exchange(request, next, key);
+        }
+        Mono<ClientResponse> exchanged = charges.quotas == null || quotaLimiter == null
+                ? exchange(request, next, key)
+                : exchangeWithinQuotas(request, next, key, charges.quotas);
+        if (charges.settlements == null) {
+            return exchanged;
+        }
+        return exchanged.doOnNext(response -> settle(charges.settlements, response));
+    }
+
+    /**
+     * Charges the matching rules' quotas, then runs the exchange. Quotas are charged only
+     * once the rate limit has admitted the call, so a throttled call does not spend them.
+     * Leases in memory usually cover the charge; otherwise the quota store is called on
+     * the bounded elastic scheduler. A spent quota denies the call until its window
+     * resets.
+     */
+    private Mono<ClientResponse> exchangeWithinQuotas(ClientRequest request,
+                                                      ExchangeFunction next,
+                                                      RateLimitKey key,
+                                                      List<QuotaCharge> quotas) {
+        if (chargeQuotas(quotas, false) < 0) {
+            return exchange(request, next, key);
+        }
+        return Mono.fromCallable(() -> chargeQuotas(quotas, true))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(ex -> {
+                    meterRegistry.counter("conduit.egress.agent.backend.error").increment();
+                    if (properties.isFailOpen()) {
+                        log.warn("Quota store failure for key={}, fail-open=true, allowing request", key, ex);
+                        return Mono.just(-1);
+                    }
+                    log.warn("Quota store failure for key={}, fail-open=false, rejecting request", key, ex);
+                    return Mono.error(ex);
+                })
+                .flatMap(exhausted -> {
+                    if (exhausted < 0) {
+                        return exchange(request, next, key);
+                    }
+                    QuotaCharge spent = quotas.get(exhausted);
+                    long retryAfter = quotaLimiter.millisToReset(spent.policy, clock);
+                    meterRegistry.counter("conduit.egress.agent.quota.exhausted").increment();
+                    meterRegistry.counter("conduit.egress.agent.denied").increment();
+                    log.debug("Quota {} exhausted for key={}, retryAfterMs={}", spent.policy, spent.key, retryAfter);
+                    return deny(request, spent.key, "Quota exhausted", retryAfter);
                 });
     }
 
-    private boolean tryAcquireOrFailOpen(RateLimitKey key, long permits, RateLimitConfig cfg) {
+    /**
+     * Takes every quota charge, or none: returns -1 once all are taken, else the index of
+     * the first that could not be and gives back those taken before it. Without
+     * {@code useStore} only leases held in memory are used.
+     */
+    private int chargeQuotas(List<QuotaCharge> quotas, boolean useStore) {
+        int taken = 0;
         try {
-            return backend.tryAcquire(key, permits, cfg, clock);
-        } catch (Exception ex) {
-            meterRegistry.counter("conduit.egress.agent.backend.error").increment();
-            if (properties.isFailOpen()) {
-                log.warn("Backend failure while acquiring rate limit for key={}, fail-open=true, allowing request", key, ex);
-                return true;
+            for (; taken < quotas.size(); taken++) {
+                QuotaCharge charge = quotas.get(taken);
+                boolean charged = useStore
+                        ? quotaLimiter.tryAcquire(charge.key, charge.permits, charge.policy, clock)
+                        : quotaLimiter.tryAcquireCached(charge.key, charge.permits, charge.policy, clock);
+                if (!charged) {
+                    refundQuotas(quotas, taken);
+                    return taken;
+                }
             }
-            log.warn("Backend failure while acquiring rate limit for key={}, fail-open=false, rejecting request", key, ex);
+            return -1;
+        } catch (RuntimeException ex) {
+            refundQuotas(quotas, taken);
             throw ex;
         }
     }
 
-    private long estimateRetryAfterMillis(RateLimitKey key, RateLimitConfig cfg) {
-        try {
-            RateLimitSnapshot snapshot = backend.getSnapshot(key, cfg, clock);
-            long remaining = snapshot.getRemainingTokens();
-            if (remaining > 0) {
-                return 0L;
+    /**
+     * Debits or refunds the difference between the permits acquired up front and the
+     * cost the response reports, for rules that read one. Settlement runs in the
+     * background and never fails the call; responses without a usable cost keep the
+     * estimate.
+     */
+    private void settle(List<Settlement> settlements, ClientResponse response) {
+        for (Settlement settlement : settlements) {
+            long actual = settlement.cost.settledPermits(response);
+            long delta = actual - settlement.permits;
+            if (actual < 0 || delta == 0) {
+                continue;
             }
-            long capacity = cfg.getCapacity();
-            long refillTokens = cfg.getRefillTokens();
-            long periodMs = cfg.getRefillPeriod().toMillis();
-            if (refillTokens <= 0 || periodMs <= 0 || capacity <= 0) {
-                return periodMs;
+            CompletionStage<Void> adjustment;
+            if (delta > 0) {
+                meterRegistry.counter("conduit.egress.agent.cost.debited").increment(delta);
+                adjustment = backend.debitAsync(settlement.key, delta, settlement.config, clock);
+            } else {
+                meterRegistry.counter("conduit.egress.agent.cost.refunded").increment(-delta);
+                adjustment = backend.refundAsync(settlement.key, -delta, settlement.config, clock);
             }
+            adjustment.whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    meterRegistry.counter("conduit.egress.agent.backend.error").increment();
+                    log.warn("Backend failure while settling cost for key={}, delta={}", settlement.key, delta, ex);
+                }
+            });
+        }
+    }
 
-            long nowMs = clock.instant().toEpochMilli();
-            long lastRefillMs = snapshot.getLastRefillEpochMillis();
-            long elapsed = Math.max(0L, nowMs - lastRefillMs);
-
-            double tokensPerMs = (double) refillTokens / (double) periodMs;
-            long regained = (long) (elapsed * tokensPerMs);
+    private void refundQuotas(List<QuotaCharge> quotas, int count) {
+        for (int i = 0; i < count; i++) {
+            QuotaCharge charge = quotas.get(i);
+            quotaLimiter.refund(charge.key, charge.permits, charge.policy, clock);
+        }
+    }
 
-            long deficit = 1L - regained;
-            if (deficit <= 0) {
-                return 0L;
+    /**
+     * Runs the exchange under the key's concurrency limit, if any. The permit is held
+     * until the response body completes, fails or is cancelled, so a response still
+     * streaming counts against the limit and its latency sample includes the body; an
+     * exchange that fails or is cancelled before the response arrives releases it at once.
+     */
+    private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next, RateLimitKey key) {
+        if (concurrencyLimiter == null) {
+            return next.exchange(request);
+        }
+        return Mono.defer(() -> {
+            AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire(key);
+            if (permit == null) {
+                meterRegistry.counter("conduit.egress.agent.concurrency.rejected").increment();
+                meterRegistry.counter("conduit.egress.agent.denied").increment();
+                log.debug("Concurrency limit reached for key={}, limit={}", key, concurrencyLimiter.limit(key));
+                return deny(request, key, "Concurrency limit exceeded", 1_000L);
             }
+            AtomicBoolean responded = new AtomicBoolean();
+            return next.exchange(request)
+                    .map(response -> {
+                        responded.set(true);
+                        return releasingOnBodyEnd(response, permit);
+                    })
+                    .doOnError(ex -> permit.onDropped())
+                    .doOnCancel(() -> {
+                        if (!responded.get()) {
+                            permit.release();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Hands the permit to the response body: overload statuses (429, 503) and body errors
+     * shrink the limit, other bodies report their latency once complete, and a body that
+     * is cancelled or discarded just gives the permit back. The permit releases only once.
+     */
+    private static ClientResponse releasingOnBodyEnd(ClientResponse response, AdaptiveConcurrencyLimiter.Permit permit) {
+        int status = response.statusCode().value();
+        boolean overloaded = status == 429 || status == 503;
+        return response.mutate()
+                .body(body -> body.doFinally(signal -> {
+                    if (signal == SignalType.ON_ERROR || (signal == SignalType.ON_COMPLETE && overloaded)) {
+                        permit.onDropped();
+                    } else if (signal == SignalType.ON_COMPLETE) {
+                        permit.onSuccess();
+                    } else {
+                        permit.release();
+                    }
+                }))
+                .build();
+    }
+
+    /**
+     * QUEUE deadline on the clock's monotonic timeline when it is a {@link Ticker}, so a
+     * wall-clock step neither extends nor cuts short the wait.
+     */
+    private long queueDeadlineNanos() {
+        return Ticker.nanos(clock) + properties.getQueue().getMaxWaitMs() * 1_000_000L;
+    }
+
+    /**
+     * Acquires and returns the backend's view of the bucket in one call, so retry-after
+     * never needs a second round trip to read a snapshot.
+     */
+    private Mono<AcquireResult> tryAcquireOrFailOpen(RateLimitKey key, long permits, RateLimitConfig cfg) {
+        return Mono.defer(() -> Mono.fromCompletionStage(backend.tryAcquireWithResultAsync(key, permits, cfg, clock)))
+                .onErrorResume(ex -> {
+                    meterRegistry.counter("conduit.egress.agent.backend.error").increment();
+                    if (properties.isFailOpen()) {
+                        log.warn("Backend failure while acquiring rate limit for key={}, fail-open=true, allowing request", key, ex);
+                        return Mono.just(FAIL_OPEN);
+                    }
+                    log.warn("Backend failure while acquiring rate limit for key={}, fail-open=false, rejecting request", key, ex);
+                    return Mono.error(ex);
+                });
+    }
+
+    private Mono<MultiAcquireResult> tryAcquireAllOrFailOpen(List<AcquireRequest> requests) {
+        return Mono.defer(() -> Mono.fromCompletionStage(backend.tryAcquireAllOrNothingAsync(requests, clock)))
+                .onErrorResume(ex -> {
+                    meterRegistry.counter("conduit.egress.agent.backend.error").increment();
+                    if (properties.isFailOpen()) {
+                        log.warn("Backend failure while acquiring {} rate limits, fail-open=true, allowing request",
+                                requests.size(), ex);
+                        return Mono.just(MultiAcquireResult.allowed());
+                    }
+                    log.warn("Backend failure while acquiring {} rate limits, fail-open=false, rejecting request",
+                            requests.size(), ex);
+                    return Mono.error(ex);
+                });
+    }
+
+    private Mono<Reservation> reserveOrFailOpen(RateLimitKey key, long permits, RateLimitConfig cfg, Duration maxWait) {
+        return Mono.defer(() -> Mono.fromCompletionStage(backend.reserveAsync(key, permits, cfg, maxWait, clock)))
+                .onErrorResume(ex -> {
+                    meterRegistry.counter("conduit.egress.agent.backend.error").increment();
+                    if (properties.isFailOpen()) {
+                        log.warn("Backend failure while reserving rate limit for key={}, fail-open=true, allowing request", key, ex);
+                        return Mono.just(Reservation.granted(clock.instant(), 0L));
+                    }
+                    log.warn("Backend failure while reserving rate limit for key={}, fail-open=false, rejecting request", key, ex);
+                    return Mono.error(ex);
+                });
+    }
 
-            long msPerToken = (long) Math.ceil(1.0d / tokensPerMs);
-            return deficit * msPerToken;
-        } catch (Exception ex) {
-            log.debug("Failed to estimate retry-after for key={}, using default 1000ms", key, ex);
-            return 1_000L;
+    /**
+     * Permits a call takes from one rule's quota.
+     */
+    private static final class QuotaCharge {
+        final RateLimitKey key;
+        final long permits;
+        final QuotaPolicy policy;
+
+        QuotaCharge(RateLimitKey key, long permits, QuotaPolicy policy) {
+            this.key = key;
+            this.permits = permits;
+            this.policy = policy;
         }
     }
 
-    private RuleCache.CachedRule findMatchingRule(String host, String path, HttpMethod method) {
-        List<RuleCache.CachedRule> rules = ruleCache.getRules();
-        for (RuleCache.CachedRule rule : rules) {
+    /**
+     * Bucket permits acquired up front for a rule whose real cost is read from the
+     * response.
+     */
+    private static final class Settlement {
+        final RateLimitKey key;
+        final long permits;
+        final RateLimitConfig config;
+        final PermitCost cost;
+
+        Settlement(RateLimitKey key, long permits, RateLimitConfig config, PermitCost cost) {
+            this.key = key;
+            this.permits = permits;
+            this.config = config;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * What an admitted call still owes its matching rules: quota charges before the
+     * exchange and cost settlements after it. Null when it owes nothing, which is the
+     * common case.
+     */
+    private static final class Charges {
+        List<QuotaCharge> quotas;
+        List<Settlement> settlements;
+
+        static Charges add(Charges charges, RuleCache.CachedRule rule, RateLimitKey key, long permits) {
+            boolean settles = rule.getCost().getResponseHeader() != null;
+            if (rule.getQuota() == null && !settles) {
+                return charges;
+            }
+            if (charges == null) {
+                charges = new Charges();
+            }
+            if (rule.getQuota() != null) {
+                if (charges.quotas == null) {
+                    charges.quotas = new ArrayList<>(2);
+                }
+                charges.quotas.add(new QuotaCharge(key, permits, rule.getQuota()));
+            }
+            if (settles) {
+                if (charges.settlements == null) {
+                    charges.settlements = new ArrayList<>(2);
+                }
+                charges.settlements.add(new Settlement(key, permits, rule.getConfig(), rule.getCost()));
+            }
+            return charges;
+        }
+    }
+
+    private static long retryAfterMillis(AcquireResult result) {
+        return result.retryAfterMillis(1_000L);
+    }
+
+    /**
+     * Every rule matching the request, in rule order; the request must pass all of them.
+     */
+    private List<RuleCache.CachedRule> findMatchingRules(String host, String path, HttpMethod method) {
+        List<RuleCache.CachedRule> matched = List.of();
+        for (RuleCache.CachedRule rule : ruleCache.getRules()) {
             if (!matchesHost(rule.getDto().getHostPatterns(), host)) {
                 continue;
             }
@@ -225,9 +680,16 @@ public class WebClientRateLimiterFilter implements ExchangeFilterFunction {
                     && !configuredMethod.equalsIgnoreCase(method.name())) {
                 continue;
             }
-            return rule;
+            if (matched.isEmpty()) {
+                matched = List.of(rule);
+            } else {
+                if (matched.size() == 1) {
+                    matched = new ArrayList<>(matched);
+                }
+                matched.add(rule);
+            }
         }
-        return null;
+        return matched;
     }
 
     private boolean matchesHost(List<String> hostPatterns, String host) {
@@ -266,25 +728,25 @@ public class WebClientRateLimiterFilter implements ExchangeFilterFunction {
                                   HttpMethod method,
                                   ClientRequest request) {
 
-        EnumSet<RateLimitDimension> dims = rule.getConfig().getDimensions();
-        RateLimitKey.Builder builder = RateLimitKey.builder(rule.getConfig().getName());
+        RateLimitConfig config = rule.getConfig();
+        RateLimitKey.Builder builder = RateLimitKey.builder(config.getName());
 
-        if (dims.contains(RateLimitDimension.HOST)) {
+        if (config.hasDimension(RateLimitDimension.HOST)) {
             builder.host(host);
         }
-        if (dims.contains(RateLimitDimension.PATH)) {
+        if (config.hasDimension(RateLimitDimension.PATH)) {
             builder.path(path);
         }
-        if (dims.contains(RateLimitDimension.METHOD) && method != null) {
+        if (config.hasDimension(RateLimitDimension.METHOD) && method != null) {
             builder.method(method.name());
         }
-        if (dims.contains(RateLimitDimension.PACKAGE)) {
+        if (config.hasDimension(RateLimitDimension.PACKAGE)) {
             builder.pkg(request.attribute("egress.caller.package").map(Object::toString).orElse(null));
         }
-        if (dims.contains(RateLimitDimension.PRINCIPAL)) {
+        if (config.hasDimension(RateLimitDimension.PRINCIPAL)) {
             builder.principal(request.attribute("egress.caller.principal").map(Object::toString).orElse(null));
         }
-        if (dims.contains(RateLimitDimension.API_KEY)) {
+        if (config.hasDimension(RateLimitDimension.API_KEY)) {
             builder.apiKey(request.attribute("egress.caller.api-key").map(Object::toString).orElse(null));
         }
 
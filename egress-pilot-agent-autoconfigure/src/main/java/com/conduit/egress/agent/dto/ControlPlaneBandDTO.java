@@ -0,0 +1,57 @@
+package com.conduit.egress.agent.dto;
+
+import java.time.Duration;
+
+/**
+ * An extra limit band of a token-bucket rule, enforced on the same bucket as the rule's
+ * own capacity and refill.
+ */
+public class ControlPlaneBandDTO {
+
+    private long capacity;
+    private long refillTokens;
+    private Long refillPeriodSeconds;
+    private Long refillPeriodMillis;
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getRefillTokens() {
+        return refillTokens;
+    }
+
+    public void setRefillTokens(long refillTokens) {
+        this.refillTokens = refillTokens;
+    }
+
+    public Long getRefillPeriodSeconds() {
+        return refillPeriodSeconds;
+    }
+
+    public void setRefillPeriodSeconds(Long refillPeriodSeconds) {
+        this.refillPeriodSeconds = refillPeriodSeconds;
+    }
+
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+    }
+
+    public Duration getRefillPeriod() {
+        if (refillPeriodSeconds != null && refillPeriodSeconds > 0) {
+            return Duration.ofSeconds(refillPeriodSeconds);
+        }
+        if (refillPeriodMillis != null && refillPeriodMillis > 0) {
+            return Duration.ofMillis(refillPeriodMillis);
+        }
+        return null;
+    }
+}
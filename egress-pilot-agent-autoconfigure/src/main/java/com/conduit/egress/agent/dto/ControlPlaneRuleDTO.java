@@ -23,7 +23,19 @@ public class ControlPlaneRuleDTO {
     private long refillTokens;
     private Duration refillPeriod;
     private Long refillPeriodSeconds;
+    private Long refillPeriodMillis;
+    private Double ratePerSecond;
+    private List<ControlPlaneBandDTO> bands;
     private List<String> dimensions;
+    private String algorithm;
+    private Long warmUpSeconds;
+    private Long cost;
+    private String costHeader;
+    private String costAttribute;
+    private String costResponseHeader;
+    private Long quotaLimit;
+    private String quotaPeriod;
+    private String quotaZone;
 
     public String getId() {
         return id;
@@ -93,9 +105,12 @@ public class ControlPlaneRuleDTO {
         if (refillPeriod != null) {
             return refillPeriod;
         }
-        if (refillPeriodSeconds != null) {
+        if (refillPeriodSeconds != null && refillPeriodSeconds > 0) {
             return Duration.ofSeconds(refillPeriodSeconds);
         }
+        if (refillPeriodMillis != null && refillPeriodMillis > 0) {
+            return Duration.ofMillis(refillPeriodMillis);
+        }
         return null;
     }
 
@@ -110,11 +125,39 @@ public class ControlPlaneRuleDTO {
     @JsonProperty("refillPeriodSeconds")
     public void setRefillPeriodSeconds(Long refillPeriodSeconds) {
         this.refillPeriodSeconds = refillPeriodSeconds;
-        if (refillPeriodSeconds != null) {
+        if (refillPeriodSeconds != null && refillPeriodSeconds > 0) {
             this.refillPeriod = Duration.ofSeconds(refillPeriodSeconds);
         }
     }
 
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    @JsonProperty("refillPeriodMillis")
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+        if (refillPeriodMillis != null && refillPeriodMillis > 0) {
+            this.refillPeriod = Duration.ofMillis(refillPeriodMillis);
+        }
+    }
+
+    public Double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(Double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public List<ControlPlaneBandDTO> getBands() {
+        return bands;
+    }
+
+    public void setBands(List<ControlPlaneBandDTO> bands) {
+        this.bands = bands;
+    }
+
     public List<String> getDimensions() {
         return dimensions;
     }
@@ -122,4 +165,76 @@ public class ControlPlaneRuleDTO {
     public void setDimensions(List<String> dimensions) {
         this.dimensions = dimensions;
     }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public Long getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    public void setWarmUpSeconds(Long warmUpSeconds) {
+        this.warmUpSeconds = warmUpSeconds;
+    }
+
+    public Long getCost() {
+        return cost;
+    }
+
+    public void setCost(Long cost) {
+        this.cost = cost;
+    }
+
+    public String getCostHeader() {
+        return costHeader;
+    }
+
+    public void setCostHeader(String costHeader) {
+        this.costHeader = costHeader;
+    }
+
+    public String getCostAttribute() {
+        return costAttribute;
+    }
+
+    public void setCostAttribute(String costAttribute) {
+        this.costAttribute = costAttribute;
+    }
+
+    public String getCostResponseHeader() {
+        return costResponseHeader;
+    }
+
+    public void setCostResponseHeader(String costResponseHeader) {
+        this.costResponseHeader = costResponseHeader;
+    }
+
+    public Long getQuotaLimit() {
+        return quotaLimit;
+    }
+
+    public void setQuotaLimit(Long quotaLimit) {
+        this.quotaLimit = quotaLimit;
+    }
+
+    public String getQuotaPeriod() {
+        return quotaPeriod;
+    }
+
+    public void setQuotaPeriod(String quotaPeriod) {
+        this.quotaPeriod = quotaPeriod;
+    }
+
+    public String getQuotaZone() {
+        return quotaZone;
+    }
+
+    public void setQuotaZone(String quotaZone) {
+        this.quotaZone = quotaZone;
+    }
 }
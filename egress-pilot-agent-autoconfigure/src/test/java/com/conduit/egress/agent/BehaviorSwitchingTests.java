@@ -8,7 +8,9 @@ import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.ExchangeFunction;
@@ -22,7 +24,9 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 
@@ -60,7 +64,7 @@ class BehaviorSwitchingTests {
     @BeforeEach
     void setUp() {
         ruleCache = Mockito.mock(RuleCache.class);
-        backend = Mockito.mock(RateLimitBackend.class);
+        backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         clock = new FixedClock(Instant.now());
         registry = new SimpleMeterRegistry();
         properties = new EgressAgentProperties();
@@ -213,6 +217,50 @@ class BehaviorSwitchingTests {
                 .verify();
     }
 
+    @Test
+    void denialIsStackless() {
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(ruleCache, backend, clock, registry, properties);
+
+        RuleCache.CachedRule rule = buildRule("test-rule");
+        Mockito.when(ruleCache.getRules()).thenReturn(List.of(rule));
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(false);
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.example.com/test")).build();
+        ExchangeFunction next = r -> Mono.just(MockClientResponse.ok());
+
+        StepVerifier.create(filter.filter(request, next))
+                .expectErrorSatisfies(ex -> assertThat(ex.getStackTrace()).isEmpty())
+                .verify();
+    }
+
+    @Test
+    void denialCanBeSynthesizedTooManyRequestsResponse() {
+        properties.setDenyResponse(EgressAgentProperties.DenyResponse.TOO_MANY_REQUESTS);
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(ruleCache, backend, clock, registry, properties);
+
+        RuleCache.CachedRule rule = buildRule("test-rule");
+        Mockito.when(ruleCache.getRules()).thenReturn(List.of(rule));
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(false);
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.example.com/test")).build();
+        AtomicInteger exchanges = new AtomicInteger();
+        ExchangeFunction next = r -> {
+            exchanges.incrementAndGet();
+            return Mono.just(MockClientResponse.ok());
+        };
+
+        StepVerifier.create(filter.filter(request, next))
+                .assertNext(response -> {
+                    assertThat(response.statusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                    assertThat(response.headers().header(HttpHeaders.RETRY_AFTER)).singleElement()
+                            .satisfies(value -> assertThat(Long.parseLong(value)).isNotNegative());
+                })
+                .verifyComplete();
+
+        assertThat(exchanges).hasValue(0);
+        assertThat(registry.get("conduit.egress.agent.denied").counter().count()).isEqualTo(1.0);
+    }
+
     private RuleCache.CachedRule buildRule(String name) {
         com.conduit.egress.agent.dto.ControlPlaneRuleDTO dto = new com.conduit.egress.agent.dto.ControlPlaneRuleDTO();
         dto.setServiceName("test-service");
@@ -0,0 +1,40 @@
+package com.conduit.egress.agent;
+
+import com.conduit.egress.core.RateLimitConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.ClientRequest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PermitCostTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("batch", 100, 100, Duration.ofSeconds(1), null);
+
+    @Test
+    void prefersHeaderThenAttributeThenConstant() {
+        PermitCost cost = PermitCost.of(3, "X-Batch-Size", "egress.cost");
+        ClientRequest.Builder builder = ClientRequest.create(HttpMethod.POST, URI.create("https://api.example.com/batch"));
+
+        assertThat(cost.permits(builder.build(), config)).isEqualTo(3);
+        assertThat(cost.permits(builder.attribute("egress.cost", List.of("a", "b")).build(), config)).isEqualTo(2);
+        assertThat(cost.permits(builder.header("X-Batch-Size", "7").build(), config)).isEqualTo(7);
+    }
+
+    @Test
+    void fallsBackOnUnusableValuesAndCapsAtCapacity() {
+        PermitCost cost = PermitCost.of(1, null, null);
+
+        assertThat(cost).isSameAs(PermitCost.ONE);
+        assertThat(cost.permits("not-a-number", config)).isEqualTo(1);
+        assertThat(cost.permits(-4, config)).isEqualTo(1);
+        assertThat(cost.permits(0, config)).isEqualTo(1);
+        assertThat(cost.permits("0", config)).isEqualTo(1);
+        assertThat(cost.permits(List.of(), config)).isEqualTo(1);
+        assertThat(cost.permits(new int[250], config)).isEqualTo(100);
+    }
+}
@@ -5,6 +5,7 @@ import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitDimension;
 import com.conduit.egress.core.RateLimitExceededException;
 import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -37,7 +38,7 @@ class QueueBehaviorTests {
     @BeforeEach
     void setUp() {
         ruleCache = Mockito.mock(RuleCache.class);
-        backend = Mockito.mock(RateLimitBackend.class);
+        backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         clock = Clock.systemUTC();
         registry = new SimpleMeterRegistry();
         properties = new EgressAgentProperties();
@@ -94,6 +95,27 @@ class QueueBehaviorTests {
         assert allowed == 1.0;
     }
 
+    @Test
+    void sleepsOnceUntilReservedPermitIsDue() {
+        RuleCache.CachedRule rule = buildRule("test-rule");
+        Mockito.when(ruleCache.getRules()).thenReturn(List.of(rule));
+        Mockito.doReturn(Reservation.granted(clock.instant(), 200_000_000L))
+                .when(backend).reserve(any(), anyLong(), any(), any(), any());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.example.com/test")).build();
+        ExchangeFunction next = r -> Mono.just(MockClientResponse.ok());
+
+        StepVerifier.create(filter.filter(request, next))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(150))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        Mockito.verify(backend, Mockito.times(1)).reserve(any(), anyLong(), any(), any(), any());
+        Mockito.verify(backend, Mockito.never()).tryAcquire(any(), anyLong(), any(), any());
+        assert registry.get("conduit.egress.agent.queued").counter().count() == 1.0;
+    }
+
     @Test
     void deniesWhenBackendStillRejectsAfterDelay() {
         RuleCache.CachedRule rule = buildRule("test-rule");
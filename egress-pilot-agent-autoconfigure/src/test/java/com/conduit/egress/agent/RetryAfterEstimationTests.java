@@ -65,7 +65,7 @@ class RetryAfterEstimationTests {
     @BeforeEach
     void setUp() {
         ruleCache = Mockito.mock(RuleCache.class);
-        backend = Mockito.mock(RateLimitBackend.class);
+        backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         clock = new FixedClock(Instant.ofEpochMilli(10_000));
         registry = new SimpleMeterRegistry();
         properties = new EgressAgentProperties();
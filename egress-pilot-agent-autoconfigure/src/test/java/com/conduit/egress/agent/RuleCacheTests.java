@@ -1,6 +1,7 @@
 package com.conduit.egress.agent;
 
 import com.conduit.egress.agent.dto.ControlPlaneRuleDTO;
+import com.conduit.egress.core.RateLimitAlgorithm;
 import com.conduit.egress.core.RateLimitDimension;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
@@ -37,6 +38,27 @@ class RuleCacheTests {
         List<RuleCache.CachedRule> rules = cache.getRules();
         assertThat(rules).hasSize(1);
         assertThat(rules.get(0).getConfig().getName()).isEqualTo("github-api");
+        assertThat(rules.get(0).getConfig().getAlgorithm()).isEqualTo(RateLimitAlgorithm.TOKEN_BUCKET);
+    }
+
+    @Test
+    void refreshCarriesRuleAlgorithm() {
+        ControlPlaneClient client = org.mockito.Mockito.mock(ControlPlaneClient.class);
+
+        ControlPlaneRuleDTO dto = new ControlPlaneRuleDTO();
+        dto.setName("github-api");
+        dto.setCapacity(60);
+        dto.setRefillTokens(60);
+        dto.setRefillPeriod(Duration.ofSeconds(60));
+        dto.setAlgorithm("GCRA");
+
+        org.mockito.Mockito.when(client.fetchRules()).thenReturn(Flux.just(dto));
+
+        RuleCache cache = new RuleCache(client, new SimpleMeterRegistry());
+
+        cache.refresh();
+
+        assertThat(cache.getRules().get(0).getConfig().getAlgorithm()).isEqualTo(RateLimitAlgorithm.GCRA);
     }
 
     @Test
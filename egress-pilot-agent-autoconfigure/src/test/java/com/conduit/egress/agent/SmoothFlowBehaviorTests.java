@@ -61,7 +61,7 @@ class SmoothFlowBehaviorTests {
     @BeforeEach
     void setUp() {
         ruleCache = Mockito.mock(RuleCache.class);
-        backend = Mockito.mock(RateLimitBackend.class);
+        backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         clock = new FixedClock(Instant.now());
         registry = new SimpleMeterRegistry();
         properties = new EgressAgentProperties();
@@ -1,15 +1,27 @@
 package com.conduit.egress.agent;
 
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.AdaptiveConcurrencyLimiter;
+import com.conduit.egress.core.AsyncRateLimitBackend;
+import com.conduit.egress.core.InMemoryTokenBucketBackend;
+import com.conduit.egress.core.LocalQuotaStore;
+import com.conduit.egress.core.QuotaLimiter;
 import com.conduit.egress.core.RateLimitBackend;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitDimension;
 import com.conduit.egress.core.RateLimitExceededException;
+import com.conduit.egress.core.RateLimitKey;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.reactive.function.client.*;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.test.StepVerifier;
 
 import java.net.URI;
@@ -19,7 +31,10 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 
@@ -48,7 +63,7 @@ class WebClientRateLimiterFilterTests {
         RuleCache cache = Mockito.mock(RuleCache.class);
         Mockito.when(cache.getRules()).thenReturn(List.of(rule));
 
-        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class);
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
 
         SimpleMeterRegistry registry = new SimpleMeterRegistry();
@@ -74,7 +89,7 @@ class WebClientRateLimiterFilterTests {
         RuleCache cache = Mockito.mock(RuleCache.class);
         Mockito.when(cache.getRules()).thenReturn(List.of(rule));
 
-        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class);
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(false);
 
         SimpleMeterRegistry registry = new SimpleMeterRegistry();
@@ -94,6 +109,52 @@ class WebClientRateLimiterFilterTests {
                 .verify();
     }
 
+    @Test
+    void composesWithAsyncBackendWithoutBlocking() {
+        RuleCache.CachedRule rule = buildRule("github-api");
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        AsyncRateLimitBackend backend = Mockito.mock(AsyncRateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquireAsync(any(), anyLong(), any(), any())).thenReturn(pending);
+
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, backend, new FixedClock(Instant.now()), new SimpleMeterRegistry(), new EgressAgentProperties());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        ExchangeFunction next = r -> Mono.just(MockClientResponse.ok());
+
+        StepVerifier.create(filter.filter(request, next))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(50))
+                .then(() -> pending.complete(true))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void takesRetryAfterFromAcquireResultWithoutSnapshot() {
+        RuleCache.CachedRule rule = buildRule("github-api");
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class);
+        Mockito.when(backend.tryAcquireWithResult(any(), anyLong(), any(), any()))
+                .thenReturn(new AcquireResult(false, 0L, 1_500_000L, 10_000_000_000L));
+
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, backend, new FixedClock(Instant.now()), new SimpleMeterRegistry(), new EgressAgentProperties());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+
+        StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                .expectErrorSatisfies(ex -> assertThat(((RateLimitExceededException) ex).getRetryAfterMillis())
+                        .isEqualTo(2L))
+                .verify();
+        Mockito.verify(backend, Mockito.never()).getSnapshot(any(), any(), any());
+    }
+
     @Test
     void matchesSecondaryHostAndPathPatterns() {
         RuleCache.CachedRule rule = buildRule(
@@ -104,7 +165,7 @@ class WebClientRateLimiterFilterTests {
         RuleCache cache = Mockito.mock(RuleCache.class);
         Mockito.when(cache.getRules()).thenReturn(List.of(rule));
 
-        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class);
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
 
         SimpleMeterRegistry registry = new SimpleMeterRegistry();
@@ -124,6 +185,199 @@ class WebClientRateLimiterFilterTests {
                 .verifyComplete();
     }
 
+    @Test
+    void capsInFlightCallsAndReleasesOnceTheBodyIsConsumed() {
+        RuleCache.CachedRule rule = buildRule("github-api");
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 10, Duration.ofSeconds(1), 0.5d);
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, AsyncRateLimitBackend.adapt(backend, Runnable::run), new FixedClock(Instant.now()),
+                new SimpleMeterRegistry(), new EgressAgentProperties(), limiter);
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        Sinks.One<ClientResponse> pending = Sinks.one();
+
+        StepVerifier.create(filter.filter(request, r -> pending.asMono()))
+                .expectSubscription()
+                .then(() -> StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                        .expectErrorSatisfies(ex -> assertThat(ex).hasMessage("Concurrency limit exceeded"))
+                        .verify())
+                .then(() -> pending.tryEmitValue(MockClientResponse.ok()))
+                .consumeNextWith(response -> response.releaseBody().block())
+                .verifyComplete();
+
+        StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void holdsConcurrencyPermitWhileTheBodyStreams() {
+        RuleCache.CachedRule rule = buildRule("github-api");
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 10, Duration.ofSeconds(1), 0.5d);
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, AsyncRateLimitBackend.adapt(backend, Runnable::run), new FixedClock(Instant.now()),
+                new SimpleMeterRegistry(), new EgressAgentProperties(), limiter);
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        Sinks.Many<DataBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        ClientResponse response = filter.filter(request,
+                r -> Mono.just(ClientResponse.create(HttpStatus.OK).body(body.asFlux()).build())).block();
+
+        StepVerifier.create(response.bodyToFlux(DataBuffer.class))
+                .then(() -> body.tryEmitNext(DefaultDataBufferFactory.sharedInstance.wrap(new byte[]{1})))
+                .consumeNextWith(DataBufferUtils::release)
+                .then(() -> StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                        .expectErrorSatisfies(ex -> assertThat(ex).hasMessage("Concurrency limit exceeded"))
+                        .verify())
+                .then(body::tryEmitComplete)
+                .verifyComplete();
+
+        StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void deniesOnBindingRuleWithoutSpendingOtherMatchingRules() {
+        RuleCache.CachedRule perMinute = buildRule("github-api");
+        RuleCache.CachedRule burst = new RuleCache.CachedRule(buildRule("github-burst").getDto(), new RateLimitConfig(
+                "github-burst", 1, 1, Duration.ofSeconds(60), EnumSet.of(RateLimitDimension.HOST)));
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(perMinute, burst));
+
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        Clock clock = new FixedClock(Instant.now());
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, (AsyncRateLimitBackend) backend, clock, new SimpleMeterRegistry(), new EgressAgentProperties());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        ExchangeFunction next = r -> Mono.just(MockClientResponse.ok());
+
+        StepVerifier.create(filter.filter(request, next))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(filter.filter(request, next))
+                .expectErrorSatisfies(ex -> {
+                    assertThat(ex).isInstanceOf(RateLimitExceededException.class);
+                    assertThat(((RateLimitExceededException) ex).getKey().getName()).isEqualTo("github-burst");
+                })
+                .verify();
+
+        RateLimitKey perMinuteKey = RateLimitKey.builder("github-api")
+                .host("api.github.com").path("/rate_limit").method("GET").build();
+        assertThat(backend.getSnapshot(perMinuteKey, perMinute.getConfig(), clock).getRemainingTokens()).isEqualTo(59);
+    }
+
+    @Test
+    void acquiresRuleCostFromRequestHeaderInOneCall() {
+        RuleCache.CachedRule template = buildRule("github-api");
+        template.getDto().setCostHeader("X-Batch-Size");
+        RuleCache.CachedRule rule = new RuleCache.CachedRule(template.getDto(), template.getConfig());
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
+
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, backend, new FixedClock(Instant.now()), new SimpleMeterRegistry(), new EgressAgentProperties());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit"))
+                .header("X-Batch-Size", "25")
+                .header("Accept", "application/json")
+                .build();
+        AtomicReference<ClientRequest> sent = new AtomicReference<>();
+
+        StepVerifier.create(filter.filter(request, r -> {
+                    sent.set(r);
+                    return Mono.just(MockClientResponse.ok());
+                }))
+                .expectNextCount(1)
+                .verifyComplete();
+        Mockito.verify(backend).tryAcquire(any(), Mockito.eq(25L), any(), any());
+        assertThat(sent.get().headers()).doesNotContainKey("X-Batch-Size").containsKey("Accept");
+    }
+
+    @Test
+    void deniesOnceQuotaIsSpentWithRetryAfterAtWindowReset() {
+        RuleCache.CachedRule template = buildRule("github-api");
+        template.getDto().setQuotaLimit(3L);
+        template.getDto().setQuotaPeriod("DAY");
+        RuleCache.CachedRule rule = new RuleCache.CachedRule(template.getDto(), template.getConfig());
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
+        LocalQuotaStore store = new LocalQuotaStore();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, AsyncRateLimitBackend.adapt(backend, Runnable::run),
+                new FixedClock(Instant.parse("2024-03-10T18:00:00Z")), registry, new EgressAgentProperties(),
+                null, new QuotaLimiter(store, 2));
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                    .expectNextCount(1)
+                    .verifyComplete();
+        }
+        StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                .expectErrorSatisfies(ex -> assertThat(((RateLimitExceededException) ex).getRetryAfterMillis())
+                        .isEqualTo(Duration.ofHours(6).toMillis()))
+                .verify();
+        assertThat(registry.counter("conduit.egress.agent.quota.exhausted").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void settlesEstimatedCostAgainstResponseHeader() {
+        RuleCache.CachedRule template = buildRule("llm-api");
+        template.getDto().setCost(10L);
+        template.getDto().setCostResponseHeader("X-Units-Used");
+        RuleCache.CachedRule rule = new RuleCache.CachedRule(template.getDto(), template.getConfig());
+        RuleCache cache = Mockito.mock(RuleCache.class);
+        Mockito.when(cache.getRules()).thenReturn(List.of(rule));
+
+        RateLimitBackend backend = Mockito.mock(RateLimitBackend.class, Mockito.CALLS_REAL_METHODS);
+        Mockito.when(backend.tryAcquire(any(), anyLong(), any(), any())).thenReturn(true);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        WebClientRateLimiterFilter filter = new WebClientRateLimiterFilter(
+                cache, AsyncRateLimitBackend.adapt(backend, Runnable::run),
+                new FixedClock(Instant.now()), registry, new EgressAgentProperties());
+
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("https://api.github.com/rate_limit")).build();
+        StepVerifier.create(filter.filter(request, r -> Mono.just(
+                        ClientResponse.create(org.springframework.http.HttpStatus.OK).header("X-Units-Used", "14").build())))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(filter.filter(request, r -> Mono.just(
+                        ClientResponse.create(org.springframework.http.HttpStatus.OK).header("X-Units-Used", "3").build())))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(filter.filter(request, r -> Mono.just(MockClientResponse.ok())))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        Mockito.verify(backend).debit(any(), Mockito.eq(4L), any(), any());
+        Mockito.verify(backend).refund(any(), Mockito.eq(7L), any(), any());
+        assertThat(registry.counter("conduit.egress.agent.cost.debited").count()).isEqualTo(4.0);
+        assertThat(registry.counter("conduit.egress.agent.cost.refunded").count()).isEqualTo(7.0);
+    }
+
     private RuleCache.CachedRule buildRule(String name) {
         return buildRule(name, List.of("api.github.com"), List.of("/rate_limit"));
     }
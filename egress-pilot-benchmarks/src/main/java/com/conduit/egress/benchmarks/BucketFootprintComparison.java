@@ -0,0 +1,67 @@
+package com.conduit.egress.benchmarks;
+
+import com.conduit.egress.core.InMemoryTokenBucketBackend;
+import com.conduit.egress.core.OffHeapTokenBucketBackend;
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Compares retained memory per bucket of the heap and off-heap backends.
+ * <p>
+ * Fills each backend with {@code N} distinct api-key buckets and reports retained heap
+ * (after forced GCs) plus reserved direct memory. Run one backend per JVM so that the
+ * heap baseline is clean:
+ * <pre>
+ * java -cp egress-pilot-benchmarks/target/benchmarks.jar \
+ *     com.conduit.egress.benchmarks.BucketFootprintComparison in-memory 1000000
+ * java -cp egress-pilot-benchmarks/target/benchmarks.jar \
+ *     com.conduit.egress.benchmarks.BucketFootprintComparison off-heap 1000000
+ * </pre>
+ */
+public final class BucketFootprintComparison {
+
+    private BucketFootprintComparison() {
+    }
+
+    public static void main(String[] args) {
+        String backendName = args.length > 0 ? args[0] : "off-heap";
+        int buckets = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        RateLimitConfig config = new RateLimitConfig("footprint", 100, 10, Duration.ofSeconds(1), null);
+        Clock clock = Clock.systemUTC();
+
+        long heapBefore = retainedHeap();
+        RateLimitBackend backend = "in-memory".equals(backendName)
+                ? new InMemoryTokenBucketBackend()
+                : new OffHeapTokenBucketBackend(buckets);
+        for (int i = 0; i < buckets; i++) {
+            backend.tryAcquire(RateLimitKey.builder("footprint").apiKey("api-key-" + i).build(), 1, config, clock);
+        }
+        long heapAfter = retainedHeap();
+
+        long heapBytes = heapAfter - heapBefore;
+        long offHeapBytes = backend instanceof OffHeapTokenBucketBackend offHeap ? offHeap.offHeapBytes() : 0L;
+        System.out.printf("%s: %d buckets, heap %.1f MiB (%d B/bucket), off-heap %.1f MiB (%d B/bucket)%n",
+                backendName, buckets,
+                heapBytes / 1048576.0d, heapBytes / buckets,
+                offHeapBytes / 1048576.0d, offHeapBytes / buckets);
+        Reference.reachabilityFence(backend);
+    }
+
+    private static long retainedHeap() {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,75 @@
+package com.conduit.egress.benchmarks;
+
+import com.conduit.egress.core.InMemoryTokenBucketBackend;
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitDimension;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acquire throughput on a single hot key with 32 threads hammering the same bucket.
+ * <p>
+ * Run with {@code java -jar egress-pilot-benchmarks/target/benchmarks.jar HotKeyContention}.
+ * The {@code refill} parameter switches between a bucket that almost always has tokens
+ * (every call refills and consumes) and one that is permanently drained (every call is
+ * a denial that still has to observe the refill stamp). {@code striped} splits the
+ * bucket across one cell per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class HotKeyContentionBenchmark {
+
+    @Param({"packed", "striped", "two-word"})
+    public String backend;
+
+    @Param({"saturated", "drained"})
+    public String refill;
+
+    private RateLimitBackend rateLimitBackend;
+    private RateLimitConfig config;
+    private RateLimitKey key;
+    private Clock clock;
+
+    @Setup
+    public void setUp() {
+        rateLimitBackend = switch (backend) {
+            case "packed" -> new InMemoryTokenBucketBackend();
+            case "striped" -> new InMemoryTokenBucketBackend(Integer.MAX_VALUE,
+                    Runtime.getRuntime().availableProcessors());
+            default -> new TwoWordTokenBucketBackend();
+        };
+        config = "saturated".equals(refill)
+                ? new RateLimitConfig("hot", 1_000_000, 1_000_000, Duration.ofNanos(1), EnumSet.noneOf(RateLimitDimension.class))
+                : new RateLimitConfig("hot", 1, 1, Duration.ofDays(1), EnumSet.noneOf(RateLimitDimension.class));
+        key = RateLimitKey.builder("hot").build();
+        clock = Ticker.system();
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return rateLimitBackend.tryAcquire(key, 1, config, clock);
+    }
+}
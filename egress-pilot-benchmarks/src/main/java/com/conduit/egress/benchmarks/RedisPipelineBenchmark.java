@@ -0,0 +1,108 @@
+package com.conduit.egress.benchmarks;
+
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitDimension;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.redis.PipelinedRedisTokenBucketBackend;
+import com.conduit.egress.redis.RedisTokenBucketBackend;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acquire throughput of the Redis backend from 32 threads, against {@link RedisStandIn}
+ * on loopback rather than a real Redis, so that only the client side is measured.
+ * <p>
+ * Run with {@code java -jar egress-pilot-benchmarks/target/benchmarks.jar RedisPipeline}.
+ * {@code pooled} is the template the agent builds by default (a Lettuce pool of 8),
+ * {@code pipelined} the shared connection flushed in batches of up to 128 or every
+ * 50 µs. {@code latencyMicros} is the round trip the stand-in adds to every reply, in
+ * place of the network and Redis itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class RedisPipelineBenchmark {
+
+    @Param({"pooled", "pipelined"})
+    public String mode;
+
+    @Param({"0", "200"})
+    public long latencyMicros;
+
+    private RedisStandIn standIn;
+    private LettuceConnectionFactory factory;
+    private RateLimitBackend rateLimitBackend;
+    private RateLimitConfig config;
+    private RateLimitKey key;
+    private Clock clock;
+
+    @Setup
+    public void setUp() throws IOException {
+        standIn = new RedisStandIn(latencyMicros);
+        if ("pipelined".equals(mode)) {
+            rateLimitBackend = PipelinedRedisTokenBucketBackend.create(standIn.uri(), 128,
+                    Duration.ofNanos(50_000L), Duration.ofSeconds(5));
+        } else {
+            GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+            poolConfig.setMaxTotal(8);
+            poolConfig.setMaxIdle(8);
+            LettuceClientConfiguration clientConfig = LettucePoolingClientConfiguration.builder()
+                    .commandTimeout(Duration.ofSeconds(5))
+                    .poolConfig(poolConfig)
+                    .build();
+            factory = new LettuceConnectionFactory(
+                    new RedisStandaloneConfiguration("127.0.0.1", standIn.port()), clientConfig);
+            factory.afterPropertiesSet();
+            factory.start();
+            rateLimitBackend = new RedisTokenBucketBackend(new StringRedisTemplate(factory));
+        }
+        config = new RateLimitConfig("hot", 1_000_000, 1_000_000, Duration.ofSeconds(1),
+                EnumSet.noneOf(RateLimitDimension.class));
+        key = RateLimitKey.builder("hot").build();
+        clock = Clock.systemUTC();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (rateLimitBackend instanceof PipelinedRedisTokenBucketBackend pipelined) {
+            pipelined.close();
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+        standIn.close();
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return rateLimitBackend.tryAcquire(key, 1, config, clock);
+    }
+}
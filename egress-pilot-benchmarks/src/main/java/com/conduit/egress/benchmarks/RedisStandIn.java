@@ -0,0 +1,189 @@
+package com.conduit.egress.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Just enough of a Redis server on loopback to measure the client side of the Redis
+ * backends without a real Redis: the connection handshake, {@code SCRIPT LOAD}, and
+ * {@code EVALSHA} / {@code EVAL} answered with an allowed token-bucket reply.
+ * <p>
+ * Each connection reads every command already sent and writes all their replies
+ * {@code latencyMicros} later, standing in for the network and Redis itself. Batches
+ * overlap in flight as on a real link, so a pipelined batch pays the latency once and
+ * a client is held back only by how many commands it keeps in flight.
+ */
+final class RedisStandIn implements AutoCloseable {
+
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG = "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UNKNOWN = "-ERR unknown command\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHA = "$40\r\n0123456789abcdef0123456789abcdef01234567\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocket server;
+    private final long latencyNanos;
+    private final List<Socket> clients = new ArrayList<>();
+
+    RedisStandIn(long latencyMicros) throws IOException {
+        this.server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.latencyNanos = latencyMicros * 1_000L;
+        Thread acceptor = new Thread(this::accept, "redis-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String uri() {
+        return "redis://127.0.0.1:" + server.getLocalPort();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                client.setTcpNoDelay(true);
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                Thread thread = new Thread(() -> serve(client), "redis-stand-in-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads on this thread and answers on another, so batches sent while an earlier one
+     * is still waiting out its latency are not held behind it.
+     */
+    private void serve(Socket client) {
+        BlockingQueue<Batch> replies = new LinkedBlockingQueue<>();
+        Thread writer = new Thread(() -> write(client, replies), "redis-stand-in-writer");
+        writer.setDaemon(true);
+        writer.start();
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream(), 64 * 1024);
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long dueNanos = System.nanoTime() + latencyNanos;
+                reply(command, out);
+                while (in.available() > 0) {
+                    command = readCommand(in);
+                    if (command == null) {
+                        return;
+                    }
+                    reply(command, out);
+                }
+                replies.add(new Batch(dueNanos, out.toByteArray()));
+            }
+        } catch (IOException ex) {
+            // Client went away.
+        } finally {
+            writer.interrupt();
+        }
+    }
+
+    private static void write(Socket client, BlockingQueue<Batch> replies) {
+        try {
+            OutputStream out = client.getOutputStream();
+            while (true) {
+                Batch batch = replies.take();
+                long wait = batch.dueNanos() - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                out.write(batch.bytes());
+            }
+        } catch (IOException | InterruptedException ex) {
+            // Connection closed.
+        }
+    }
+
+    private static void reply(List<String> command, OutputStream out) throws IOException {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "EVALSHA", "EVAL" -> {
+                String reply = "*4\r\n:1\r\n:59\r\n:60\r\n:" + System.currentTimeMillis() + "\r\n";
+                out.write(reply.getBytes(StandardCharsets.US_ASCII));
+            }
+            case "SCRIPT" -> out.write(SHA);
+            case "PING" -> out.write(PONG);
+            case "CLIENT", "SELECT", "AUTH" -> out.write(OK);
+            default -> out.write(UNKNOWN);
+        }
+    }
+
+    private record Batch(long dueNanos, byte[] bytes) {
+    }
+
+    /**
+     * Reads one array of bulk strings, or returns null at end of stream.
+     */
+    private static List<String> readCommand(InputStream in) throws IOException {
+        int marker = in.read();
+        if (marker == -1) {
+            return null;
+        }
+        if (marker != '*') {
+            throw new IOException("Expected an array, got " + (char) marker);
+        }
+        int count = (int) readNumber(in);
+        List<String> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            int length = (int) readNumber(in);
+            byte[] bytes = in.readNBytes(length);
+            in.skipNBytes(2);
+            parts.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return parts;
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            value = value * 10 + (c - '0');
+        }
+        in.read();
+        return value;
+    }
+}
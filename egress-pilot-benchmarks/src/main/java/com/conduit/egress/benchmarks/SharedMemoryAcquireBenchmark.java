@@ -0,0 +1,97 @@
+package com.conduit.egress.benchmarks;
+
+import com.conduit.egress.core.InMemoryTokenBucketBackend;
+import com.conduit.egress.core.OffHeapTokenBucketBackend;
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitDimension;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acquire latency of the host-wide shared-memory backend against the per-process heap
+ * backend, over 1024 keys from 4 threads.
+ * <p>
+ * Run with {@code java -jar egress-pilot-benchmarks/target/benchmarks.jar SharedMemoryAcquire}.
+ * The shared table is mapped from a temporary file ({@code /dev/shm} when present), so
+ * every acquire is a CAS on the same pages other JVMs on the host would map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SharedMemoryAcquireBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"shared-memory", "in-memory"})
+    public String backend;
+
+    private RateLimitBackend rateLimitBackend;
+    private RateLimitConfig config;
+    private RateLimitKey[] keys;
+    private Clock clock;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        clock = Ticker.system();
+        if ("shared-memory".equals(backend)) {
+            Path shm = Path.of("/dev/shm");
+            file = Files.isDirectory(shm)
+                    ? Files.createTempFile(shm, "conduit-bench", ".bin")
+                    : Files.createTempFile("conduit-bench", ".bin");
+            rateLimitBackend = OffHeapTokenBucketBackend.shared(4 * KEYS, file, clock);
+        } else {
+            rateLimitBackend = new InMemoryTokenBucketBackend();
+        }
+        config = new RateLimitConfig("shared", 1_000_000, 1_000_000, Duration.ofSeconds(1),
+                EnumSet.of(RateLimitDimension.PATH));
+        keys = new RateLimitKey[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = RateLimitKey.builder("shared").path("/k" + i).build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (rateLimitBackend instanceof OffHeapTokenBucketBackend offHeap) {
+            offHeap.close();
+        }
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        RateLimitKey key = keys[ThreadLocalRandom.current().nextInt(KEYS)];
+        return rateLimitBackend.tryAcquire(key, 1, config, clock);
+    }
+}
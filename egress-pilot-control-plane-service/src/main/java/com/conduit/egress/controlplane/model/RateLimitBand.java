@@ -0,0 +1,56 @@
+package com.conduit.egress.controlplane.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+
+/**
+ * An extra limit band of a token-bucket rule, such as 500 per minute on top of the
+ * rule's 10 per second.
+ */
+@Embeddable
+public class RateLimitBand {
+
+    @Column(nullable = false)
+    private long capacity;
+
+    @Column(name = "refill_tokens", nullable = false)
+    private long refillTokens;
+
+    @Column(name = "refill_period_seconds")
+    private Long refillPeriodSeconds;
+
+    @Column(name = "refill_period_millis")
+    private Long refillPeriodMillis;
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getRefillTokens() {
+        return refillTokens;
+    }
+
+    public void setRefillTokens(long refillTokens) {
+        this.refillTokens = refillTokens;
+    }
+
+    public Long getRefillPeriodSeconds() {
+        return refillPeriodSeconds;
+    }
+
+    public void setRefillPeriodSeconds(Long refillPeriodSeconds) {
+        this.refillPeriodSeconds = refillPeriodSeconds;
+    }
+
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+    }
+}
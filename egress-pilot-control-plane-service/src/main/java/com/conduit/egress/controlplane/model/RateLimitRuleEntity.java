@@ -9,6 +9,7 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.OrderColumn;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
 import jakarta.validation.constraints.Min;
@@ -51,17 +52,54 @@ public class RateLimitRuleEntity {
     @Min(1)
     private long capacity;
 
-    @Min(1)
+    @Min(0)
     private long refillTokens;
 
-    @Min(1)
+    @Min(0)
     private long refillPeriodSeconds;
 
+    @Column(name = "refill_period_millis")
+    private Long refillPeriodMillis;
+
+    @Column(name = "rate_per_second")
+    private Double ratePerSecond;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "egress_rate_limit_rule_bands", joinColumns = @JoinColumn(name = "rule_id"))
+    @OrderColumn(name = "band_index")
+    private List<RateLimitBand> bands = new ArrayList<>();
+
     @ElementCollection(fetch = FetchType.EAGER)
     @CollectionTable(name = "egress_rate_limit_rule_dimensions", joinColumns = @JoinColumn(name = "rule_id"))
     @Column(name = "dimension")
     private List<String> dimensions;
 
+    @Column(length = 32)
+    private String algorithm;
+
+    @Column(name = "warm_up_seconds")
+    private Long warmUpSeconds;
+
+    private Long cost;
+
+    @Column(name = "cost_header")
+    private String costHeader;
+
+    @Column(name = "cost_attribute")
+    private String costAttribute;
+
+    @Column(name = "cost_response_header")
+    private String costResponseHeader;
+
+    @Column(name = "quota_limit")
+    private Long quotaLimit;
+
+    @Column(name = "quota_period")
+    private String quotaPeriod;
+
+    @Column(name = "quota_zone")
+    private String quotaZone;
+
     public Long getId() {
         return id;
     }
@@ -141,4 +179,100 @@ public class RateLimitRuleEntity {
     public void setDimensions(List<String> dimensions) {
         this.dimensions = dimensions;
     }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+    }
+
+    public Double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(Double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public List<RateLimitBand> getBands() {
+        return bands;
+    }
+
+    public void setBands(List<RateLimitBand> bands) {
+        this.bands = bands;
+    }
+
+    public Long getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    public void setWarmUpSeconds(Long warmUpSeconds) {
+        this.warmUpSeconds = warmUpSeconds;
+    }
+
+    public Long getCost() {
+        return cost;
+    }
+
+    public void setCost(Long cost) {
+        this.cost = cost;
+    }
+
+    public String getCostHeader() {
+        return costHeader;
+    }
+
+    public void setCostHeader(String costHeader) {
+        this.costHeader = costHeader;
+    }
+
+    public String getCostAttribute() {
+        return costAttribute;
+    }
+
+    public void setCostAttribute(String costAttribute) {
+        this.costAttribute = costAttribute;
+    }
+
+    public String getCostResponseHeader() {
+        return costResponseHeader;
+    }
+
+    public void setCostResponseHeader(String costResponseHeader) {
+        this.costResponseHeader = costResponseHeader;
+    }
+
+    public Long getQuotaLimit() {
+        return quotaLimit;
+    }
+
+    public void setQuotaLimit(Long quotaLimit) {
+        this.quotaLimit = quotaLimit;
+    }
+
+    public String getQuotaPeriod() {
+        return quotaPeriod;
+    }
+
+    public void setQuotaPeriod(String quotaPeriod) {
+        this.quotaPeriod = quotaPeriod;
+    }
+
+    public String getQuotaZone() {
+        return quotaZone;
+    }
+
+    public void setQuotaZone(String quotaZone) {
+        this.quotaZone = quotaZone;
+    }
 }
@@ -0,0 +1,58 @@
+package com.conduit.egress.controlplane.web;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Min;
+
+public class RateLimitBandDto {
+
+    @Min(1)
+    private long capacity;
+
+    @Min(1)
+    private long refillTokens;
+
+    @Min(1)
+    private Long refillPeriodSeconds;
+
+    @Min(1)
+    private Long refillPeriodMillis;
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getRefillTokens() {
+        return refillTokens;
+    }
+
+    public void setRefillTokens(long refillTokens) {
+        this.refillTokens = refillTokens;
+    }
+
+    public Long getRefillPeriodSeconds() {
+        return refillPeriodSeconds;
+    }
+
+    public void setRefillPeriodSeconds(Long refillPeriodSeconds) {
+        this.refillPeriodSeconds = refillPeriodSeconds;
+    }
+
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "set exactly one of refillPeriodSeconds or refillPeriodMillis")
+    public boolean isRefillPeriodValid() {
+        return (refillPeriodSeconds == null) != (refillPeriodMillis == null);
+    }
+}
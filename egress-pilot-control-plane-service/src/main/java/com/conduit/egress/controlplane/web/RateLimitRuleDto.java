@@ -2,11 +2,17 @@ package com.conduit.egress.controlplane.web;
 
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
 
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.List;
 
 public class RateLimitRuleDto {
@@ -37,14 +43,48 @@ public class RateLimitRuleDto {
     @Min(1)
     private long capacity;
 
-    @Min(1)
+    @Min(0)
     private long refillTokens;
 
-    @Min(1)
+    @Min(0)
     private long refillPeriodSeconds;
 
+    @Min(1)
+    private Long refillPeriodMillis;
+
+    @Positive
+    private Double ratePerSecond;
+
+    private List<@Valid RateLimitBandDto> bands;
+
     private List<@Pattern(regexp = "^[A-Za-z0-9_.-]+$", message = "must use letters, numbers, dots, dashes, or underscores") String> dimensions;
 
+    @Pattern(regexp = "^(TOKEN_BUCKET|GCRA|SLIDING_WINDOW)$",
+            message = "must be TOKEN_BUCKET, GCRA or SLIDING_WINDOW when provided")
+    private String algorithm;
+
+    @Min(1)
+    private Long warmUpSeconds;
+
+    @Min(0)
+    private Long cost;
+
+    @Pattern(regexp = "^[A-Za-z0-9!#$%&'*+.^_`|~-]+$", message = "must be a valid HTTP header name when provided")
+    private String costHeader;
+
+    private String costAttribute;
+
+    @Pattern(regexp = "^[A-Za-z0-9!#$%&'*+.^_`|~-]+$", message = "must be a valid HTTP header name when provided")
+    private String costResponseHeader;
+
+    @Min(1)
+    private Long quotaLimit;
+
+    @Pattern(regexp = "^(DAY|MONTH)$", message = "must be DAY or MONTH when provided")
+    private String quotaPeriod;
+
+    private String quotaZone;
+
     public Long getId() {
         return id;
     }
@@ -124,4 +164,153 @@ public class RateLimitRuleDto {
     public void setDimensions(List<String> dimensions) {
         this.dimensions = dimensions;
     }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public Long getRefillPeriodMillis() {
+        return refillPeriodMillis;
+    }
+
+    public void setRefillPeriodMillis(Long refillPeriodMillis) {
+        this.refillPeriodMillis = refillPeriodMillis;
+    }
+
+    public Double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(Double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public List<RateLimitBandDto> getBands() {
+        return bands;
+    }
+
+    public void setBands(List<RateLimitBandDto> bands) {
+        this.bands = bands;
+    }
+
+    public Long getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    public void setWarmUpSeconds(Long warmUpSeconds) {
+        this.warmUpSeconds = warmUpSeconds;
+    }
+
+    public Long getCost() {
+        return cost;
+    }
+
+    public void setCost(Long cost) {
+        this.cost = cost;
+    }
+
+    public String getCostHeader() {
+        return costHeader;
+    }
+
+    public void setCostHeader(String costHeader) {
+        this.costHeader = costHeader;
+    }
+
+    public String getCostAttribute() {
+        return costAttribute;
+    }
+
+    public void setCostAttribute(String costAttribute) {
+        this.costAttribute = costAttribute;
+    }
+
+    public String getCostResponseHeader() {
+        return costResponseHeader;
+    }
+
+    public void setCostResponseHeader(String costResponseHeader) {
+        this.costResponseHeader = costResponseHeader;
+    }
+
+    public Long getQuotaLimit() {
+        return quotaLimit;
+    }
+
+    public void setQuotaLimit(Long quotaLimit) {
+        this.quotaLimit = quotaLimit;
+    }
+
+    public String getQuotaPeriod() {
+        return quotaPeriod;
+    }
+
+    public void setQuotaPeriod(String quotaPeriod) {
+        this.quotaPeriod = quotaPeriod;
+    }
+
+    public String getQuotaZone() {
+        return quotaZone;
+    }
+
+    public void setQuotaZone(String quotaZone) {
+        this.quotaZone = quotaZone;
+    }
+
+    /**
+     * A rule refills either at {@code ratePerSecond}, with {@code capacity} as the burst,
+     * or by {@code refillTokens} every {@code refillPeriodSeconds} or
+     * {@code refillPeriodMillis}.
+     */
+    @JsonIgnore
+    @AssertTrue(message = "set ratePerSecond, or refillTokens with refillPeriodSeconds or refillPeriodMillis")
+    public boolean isRefillValid() {
+        if (ratePerSecond != null) {
+            return true;
+        }
+        return refillTokens >= 1 && (refillPeriodSeconds >= 1 || refillPeriodMillis != null);
+    }
+
+    /**
+     * Only token buckets have a cold state to warm up from.
+     */
+    @JsonIgnore
+    @AssertTrue(message = "warmUpSeconds requires the TOKEN_BUCKET algorithm")
+    public boolean isWarmUpValid() {
+        return warmUpSeconds == null || algorithm == null || "TOKEN_BUCKET".equals(algorithm);
+    }
+
+    /**
+     * Extra bands share the rule's bucket record, which only token buckets keep.
+     */
+    @JsonIgnore
+    @AssertTrue(message = "bands require the TOKEN_BUCKET algorithm")
+    public boolean isBandsValid() {
+        return bands == null || bands.isEmpty() || algorithm == null || "TOKEN_BUCKET".equals(algorithm);
+    }
+
+    /**
+     * A quota needs both a limit and a period, and its zone, if any, must be a known
+     * region or offset so that every agent aligns windows the same way.
+     */
+    @JsonIgnore
+    @AssertTrue(message = "quotaLimit and quotaPeriod must be set together, with a valid quotaZone")
+    public boolean isQuotaValid() {
+        if ((quotaLimit == null) != (quotaPeriod == null)) {
+            return false;
+        }
+        if (quotaZone == null || quotaZone.isBlank()) {
+            return true;
+        }
+        try {
+            ZoneId.of(quotaZone);
+            return true;
+        } catch (DateTimeException ex) {
+            return false;
+        }
+    }
 }
@@ -1,7 +1,11 @@
 package com.conduit.egress.controlplane.web;
 
+import com.conduit.egress.controlplane.model.RateLimitBand;
 import com.conduit.egress.controlplane.model.RateLimitRuleEntity;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public final class RateLimitRuleMapper {
 
     private RateLimitRuleMapper() {}
@@ -17,7 +21,19 @@ public final class RateLimitRuleMapper {
         dto.setCapacity(entity.getCapacity());
         dto.setRefillTokens(entity.getRefillTokens());
         dto.setRefillPeriodSeconds(entity.getRefillPeriodSeconds());
+        dto.setRefillPeriodMillis(entity.getRefillPeriodMillis());
+        dto.setRatePerSecond(entity.getRatePerSecond());
+        dto.setBands(entity.getBands() == null ? null : entity.getBands().stream().map(RateLimitRuleMapper::toDto).toList());
         dto.setDimensions(entity.getDimensions());
+        dto.setAlgorithm(entity.getAlgorithm());
+        dto.setWarmUpSeconds(entity.getWarmUpSeconds());
+        dto.setCost(entity.getCost());
+        dto.setCostHeader(entity.getCostHeader());
+        dto.setCostAttribute(entity.getCostAttribute());
+        dto.setCostResponseHeader(entity.getCostResponseHeader());
+        dto.setQuotaLimit(entity.getQuotaLimit());
+        dto.setQuotaPeriod(entity.getQuotaPeriod());
+        dto.setQuotaZone(entity.getQuotaZone());
         return dto;
     }
 
@@ -32,7 +48,41 @@ public final class RateLimitRuleMapper {
         entity.setCapacity(dto.getCapacity());
         entity.setRefillTokens(dto.getRefillTokens());
         entity.setRefillPeriodSeconds(dto.getRefillPeriodSeconds());
+        entity.setRefillPeriodMillis(dto.getRefillPeriodMillis());
+        entity.setRatePerSecond(dto.getRatePerSecond());
+        entity.setBands(dto.getBands() == null ? new ArrayList<>() : toEntities(dto.getBands()));
         entity.setDimensions(dto.getDimensions());
+        entity.setAlgorithm(dto.getAlgorithm());
+        entity.setWarmUpSeconds(dto.getWarmUpSeconds());
+        entity.setCost(dto.getCost());
+        entity.setCostHeader(dto.getCostHeader());
+        entity.setCostAttribute(dto.getCostAttribute());
+        entity.setCostResponseHeader(dto.getCostResponseHeader());
+        entity.setQuotaLimit(dto.getQuotaLimit());
+        entity.setQuotaPeriod(dto.getQuotaPeriod());
+        entity.setQuotaZone(dto.getQuotaZone());
         return entity;
     }
+
+    private static RateLimitBandDto toDto(RateLimitBand band) {
+        RateLimitBandDto dto = new RateLimitBandDto();
+        dto.setCapacity(band.getCapacity());
+        dto.setRefillTokens(band.getRefillTokens());
+        dto.setRefillPeriodSeconds(band.getRefillPeriodSeconds());
+        dto.setRefillPeriodMillis(band.getRefillPeriodMillis());
+        return dto;
+    }
+
+    private static List<RateLimitBand> toEntities(List<RateLimitBandDto> dtos) {
+        List<RateLimitBand> bands = new ArrayList<>(dtos.size());
+        for (RateLimitBandDto dto : dtos) {
+            RateLimitBand band = new RateLimitBand();
+            band.setCapacity(dto.getCapacity());
+            band.setRefillTokens(dto.getRefillTokens());
+            band.setRefillPeriodSeconds(dto.getRefillPeriodSeconds());
+            band.setRefillPeriodMillis(dto.getRefillPeriodMillis());
+            bands.add(band);
+        }
+        return bands;
+    }
 }
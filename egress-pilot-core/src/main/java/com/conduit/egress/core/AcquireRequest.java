@@ -0,0 +1,31 @@
+package com.conduit.egress.core;
+
+import java.util.Objects;
+
+/**
+ * One item of a batch acquire: the permits requested from a bucket under its config.
+ */
+public final class AcquireRequest {
+
+    private final RateLimitKey key;
+    private final long permits;
+    private final RateLimitConfig config;
+
+    public AcquireRequest(RateLimitKey key, long permits, RateLimitConfig config) {
+        this.key = Objects.requireNonNull(key, "key must not be null");
+        this.config = Objects.requireNonNull(config, "config must not be null");
+        this.permits = permits;
+    }
+
+    public RateLimitKey getKey() {
+        return key;
+    }
+
+    public long getPermits() {
+        return permits;
+    }
+
+    public RateLimitConfig getConfig() {
+        return config;
+    }
+}
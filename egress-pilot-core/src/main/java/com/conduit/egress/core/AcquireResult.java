@@ -0,0 +1,165 @@
+package com.conduit.egress.core;
+
+import java.util.List;
+
+/**
+ * Outcome of a single acquire, with enough bucket state to schedule a retry without
+ * asking the backend again.
+ * <p>
+ * Timing fields are relative to the instant the acquire was evaluated. Any numeric field
+ * may be {@link #UNKNOWN} when the backend cannot report it.
+ */
+public final class AcquireResult {
+
+    public static final long UNKNOWN = -1L;
+
+    private final boolean allowed;
+    private final long remainingTokens;
+    private final long nanosToNextToken;
+    private final long nanosToFull;
+
+    public AcquireResult(boolean allowed, long remainingTokens, long nanosToNextToken, long nanosToFull) {
+        this.allowed = allowed;
+        this.remainingTokens = remainingTokens;
+        this.nanosToNextToken = nanosToNextToken;
+        this.nanosToFull = nanosToFull;
+    }
+
+    /**
+     * Result for a token bucket holding {@code tokens} after the acquire, whose next
+     * refill of {@code refillTokens} happens in {@code nanosToNextRefill}.
+     */
+    public static AcquireResult ofBucket(boolean allowed,
+                                         long tokens,
+                                         long capacity,
+                                         long refillTokens,
+                                         long periodNanos,
+                                         long nanosToNextRefill) {
+        if (tokens >= capacity) {
+            return new AcquireResult(allowed, tokens, 0L, 0L);
+        }
+        long refillsToFull = (capacity - tokens + refillTokens - 1) / refillTokens;
+        long nanosToFull = nanosToNextRefill + (refillsToFull - 1) * periodNanos;
+        return new AcquireResult(allowed, tokens, nanosToNextRefill, nanosToFull);
+    }
+
+    /**
+     * Result for a multi-band bucket from the results of its bands: the fewest tokens
+     * left in any band, the time until every empty band has a token again (or, if none
+     * is empty, until the most drained band gains one) and the time until all bands
+     * are full.
+     */
+    public static AcquireResult ofBands(boolean allowed, List<AcquireResult> bands) {
+        AcquireResult lowest = bands.get(0);
+        long toNextEmpty = -1L;
+        long toFull = 0L;
+        for (AcquireResult band : bands) {
+            if (band.remainingTokens < lowest.remainingTokens) {
+                lowest = band;
+            }
+            if (band.remainingTokens <= 0) {
+                toNextEmpty = Math.max(toNextEmpty, band.nanosToNextToken);
+            }
+            toFull = Math.max(toFull, band.nanosToFull);
+        }
+        return new AcquireResult(allowed, lowest.remainingTokens,
+                toNextEmpty >= 0 ? toNextEmpty : lowest.nanosToNextToken, toFull);
+    }
+
+    /**
+     * Result for a GCRA bucket whose theoretical arrival time after the acquire is
+     * {@code tatNanos}, on the same time base as {@code nowNanos}.
+     */
+    public static AcquireResult ofGcra(boolean allowed, long tatNanos, long capacity, long intervalNanos, long nowNanos) {
+        long ahead = tatNanos - nowNanos;
+        if (ahead <= 0) {
+            return new AcquireResult(allowed, capacity, 0L, 0L);
+        }
+        long slack = capacity * intervalNanos - ahead;
+        long tokens = slack <= 0 ? 0L : Math.min(capacity, slack / intervalNanos);
+        long toNext = slack < 0 ? intervalNanos - slack : intervalNanos - slack % intervalNanos;
+        return new AcquireResult(allowed, tokens, toNext, ahead);
+    }
+
+    /**
+     * Result for a sliding window holding {@code previous} and {@code current} window
+     * counts after the acquire, {@code elapsedNanos} into the current window.
+     */
+    public static AcquireResult ofSlidingWindow(boolean allowed,
+                                                long previous,
+                                                long current,
+                                                long capacity,
+                                                long windowNanos,
+                                                long elapsedNanos) {
+        double used = SlidingWindowBucket.estimate(previous, current, windowNanos, elapsedNanos);
+        long tokens = Math.max(0L, (long) Math.floor(capacity - used));
+        long toFull;
+        if (current > 0) {
+            toFull = (long) (2d * windowNanos - elapsedNanos);
+        } else if (previous > 0) {
+            toFull = windowNanos - elapsedNanos;
+        } else {
+            toFull = 0L;
+        }
+        long toNext = SlidingWindowBucket.nanosUntilFits(tokens + 1, previous, current, capacity, windowNanos, elapsedNanos);
+        return new AcquireResult(allowed, tokens, tokens >= capacity ? 0L : toNext, toFull);
+    }
+
+    /**
+     * Estimates the result from a bucket snapshot, for backends that only report
+     * snapshots. Assumes tokens accrue evenly over the refill period.
+     */
+    public static AcquireResult estimate(boolean allowed, RateLimitSnapshot snapshot, RateLimitConfig config, long nowMillis) {
+        long remaining = snapshot.getRemainingTokens();
+        long capacity = config.getCapacity();
+        long periodMs = config.getRefillPeriod().toMillis();
+        if (remaining >= capacity) {
+            return new AcquireResult(allowed, remaining, 0L, 0L);
+        }
+        long refillsToFull = (capacity - remaining + config.getRefillTokens() - 1) / config.getRefillTokens();
+        long nanosToFull = refillsToFull * config.getRefillPeriod().toNanos();
+        if (remaining > 0 || periodMs <= 0) {
+            return new AcquireResult(allowed, remaining, 0L, nanosToFull);
+        }
+
+        long elapsed = Math.max(0L, nowMillis - snapshot.getLastRefillEpochMillis());
+        double tokensPerMs = (double) config.getRefillTokens() / (double) periodMs;
+        long regained = (long) (elapsed * tokensPerMs);
+        long deficit = 1L - regained;
+        long millisToNextToken = deficit <= 0 ? 0L : deficit * (long) Math.ceil(1.0d / tokensPerMs);
+        return new AcquireResult(allowed, remaining, millisToNextToken * 1_000_000L, nanosToFull);
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    public long getRemainingTokens() {
+        return remainingTokens;
+    }
+
+    /**
+     * Nanos until the bucket gains at least one token; 0 if it is already full.
+     */
+    public long getNanosToNextToken() {
+        return nanosToNextToken;
+    }
+
+    /**
+     * Nanos until the bucket is back at capacity; 0 if it is already full.
+     */
+    public long getNanosToFull() {
+        return nanosToFull;
+    }
+
+    /**
+     * Time until the next token in whole milliseconds, rounded up, or
+     * {@code defaultMillis} if the backend could not report it.
+     */
+    public long retryAfterMillis(long defaultMillis) {
+        if (nanosToNextToken == UNKNOWN) {
+            return defaultMillis;
+        }
+        return (nanosToNextToken + 999_999L) / 1_000_000L;
+    }
+}
@@ -0,0 +1,259 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the number of in-flight calls per {@link RateLimitKey}, adapting each cap with
+ * AIMD (additive increase, multiplicative decrease) on observed latency.
+ * <p>
+ * A call that completes within {@code latencyThreshold} while the key is using at least
+ * half its limit raises the limit by one; a slower call, or one that is
+ * {@linkplain Permit#onDropped() dropped} (error, timeout, overload response), multiplies
+ * it by {@code backoffRatio}. Limits stay within {@code [minLimit, maxLimit]}. Token
+ * buckets cap the request rate; this caps how many of those requests may wait on a slow
+ * downstream at once.
+ * <p>
+ * Keys with nothing in flight that were not used since the previous
+ * {@link #sweepIdle()} are dropped, and start again from {@code initialLimit}.
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    private static final int RETIRED = -1;
+
+    private static final class Limit {
+        final AtomicInteger limit;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean touched = true;
+
+        Limit(int initial) {
+            this.limit = new AtomicInteger(initial);
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current == RETIRED || current >= limit.get()) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean retireIfIdle() {
+            if (touched) {
+                touched = false;
+                return false;
+            }
+            return inFlight.compareAndSet(0, RETIRED);
+        }
+    }
+
+    /**
+     * One admitted call. Exactly one of {@link #onSuccess()}, {@link #onDropped()} or
+     * {@link #release()} takes effect; later calls are ignored.
+     */
+    public final class Permit {
+        private final Limit owner;
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Limit owner, long startNanos) {
+            this.owner = owner;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * The call completed; its latency feeds the limit.
+         */
+        public void onSuccess() {
+            if (released.compareAndSet(false, true)) {
+                long rtt = nanoTime.getAsLong() - startNanos;
+                int inFlight = owner.inFlight.getAndDecrement();
+                if (rtt > latencyThresholdNanos) {
+                    decrease(owner);
+                } else if (inFlight * 2 >= owner.limit.get()) {
+                    owner.limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+                }
+            }
+        }
+
+        /**
+         * The call failed in a way that signals overload; the limit backs off.
+         */
+        public void onDropped() {
+            if (released.compareAndSet(false, true)) {
+                owner.inFlight.decrementAndGet();
+                decrease(owner);
+            }
+        }
+
+        /**
+         * The call ended without a meaningful latency sample (e.g. it was cancelled).
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                owner.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final LongSupplier nanoTime;
+    private final Map<RateLimitKey, Limit> limits = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> meteredRules = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit,
+                                      int minLimit,
+                                      int maxLimit,
+                                      Duration latencyThreshold,
+                                      double backoffRatio) {
+        this(initialLimit, minLimit, maxLimit, latencyThreshold, backoffRatio, System::nanoTime);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit,
+                                      int minLimit,
+                                      int maxLimit,
+                                      Duration latencyThreshold,
+                                      double backoffRatio,
+                                      LongSupplier nanoTime) {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("minLimit must be > 0");
+        }
+        if (maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy minLimit <= initialLimit <= maxLimit");
+        }
+        if (latencyThreshold == null || latencyThreshold.isZero() || latencyThreshold.isNegative()) {
+            throw new IllegalArgumentException("latencyThreshold must be positive");
+        }
+        if (!(backoffRatio > 0.0d && backoffRatio < 1.0d)) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Admits a call for {@code key} if it has fewer calls in flight than its limit.
+     *
+     * @return the permit to complete when the call ends, or null if the key is at its limit
+     */
+    public Permit tryAcquire(RateLimitKey key) {
+        while (true) {
+            Limit limit = limits.computeIfAbsent(key, k -> {
+                meter(k.getName());
+                return new Limit(initialLimit);
+            });
+            limit.touched = true;
+            if (limit.tryAcquire()) {
+                return new Permit(limit, nanoTime.getAsLong());
+            }
+            if (limit.inFlight.get() != RETIRED) {
+                return null;
+            }
+            // Retired by a concurrent sweep; replace it.
+            limits.remove(key, limit);
+        }
+    }
+
+    /**
+     * Current limit for {@code key}; {@code initialLimit} for a key not seen yet.
+     */
+    public int limit(RateLimitKey key) {
+        Limit limit = limits.get(key);
+        return limit == null ? initialLimit : limit.limit.get();
+    }
+
+    /**
+     * Calls currently in flight for {@code key}.
+     */
+    public int inFlight(RateLimitKey key) {
+        Limit limit = limits.get(key);
+        return limit == null ? 0 : Math.max(0, limit.inFlight.get());
+    }
+
+    /**
+     * Drops keys that have had nothing in flight since the previous sweep.
+     *
+     * @return number of keys dropped
+     */
+    public int sweepIdle() {
+        int dropped = 0;
+        for (Map.Entry<RateLimitKey, Limit> entry : limits.entrySet()) {
+            if (entry.getValue().retireIfIdle() && limits.remove(entry.getKey(), entry.getValue())) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    public int size() {
+        return limits.size();
+    }
+
+    /**
+     * Registers the limit and in-flight gauges, tagged by rule: the sums over the rule's
+     * keys, which are exact for rules whose key has no per-request dimension.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (String rule : meteredRules.keySet()) {
+            register(registry, rule);
+        }
+    }
+
+    private void meter(String rule) {
+        if (meteredRules.putIfAbsent(rule, Boolean.TRUE) == null) {
+            MeterRegistry current = registry;
+            if (current != null) {
+                register(current, rule);
+            }
+        }
+    }
+
+    private void register(MeterRegistry registry, String rule) {
+        Gauge.builder("conduit.egress.agent.concurrency.limit", this, l -> l.sum(rule, false))
+                .description("Adaptive in-flight limit of the rule's keys")
+                .tag("rule", rule)
+                .register(registry);
+        Gauge.builder("conduit.egress.agent.concurrency.inflight", this, l -> l.sum(rule, true))
+                .description("Calls in flight for the rule's keys")
+                .tag("rule", rule)
+                .register(registry);
+    }
+
+    private double sum(String rule, boolean inFlight) {
+        long total = 0;
+        for (Map.Entry<RateLimitKey, Limit> entry : limits.entrySet()) {
+            if (rule.equals(entry.getKey().getName())) {
+                Limit limit = entry.getValue();
+                total += inFlight ? Math.max(0, limit.inFlight.get()) : limit.limit.get();
+            }
+        }
+        return total;
+    }
+
+    private void decrease(Limit owner) {
+        owner.limit.updateAndGet(l -> Math.max(minLimit, (int) (l * backoffRatio)));
+    }
+}
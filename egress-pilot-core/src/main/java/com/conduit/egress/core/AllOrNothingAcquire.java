@@ -0,0 +1,63 @@
+package com.conduit.egress.core;
+
+import java.util.List;
+
+/**
+ * All-or-nothing acquire over local buckets without a shared lock: each bucket is
+ * debited with its own CAS in request order, and if one denies, the buckets already
+ * debited are refunded. A concurrent caller may briefly observe the debit being rolled
+ * back, but no permit is kept unless every bucket granted.
+ */
+final class AllOrNothingAcquire {
+
+    /**
+     * Bucket operations of one local backend, evaluated at a single instant.
+     */
+    interface Buckets {
+        AcquireResult tryAcquireWithResult(AcquireRequest request, long permits);
+
+        void refund(AcquireRequest request);
+    }
+
+    private AllOrNothingAcquire() {
+    }
+
+    static MultiAcquireResult acquire(List<AcquireRequest> requests, Buckets buckets) {
+        int n = requests.size();
+        AcquireResult[] results = new AcquireResult[n];
+        int firstDenied = -1;
+        for (int i = 0; i < n; i++) {
+            AcquireRequest request = requests.get(i);
+            if (request.getPermits() <= 0) {
+                continue;
+            }
+            results[i] = buckets.tryAcquireWithResult(request, request.getPermits());
+            if (!results[i].isAllowed()) {
+                firstDenied = i;
+                break;
+            }
+        }
+        if (firstDenied < 0) {
+            return MultiAcquireResult.allowed();
+        }
+
+        boolean[] denied = new boolean[n];
+        denied[firstDenied] = true;
+        // Look at the remaining buckets without debiting them, to find the binding one.
+        for (int i = firstDenied + 1; i < n; i++) {
+            AcquireRequest request = requests.get(i);
+            if (request.getPermits() <= 0) {
+                continue;
+            }
+            results[i] = buckets.tryAcquireWithResult(request, 0L);
+            denied[i] = results[i].getRemainingTokens() != AcquireResult.UNKNOWN
+                    && results[i].getRemainingTokens() < request.getPermits();
+        }
+        for (int i = firstDenied - 1; i >= 0; i--) {
+            if (requests.get(i).getPermits() > 0) {
+                buckets.refund(requests.get(i));
+            }
+        }
+        return MultiAcquireResult.denied(results, denied);
+    }
+}
@@ -0,0 +1,119 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking counterpart of {@link RateLimitBackend}, for callers that must not block
+ * the calling thread (for example a Reactor Netty event loop).
+ * <p>
+ * Implementations either complete without blocking (local buckets, reactive Redis) or,
+ * for blocking backends, run the call on an executor via {@link #adapt}.
+ */
+public interface AsyncRateLimitBackend {
+
+    /**
+     * Async variant of {@link RateLimitBackend#tryAcquire}. Backend failures complete the
+     * stage exceptionally rather than throwing.
+     */
+    CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock);
+
+    /**
+     * Async variant of {@link RateLimitBackend#tryAcquireWithResult}. The default
+     * implementation fetches a snapshot only when the acquire is denied.
+     */
+    default CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                     long permits,
+                                                                     RateLimitConfig config,
+                                                                     Clock clock) {
+        return tryAcquireAsync(key, permits, config, clock).thenCompose(allowed -> {
+            if (allowed) {
+                return CompletableFuture.completedFuture(
+                        new AcquireResult(true, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+            }
+            return getSnapshotAsync(key, config, clock)
+                    .thenApply(snapshot -> AcquireResult.estimate(false, snapshot, config, clock.millis()))
+                    .exceptionally(ex -> new AcquireResult(
+                            false, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+        });
+    }
+
+    /**
+     * Async variant of {@link RateLimitBackend#reserve}. The default implementation
+     * grants only permits available now, like the blocking default.
+     */
+    default CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                      long permits,
+                                                      RateLimitConfig config,
+                                                      Duration maxWait,
+                                                      Clock clock) {
+        Instant now = clock.instant();
+        return tryAcquireWithResultAsync(key, permits, config, clock).thenApply(result -> result.isAllowed()
+                ? Reservation.granted(now, 0L)
+                : Reservation.denied(now, result.getNanosToNextToken()));
+    }
+
+    /**
+     * Async variant of {@link RateLimitBackend#tryAcquireAllOrNothing}. The default
+     * implementation acquires in order and stops at the first denial, so like the
+     * blocking default it is not atomic.
+     */
+    default CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        return acquireInOrder(requests, 0, clock);
+    }
+
+    private CompletionStage<MultiAcquireResult> acquireInOrder(List<AcquireRequest> requests, int from, Clock clock) {
+        for (int i = from; i < requests.size(); i++) {
+            AcquireRequest request = requests.get(i);
+            if (request.getPermits() <= 0) {
+                continue;
+            }
+            int index = i;
+            return tryAcquireWithResultAsync(request.getKey(), request.getPermits(), request.getConfig(), clock)
+                    .thenCompose(result -> result.isAllowed()
+                            ? acquireInOrder(requests, index + 1, clock)
+                            : CompletableFuture.completedFuture(MultiAcquireResult.denied(index, result)));
+        }
+        return CompletableFuture.completedFuture(MultiAcquireResult.allowed());
+    }
+
+    /**
+     * Async variant of {@link RateLimitBackend#debit}. The default implementation
+     * acquires the permits if they are available, like the blocking default.
+     */
+    default CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return tryAcquireAsync(key, permits, config, clock).thenApply(allowed -> null);
+    }
+
+    /**
+     * Async variant of {@link RateLimitBackend#refund}. The default implementation does
+     * nothing.
+     */
+    default CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Async variant of {@link RateLimitBackend#getSnapshot}.
+     */
+    CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock);
+
+    /**
+     * Returns {@code backend} itself if it is already asynchronous, otherwise an adapter
+     * that runs its blocking calls on {@code executor}.
+     */
+    static AsyncRateLimitBackend adapt(RateLimitBackend backend, Executor executor) {
+        if (backend instanceof AsyncRateLimitBackend async) {
+            return async;
+        }
+        return new ExecutorAsyncRateLimitBackend(backend, executor);
+    }
+}
@@ -0,0 +1,190 @@
+package com.conduit.egress.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded map of {@link LocalBucket}s used by {@link InMemoryTokenBucketBackend}.
+ * <p>
+ * Buckets that have refilled to capacity are dropped by {@link #sweep(long)}, since a
+ * full bucket is indistinguishable from a fresh one. When the store holds
+ * {@code maxBuckets} entries, inserting a new key evicts the least frequently used of a
+ * small rotating sample. Frequencies are kept as saturating logarithmic counters, so
+ * hot keys stop writing to them almost immediately, and are halved on every sweep so
+ * that old popularity decays.
+ */
+final class BucketStore {
+
+    static final int EVICTION_SAMPLE_SIZE = 8;
+
+    private static final int MAX_FREQUENCY = 15;
+
+    static final class Entry {
+        final RateLimitKey key;
+        final LocalBucket bucket;
+        volatile RateLimitConfig config;
+        volatile int frequency;
+
+        Entry(RateLimitKey key, LocalBucket bucket, RateLimitConfig config) {
+            this.key = key;
+            this.bucket = bucket;
+            this.config = config;
+            this.frequency = 1;
+        }
+
+        void touch(RateLimitConfig config) {
+            if (this.config != config) {
+                this.config = config;
+            }
+            int f = frequency;
+            if (f < MAX_FREQUENCY && ThreadLocalRandom.current().nextInt(1 << f) == 0) {
+                frequency = f + 1;
+            }
+        }
+    }
+
+    private final Map<RateLimitKey, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxBuckets;
+    private final int stripes;
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder capacityEvictions = new LongAdder();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Entry> evictionCursor;
+
+    BucketStore(int maxBuckets) {
+        this(maxBuckets, 1);
+    }
+
+    /**
+     * @param stripes cells per {@link StripedTokenBucket} for the buckets it
+     *                {@linkplain StripedTokenBucket#supports supports}; 1 or less
+     *                disables striping
+     */
+    BucketStore(int maxBuckets, int stripes) {
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("maxBuckets must be > 0");
+        }
+        this.maxBuckets = maxBuckets;
+        this.stripes = stripes;
+    }
+
+    Entry get(RateLimitKey key) {
+        return entries.get(key);
+    }
+
+    Entry getOrCreate(RateLimitKey key, RateLimitConfig config, long nowNanos) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.bucket.algorithm() == config.getAlgorithm()
+                    && entry.bucket.bands() == config.getBands().size()) {
+                entry.touch(config);
+                return entry;
+            }
+            // The rule switched algorithms or bands; its state cannot carry over, start afresh.
+            entry.bucket.retire();
+            discard(entry);
+        }
+        if (entries.size() >= maxBuckets) {
+            evictExcess();
+        }
+        return entries.computeIfAbsent(key, k -> new Entry(k, create(config, nowNanos), config));
+    }
+
+    private LocalBucket create(RateLimitConfig config, long nowNanos) {
+        if (stripes > 1 && StripedTokenBucket.supports(config)) {
+            return new StripedTokenBucket(config.getCapacity(), stripes, nowNanos);
+        }
+        return LocalBucket.create(config, nowNanos);
+    }
+
+    /**
+     * Unlinks an entry whose bucket was retired by a concurrent sweep or eviction.
+     */
+    void discard(Entry entry) {
+        entries.remove(entry.key, entry);
+    }
+
+    /**
+     * Drops every bucket that is full at {@code nowNanos} and ages the frequency of the
+     * ones that remain.
+     *
+     * @return number of buckets dropped
+     */
+    int sweep(long nowNanos) {
+        int dropped = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.bucket.retireIfFull(entry.config, nowNanos)) {
+                entries.remove(entry.key, entry);
+                dropped++;
+            } else {
+                entry.frequency = entry.frequency >>> 1;
+            }
+        }
+        idleEvictions.add(dropped);
+        return dropped;
+    }
+
+    private void evictExcess() {
+        // A single evictor at a time is enough. Inserters that miss the lock may overshoot
+        // the bound while it is held, so the holder evicts until there is room for one
+        // more rather than a single entry, and takes back any such overshoot.
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (entries.size() >= maxBuckets) {
+                if (!evictOne()) {
+                    return;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least frequently used entry of the next sample; false if the sample
+     * yielded nothing to evict.
+     */
+    private boolean evictOne() {
+        Entry victim = null;
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+            if (evictionCursor == null || !evictionCursor.hasNext()) {
+                evictionCursor = entries.values().iterator();
+                if (!evictionCursor.hasNext()) {
+                    break;
+                }
+            }
+            Entry candidate = evictionCursor.next();
+            if (victim == null || candidate.frequency < victim.frequency) {
+                victim = candidate;
+            }
+        }
+        if (victim == null || !victim.bucket.retire()) {
+            return false;
+        }
+        entries.remove(victim.key, victim);
+        capacityEvictions.increment();
+        return true;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int maxBuckets() {
+        return maxBuckets;
+    }
+
+    long idleEvictions() {
+        return idleEvictions.sum();
+    }
+
+    long capacityEvictions() {
+        return capacityEvictions.sum();
+    }
+}
@@ -0,0 +1,748 @@
+package com.conduit.egress.core;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Fixed-size open-addressing table of packed token buckets held in a {@link ByteBuffer},
+ * keyed by {@link RateLimitKey#fingerprint()}.
+ * <p>
+ * Each slot is four longs: fingerprint, origin nanos, packed state (as in
+ * {@link PackedTokenBucket}) and rule id. A fingerprint of zero marks a slot that was
+ * never used. An insert first claims the slot by swapping a claim word, which no bucket
+ * state can equal, into its state, and publishes the bucket by replacing that word.
+ * Dropped buckets leave their state {@link PackedTokenBucket#RETIRED retired} as a
+ * tombstone that a later insert on the same probe chain reclaims. Collisions are
+ * resolved by linear probing.
+ * <p>
+ * All slot access goes through a byte buffer view {@link VarHandle}, so acquires are a
+ * CAS on the state word just like the heap bucket, with no per-key object allocated.
+ * <p>
+ * A table {@linkplain #map mapped} from a file persists continuously: the slots are the
+ * file pages, written by the same CAS as any acquire. A {@value #HEADER_BYTES}-byte
+ * header before the slots records the layout and the offset between wall-clock epoch
+ * nanos and the bucket time of the process that last opened it, so that a later process
+ * can move every origin onto its own bucket time, crediting the refill for the downtime.
+ * A table {@linkplain #share shared} by several processes works the same way, with
+ * epoch nanos as the common bucket time and the live count kept in the header. Each
+ * process stamps its claims with an owner tag whose lock region it holds while attached,
+ * so a process that dies mid-insert does not stall the others: a claim that outlives the
+ * lock on its tag is turned into a tombstone.
+ */
+final class BucketTable {
+
+    static final int SLOT_BYTES = 32;
+
+    static final int MAX_SLOTS = 1 << 25;
+
+    private static final int FINGERPRINT = 0;
+    private static final int ORIGIN = 8;
+    private static final int STATE = 16;
+    private static final int RULE = 24;
+
+    static final int HEADER_BYTES = 64;
+
+    private static final long MAGIC = 0x436F_6E64_7569_7442L;
+    private static final long VERSION = 1L;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_SLOTS = 16;
+    private static final int HEADER_CLOCK_OFFSET = 24;
+    private static final int HEADER_LIVE = 32;
+    private static final int HEADER_GENERATION = 40;
+
+    /**
+     * Lock regions past any real file content: one serializes opens, the other is held
+     * shared by every process using the table.
+     */
+    private static final long OPEN_LOCK = Long.MAX_VALUE - 2;
+    private static final long MEMBER_LOCK = Long.MAX_VALUE - 1;
+
+    /**
+     * One lock region per owner tag, below the open lock; a process holds the one for
+     * its tag exclusively while it uses a shared table.
+     */
+    private static final int OWNER_BITS = 12;
+    private static final int MAX_OWNERS = 1 << OWNER_BITS;
+    private static final long OWNER_LOCKS = OPEN_LOCK - MAX_OWNERS;
+    private static final long GENERATION_MASK = (1L << 19) - 1;
+
+    /**
+     * Rule id of a restored bucket until an acquire names its rule again; sweeps skip it.
+     */
+    private static final long UNBOUND = -1L;
+
+    private static final long EMPTY = 0L;
+    private static final long RETIRED = PackedTokenBucket.RETIRED;
+
+    /**
+     * State of a claimed slot: all ones in the token half, which no bucket holds, and the
+     * claiming process's generation and owner tag below. The generation tells apart
+     * processes that took the same tag one after the other.
+     */
+    private static final long CLAIM = 0xFFFF_FFFF_0000_0000L;
+
+    /**
+     * Yields between checks of whether the owner of a claim is still alive.
+     */
+    private static final int OWNER_CHECK_SPINS = 1 << 10;
+
+    private static final double LOAD_FACTOR = 0.75d;
+
+    private static final int ACQUIRED = 1;
+    private static final int DENIED = 0;
+    private static final int RETRY = -1;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int mask;
+    private final LongAdder live = new LongAdder();
+    private final MappedByteBuffer mapping;
+    private FileChannel channel;
+    private FileLock membership;
+    private FileLock ownership;
+    private long claim = CLAIM;
+
+    BucketTable(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    private BucketTable(ByteBuffer buffer, MappedByteBuffer mapping) {
+        int slots = buffer.capacity() / SLOT_BYTES;
+        if (slots == 0 || Integer.bitCount(slots) != 1 || slots * SLOT_BYTES != buffer.capacity()) {
+            throw new IllegalArgumentException("Buffer must hold a power of two number of slots");
+        }
+        this.buffer = buffer;
+        this.mask = slots - 1;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Allocates a direct buffer large enough to hold {@code expectedBuckets} live buckets.
+     */
+    static BucketTable allocate(int expectedBuckets) {
+        return new BucketTable(ByteBuffer.allocateDirect(slotsFor(expectedBuckets) * SLOT_BYTES));
+    }
+
+    /**
+     * Maps {@code file} as a table for {@code expectedBuckets} live buckets, for this
+     * process only. Buckets left by an earlier process with the same layout are kept,
+     * their origins moved from that process's bucket time to this one's using
+     * {@code clockOffsetNanos} (epoch nanos minus bucket nanos, now); any other file
+     * content is discarded.
+     */
+    static BucketTable map(Path file, int expectedBuckets, long clockOffsetNanos) throws IOException {
+        try (FileChannel channel = open(file)) {
+            return adopt(channel, slotsFor(expectedBuckets), clockOffsetNanos);
+        }
+    }
+
+    /**
+     * Maps {@code file} as a table shared by every process on the host that opens it
+     * this way; bucket time must then be epoch nanos in all of them. The first process
+     * to open the file adopts or resets it as {@link #map} does; later ones join it as
+     * is and must be sized alike. Each process holds a shared lock on the file until
+     * {@link #close()}, which is how an opener learns whether it is alone.
+     *
+     * @throws IllegalStateException if the file is in use with another layout
+     */
+    static BucketTable share(Path file, int expectedBuckets) throws IOException {
+        int slots = slotsFor(expectedBuckets);
+        FileChannel channel = open(file);
+        try {
+            BucketTable table;
+            try (FileLock ignored = channel.lock(OPEN_LOCK, 1L, false)) {
+                FileLock alone = channel.tryLock(MEMBER_LOCK, 1L, false);
+                if (alone != null) {
+                    alone.release();
+                    table = adopt(channel, slots, 0L);
+                } else {
+                    table = join(channel, slots);
+                }
+                table.membership = channel.lock(MEMBER_LOCK, 1L, true);
+                table.channel = channel;
+                table.takeOwnerTag();
+            }
+            return table;
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static BucketTable adopt(FileChannel channel, int slots, long clockOffsetNanos) throws IOException {
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        boolean sameSize = channel.size() == size;
+        if (!sameSize) {
+            channel.truncate(0L);
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        mapped.order(ByteOrder.nativeOrder());
+        BucketTable table = new BucketTable(mapped.slice(HEADER_BYTES, slots * SLOT_BYTES), mapped);
+        if (sameSize && hasLayout(mapped, slots)) {
+            table.restore(mapped.getLong(HEADER_CLOCK_OFFSET) - clockOffsetNanos);
+        } else {
+            mapped.putLong(HEADER_MAGIC, 0L);
+            for (int i = HEADER_BYTES; i < size; i += 8) {
+                mapped.putLong(i, 0L);
+            }
+            mapped.putLong(HEADER_VERSION, VERSION);
+            mapped.putLong(HEADER_SLOTS, slots);
+            mapped.putLong(HEADER_LIVE, 0L);
+        }
+        mapped.putLong(HEADER_CLOCK_OFFSET, clockOffsetNanos);
+        mapped.putLong(HEADER_MAGIC, MAGIC);
+        return table;
+    }
+
+    private static BucketTable join(FileChannel channel, int slots) throws IOException {
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        if (channel.size() != size) {
+            throw new IllegalStateException("Shared bucket table is in use with " + channel.size()
+                    + " bytes, expected " + size);
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        mapped.order(ByteOrder.nativeOrder());
+        if (!hasLayout(mapped, slots) || mapped.getLong(HEADER_CLOCK_OFFSET) != 0L) {
+            throw new IllegalStateException("Shared bucket table is in use with another layout");
+        }
+        return new BucketTable(mapped.slice(HEADER_BYTES, slots * SLOT_BYTES), mapped);
+    }
+
+    /**
+     * Takes the first owner tag no attached process holds, with the next generation, and
+     * tombstones the claims a dead process left under that tag.
+     *
+     * @throws IllegalStateException if every tag is taken
+     */
+    private void takeOwnerTag() throws IOException {
+        for (int owner = 0; owner < MAX_OWNERS; owner++) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock(OWNER_LOCKS + owner, 1L, false);
+            } catch (OverlappingFileLockException ex) {
+                continue;
+            }
+            if (lock != null) {
+                long generation = (long) LONGS.getAndAdd(mapping, HEADER_GENERATION, 1L) & GENERATION_MASK;
+                ownership = lock;
+                claim = CLAIM | generation << OWNER_BITS | owner;
+                for (int slot = 0; slot <= mask; slot++) {
+                    int base = offset(slot);
+                    long state = (long) LONGS.getVolatile(buffer, base + STATE);
+                    if (isClaim(state) && owner(state) == owner) {
+                        LONGS.compareAndSet(buffer, base + STATE, state, RETIRED);
+                    }
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException("Shared bucket table is in use by " + MAX_OWNERS + " processes");
+    }
+
+    private static boolean hasLayout(MappedByteBuffer mapped, int slots) {
+        return mapped.getLong(HEADER_MAGIC) == MAGIC && mapped.getLong(HEADER_VERSION) == VERSION
+                && mapped.getLong(HEADER_SLOTS) == slots;
+    }
+
+    static int slotsFor(int expectedBuckets) {
+        if (expectedBuckets <= 0) {
+            throw new IllegalArgumentException("expectedBuckets must be > 0");
+        }
+        long wanted = Math.max(16L, (long) Math.ceil(expectedBuckets / LOAD_FACTOR));
+        if (wanted > MAX_SLOTS) {
+            throw new IllegalArgumentException("expectedBuckets must be <= " + (long) (MAX_SLOTS * LOAD_FACTOR));
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    /**
+     * Refills the bucket for {@code fingerprint} up to {@code nowNanos} and consumes
+     * {@code permits} tokens if available, creating a full bucket on first use.
+     *
+     * @throws IllegalStateException if the key is new and every slot is in use
+     */
+    boolean tryAcquire(long fingerprint, int ruleId, long permits,
+                       long capacity, long refillTokens, long periodNanos, long nowNanos) {
+        long fp = normalize(fingerprint);
+        while (true) {
+            int slot = find(fp);
+            if (slot < 0) {
+                slot = insert(fp, ruleId, capacity, nowNanos);
+            } else {
+                bind(offset(slot), ruleId);
+            }
+            int result = tryAcquireAt(offset(slot), fp, permits, capacity, refillTokens, periodNanos, nowNanos, null);
+            if (result != RETRY) {
+                return result == ACQUIRED;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #tryAcquire} but reports the bucket state after the acquire.
+     */
+    AcquireResult tryAcquireWithResult(long fingerprint, int ruleId, long permits,
+                                       long capacity, long refillTokens, long periodNanos, long nowNanos) {
+        long fp = normalize(fingerprint);
+        long[] after = new long[2];
+        while (true) {
+            int slot = find(fp);
+            if (slot < 0) {
+                slot = insert(fp, ruleId, capacity, nowNanos);
+            } else {
+                bind(offset(slot), ruleId);
+            }
+            int result = tryAcquireAt(offset(slot), fp, permits, capacity, refillTokens, periodNanos, nowNanos, after);
+            if (result != RETRY) {
+                return AcquireResult.ofBucket(result == ACQUIRED, PackedTokenBucket.tokens(after[0]),
+                        capacity, refillTokens, periodNanos,
+                        PackedTokenBucket.nanosToNextRefill(after[1], nowNanos, periodNanos));
+            }
+        }
+    }
+
+    /**
+     * Takes {@code permits} already spent from the bucket for {@code fingerprint},
+     * creating it on first use, and runs it into debt for what it cannot cover, as
+     * {@link PackedTokenBucket#debit(long, RateLimitConfig, long)} does.
+     *
+     * @throws IllegalStateException if the key is new and every slot is in use
+     */
+    void debit(long fingerprint, int ruleId, long permits,
+               long capacity, long refillTokens, long periodNanos, long nowNanos) {
+        long fp = normalize(fingerprint);
+        while (true) {
+            int slot = find(fp);
+            if (slot < 0) {
+                slot = insert(fp, ruleId, capacity, nowNanos);
+            } else {
+                bind(offset(slot), ruleId);
+            }
+            if (debitAt(offset(slot), fp, permits, capacity, refillTokens, periodNanos, nowNanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands {@code permits} back to the bucket for {@code fingerprint}, up to
+     * {@code capacity}. No-op if the table holds no live bucket for it.
+     */
+    void refund(long fingerprint, long permits, long capacity) {
+        long fp = normalize(fingerprint);
+        int slot = find(fp);
+        if (slot < 0) {
+            return;
+        }
+        int base = offset(slot);
+        while (true) {
+            long current = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (!holdsBucket(current) || (long) LONGS.getVolatile(buffer, base + FINGERPRINT) != fp) {
+                return;
+            }
+            long tokens = Math.min(PackedTokenBucket.tokens(current) + permits, capacity);
+            long next = PackedTokenBucket.pack(Math.max(tokens, PackedTokenBucket.tokens(current)),
+                    PackedTokenBucket.stamp(current));
+            if (LONGS.compareAndSet(buffer, base + STATE, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stored tokens and last refill nanos of the bucket for {@code fingerprint}, or
+     * null if the table holds no live bucket for it.
+     */
+    long[] snapshot(long fingerprint, long periodNanos, long nowNanos) {
+        int slot = find(normalize(fingerprint));
+        if (slot < 0) {
+            return null;
+        }
+        int base = offset(slot);
+        long origin = (long) LONGS.getAcquire(buffer, base + ORIGIN);
+        long state = (long) LONGS.getVolatile(buffer, base + STATE);
+        if (origin == 0 || !holdsBucket(state)) {
+            return null;
+        }
+        return new long[] {
+                PackedTokenBucket.tokens(state),
+                PackedTokenBucket.lastRefillNanos(origin, state, periodNanos, nowNanos)
+        };
+    }
+
+    /**
+     * Retires every bucket that is full at {@code nowNanos}. Buckets whose rule id no
+     * longer resolves to a config are left alone.
+     *
+     * @return number of buckets retired
+     */
+    int sweep(long nowNanos, IntFunction<RateLimitConfig> rules) {
+        int dropped = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            int base = offset(slot);
+            long origin = (long) LONGS.getAcquire(buffer, base + ORIGIN);
+            if (origin == 0) {
+                continue;
+            }
+            long state = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (!holdsBucket(state)) {
+                continue;
+            }
+            RateLimitConfig config = rules.apply((int) (long) LONGS.getVolatile(buffer, base + RULE));
+            if (config == null) {
+                continue;
+            }
+            long capacity = PackedTokenBucket.clampTokens(config.getCapacity());
+            long nowStamp = PackedTokenBucket.stampAt(origin, nowNanos, config.getRefillPeriod().toNanos());
+            long refilled = PackedTokenBucket.refill(state, capacity, config.getRefillTokens(), nowStamp);
+            // A concurrent reclaim may have swapped in a new bucket since origin was read;
+            // a fresh bucket is full, so retiring it is harmless.
+            if (PackedTokenBucket.tokens(refilled) >= capacity
+                    && PackedTokenBucket.periodsAhead(refilled, nowStamp) == 0
+                    && LONGS.compareAndSet(buffer, base + STATE, state, RETIRED)) {
+                addLive(-1L);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    int size() {
+        long count = mapping == null ? live.sum() : (long) LONGS.getVolatile(mapping, HEADER_LIVE);
+        return (int) Math.max(0L, count);
+    }
+
+    int slots() {
+        return mask + 1;
+    }
+
+    long byteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Writes the pages of a mapped table back to its file; no-op for other tables.
+     * Pages reach the file without this once the OS flushes them, so state survives a
+     * process crash either way; this only narrows the window for a host crash.
+     */
+    void force() {
+        if (mapping != null) {
+            mapping.force();
+        }
+    }
+
+    /**
+     * Forces a mapped table to disk and leaves it; other processes sharing it carry on.
+     * The mapping itself stays valid until the table is garbage collected.
+     */
+    void close() throws IOException {
+        force();
+        if (channel != null) {
+            if (ownership != null) {
+                ownership.release();
+            }
+            if (membership != null) {
+                membership.release();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Adopts the slots left in the buffer by an earlier process: live buckets move by
+     * {@code shiftNanos} and stay unbound until their rule is named again, and slots
+     * that were mid-insert become tombstones.
+     */
+    private void restore(long shiftNanos) {
+        long restored = 0L;
+        for (int slot = 0; slot <= mask; slot++) {
+            int base = offset(slot);
+            long state = (long) LONGS.get(buffer, base + STATE);
+            if (isClaim(state)) {
+                LONGS.set(buffer, base + STATE, RETIRED);
+                LONGS.set(buffer, base + ORIGIN, 1L);
+                continue;
+            }
+            if ((long) LONGS.get(buffer, base + FINGERPRINT) == EMPTY || state == RETIRED) {
+                continue;
+            }
+            long origin = (long) LONGS.get(buffer, base + ORIGIN);
+            if (origin == 0) {
+                LONGS.set(buffer, base + STATE, RETIRED);
+                LONGS.set(buffer, base + ORIGIN, 1L);
+                continue;
+            }
+            long shifted = origin + shiftNanos;
+            LONGS.set(buffer, base + ORIGIN, shifted == 0 ? -1L : shifted);
+            LONGS.set(buffer, base + RULE, UNBOUND);
+            restored++;
+        }
+        LONGS.setVolatile(mapping, HEADER_LIVE, restored);
+    }
+
+    /**
+     * Live bucket count, kept in the header of a mapped table so that processes sharing
+     * it agree; only inserts and retirements touch it.
+     */
+    private void addLive(long delta) {
+        if (mapping == null) {
+            live.add(delta);
+        } else {
+            LONGS.getAndAdd(mapping, HEADER_LIVE, delta);
+        }
+    }
+
+    private void bind(int base, int ruleId) {
+        if ((long) LONGS.getOpaque(buffer, base + RULE) == UNBOUND) {
+            LONGS.compareAndSet(buffer, base + RULE, UNBOUND, (long) ruleId);
+        }
+    }
+
+    /**
+     * @param after if not null, receives the state word left by this call and the bucket
+     *              origin
+     */
+    private int tryAcquireAt(int base, long fp, long permits,
+                             long capacity, long refillTokens, long periodNanos, long nowNanos, long[] after) {
+        while (true) {
+            long origin = (long) LONGS.getAcquire(buffer, base + ORIGIN);
+            long current = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (origin == 0 || !holdsBucket(current)
+                    || (long) LONGS.getVolatile(buffer, base + FINGERPRINT) != fp) {
+                return RETRY;
+            }
+            long nowStamp = PackedTokenBucket.stampAt(origin, nowNanos, periodNanos);
+            long refilled = PackedTokenBucket.refill(current, capacity, refillTokens, nowStamp);
+            long tokens = PackedTokenBucket.periodsAhead(refilled, nowStamp) > 0 ? 0L : PackedTokenBucket.tokens(refilled);
+            if (tokens < permits) {
+                if (refilled != current) {
+                    LONGS.compareAndSet(buffer, base + STATE, current, refilled);
+                }
+                if (after != null) {
+                    after[0] = refilled;
+                    after[1] = origin;
+                }
+                return DENIED;
+            }
+            long next = PackedTokenBucket.pack(tokens - permits, PackedTokenBucket.stamp(refilled));
+            if (LONGS.compareAndSet(buffer, base + STATE, current, next)) {
+                // The slot may have been retired and reclaimed for another key whose fresh
+                // state equals the word we read; hand the tokens back and start over.
+                if ((long) LONGS.getVolatile(buffer, base + FINGERPRINT) != fp) {
+                    refund(base, permits);
+                    return RETRY;
+                }
+                if (after != null) {
+                    after[0] = next;
+                    after[1] = origin;
+                }
+                return ACQUIRED;
+            }
+        }
+    }
+
+    /**
+     * @return false if the slot no longer holds {@code fp} and the caller must look again
+     */
+    private boolean debitAt(int base, long fp, long permits,
+                            long capacity, long refillTokens, long periodNanos, long nowNanos) {
+        while (true) {
+            long origin = (long) LONGS.getAcquire(buffer, base + ORIGIN);
+            long current = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (origin == 0 || !holdsBucket(current)
+                    || (long) LONGS.getVolatile(buffer, base + FINGERPRINT) != fp) {
+                return false;
+            }
+            long nowStamp = PackedTokenBucket.stampAt(origin, nowNanos, periodNanos);
+            long refilled = PackedTokenBucket.refill(current, capacity, refillTokens, nowStamp);
+            long next = PackedTokenBucket.debit(refilled, nowStamp, permits, capacity, refillTokens);
+            if (LONGS.compareAndSet(buffer, base + STATE, current, next)) {
+                return (long) LONGS.getVolatile(buffer, base + FINGERPRINT) == fp;
+            }
+        }
+    }
+
+    private void refund(int base, long permits) {
+        while (true) {
+            long current = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (!holdsBucket(current)) {
+                return;
+            }
+            long tokens = Math.min(PackedTokenBucket.tokens(current) + permits, PackedTokenBucket.MAX_TOKENS);
+            long next = PackedTokenBucket.pack(tokens, PackedTokenBucket.stamp(current));
+            if (LONGS.compareAndSet(buffer, base + STATE, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Index of the live or initializing bucket for {@code fp}, or -1. Waits for a slot
+     * on the chain that is being initialized, since it may be about to hold {@code fp}.
+     */
+    private int find(long fp) {
+        int slot = (int) fp & mask;
+        for (int probes = 0; probes <= mask; ) {
+            int base = offset(slot);
+            long slotFp = (long) LONGS.getVolatile(buffer, base + FINGERPRINT);
+            long state = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (isClaim(state)) {
+                awaitClaim(base, state);
+                continue;
+            }
+            if (slotFp == EMPTY) {
+                return -1;
+            }
+            if (slotFp == fp && state != RETIRED) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            probes++;
+        }
+        return -1;
+    }
+
+    private int insert(long fp, int ruleId, long capacity, long nowNanos) {
+        int slot = (int) fp & mask;
+        for (int probes = 0; probes <= mask; ) {
+            int base = offset(slot);
+            long slotFp = (long) LONGS.getVolatile(buffer, base + FINGERPRINT);
+            long state = (long) LONGS.getVolatile(buffer, base + STATE);
+            if (isClaim(state)) {
+                awaitClaim(base, state);
+                continue;
+            }
+            if (state == RETIRED) {
+                // A tombstone, or a claim abandoned before its fingerprint was written.
+                if (LONGS.compareAndSet(buffer, base + STATE, RETIRED, claim)) {
+                    LONGS.setVolatile(buffer, base + ORIGIN, 0L);
+                    LONGS.setVolatile(buffer, base + FINGERPRINT, fp);
+                    return publish(slot, probes, fp, ruleId, capacity, nowNanos);
+                }
+                continue;
+            }
+            if (slotFp == EMPTY) {
+                if (LONGS.compareAndSet(buffer, base + STATE, 0L, claim)) {
+                    LONGS.setVolatile(buffer, base + FINGERPRINT, fp);
+                    return publish(slot, probes, fp, ruleId, capacity, nowNanos);
+                }
+                continue;
+            }
+            if (slotFp == fp) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            probes++;
+        }
+        throw new IllegalStateException("Bucket table is full (" + (mask + 1) + " slots)");
+    }
+
+    /**
+     * Completes a claimed slot. If another thread inserted the same key further down the
+     * chain meanwhile, the claim is abandoned as a tombstone and the other slot wins, so
+     * racing inserts agree on the slot furthest from home. The bucket becomes visible
+     * only when its state replaces the claim, after its origin and rule are written.
+     */
+    private int publish(int slot, int distance, long fp, int ruleId, long capacity, long nowNanos) {
+        int base = offset(slot);
+        int other = (slot + 1) & mask;
+        for (int probes = distance + 1; probes <= mask; probes++, other = (other + 1) & mask) {
+            int otherBase = offset(other);
+            long otherFp = (long) LONGS.getVolatile(buffer, otherBase + FINGERPRINT);
+            if (otherFp == EMPTY) {
+                break;
+            }
+            if (otherFp == fp && (long) LONGS.getVolatile(buffer, otherBase + STATE) != RETIRED) {
+                LONGS.setVolatile(buffer, base + STATE, RETIRED);
+                LONGS.setRelease(buffer, base + ORIGIN, 1L);
+                return other;
+            }
+        }
+        LONGS.setVolatile(buffer, base + RULE, (long) ruleId);
+        // Zero marks a slot without a bucket; a ticker may read zero, so move such an
+        // origin one nanosecond back rather than delay every refill boundary.
+        LONGS.setVolatile(buffer, base + ORIGIN, nowNanos == 0 ? -1L : nowNanos);
+        LONGS.setVolatile(buffer, base + STATE, PackedTokenBucket.pack(capacity, 0));
+        addLive(1L);
+        return slot;
+    }
+
+    /**
+     * Waits until the slot's state is no longer {@code claimed}, turning it into a
+     * tombstone once the process that claimed it is found to be gone.
+     */
+    private void awaitClaim(int base, long claimed) {
+        for (int spins = 1; (long) LONGS.getVolatile(buffer, base + STATE) == claimed; spins++) {
+            if (spins % OWNER_CHECK_SPINS == 0 && !isAttached(claimed)
+                    && LONGS.compareAndSet(buffer, base + STATE, claimed, RETIRED)) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Whether the process that made {@code claimed} may still complete it. Only a shared
+     * table can hold claims of other processes; there, a process that has exited no
+     * longer holds the lock on its owner tag.
+     */
+    private boolean isAttached(long claimed) {
+        if (channel == null || claimed == claim) {
+            return true;
+        }
+        try {
+            FileLock probe = channel.tryLock(OWNER_LOCKS + owner(claimed), 1L, false);
+            if (probe == null) {
+                return true;
+            }
+            probe.release();
+            return false;
+        } catch (OverlappingFileLockException ex) {
+            // Held by another table in this JVM.
+            return true;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private static boolean isClaim(long state) {
+        return (state & CLAIM) == CLAIM && state != RETIRED;
+    }
+
+    /**
+     * Whether {@code state} is a bucket word, as opposed to a tombstone or a claim.
+     */
+    private static boolean holdsBucket(long state) {
+        return (state & CLAIM) != CLAIM;
+    }
+
+    private static int owner(long claimed) {
+        return (int) claimed & (MAX_OWNERS - 1);
+    }
+
+    private static int offset(int slot) {
+        return slot * SLOT_BYTES;
+    }
+
+    private static long normalize(long fingerprint) {
+        return fingerprint == EMPTY ? 1L : fingerprint;
+    }
+}
@@ -0,0 +1,103 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adapts a blocking {@link RateLimitBackend} to {@link AsyncRateLimitBackend} by running
+ * each call on a caller-supplied executor, which should be bounded. If the executor
+ * rejects a call, the returned stage fails with {@link RejectedExecutionException} so
+ * that the caller's fail-open policy applies.
+ */
+public final class ExecutorAsyncRateLimitBackend implements AsyncRateLimitBackend {
+
+    private final RateLimitBackend delegate;
+    private final Executor executor;
+
+    public ExecutorAsyncRateLimitBackend(RateLimitBackend delegate, Executor executor) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+    }
+
+    @Override
+    public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.supplyAsync(() -> delegate.tryAcquire(key, permits, config, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                    long permits,
+                                                                    RateLimitConfig config,
+                                                                    Clock clock) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> delegate.tryAcquireWithResult(key, permits, config, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                     long permits,
+                                                     RateLimitConfig config,
+                                                     Duration maxWait,
+                                                     Clock clock) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> delegate.reserve(key, permits, config, maxWait, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        try {
+            return CompletableFuture.supplyAsync(() -> delegate.tryAcquireAllOrNothing(requests, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.runAsync(() -> delegate.debit(key, permits, config, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.runAsync(() -> delegate.refund(key, permits, config, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.supplyAsync(() -> delegate.getSnapshot(key, config, clock), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    public RateLimitBackend getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,77 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Serves every operation that fails on the wrapped backend from a fallback backend
+ * instead, typically a per-instance {@link InMemoryTokenBucketBackend} so that callers
+ * stay limited, per instance, while a shared backend is unreachable. The fallback should
+ * not block: on the async view a blocking fallback runs on the thread that saw the
+ * failure.
+ * <p>
+ * Stacked outside a {@link LatencyBudgetLayer}, calls that overrun the budget fall back
+ * too. Failures of the fallback itself propagate, so the caller's fail-open policy still
+ * applies.
+ */
+public final class FallbackLayer implements RateLimitBackendDecorator, MeterBinder {
+
+    private final RateLimitBackend fallback;
+    private final AsyncRateLimitBackend asyncFallback;
+    private final LongAdder fallbacks = new LongAdder();
+
+    public FallbackLayer(RateLimitBackend fallback) {
+        this.fallback = Objects.requireNonNull(fallback, "fallback must not be null");
+        this.asyncFallback = AsyncRateLimitBackend.adapt(fallback, Runnable::run);
+    }
+
+    @Override
+    public RateLimitBackend decorate(RateLimitBackend backend) {
+        return new ForwardingRateLimitBackend(backend) {
+            @Override
+            protected <T> T call(String operation, Function<RateLimitBackend, T> call) {
+                try {
+                    return super.call(operation, call);
+                } catch (RuntimeException ex) {
+                    fallbacks.increment();
+                    return call.apply(fallback);
+                }
+            }
+        };
+    }
+
+    @Override
+    public AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        return new ForwardingAsyncRateLimitBackend(backend) {
+            @Override
+            protected <T> CompletionStage<T> call(String operation,
+                                                  Function<AsyncRateLimitBackend, CompletionStage<T>> call) {
+                return super.call(operation, call).exceptionallyCompose(ex -> {
+                    fallbacks.increment();
+                    return invoke(call, asyncFallback);
+                });
+            }
+        };
+    }
+
+    public RateLimitBackend getFallback() {
+        return fallback;
+    }
+
+    public long fallbacks() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("conduit.egress.agent.backend.fallback", fallbacks, LongAdder::sum)
+                .description("Backend operations served by the fallback backend after a failure")
+                .register(registry);
+    }
+}
@@ -0,0 +1,97 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static com.conduit.egress.core.ForwardingRateLimitBackend.ACQUIRE;
+import static com.conduit.egress.core.ForwardingRateLimitBackend.ACQUIRE_ALL;
+import static com.conduit.egress.core.ForwardingRateLimitBackend.DEBIT;
+import static com.conduit.egress.core.ForwardingRateLimitBackend.REFUND;
+import static com.conduit.egress.core.ForwardingRateLimitBackend.RESERVE;
+import static com.conduit.egress.core.ForwardingRateLimitBackend.SNAPSHOT;
+
+/**
+ * Base class for {@link AsyncRateLimitBackend} decorators, the async counterpart of
+ * {@link ForwardingRateLimitBackend}: every operation is routed through {@link #call}.
+ * A delegate that throws instead of failing its stage is turned into a failed stage, so
+ * layers only have to handle one kind of failure.
+ */
+public abstract class ForwardingAsyncRateLimitBackend implements AsyncRateLimitBackend {
+
+    private final AsyncRateLimitBackend delegate;
+
+    protected ForwardingAsyncRateLimitBackend(AsyncRateLimitBackend delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+    }
+
+    /**
+     * Runs {@code operation}, one of the constants of {@link ForwardingRateLimitBackend},
+     * against the delegate.
+     */
+    protected <T> CompletionStage<T> call(String operation, Function<AsyncRateLimitBackend, CompletionStage<T>> call) {
+        return invoke(call, delegate);
+    }
+
+    /**
+     * Applies {@code call} to {@code backend}, failing the stage if it throws.
+     */
+    protected static <T> CompletionStage<T> invoke(Function<AsyncRateLimitBackend, CompletionStage<T>> call,
+                                                   AsyncRateLimitBackend backend) {
+        try {
+            return call.apply(backend);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return call(ACQUIRE, backend -> backend.tryAcquireAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                    long permits,
+                                                                    RateLimitConfig config,
+                                                                    Clock clock) {
+        return call(ACQUIRE, backend -> backend.tryAcquireWithResultAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                     long permits,
+                                                     RateLimitConfig config,
+                                                     Duration maxWait,
+                                                     Clock clock) {
+        return call(RESERVE, backend -> backend.reserveAsync(key, permits, config, maxWait, clock));
+    }
+
+    @Override
+    public CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        return call(ACQUIRE_ALL, backend -> backend.tryAcquireAllOrNothingAsync(requests, clock));
+    }
+
+    @Override
+    public CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return call(DEBIT, backend -> backend.debitAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return call(REFUND, backend -> backend.refundAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        return call(SNAPSHOT, backend -> backend.getSnapshotAsync(key, config, clock));
+    }
+
+    public AsyncRateLimitBackend getDelegate() {
+        return delegate;
+    }
+}
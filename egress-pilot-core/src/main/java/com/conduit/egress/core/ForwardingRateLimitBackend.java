@@ -0,0 +1,87 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Base class for {@link RateLimitBackend} decorators. Every operation is routed through
+ * {@link #call}, so a layer that treats all operations alike (timing, fallback) overrides
+ * that one method; a layer that cares about particular operations overrides those
+ * instead.
+ */
+public abstract class ForwardingRateLimitBackend implements RateLimitBackend {
+
+    public static final String ACQUIRE = "acquire";
+    public static final String ACQUIRE_BATCH = "acquire_batch";
+    public static final String ACQUIRE_ALL = "acquire_all";
+    public static final String RESERVE = "reserve";
+    public static final String DEBIT = "debit";
+    public static final String REFUND = "refund";
+    public static final String SNAPSHOT = "snapshot";
+
+    private final RateLimitBackend delegate;
+
+    protected ForwardingRateLimitBackend(RateLimitBackend delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+    }
+
+    /**
+     * Runs {@code operation}, one of the constants of this class, against the delegate.
+     */
+    protected <T> T call(String operation, Function<RateLimitBackend, T> call) {
+        return call.apply(delegate);
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return call(ACQUIRE, backend -> backend.tryAcquire(key, permits, config, clock));
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return call(ACQUIRE, backend -> backend.tryAcquireWithResult(key, permits, config, clock));
+    }
+
+    @Override
+    public Reservation reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        return call(RESERVE, backend -> backend.reserve(key, permits, config, maxWait, clock));
+    }
+
+    @Override
+    public boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        return call(ACQUIRE_BATCH, backend -> backend.tryAcquireAll(requests, clock));
+    }
+
+    @Override
+    public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        return call(ACQUIRE_ALL, backend -> backend.tryAcquireAllOrNothing(requests, clock));
+    }
+
+    @Override
+    public void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        call(DEBIT, backend -> {
+            backend.debit(key, permits, config, clock);
+            return null;
+        });
+    }
+
+    @Override
+    public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        call(REFUND, backend -> {
+            backend.refund(key, permits, config, clock);
+            return null;
+        });
+    }
+
+    @Override
+    public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        return call(SNAPSHOT, backend -> backend.getSnapshot(key, config, clock));
+    }
+
+    public RateLimitBackend getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,198 @@
+package com.conduit.egress.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+
+/**
+ * Generic Cell Rate Algorithm bucket: the whole state is the theoretical arrival time
+ * (TAT) of the next permit, one 64-bit word updated by CAS.
+ * <p>
+ * With emission interval {@code T = refillPeriod / refillTokens} and burst
+ * {@code capacity}, a request for {@code n} permits moves the TAT to
+ * {@code max(TAT, now) + n * T} and is admitted if that is at most {@code capacity * T}
+ * ahead of now. The bucket is full once the TAT is in the past, and the exact wait for
+ * a denied request is how far the new TAT overshoots that limit.
+ */
+public final class GcraBucket implements LocalBucket {
+
+    static final long RETIRED = Long.MIN_VALUE;
+
+    private static final VarHandle TAT;
+
+    static {
+        try {
+            TAT = MethodHandles.lookup().findVarHandle(GcraBucket.class, "tat", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile long tat;
+
+    public GcraBucket(long nowNanos) {
+        this.tat = nowNanos;
+    }
+
+    @Override
+    public RateLimitAlgorithm algorithm() {
+        return RateLimitAlgorithm.GCRA;
+    }
+
+    @Override
+    public boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return true;
+        }
+        long interval = config.getEmissionIntervalNanos();
+        long limit = burstNanos(config, interval);
+        while (true) {
+            long current = tat;
+            if (current == RETIRED) {
+                return false;
+            }
+            long next = advance(current, nowNanos, permits, interval);
+            if (next - nowNanos > limit) {
+                return false;
+            }
+            if (TAT.compareAndSet(this, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos) {
+        long wanted = Math.max(0L, permits);
+        long interval = config.getEmissionIntervalNanos();
+        long limit = burstNanos(config, interval);
+        while (true) {
+            long current = tat;
+            if (current == RETIRED) {
+                return null;
+            }
+            long next = advance(current, nowNanos, wanted, interval);
+            boolean allowed = next - nowNanos <= limit;
+            if (!allowed || next == current || TAT.compareAndSet(this, current, next)) {
+                return AcquireResult.ofGcra(allowed, allowed ? next : current, config.getCapacity(), interval, nowNanos);
+            }
+        }
+    }
+
+    @Override
+    public Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos) {
+        long wanted = Math.max(0L, permits);
+        long interval = config.getEmissionIntervalNanos();
+        long limit = burstNanos(config, interval);
+        Instant now = Instant.ofEpochSecond(0L, nowNanos);
+        while (true) {
+            long current = tat;
+            if (current == RETIRED) {
+                return null;
+            }
+            long next = advance(current, nowNanos, wanted, interval);
+            long wait = Math.max(0L, next - nowNanos - limit);
+            if (wait > maxWaitNanos) {
+                return Reservation.denied(now, wait);
+            }
+            if (next == current || TAT.compareAndSet(this, current, next)) {
+                return Reservation.granted(now, wait);
+            }
+        }
+    }
+
+    /**
+     * Moves the TAT ahead by the debited permits regardless of the burst limit.
+     */
+    @Override
+    public void debit(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long interval = config.getEmissionIntervalNanos();
+        while (true) {
+            long current = tat;
+            if (current == RETIRED) {
+                return;
+            }
+            if (TAT.compareAndSet(this, current, advance(current, nowNanos, permits, interval))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the TAT back by the refunded permits; a TAT in the past already means full.
+     */
+    @Override
+    public void refund(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long interval = config.getEmissionIntervalNanos();
+        while (true) {
+            long current = tat;
+            if (current == RETIRED || current <= nowNanos) {
+                return;
+            }
+            long back = permits > (current - nowNanos) / interval ? current - nowNanos : permits * interval;
+            if (TAT.compareAndSet(this, current, current - back)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos) {
+        long current = tat;
+        if (current == RETIRED) {
+            return null;
+        }
+        AcquireResult state = AcquireResult.ofGcra(
+                true, current, config.getCapacity(), config.getEmissionIntervalNanos(), nowNanos);
+        return new RateLimitSnapshot(state.getRemainingTokens(), config.getCapacity(), nowNanos / 1_000_000L);
+    }
+
+    @Override
+    public boolean retireIfFull(RateLimitConfig config, long nowNanos) {
+        while (true) {
+            long current = tat;
+            if (current == RETIRED || current > nowNanos) {
+                return false;
+            }
+            if (TAT.compareAndSet(this, current, RETIRED)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean retire() {
+        return (long) TAT.getAndSet(this, RETIRED) != RETIRED;
+    }
+
+    @Override
+    public boolean isRetired() {
+        return tat == RETIRED;
+    }
+
+    /**
+     * Theoretical arrival time as epoch nanos; in the past when the bucket is full.
+     */
+    public long theoreticalArrivalNanos() {
+        return tat;
+    }
+
+    private static long advance(long tat, long nowNanos, long permits, long interval) {
+        long base = Math.max(tat, nowNanos);
+        if (permits > (Long.MAX_VALUE - base) / interval) {
+            return Long.MAX_VALUE;
+        }
+        return base + permits * interval;
+    }
+
+    private static long burstNanos(RateLimitConfig config, long interval) {
+        long capacity = config.getCapacity();
+        return capacity > Long.MAX_VALUE / interval ? Long.MAX_VALUE : capacity * interval;
+    }
+}
@@ -1,98 +1,192 @@
 package com.conduit.egress.core;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 import java.time.Clock;
-import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * In-memory token bucket implementation, safe for concurrent use in a single JVM.
+ * <p>
+ * Each bucket is a {@link PackedTokenBucket}, a {@link GcraBucket} for rules using
+ * {@link RateLimitAlgorithm#GCRA} or a {@link SlidingWindowBucket} for
+ * {@link RateLimitAlgorithm#SLIDING_WINDOW}, so every acquire is a single CAS.
+ * Buckets live in a bounded {@link BucketStore}: full buckets are dropped by
+ * {@link #sweepIdleBuckets(Clock)} and the least frequently used bucket is evicted once
+ * {@code maxBuckets} is reached.
+ * <p>
+ * With {@code stripes} above 1, the bucket of a token-bucket rule with no dimensions,
+ * which every caller in the JVM shares, is a {@link StripedTokenBucket} instead, so that
+ * acquires on that one key scale with cores at a small, documented cost in precision.
  */
-public class InMemoryTokenBucketBackend implements RateLimitBackend {
+public class InMemoryTokenBucketBackend implements LocalBucketBackend, MeterBinder {
 
-    private static final Logger log = LoggerFactory.getLogger(InMemoryTokenBucketBackend.class);
+    private final BucketStore store;
 
-    private static final class BucketState {
-        private final AtomicLong tokens;
-        private final AtomicLong lastRefillNanos;
+    public InMemoryTokenBucketBackend() {
+        this(Integer.MAX_VALUE);
+    }
 
-        BucketState(long tokens, long lastRefillNanos) {
-            this.tokens = new AtomicLong(tokens);
-            this.lastRefillNanos = new AtomicLong(lastRefillNanos);
-        }
+    public InMemoryTokenBucketBackend(int maxBuckets) {
+        this.store = new BucketStore(maxBuckets);
     }
 
-    private final Map<RateLimitKey, BucketState> buckets = new ConcurrentHashMap<>();
+    /**
+     * @param stripes cells per striped bucket, rounded up to a power of two; the number
+     *                of cores is a good start, and 1 or less disables striping
+     */
+    public InMemoryTokenBucketBackend(int maxBuckets, int stripes) {
+        this.store = new BucketStore(maxBuckets, stripes);
+    }
 
     @Override
     public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
         if (permits <= 0) {
             return true;
         }
+        return tryAcquire(key, permits, config, Ticker.nanos(clock));
+    }
 
-        long nowNanos = toEpochNanos(clock.instant());
-        BucketState state = buckets.computeIfAbsent(
-                key,
-                k -> new BucketState(config.getCapacity(), nowNanos)
-        );
-
-        refill(state, config, nowNanos);
+    @Override
+    public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return tryAcquireWithResult(key, permits, config, Ticker.nanos(clock));
+    }
 
+    @Override
+    public Reservation reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        long nowNanos = Ticker.nanos(clock);
         while (true) {
-            long current = state.tokens.get();
-            if (current < permits) {
-                return false;
-            }
-            long updated = current - permits;
-            if (state.tokens.compareAndSet(current, updated)) {
-                return true;
+            BucketStore.Entry entry = store.getOrCreate(key, config, nowNanos);
+            Reservation reservation = entry.bucket.reserve(permits, config, maxWait.toNanos(), nowNanos);
+            if (reservation != null) {
+                return Ticker.onWallClock(reservation, clock);
             }
+            store.discard(entry);
         }
     }
 
-    private void refill(BucketState state, RateLimitConfig config, long nowNanos) {
-        long periodNanos = config.getRefillPeriod().toNanos();
-        if (periodNanos <= 0) {
-            return;
+    @Override
+    public boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        long nowNanos = Ticker.nanos(clock);
+        boolean[] results = new boolean[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            AcquireRequest request = requests.get(i);
+            results[i] = request.getPermits() <= 0
+                    || tryAcquire(request.getKey(), request.getPermits(), request.getConfig(), nowNanos);
         }
+        return results;
+    }
+
+    /**
+     * Debits each bucket with its own CAS and refunds the ones already debited if a later
+     * bucket denies, so no lock is shared between keys.
+     */
+    @Override
+    public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        long nowNanos = Ticker.nanos(clock);
+        return AllOrNothingAcquire.acquire(requests, new AllOrNothingAcquire.Buckets() {
+            @Override
+            public AcquireResult tryAcquireWithResult(AcquireRequest request, long permits) {
+                return InMemoryTokenBucketBackend.this.tryAcquireWithResult(
+                        request.getKey(), permits, request.getConfig(), nowNanos);
+            }
+
+            @Override
+            public void refund(AcquireRequest request) {
+                BucketStore.Entry entry = store.get(request.getKey());
+                if (entry != null) {
+                    entry.bucket.refund(request.getPermits(), request.getConfig(), nowNanos);
+                }
+            }
+        });
+    }
 
+    @Override
+    public void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return;
+        }
+        long nowNanos = Ticker.nanos(clock);
         while (true) {
-            long lastRefill = state.lastRefillNanos.get();
-            long elapsed = nowNanos - lastRefill;
-            if (elapsed < periodNanos) {
+            BucketStore.Entry entry = store.getOrCreate(key, config, nowNanos);
+            entry.bucket.debit(permits, config, nowNanos);
+            if (!entry.bucket.isRetired()) {
                 return;
             }
-            long periods = elapsed / periodNanos;
-            if (periods <= 0) {
-                return;
+            store.discard(entry);
+        }
+    }
+
+    @Override
+    public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        BucketStore.Entry entry = store.get(key);
+        if (entry != null && permits > 0) {
+            entry.bucket.refund(permits, config, Ticker.nanos(clock));
+        }
+    }
+
+    private AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, long nowNanos) {
+        while (true) {
+            BucketStore.Entry entry = store.getOrCreate(key, config, nowNanos);
+            AcquireResult result = entry.bucket.tryAcquireWithResult(permits, config, nowNanos);
+            if (result != null) {
+                return result;
             }
-            long currentTokens = state.tokens.get();
-            long tokensToAdd = periods * config.getRefillTokens();
-            long newTokens = Math.min(config.getCapacity(), currentTokens + tokensToAdd);
-            long newRefillNanos = lastRefill + periods * periodNanos;
+            store.discard(entry);
+        }
+    }
 
-            if (state.tokens.compareAndSet(currentTokens, newTokens)
-                    && state.lastRefillNanos.compareAndSet(lastRefill, newRefillNanos)) {
-                return;
+    private boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, long nowNanos) {
+        while (true) {
+            BucketStore.Entry entry = store.getOrCreate(key, config, nowNanos);
+            if (entry.bucket.tryAcquire(permits, config, nowNanos)) {
+                return true;
+            }
+            if (!entry.bucket.isRetired()) {
+                return false;
             }
-            // CAS failed, retry
+            store.discard(entry);
         }
     }
 
     @Override
     public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
-        BucketState state = buckets.get(key);
-        if (state == null) {
+        BucketStore.Entry entry = store.get(key);
+        long nowNanos = Ticker.nanos(clock);
+        RateLimitSnapshot snapshot = entry == null ? null : entry.bucket.snapshot(config, nowNanos);
+        if (snapshot == null) {
             return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), clock.millis());
         }
-        return new RateLimitSnapshot(state.tokens.get(), config.getCapacity(), clock.millis());
+        return Ticker.onWallClock(snapshot, clock, nowNanos);
     }
 
-    private static long toEpochNanos(Instant instant) {
-        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    @Override
+    public int sweepIdleBuckets(Clock clock) {
+        return store.sweep(Ticker.nanos(clock));
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("conduit.egress.agent.buckets.live", store, BucketStore::size)
+                .description("Token buckets held by the in-memory backend")
+                .register(registry);
+        Gauge.builder("conduit.egress.agent.buckets.max", store, BucketStore::maxBuckets)
+                .description("Configured bucket limit of the in-memory backend")
+                .register(registry);
+        FunctionCounter.builder("conduit.egress.agent.buckets.evicted", store, BucketStore::idleEvictions)
+                .tag("reason", "idle")
+                .register(registry);
+        FunctionCounter.builder("conduit.egress.agent.buckets.evicted", store, BucketStore::capacityEvictions)
+                .tag("reason", "capacity")
+                .register(registry);
     }
 }
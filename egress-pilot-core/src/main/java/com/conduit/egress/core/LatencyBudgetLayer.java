@@ -0,0 +1,45 @@
+package com.conduit.egress.core;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Fails async operations that take longer than a budget with a
+ * {@link TimeoutException}, so that a slow backend costs callers at most the budget;
+ * stack a {@link FallbackLayer} outside it to serve those calls locally instead. The
+ * operation itself is not cancelled and may still take effect on the backend.
+ * <p>
+ * Blocking calls cannot be cut short from outside and are passed through unchanged:
+ * bound them with the backend's own timeouts, such as the Redis command timeout.
+ */
+public final class LatencyBudgetLayer implements RateLimitBackendDecorator {
+
+    private final long budgetNanos;
+
+    public LatencyBudgetLayer(Duration budget) {
+        if (budget == null || budget.isZero() || budget.isNegative()) {
+            throw new IllegalArgumentException("budget must be > 0");
+        }
+        this.budgetNanos = budget.toNanos();
+    }
+
+    @Override
+    public AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        return new ForwardingAsyncRateLimitBackend(backend) {
+            @Override
+            protected <T> CompletionStage<T> call(String operation,
+                                                  Function<AsyncRateLimitBackend, CompletionStage<T>> call) {
+                return super.call(operation, call).toCompletableFuture()
+                        .copy()
+                        .orTimeout(budgetNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    public Duration getBudget() {
+        return Duration.ofNanos(budgetNanos);
+    }
+}
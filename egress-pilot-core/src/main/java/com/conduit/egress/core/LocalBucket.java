@@ -0,0 +1,74 @@
+package com.conduit.egress.core;
+
+/**
+ * Per-key rate limit state held by {@link InMemoryTokenBucketBackend}, one
+ * implementation per {@link RateLimitAlgorithm}.
+ * <p>
+ * Every operation is lock-free and atomic on the bucket. A bucket can be
+ * {@linkplain #retire() retired} by its owning store before it is dropped; a retired
+ * bucket denies every acquire, and the methods that return objects return null, so
+ * that the caller can replace it.
+ */
+interface LocalBucket {
+
+    static LocalBucket create(RateLimitConfig config, long nowNanos) {
+        if (config.isMultiBand()) {
+            return new MultiBandBucket(config, nowNanos);
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.GCRA) {
+            return new GcraBucket(nowNanos);
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            return new SlidingWindowBucket();
+        }
+        return new PackedTokenBucket(config.getCapacity(), nowNanos);
+    }
+
+    RateLimitAlgorithm algorithm();
+
+    /**
+     * Number of bands the bucket tracks; a config with a different number needs a new
+     * bucket.
+     */
+    default int bands() {
+        return 1;
+    }
+
+    boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos);
+
+    AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos);
+
+    Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos);
+
+    /**
+     * Takes {@code permits} already spent at {@code nowNanos}, even if the bucket cannot
+     * cover them: the shortfall becomes debt that later refills pay off before anything
+     * else is admitted. No-op on a retired bucket.
+     */
+    void debit(long permits, RateLimitConfig config, long nowNanos);
+
+    /**
+     * Hands back {@code permits} taken at {@code nowNanos}, without exceeding capacity.
+     * No-op on a retired bucket.
+     */
+    void refund(long permits, RateLimitConfig config, long nowNanos);
+
+    /**
+     * Bucket state for {@link RateLimitBackend#getSnapshot}, or null if retired.
+     */
+    RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos);
+
+    /**
+     * Retires the bucket if it is indistinguishable from a fresh one at {@code nowNanos}.
+     *
+     * @return true if this call retired the bucket
+     */
+    boolean retireIfFull(RateLimitConfig config, long nowNanos);
+
+    /**
+     * @return true if this call retired the bucket
+     */
+    boolean retire();
+
+    boolean isRetired();
+}
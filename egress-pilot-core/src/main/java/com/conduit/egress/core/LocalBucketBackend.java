@@ -0,0 +1,102 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Backend that keeps bucket state in local memory and can reclaim buckets that have
+ * refilled to capacity.
+ * <p>
+ * Local acquires never block on I/O, so the async variants simply complete in the
+ * calling thread.
+ */
+public interface LocalBucketBackend extends RateLimitBackend, AsyncRateLimitBackend {
+
+    /**
+     * Drops buckets that have refilled to capacity. Their next acquire recreates them
+     * full, so no rate limit state is lost.
+     *
+     * @return number of buckets dropped
+     */
+    int sweepIdleBuckets(Clock clock);
+
+    /**
+     * Number of buckets currently held.
+     */
+    int size();
+
+    @Override
+    default CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.completedFuture(tryAcquire(key, permits, config, clock));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                     long permits,
+                                                                     RateLimitConfig config,
+                                                                     Clock clock) {
+        try {
+            return CompletableFuture.completedFuture(tryAcquireWithResult(key, permits, config, clock));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                      long permits,
+                                                      RateLimitConfig config,
+                                                      Duration maxWait,
+                                                      Clock clock) {
+        try {
+            return CompletableFuture.completedFuture(reserve(key, permits, config, maxWait, clock));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        try {
+            return CompletableFuture.completedFuture(tryAcquireAllOrNothing(requests, clock));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            debit(key, permits, config, clock);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        try {
+            refund(key, permits, config, clock);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    @Override
+    default CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        try {
+            return CompletableFuture.completedFuture(getSnapshot(key, config, clock));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.conduit.egress.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link QuotaStore} for the local backends: counters live in this process and, when
+ * given a file, are written through to it on every change so that a restart resumes the
+ * window where it left off instead of granting the full quota again.
+ * <p>
+ * Changes are rare, since {@link QuotaLimiter} reserves in chunks, so the whole table is
+ * rewritten each time (to a temporary file, then atomically moved into place) and
+ * counters past their expiry are dropped on the way.
+ */
+public final class LocalQuotaStore implements QuotaStore {
+
+    private final Path file;
+    private final Clock clock;
+    private final Map<String, long[]> counters = new HashMap<>();
+
+    /**
+     * Counters that last as long as the process.
+     */
+    public LocalQuotaStore() {
+        this(null, Clock.systemUTC());
+    }
+
+    /**
+     * Counters persisted to {@code file}, loaded from it if it exists.
+     */
+    public LocalQuotaStore(Path file, Clock clock) {
+        this.file = file;
+        this.clock = clock;
+        if (file != null && Files.exists(file)) {
+            load();
+        }
+    }
+
+    @Override
+    public synchronized long reserve(String counter, long units, long limit, long expireAtMillis) {
+        long[] entry = counters.computeIfAbsent(counter, c -> new long[2]);
+        long granted = Math.max(0L, Math.min(units, limit - entry[0]));
+        entry[1] = Math.max(entry[1], expireAtMillis);
+        if (granted > 0) {
+            entry[0] += granted;
+            persist();
+        }
+        return granted;
+    }
+
+    @Override
+    public synchronized void release(String counter, long units) {
+        long[] entry = counters.get(counter);
+        if (entry == null || units <= 0) {
+            return;
+        }
+        entry[0] = Math.max(0L, entry[0] - units);
+        persist();
+    }
+
+    /**
+     * Units taken from {@code counter} so far, 0 if unknown.
+     */
+    public synchronized long used(String counter) {
+        long[] entry = counters.get(counter);
+        return entry == null ? 0L : entry[0];
+    }
+
+    private void load() {
+        long now = clock.millis();
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 3) {
+                    continue;
+                }
+                try {
+                    long used = Long.parseLong(fields[1]);
+                    long expireAt = Long.parseLong(fields[2]);
+                    if (expireAt > now) {
+                        counters.put(fields[0], new long[]{used, expireAt});
+                    }
+                } catch (NumberFormatException ignored) {
+                    // skip a damaged line rather than refuse to start
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read quota counters from " + file, ex);
+        }
+    }
+
+    private void persist() {
+        if (file == null) {
+            return;
+        }
+        long now = clock.millis();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            Iterator<Map.Entry<String, long[]>> it = counters.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, long[]> entry = it.next();
+                long[] value = entry.getValue();
+                if (value[1] <= now) {
+                    it.remove();
+                    continue;
+                }
+                writer.write(entry.getKey() + ' ' + value[0] + ' ' + value[1]);
+                writer.newLine();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write quota counters to " + file, ex);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot write quota counters to " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.conduit.egress.core;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Deterministic {@link Ticker} for tests: time moves only through {@link #advance}, which
+ * moves the monotonic reading and the wall clock together. The monotonic reading starts
+ * at zero, unrelated to the wall clock, as {@link System#nanoTime()} would.
+ */
+public final class ManualTicker extends Ticker {
+
+    private volatile long nanos;
+    private volatile Instant instant;
+
+    public ManualTicker(Instant start) {
+        this.instant = start;
+    }
+
+    public synchronized ManualTicker advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("a ticker cannot move backwards");
+        }
+        nanos += duration.toNanos();
+        instant = instant.plus(duration);
+        return this;
+    }
+
+    /**
+     * Steps the wall clock only, as an NTP correction would; bucket time is unaffected.
+     */
+    public synchronized ManualTicker stepWallClock(Duration offset) {
+        instant = instant.plus(offset);
+        return this;
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+}
@@ -0,0 +1,69 @@
+package com.conduit.egress.core;
+
+/**
+ * Outcome of {@link RateLimitBackend#tryAcquireAllOrNothing}: either every bucket was
+ * debited, or none was and the result names the bucket that was the binding constraint,
+ * the denied one whose next token is furthest away.
+ */
+public final class MultiAcquireResult {
+
+    private static final MultiAcquireResult ALLOWED = new MultiAcquireResult(true, -1,
+            new AcquireResult(true, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+
+    private final boolean allowed;
+    private final int bindingIndex;
+    private final AcquireResult bindingResult;
+
+    private MultiAcquireResult(boolean allowed, int bindingIndex, AcquireResult bindingResult) {
+        this.allowed = allowed;
+        this.bindingIndex = bindingIndex;
+        this.bindingResult = bindingResult;
+    }
+
+    public static MultiAcquireResult allowed() {
+        return ALLOWED;
+    }
+
+    /**
+     * Denial bound by request {@code bindingIndex}, whose bucket state is {@code result}.
+     */
+    public static MultiAcquireResult denied(int bindingIndex, AcquireResult result) {
+        return new MultiAcquireResult(false, bindingIndex, result);
+    }
+
+    /**
+     * Denial bound by the denied entry of {@code results} with the longest wait to its
+     * next token. Entries for buckets that had room may be null.
+     *
+     * @param denied which entries were denied
+     */
+    static MultiAcquireResult denied(AcquireResult[] results, boolean[] denied) {
+        int binding = -1;
+        for (int i = 0; i < results.length; i++) {
+            if (denied[i] && (binding < 0
+                    || results[i].getNanosToNextToken() > results[binding].getNanosToNextToken())) {
+                binding = i;
+            }
+        }
+        return denied(binding, results[binding]);
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * Index of the binding request in the batch, or -1 if allowed.
+     */
+    public int getBindingIndex() {
+        return bindingIndex;
+    }
+
+    /**
+     * State of the binding bucket, from which retry-after is derived. All fields are
+     * {@link AcquireResult#UNKNOWN} when allowed.
+     */
+    public AcquireResult getBindingResult() {
+        return bindingResult;
+    }
+}
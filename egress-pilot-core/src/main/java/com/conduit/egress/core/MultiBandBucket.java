@@ -0,0 +1,273 @@
+package com.conduit.egress.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.conduit.egress.core.PackedTokenBucket.MAX_PERIODS_AHEAD;
+import static com.conduit.egress.core.PackedTokenBucket.clampTokens;
+import static com.conduit.egress.core.PackedTokenBucket.nanosToNextRefill;
+import static com.conduit.egress.core.PackedTokenBucket.pack;
+import static com.conduit.egress.core.PackedTokenBucket.periodsAhead;
+import static com.conduit.egress.core.PackedTokenBucket.refill;
+import static com.conduit.egress.core.PackedTokenBucket.stamp;
+import static com.conduit.egress.core.PackedTokenBucket.stampAt;
+import static com.conduit.egress.core.PackedTokenBucket.tokens;
+import static com.conduit.egress.core.PackedTokenBucket.waitForPeriods;
+
+/**
+ * Token bucket for a config with several {@linkplain RateLimitConfig#getBands() bands}.
+ * Each band is a {@link PackedTokenBucket} word, all sharing one origin. The words sit
+ * in one immutable array that is replaced with a single CAS, so every band is checked
+ * and debited together: a call denied by one band takes nothing from the others. Each
+ * successful update allocates a new array.
+ */
+final class MultiBandBucket implements LocalBucket {
+
+    private static final long[] RETIRED = new long[0];
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(MultiBandBucket.class, "state", long[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long originNanos;
+    private volatile long[] state;
+
+    MultiBandBucket(RateLimitConfig config, long nowNanos) {
+        List<RateLimitConfig> bands = config.getBands();
+        long[] words = new long[bands.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = pack(clampTokens(bands.get(i).getCapacity()), 0);
+        }
+        this.originNanos = nowNanos;
+        this.state = words;
+    }
+
+    @Override
+    public RateLimitAlgorithm algorithm() {
+        return RateLimitAlgorithm.TOKEN_BUCKET;
+    }
+
+    @Override
+    public int bands() {
+        long[] current = state;
+        return current == RETIRED ? 0 : current.length;
+    }
+
+    @Override
+    public boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return true;
+        }
+        AcquireResult result = tryAcquireWithResult(permits, config, nowNanos);
+        return result != null && result.isAllowed();
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos) {
+        List<RateLimitConfig> bands = config.getBands();
+        long wanted = config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos);
+        long[] stamps = stamps(bands, nowNanos);
+
+        while (true) {
+            long[] current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            long[] next = refilled(current, bands, stamps);
+            boolean allowed = true;
+            for (int i = 0; i < next.length; i++) {
+                if (periodsAhead(next[i], stamps[i]) > 0 ? wanted > 0 : tokens(next[i]) < wanted) {
+                    allowed = false;
+                }
+            }
+            if (allowed && wanted > 0) {
+                for (int i = 0; i < next.length; i++) {
+                    next[i] = pack(tokens(next[i]) - wanted, stamp(next[i]));
+                }
+            }
+            if (Arrays.equals(next, current) || STATE.compareAndSet(this, current, next)) {
+                List<AcquireResult> results = new ArrayList<>(next.length);
+                for (int i = 0; i < next.length; i++) {
+                    RateLimitConfig band = bands.get(i);
+                    results.add(PackedTokenBucket.result(allowed, next[i], stamps[i], clampTokens(band.getCapacity()),
+                            band.getRefillTokens(), band.getRefillPeriod().toNanos(), originNanos, nowNanos));
+                }
+                return AcquireResult.ofBands(allowed, results);
+            }
+        }
+    }
+
+    /**
+     * Reserves {@code permits} in every band at once, each at the earliest refill
+     * boundary of its own that covers them; the caller waits for the latest of these.
+     */
+    @Override
+    public Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos) {
+        List<RateLimitConfig> bands = config.getBands();
+        long wanted = config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos);
+        long[] stamps = stamps(bands, nowNanos);
+        Instant now = Instant.ofEpochSecond(0L, nowNanos);
+
+        while (true) {
+            long[] current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            long[] next = refilled(current, bands, stamps);
+            long wait = 0L;
+            boolean tooFar = false;
+            for (int i = 0; i < next.length; i++) {
+                RateLimitConfig band = bands.get(i);
+                long capacity = clampTokens(band.getCapacity());
+                long refillTokens = band.getRefillTokens();
+                long periodNanos = band.getRefillPeriod().toNanos();
+                int ahead = periodsAhead(next[i], stamps[i]);
+                long tokens = tokens(next[i]);
+                if (ahead == 0 && tokens >= wanted) {
+                    next[i] = pack(tokens - wanted, stamp(next[i]));
+                    continue;
+                }
+                long deficit = wanted - tokens;
+                long periodsNeeded = deficit <= 0 ? 0L : (deficit + refillTokens - 1) / refillTokens;
+                long periodsToDue = ahead + periodsNeeded;
+                tooFar |= periodsToDue > MAX_PERIODS_AHEAD;
+                wait = Math.max(wait, waitForPeriods(periodsToDue,
+                        nanosToNextRefill(originNanos, nowNanos, periodNanos), periodNanos));
+                long surplus = Math.min(capacity, tokens + periodsNeeded * refillTokens - wanted);
+                next[i] = pack(surplus, stamps[i] + periodsToDue);
+            }
+            if (wait > maxWaitNanos || tooFar) {
+                return Reservation.denied(now, wait);
+            }
+            if (STATE.compareAndSet(this, current, next)) {
+                return Reservation.granted(now, wait);
+            }
+        }
+    }
+
+    @Override
+    public void debit(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        List<RateLimitConfig> bands = config.getBands();
+        long cost = config.warmUpCost(permits, nowNanos - originNanos);
+        long[] stamps = stamps(bands, nowNanos);
+        while (true) {
+            long[] current = state;
+            if (current == RETIRED) {
+                return;
+            }
+            long[] next = refilled(current, bands, stamps);
+            for (int i = 0; i < next.length; i++) {
+                RateLimitConfig band = bands.get(i);
+                next[i] = PackedTokenBucket.debit(next[i], stamps[i], cost, clampTokens(band.getCapacity()),
+                        band.getRefillTokens());
+            }
+            if (STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void refund(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        List<RateLimitConfig> bands = config.getBands();
+        long cost = config.warmUpCost(permits, nowNanos - originNanos);
+        long[] stamps = stamps(bands, nowNanos);
+        while (true) {
+            long[] current = state;
+            if (current == RETIRED) {
+                return;
+            }
+            long[] next = refilled(current, bands, stamps);
+            for (int i = 0; i < next.length; i++) {
+                next[i] = pack(Math.min(clampTokens(bands.get(i).getCapacity()), tokens(next[i]) + cost),
+                        stamp(next[i]));
+            }
+            if (STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * State of the first band, with the fewest tokens stored in any band.
+     */
+    @Override
+    public RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos) {
+        long[] current = state;
+        if (current == RETIRED) {
+            return null;
+        }
+        long tokens = Long.MAX_VALUE;
+        for (long word : current) {
+            tokens = Math.min(tokens, tokens(word));
+        }
+        long lastRefillNanos = PackedTokenBucket.lastRefillNanos(originNanos, current[0],
+                config.getRefillPeriod().toNanos(), nowNanos);
+        return new RateLimitSnapshot(tokens, config.getCapacity(), lastRefillNanos / 1_000_000L);
+    }
+
+    @Override
+    public boolean retireIfFull(RateLimitConfig config, long nowNanos) {
+        List<RateLimitConfig> bands = config.getBands();
+        long[] stamps = stamps(bands, nowNanos);
+        while (true) {
+            long[] current = state;
+            if (current == RETIRED) {
+                return false;
+            }
+            long[] refilled = refilled(current, bands, stamps);
+            for (int i = 0; i < refilled.length; i++) {
+                if (tokens(refilled[i]) < clampTokens(bands.get(i).getCapacity())
+                        || periodsAhead(refilled[i], stamps[i]) > 0) {
+                    return false;
+                }
+            }
+            if (STATE.compareAndSet(this, current, RETIRED)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean retire() {
+        return (long[]) STATE.getAndSet(this, RETIRED) != RETIRED;
+    }
+
+    @Override
+    public boolean isRetired() {
+        return state == RETIRED;
+    }
+
+    private long[] stamps(List<RateLimitConfig> bands, long nowNanos) {
+        long[] stamps = new long[bands.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = stampAt(originNanos, nowNanos, bands.get(i).getRefillPeriod().toNanos());
+        }
+        return stamps;
+    }
+
+    private static long[] refilled(long[] current, List<RateLimitConfig> bands, long[] stamps) {
+        long[] next = new long[current.length];
+        for (int i = 0; i < next.length; i++) {
+            RateLimitConfig band = bands.get(i);
+            next[i] = refill(current[i], clampTokens(band.getCapacity()), band.getRefillTokens(), stamps[i]);
+        }
+        return next;
+    }
+}
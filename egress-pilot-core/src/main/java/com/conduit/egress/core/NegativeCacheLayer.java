@@ -0,0 +1,209 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers buckets found empty and denies further acquires on them locally until their
+ * next token is due, so a hot key under sustained throttling costs one backend call per
+ * refill rather than one per request. Worth stacking on remote backends; local ones are
+ * already as cheap as the cache.
+ * <p>
+ * Only a denial that left the bucket with no tokens and reported when the next one
+ * arrives is cached, since no acquire can succeed before then. A refund, or any allowed
+ * acquire, forgets the key. Permits handed back by another instance are not seen, so a
+ * cached key may be denied for up to one refill interval longer than needed. The cache
+ * holds at most {@code maxEntries} keys; when full, expired entries are dropped and new
+ * denials go uncached until there is room.
+ */
+public final class NegativeCacheLayer implements RateLimitBackendDecorator, MeterBinder {
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<RateLimitKey, Long> deniedUntil = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+
+    public NegativeCacheLayer(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public RateLimitBackend decorate(RateLimitBackend backend) {
+        return new ForwardingRateLimitBackend(backend) {
+            @Override
+            public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+                return tryAcquireWithResult(key, permits, config, clock).isAllowed();
+            }
+
+            @Override
+            public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+                AcquireResult cached = lookup(key, permits, clock);
+                if (cached != null) {
+                    return cached;
+                }
+                AcquireResult result = super.tryAcquireWithResult(key, permits, config, clock);
+                remember(key, result, clock);
+                return result;
+            }
+
+            @Override
+            public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+                MultiAcquireResult cached = lookupAll(requests, clock);
+                if (cached != null) {
+                    return cached;
+                }
+                MultiAcquireResult result = super.tryAcquireAllOrNothing(requests, clock);
+                rememberAll(requests, result, clock);
+                return result;
+            }
+
+            @Override
+            public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+                super.refund(key, permits, config, clock);
+                deniedUntil.remove(key);
+            }
+        };
+    }
+
+    @Override
+    public AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        return new ForwardingAsyncRateLimitBackend(backend) {
+            @Override
+            public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key,
+                                                            long permits,
+                                                            RateLimitConfig config,
+                                                            Clock clock) {
+                return tryAcquireWithResultAsync(key, permits, config, clock).thenApply(AcquireResult::isAllowed);
+            }
+
+            @Override
+            public CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                            long permits,
+                                                                            RateLimitConfig config,
+                                                                            Clock clock) {
+                AcquireResult cached = lookup(key, permits, clock);
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(cached);
+                }
+                return super.tryAcquireWithResultAsync(key, permits, config, clock)
+                        .thenApply(result -> {
+                            remember(key, result, clock);
+                            return result;
+                        });
+            }
+
+            @Override
+            public CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests,
+                                                                                   Clock clock) {
+                MultiAcquireResult cached = lookupAll(requests, clock);
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(cached);
+                }
+                return super.tryAcquireAllOrNothingAsync(requests, clock)
+                        .thenApply(result -> {
+                            rememberAll(requests, result, clock);
+                            return result;
+                        });
+            }
+
+            @Override
+            public CompletionStage<Void> refundAsync(RateLimitKey key,
+                                                     long permits,
+                                                     RateLimitConfig config,
+                                                     Clock clock) {
+                return super.refundAsync(key, permits, config, clock)
+                        .whenComplete((ignored, ex) -> deniedUntil.remove(key));
+            }
+        };
+    }
+
+    /**
+     * The cached denial for {@code key}, or null if the backend must be asked.
+     */
+    AcquireResult lookup(RateLimitKey key, long permits, Clock clock) {
+        if (permits <= 0 || deniedUntil.isEmpty()) {
+            return null;
+        }
+        Long until = deniedUntil.get(key);
+        if (until == null) {
+            return null;
+        }
+        long wait = until - Ticker.nanos(clock);
+        if (wait <= 0) {
+            deniedUntil.remove(key, until);
+            return null;
+        }
+        hits.increment();
+        return new AcquireResult(false, 0L, wait, AcquireResult.UNKNOWN);
+    }
+
+    private MultiAcquireResult lookupAll(List<AcquireRequest> requests, Clock clock) {
+        if (deniedUntil.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            AcquireRequest request = requests.get(i);
+            AcquireResult cached = lookup(request.getKey(), request.getPermits(), clock);
+            if (cached != null) {
+                return MultiAcquireResult.denied(i, cached);
+            }
+        }
+        return null;
+    }
+
+    void remember(RateLimitKey key, AcquireResult result, Clock clock) {
+        if (result.isAllowed()) {
+            if (!deniedUntil.isEmpty()) {
+                deniedUntil.remove(key);
+            }
+            return;
+        }
+        long wait = result.getNanosToNextToken();
+        if (wait <= 0 || result.getRemainingTokens() > 0) {
+            return;
+        }
+        long now = Ticker.nanos(clock);
+        if (deniedUntil.size() >= maxEntries) {
+            deniedUntil.values().removeIf(until -> until - now <= 0);
+            if (deniedUntil.size() >= maxEntries) {
+                return;
+            }
+        }
+        deniedUntil.put(key, now + wait);
+    }
+
+    private void rememberAll(List<AcquireRequest> requests, MultiAcquireResult result, Clock clock) {
+        if (!result.isAllowed() && result.getBindingIndex() >= 0) {
+            remember(requests.get(result.getBindingIndex()).getKey(), result.getBindingResult(), clock);
+        }
+    }
+
+    public int size() {
+        return deniedUntil.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("conduit.egress.agent.negative_cache.size", deniedUntil, ConcurrentHashMap::size)
+                .description("Keys denied locally until their next token is due")
+                .register(registry);
+        FunctionCounter.builder("conduit.egress.agent.negative_cache.hits", hits, LongAdder::sum)
+                .description("Acquires denied from the negative cache without a backend call")
+                .register(registry);
+    }
+}
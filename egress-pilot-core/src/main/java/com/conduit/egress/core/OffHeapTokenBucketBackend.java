@@ -0,0 +1,330 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket backend that keeps every bucket in a fixed-size off-heap
+ * {@link BucketTable}, keyed by the 64-bit {@link RateLimitKey#fingerprint()}.
+ * <p>
+ * A bucket costs 32 bytes of direct memory and no heap objects, so millions of keys do
+ * not add GC pressure. The table is sized up front for {@code maxBuckets}; full
+ * buckets are dropped by {@link #sweepIdleBuckets(Clock)}, and acquires for new keys
+ * fail with {@link IllegalStateException} while the table is full. Two keys with the
+ * same fingerprint share a bucket; with 64-bit fingerprints this is negligible at the
+ * sizes the table supports.
+ * <p>
+ * Every rule is enforced as a token bucket, whatever its
+ * {@link RateLimitConfig#getAlgorithm() algorithm}, and without
+ * {@linkplain RateLimitConfig#getWarmUpPeriod() warm-up}: slots carry no cold state. A slot
+ * holds one bucket word, so only the first of a rule's {@linkplain RateLimitConfig#getBands()
+ * bands} is enforced. The first config of a rule with a warm-up or several bands logs a
+ * warning.
+ * <p>
+ * Given a file, the table is memory-mapped from it instead, so bucket state outlives the
+ * process at no cost to acquires: a restarted agent resumes from the buckets' state at
+ * shutdown, refilled for the downtime, instead of granting every key a full burst. The
+ * clock passed to that constructor must be the one later passed to acquires.
+ * <p>
+ * {@link #shared} maps a file that every JVM on the host opens alike, so they enforce one
+ * host-wide limit with the same CAS on the shared pages and no round trip. Bucket time is
+ * then epoch nanos, advanced by each process's monotonic clock from the moment it opened
+ * the table, and rule ids are derived from rule names so that every process reads them
+ * the same way.
+ */
+public class OffHeapTokenBucketBackend implements LocalBucketBackend, MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapTokenBucketBackend.class);
+
+    private static final class Rule {
+        final int id;
+        volatile RateLimitConfig config;
+
+        Rule(int id, RateLimitConfig config) {
+            this.id = id;
+            this.config = config;
+        }
+    }
+
+    private final BucketTable table;
+    private final int maxBuckets;
+    private final long timeOffsetNanos;
+    private final Map<String, Rule> rulesByName = new ConcurrentHashMap<>();
+    private final Map<Integer, Rule> rulesById = new ConcurrentHashMap<>();
+    private final LongAdder idleEvictions = new LongAdder();
+    private final Set<String> warnedRules = ConcurrentHashMap.newKeySet();
+
+    public OffHeapTokenBucketBackend(int maxBuckets) {
+        this(BucketTable.allocate(maxBuckets), maxBuckets, 0L);
+    }
+
+    private OffHeapTokenBucketBackend(BucketTable table, int maxBuckets, long timeOffsetNanos) {
+        this.table = table;
+        this.maxBuckets = maxBuckets;
+        this.timeOffsetNanos = timeOffsetNanos;
+    }
+
+    /**
+     * Backend whose table is mapped from {@code file}, reloading the buckets it holds if
+     * it was written by a backend of the same size.
+     *
+     * @throws UncheckedIOException if the file cannot be opened or mapped
+     */
+    public OffHeapTokenBucketBackend(int maxBuckets, Path file, Clock clock) {
+        this(map(file, maxBuckets, epochOffsetNanos(clock)), maxBuckets, 0L);
+    }
+
+    /**
+     * Backend over the table in {@code file} shared by every process on the host that
+     * opens it with this method and the same {@code maxBuckets}. Use one per process, and
+     * keep the file on a local filesystem ({@code /dev/shm} on Linux keeps it in memory).
+     * Pass {@code clock} to every call as well.
+     *
+     * @throws UncheckedIOException  if the file cannot be opened or mapped
+     * @throws IllegalStateException if other processes use the file with another size
+     */
+    public static OffHeapTokenBucketBackend shared(int maxBuckets, Path file, Clock clock) {
+        BucketTable table;
+        try {
+            table = BucketTable.share(file, maxBuckets);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot map shared bucket table file " + file, ex);
+        }
+        return new OffHeapTokenBucketBackend(table, maxBuckets, epochOffsetNanos(clock));
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return true;
+        }
+        return tryAcquire(key, permits, config, now(clock));
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return table.tryAcquireWithResult(
+                key.fingerprint(),
+                rule(config).id,
+                Math.max(0L, permits),
+                PackedTokenBucket.clampTokens(config.getCapacity()),
+                config.getRefillTokens(),
+                config.getRefillPeriod().toNanos(),
+                now(clock)
+        );
+    }
+
+    @Override
+    public boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        long nowNanos = now(clock);
+        boolean[] results = new boolean[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            AcquireRequest request = requests.get(i);
+            results[i] = request.getPermits() <= 0
+                    || tryAcquire(request.getKey(), request.getPermits(), request.getConfig(), nowNanos);
+        }
+        return results;
+    }
+
+    /**
+     * Debits each slot with its own CAS and refunds the ones already debited if a later
+     * slot denies, so no lock is shared between keys.
+     */
+    @Override
+    public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        long nowNanos = now(clock);
+        return AllOrNothingAcquire.acquire(requests, new AllOrNothingAcquire.Buckets() {
+            @Override
+            public AcquireResult tryAcquireWithResult(AcquireRequest request, long permits) {
+                RateLimitConfig config = request.getConfig();
+                return table.tryAcquireWithResult(request.getKey().fingerprint(), rule(config).id, permits,
+                        PackedTokenBucket.clampTokens(config.getCapacity()), config.getRefillTokens(),
+                        config.getRefillPeriod().toNanos(), nowNanos);
+            }
+
+            @Override
+            public void refund(AcquireRequest request) {
+                table.refund(request.getKey().fingerprint(), request.getPermits(),
+                        PackedTokenBucket.clampTokens(request.getConfig().getCapacity()));
+            }
+        });
+    }
+
+    @Override
+    public void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return;
+        }
+        table.debit(key.fingerprint(), rule(config).id, permits, PackedTokenBucket.clampTokens(config.getCapacity()),
+                config.getRefillTokens(), config.getRefillPeriod().toNanos(), now(clock));
+    }
+
+    @Override
+    public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits > 0) {
+            table.refund(key.fingerprint(), permits, PackedTokenBucket.clampTokens(config.getCapacity()));
+        }
+    }
+
+    private boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, long nowNanos) {
+        return table.tryAcquire(
+                key.fingerprint(),
+                rule(config).id,
+                permits,
+                PackedTokenBucket.clampTokens(config.getCapacity()),
+                config.getRefillTokens(),
+                config.getRefillPeriod().toNanos(),
+                nowNanos
+        );
+    }
+
+    @Override
+    public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        long nowNanos = now(clock);
+        long[] state = table.snapshot(key.fingerprint(), config.getRefillPeriod().toNanos(), nowNanos);
+        if (state == null) {
+            return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), clock.millis());
+        }
+        return Ticker.onWallClock(new RateLimitSnapshot(state[0], config.getCapacity(), state[1] / 1_000_000L),
+                clock, nowNanos);
+    }
+
+    @Override
+    public int sweepIdleBuckets(Clock clock) {
+        int dropped = table.sweep(now(clock), id -> {
+            Rule rule = rulesById.get(id);
+            return rule == null ? null : rule.config;
+        });
+        idleEvictions.add(dropped);
+        return dropped;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * Writes a file-backed table through to disk; no-op otherwise. The mapping itself
+     * stays valid until the backend is garbage collected.
+     */
+    @Override
+    public void close() {
+        try {
+            table.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Direct memory reserved for the bucket table, in bytes.
+     */
+    public long offHeapBytes() {
+        return table.byteSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("conduit.egress.agent.buckets.live", this, OffHeapTokenBucketBackend::size)
+                .description("Token buckets held by the off-heap backend")
+                .register(registry);
+        Gauge.builder("conduit.egress.agent.buckets.max", this, b -> b.maxBuckets)
+                .description("Configured bucket limit of the off-heap backend")
+                .register(registry);
+        Gauge.builder("conduit.egress.agent.buckets.offheap.bytes", this, OffHeapTokenBucketBackend::offHeapBytes)
+                .description("Direct memory reserved by the off-heap bucket table")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("conduit.egress.agent.buckets.evicted", idleEvictions, LongAdder::sum)
+                .tag("reason", "idle")
+                .register(registry);
+    }
+
+    /**
+     * Resolves the integer id stored in each slot for the config's rule, keeping the
+     * latest config per rule name so that sweeps use current refill settings. Ids are a
+     * hash of the rule name and nothing else, so processes sharing a table agree on them
+     * whatever order they meet their rules in.
+     *
+     * @throws IllegalStateException if the rule's id is taken by another rule
+     */
+    private Rule rule(RateLimitConfig config) {
+        Rule rule = rulesByName.get(config.getName());
+        if (rule == null) {
+            rule = register(config);
+        }
+        if (rule.config != config) {
+            rule.config = config;
+            warnIfNotEnforced(config);
+        }
+        return rule;
+    }
+
+    /**
+     * Warns once per rule about the parts of its config that slots cannot hold.
+     */
+    private void warnIfNotEnforced(RateLimitConfig config) {
+        if (config.isMultiBand() && warnedRules.add("bands:" + config.getName())) {
+            log.warn("Rule '{}' has {} bands; the off-heap backend enforces only the first",
+                    config.getName(), config.getBands().size());
+        }
+        if (config.getWarmUpPeriod() != null && warnedRules.add("warm-up:" + config.getName())) {
+            log.warn("Rule '{}' has a warm-up period; the off-heap backend admits its full rate from the start",
+                    config.getName());
+        }
+    }
+
+    private synchronized Rule register(RateLimitConfig config) {
+        Rule existing = rulesByName.get(config.getName());
+        if (existing != null) {
+            return existing;
+        }
+        int id = (int) RateLimitKey.builder(config.getName()).build().fingerprint() & Integer.MAX_VALUE;
+        Rule taken = rulesById.get(id);
+        if (taken != null) {
+            throw new IllegalStateException("Rules '" + taken.config.getName() + "' and '" + config.getName()
+                    + "' have the same off-heap rule id; rename one of them");
+        }
+        Rule rule = new Rule(id, config);
+        warnIfNotEnforced(config);
+        rulesById.put(id, rule);
+        rulesByName.put(config.getName(), rule);
+        return rule;
+    }
+
+    /**
+     * Bucket time: the clock's nanos, moved onto epoch nanos for a shared table.
+     */
+    private long now(Clock clock) {
+        return Ticker.nanos(clock) + timeOffsetNanos;
+    }
+
+    private static long epochOffsetNanos(Clock clock) {
+        Instant now = clock.instant();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano() - Ticker.nanos(clock);
+    }
+
+    private static BucketTable map(Path file, int maxBuckets, long clockOffsetNanos) {
+        try {
+            return BucketTable.map(file, maxBuckets, clockOffsetNanos);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot map bucket table file " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.conduit.egress.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+
+/**
+ * Token bucket whose token count and refill stamp share one 64-bit word, so that
+ * refill and consume are applied together with a single CAS.
+ * <p>
+ * Layout: the high 32 bits hold the (unsigned) token count, the low 32 bits hold the
+ * number of whole refill periods elapsed since the bucket origin, modulo 2^32. A stored
+ * stamp up to {@link #MAX_PERIODS_AHEAD} periods past the current one is a reservation;
+ * any other difference counts as periods elapsed. A bucket idle for less than
+ * 2^32 - {@code MAX_PERIODS_AHEAD} periods (about 53 minutes for a 1 µs period, 37 days
+ * for 1 ms) therefore refills exactly; the idle sweep drops it once full, well before
+ * the stamp comes round to read as a reservation. Capacities above {@link #MAX_TOKENS}
+ * are clamped.
+ * <p>
+ * A {@linkplain #reserve reservation} that has to wait for future refills moves the
+ * stamp ahead of the current period: the periods up to the stamp are already spent,
+ * and the tokens stored with it only become available once that period is reached.
+ * <p>
+ * A bucket can be {@linkplain #retire() retired} by its owning store before it is
+ * dropped; a retired bucket denies every acquire so that no permit is consumed from
+ * state that is about to be discarded.
+ * <p>
+ * For a rule with a {@linkplain RateLimitConfig#getWarmUpPeriod() warm-up}, the bucket
+ * goes cold at its origin: every permit costs the {@linkplain RateLimitConfig#warmUpCost
+ * warm-up cost} for the time since then, in acquires, debits and refunds alike.
+ */
+public final class PackedTokenBucket implements LocalBucket {
+
+    public static final long MAX_TOKENS = 0xFFFF_FFFEL;
+
+    static final long RETIRED = -1L;
+
+    private static final long STAMP_MASK = 0xFFFF_FFFFL;
+
+    /**
+     * Reservations may not push the stamp further ahead than this, so that the signed
+     * stamp difference stays unambiguous.
+     */
+    static final long MAX_PERIODS_AHEAD = Integer.MAX_VALUE / 2;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(PackedTokenBucket.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long originNanos;
+    private volatile long state;
+
+    public PackedTokenBucket(long capacity, long nowNanos) {
+        this.originNanos = nowNanos;
+        this.state = pack(clampTokens(capacity), 0);
+    }
+
+    @Override
+    public RateLimitAlgorithm algorithm() {
+        return RateLimitAlgorithm.TOKEN_BUCKET;
+    }
+
+    /**
+     * Refills the bucket for the time elapsed up to {@code nowNanos} and consumes
+     * {@code permits} tokens if available, in one atomic step.
+     *
+     * @return true if the tokens were consumed
+     */
+    @Override
+    public boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return true;
+        }
+        long cost = config.warmUpCost(permits, nowNanos - originNanos);
+        long capacity = clampTokens(config.getCapacity());
+        long refillTokens = config.getRefillTokens();
+        long nowStamp = stampAt(nowNanos, config.getRefillPeriod().toNanos());
+
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return false;
+            }
+            long refilled = refill(current, capacity, refillTokens, nowStamp);
+            long tokens = periodsAhead(refilled, nowStamp) > 0 ? 0L : tokens(refilled);
+            if (tokens < cost) {
+                // Publish the refill only if it changed something; a denied caller must not
+                // spin on the word just to record a no-op.
+                if (refilled != current) {
+                    STATE.compareAndSet(this, current, refilled);
+                }
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, pack(tokens - cost, stamp(refilled)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #tryAcquire} but reports the bucket state after the acquire. A
+     * request for zero permits only refills the bucket.
+     *
+     * @return the result, or null if the bucket has been retired
+     */
+    @Override
+    public AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos) {
+        long wanted = config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos);
+        long capacity = clampTokens(config.getCapacity());
+        long refillTokens = config.getRefillTokens();
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long nowStamp = stampAt(nowNanos, periodNanos);
+
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            long refilled = refill(current, capacity, refillTokens, nowStamp);
+            if (periodsAhead(refilled, nowStamp) > 0) {
+                return result(wanted == 0, current, nowStamp, capacity, refillTokens, periodNanos,
+                        originNanos, nowNanos);
+            }
+            long tokens = tokens(refilled);
+            boolean allowed = tokens >= wanted;
+            long next = allowed ? pack(tokens - wanted, stamp(refilled)) : refilled;
+            if (next == current || STATE.compareAndSet(this, current, next)) {
+                return result(allowed, next, nowStamp, capacity, refillTokens, periodNanos, originNanos, nowNanos);
+            }
+        }
+    }
+
+    /**
+     * Result reporting the state of the refilled word {@code word} at {@code nowNanos}.
+     */
+    static AcquireResult result(boolean allowed,
+                                long word,
+                                long nowStamp,
+                                long capacity,
+                                long refillTokens,
+                                long periodNanos,
+                                long originNanos,
+                                long nowNanos) {
+        int ahead = periodsAhead(word, nowStamp);
+        long toNextRefill = nanosToNextRefill(originNanos, nowNanos, periodNanos);
+        if (ahead == 0) {
+            return AcquireResult.ofBucket(allowed, tokens(word), capacity, refillTokens, periodNanos, toNextRefill);
+        }
+        // Capacity is held by a reservation: nothing can be taken before it is due, when
+        // the stored surplus becomes available.
+        long due = toNextRefill + (ahead - 1) * periodNanos;
+        AcquireResult atDue = AcquireResult.ofBucket(allowed, tokens(word), capacity, refillTokens, periodNanos,
+                periodNanos);
+        return new AcquireResult(allowed, 0L,
+                tokens(word) > 0 ? due : due + atDue.getNanosToNextToken(),
+                due + atDue.getNanosToFull());
+    }
+
+    /**
+     * Reserves {@code permits} at the earliest refill boundary at which they are
+     * available, if that is at most {@code maxWaitNanos} away. Permits available now are
+     * taken immediately; otherwise the bucket is drained and the refills needed to cover
+     * the rest are spent in advance, so later callers queue behind this reservation.
+     *
+     * @return the reservation, or null if the bucket has been retired
+     */
+    @Override
+    public Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos) {
+        long wanted = config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos);
+        long capacity = clampTokens(config.getCapacity());
+        long refillTokens = config.getRefillTokens();
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long nowStamp = stampAt(nowNanos, periodNanos);
+        Instant now = Instant.ofEpochSecond(0L, nowNanos);
+
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            long refilled = refill(current, capacity, refillTokens, nowStamp);
+            int ahead = periodsAhead(refilled, nowStamp);
+            long tokens = tokens(refilled);
+            if (ahead == 0 && tokens >= wanted) {
+                long next = pack(tokens - wanted, stamp(refilled));
+                if (next == current || STATE.compareAndSet(this, current, next)) {
+                    return Reservation.granted(now, 0L);
+                }
+                continue;
+            }
+
+            long deficit = wanted - tokens;
+            long periodsNeeded = deficit <= 0 ? 0L : (deficit + refillTokens - 1) / refillTokens;
+            long periodsToDue = ahead + periodsNeeded;
+            long wait = waitForPeriods(periodsToDue, nanosToNextRefill(originNanos, nowNanos, periodNanos), periodNanos);
+            if (wait > maxWaitNanos || periodsToDue > MAX_PERIODS_AHEAD) {
+                return Reservation.denied(now, wait);
+            }
+            long surplus = Math.min(capacity, tokens + periodsNeeded * refillTokens - wanted);
+            long next = pack(surplus, nowStamp + periodsToDue);
+            if (STATE.compareAndSet(this, current, next)) {
+                return Reservation.granted(now, wait);
+            }
+        }
+    }
+
+    /**
+     * Takes what the bucket holds, then spends the refills needed for the rest in
+     * advance, as a reservation would, however long they take to come in.
+     */
+    @Override
+    public void debit(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long cost = config.warmUpCost(permits, nowNanos - originNanos);
+        long capacity = clampTokens(config.getCapacity());
+        long nowStamp = stampAt(nowNanos, config.getRefillPeriod().toNanos());
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return;
+            }
+            long refilled = refill(current, capacity, config.getRefillTokens(), nowStamp);
+            long next = debit(refilled, nowStamp, cost, capacity, config.getRefillTokens());
+            if (next == current || STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Word left by forcibly taking {@code permits} from the refilled word
+     * {@code refilled}: stored tokens first, then future refills, with the stamp moved
+     * ahead past the periods they come from. Debt beyond {@link #MAX_PERIODS_AHEAD}
+     * periods is forgiven.
+     */
+    static long debit(long refilled, long nowStamp, long permits, long capacity, long refillTokens) {
+        long tokens = tokens(refilled);
+        if (tokens >= permits) {
+            return pack(tokens - permits, stamp(refilled));
+        }
+        int ahead = periodsAhead(refilled, nowStamp);
+        long periodsNeeded = (permits - tokens + refillTokens - 1) / refillTokens;
+        long periods = Math.min(periodsNeeded, MAX_PERIODS_AHEAD - ahead);
+        long surplus = periods < periodsNeeded
+                ? 0L
+                : Math.min(capacity, tokens + periods * refillTokens - permits);
+        return pack(surplus, nowStamp + ahead + periods);
+    }
+
+    @Override
+    public void refund(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long cost = config.warmUpCost(permits, nowNanos - originNanos);
+        long capacity = clampTokens(config.getCapacity());
+        long nowStamp = stampAt(nowNanos, config.getRefillPeriod().toNanos());
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return;
+            }
+            long refilled = refill(current, capacity, config.getRefillTokens(), nowStamp);
+            long next = pack(Math.min(capacity, tokens(refilled) + cost), stamp(refilled));
+            if (next == current || STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket if it would be full after refilling up to {@code nowNanos}, at
+     * which point its state is indistinguishable from a freshly created bucket.
+     *
+     * @return true if this call retired the bucket
+     */
+    @Override
+    public boolean retireIfFull(RateLimitConfig config, long nowNanos) {
+        long capacity = clampTokens(config.getCapacity());
+        long nowStamp = stampAt(nowNanos, config.getRefillPeriod().toNanos());
+        while (true) {
+            long current = state;
+            if (current == RETIRED) {
+                return false;
+            }
+            long refilled = refill(current, capacity, config.getRefillTokens(), nowStamp);
+            if (tokens(refilled) < capacity || periodsAhead(refilled, nowStamp) > 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, RETIRED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Retires the bucket unconditionally, discarding whatever tokens it holds.
+     *
+     * @return true if this call retired the bucket
+     */
+    @Override
+    public boolean retire() {
+        return (long) STATE.getAndSet(this, RETIRED) != RETIRED;
+    }
+
+    @Override
+    public boolean isRetired() {
+        return state == RETIRED;
+    }
+
+    /**
+     * Stored tokens, without applying any pending refill, and the last refill boundary.
+     */
+    @Override
+    public RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos) {
+        if (isRetired()) {
+            return null;
+        }
+        return new RateLimitSnapshot(storedTokens(), config.getCapacity(), lastRefillNanos(config, nowNanos) / 1_000_000L);
+    }
+
+    /**
+     * Tokens currently stored in the bucket, without applying any pending refill.
+     */
+    public long storedTokens() {
+        return tokens(state);
+    }
+
+    /**
+     * Epoch nanos of the last refill boundary applied to the bucket.
+     */
+    public long lastRefillNanos(RateLimitConfig config, long nowNanos) {
+        return lastRefillNanos(originNanos, state, config.getRefillPeriod().toNanos(), nowNanos);
+    }
+
+    static long lastRefillNanos(long originNanos, long word, long periodNanos, long nowNanos) {
+        long nowStamp = stampAt(originNanos, nowNanos, periodNanos);
+        long behind = periodsBehind(word, nowStamp);
+        long periodsSinceOrigin = Math.max(0L, (nowNanos - originNanos) / periodNanos) - behind;
+        return originNanos + Math.max(0L, periodsSinceOrigin) * periodNanos;
+    }
+
+    private long stampAt(long nowNanos, long periodNanos) {
+        return stampAt(originNanos, nowNanos, periodNanos);
+    }
+
+    static long stampAt(long originNanos, long nowNanos, long periodNanos) {
+        long sinceOrigin = nowNanos - originNanos;
+        if (sinceOrigin <= 0) {
+            return 0;
+        }
+        return (sinceOrigin / periodNanos) & STAMP_MASK;
+    }
+
+    static long nanosToNextRefill(long originNanos, long nowNanos, long periodNanos) {
+        long sinceOrigin = nowNanos - originNanos;
+        if (sinceOrigin < 0) {
+            return periodNanos - sinceOrigin;
+        }
+        return periodNanos - sinceOrigin % periodNanos;
+    }
+
+    /**
+     * Periods by which the word's stamp runs ahead of {@code nowStamp} because of an
+     * outstanding reservation; 0 if it does not.
+     */
+    static int periodsAhead(long word, long nowStamp) {
+        long ahead = (stamp(word) - nowStamp) & STAMP_MASK;
+        return ahead <= MAX_PERIODS_AHEAD ? (int) ahead : 0;
+    }
+
+    /**
+     * Periods elapsed from the word's stamp to {@code nowStamp}; 0 if the stamp is
+     * ahead of it.
+     */
+    static long periodsBehind(long word, long nowStamp) {
+        return periodsAhead(word, nowStamp) > 0 ? 0L : (nowStamp - stamp(word)) & STAMP_MASK;
+    }
+
+    static long waitForPeriods(long periods, long nanosToNextRefill, long periodNanos) {
+        if (periods <= 0) {
+            return 0L;
+        }
+        if (periods - 1 > (Long.MAX_VALUE - nanosToNextRefill) / periodNanos) {
+            return Long.MAX_VALUE;
+        }
+        return nanosToNextRefill + (periods - 1) * periodNanos;
+    }
+
+    static long refill(long word, long capacity, long refillTokens, long nowStamp) {
+        long periods = periodsBehind(word, nowStamp);
+        if (periods == 0) {
+            return word;
+        }
+        long tokens = tokens(word);
+        long missing = capacity - tokens;
+        long newTokens;
+        if (missing <= 0) {
+            newTokens = capacity;
+        } else if (periods >= (missing + refillTokens - 1) / refillTokens) {
+            newTokens = capacity;
+        } else {
+            newTokens = tokens + periods * refillTokens;
+        }
+        return pack(newTokens, nowStamp);
+    }
+
+    static long pack(long tokens, long stamp) {
+        return (tokens << 32) | (stamp & STAMP_MASK);
+    }
+
+    static long tokens(long word) {
+        return word >>> 32;
+    }
+
+    static long stamp(long word) {
+        return word & STAMP_MASK;
+    }
+
+    static long clampTokens(long tokens) {
+        return Math.min(tokens, MAX_TOKENS);
+    }
+}
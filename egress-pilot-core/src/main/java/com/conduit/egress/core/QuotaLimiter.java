@@ -0,0 +1,197 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces {@link QuotaPolicy quotas} against a shared {@link QuotaStore} while keeping
+ * the hot path in memory.
+ * <p>
+ * Each key holds a lease of units taken from the store's counter for the current window,
+ * up to {@code leaseSize} at a time. Acquires decrement the lease with a CAS; only when
+ * it runs dry does one thread per key go to the store for the next chunk, which the
+ * store grants only while the window's counter is under the limit. The counter therefore
+ * never exceeds the quota across agents, at the price of up to {@code leaseSize} units
+ * per agent and key being held but unspent when the quota runs out. Leases left over
+ * when the window rolls over are dropped; on {@link #close()} they are given back.
+ */
+public class QuotaLimiter implements AutoCloseable {
+
+    /**
+     * How long a store keeps a window's counter after the window ends, so that an agent
+     * whose clock lags slightly behind still finds it instead of starting a fresh count.
+     */
+    static final long RETENTION_MILLIS = 3_600_000L;
+
+    private static final class Lease {
+        final String counter;
+        final long startMillis;
+        final long endMillis;
+        final AtomicLong remaining = new AtomicLong();
+
+        Lease(String counter, QuotaPolicy.Window window) {
+            this.counter = counter;
+            this.startMillis = window.getStartMillis();
+            this.endMillis = window.getEndMillis();
+        }
+
+        boolean take(long permits) {
+            while (true) {
+                long current = remaining.get();
+                if (current < permits) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - permits)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final QuotaStore store;
+    private final long leaseSize;
+    private final Map<RateLimitKey, Lease> leases = new ConcurrentHashMap<>();
+
+    public QuotaLimiter(QuotaStore store, long leaseSize) {
+        if (leaseSize <= 0) {
+            throw new IllegalArgumentException("leaseSize must be > 0");
+        }
+        this.store = store;
+        this.leaseSize = leaseSize;
+    }
+
+    /**
+     * Takes {@code permits} from the key's current lease without calling the store.
+     * False means the lease cannot cover them, not that the quota is spent; call
+     * {@link #tryAcquire} (off any event loop) to find out.
+     */
+    public boolean tryAcquireCached(RateLimitKey key, long permits, QuotaPolicy policy, Clock clock) {
+        if (permits <= 0) {
+            return true;
+        }
+        Lease lease = leases.get(key);
+        return lease != null
+                && lease.startMillis == policy.window(clock.millis()).getStartMillis()
+                && lease.take(permits);
+    }
+
+    /**
+     * Takes {@code permits} from the key's quota, leasing more units from the store if
+     * the current lease cannot cover them. May block on the store.
+     */
+    public boolean tryAcquire(RateLimitKey key, long permits, QuotaPolicy policy, Clock clock) {
+        if (permits <= 0) {
+            return true;
+        }
+        if (permits > policy.getLimit()) {
+            return false;
+        }
+        QuotaPolicy.Window window = policy.window(clock.millis());
+        Lease lease = lease(key, window);
+        if (lease.take(permits)) {
+            return true;
+        }
+        synchronized (lease) {
+            if (lease.take(permits)) {
+                return true;
+            }
+            long wanted = Math.max(Math.min(leaseSize, policy.getLimit()), permits - lease.remaining.get());
+            long granted = store.reserve(lease.counter, wanted, policy.getLimit(),
+                    window.getEndMillis() + RETENTION_MILLIS);
+            if (granted > 0) {
+                lease.remaining.addAndGet(granted);
+            }
+            return lease.take(permits);
+        }
+    }
+
+    /**
+     * Returns {@code permits} taken by {@link #tryAcquire} but not used, for example when
+     * another limit denied the call. Permits from a window that has since ended are lost.
+     */
+    public void refund(RateLimitKey key, long permits, QuotaPolicy policy, Clock clock) {
+        if (permits <= 0) {
+            return;
+        }
+        Lease lease = leases.get(key);
+        if (lease != null && lease.startMillis == policy.window(clock.millis()).getStartMillis()) {
+            lease.remaining.addAndGet(permits);
+        }
+    }
+
+    /**
+     * Milliseconds until the policy's current window ends and its quota resets.
+     */
+    public long millisToReset(QuotaPolicy policy, Clock clock) {
+        long now = clock.millis();
+        return Math.max(1L, policy.window(now).getEndMillis() - now);
+    }
+
+    /**
+     * Drops leases of windows that have ended, and returns how many were dropped.
+     */
+    public int sweepExpired(Clock clock) {
+        long now = clock.millis();
+        int dropped = 0;
+        for (Map.Entry<RateLimitKey, Lease> entry : leases.entrySet()) {
+            if (entry.getValue().endMillis <= now && leases.remove(entry.getKey(), entry.getValue())) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    public int size() {
+        return leases.size();
+    }
+
+    /**
+     * Gives every unspent lease back to the store, so that a stopping agent does not
+     * strand its share of the quota. Leases whose return fails are still dropped; the
+     * first failure is rethrown once all others have been tried.
+     */
+    @Override
+    public void close() {
+        RuntimeException failure = null;
+        for (Lease lease : leases.values()) {
+            long unused = lease.remaining.getAndSet(0L);
+            if (unused <= 0) {
+                continue;
+            }
+            try {
+                store.release(lease.counter, unused);
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        leases.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Lease lease(RateLimitKey key, QuotaPolicy.Window window) {
+        Lease lease = leases.get(key);
+        if (lease != null && lease.startMillis == window.getStartMillis()) {
+            return lease;
+        }
+        return leases.compute(key, (k, current) -> current != null && current.startMillis == window.getStartMillis()
+                ? current
+                : new Lease(counter(k, window), window));
+    }
+
+    /**
+     * Store counter for a key's window: the key's SHA-256 {@link RateLimitKey#digest()
+     * digest} and the window start, so a new window starts a new counter and the old one
+     * simply expires.
+     */
+    static String counter(RateLimitKey key, QuotaPolicy.Window window) {
+        return key.digest() + ':' + window.getStartMillis();
+    }
+}
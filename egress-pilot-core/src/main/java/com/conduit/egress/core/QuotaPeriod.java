@@ -0,0 +1,47 @@
+package com.conduit.egress.core;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Calendar window of a {@link QuotaPolicy}. Windows start at local midnight (of the first
+ * day, for months) in the policy's zone, so they follow the provider's billing calendar
+ * rather than a fixed number of seconds: months differ in length and a day across a
+ * DST change lasts 23 or 25 hours.
+ */
+public enum QuotaPeriod {
+
+    DAY {
+        @Override
+        ZonedDateTime start(ZonedDateTime time) {
+            return time.truncatedTo(ChronoUnit.DAYS);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusDays(1).truncatedTo(ChronoUnit.DAYS);
+        }
+    },
+
+    MONTH {
+        @Override
+        ZonedDateTime start(ZonedDateTime time) {
+            return time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+        }
+
+        @Override
+        ZonedDateTime next(ZonedDateTime start) {
+            return start.plusMonths(1).withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+        }
+    };
+
+    /**
+     * Start of the window containing {@code time}.
+     */
+    abstract ZonedDateTime start(ZonedDateTime time);
+
+    /**
+     * Start of the window after the one starting at {@code start}.
+     */
+    abstract ZonedDateTime next(ZonedDateTime start);
+}
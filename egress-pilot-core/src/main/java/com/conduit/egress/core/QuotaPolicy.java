@@ -0,0 +1,89 @@
+package com.conduit.egress.core;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * Long-horizon limit of a rule: at most {@code limit} permits per calendar
+ * {@link QuotaPeriod} in {@code zone}, on top of the rule's rate limit.
+ * <p>
+ * Windows are computed on wall time (epoch millis), since they must line up with the
+ * provider's calendar and across agents. The current window is cached, so resolving it
+ * on the hot path is two comparisons until the window rolls over.
+ */
+public final class QuotaPolicy {
+
+    private final long limit;
+    private final QuotaPeriod period;
+    private final ZoneId zone;
+    private volatile Window current = new Window(Long.MIN_VALUE, Long.MIN_VALUE);
+
+    public QuotaPolicy(long limit, QuotaPeriod period, ZoneId zone) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be > 0");
+        }
+        this.limit = limit;
+        this.period = Objects.requireNonNull(period, "period must not be null");
+        this.zone = zone == null ? ZoneOffset.UTC : zone;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public QuotaPeriod getPeriod() {
+        return period;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Window containing {@code epochMillis}.
+     */
+    public Window window(long epochMillis) {
+        Window window = current;
+        if (window.contains(epochMillis)) {
+            return window;
+        }
+        ZonedDateTime start = period.start(Instant.ofEpochMilli(epochMillis).atZone(zone));
+        window = new Window(start.toInstant().toEpochMilli(), period.next(start).toInstant().toEpochMilli());
+        current = window;
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return limit + "/" + period + " (" + zone + ")";
+    }
+
+    /**
+     * One calendar window, {@code [startMillis, endMillis)} in epoch millis.
+     */
+    public static final class Window {
+
+        private final long startMillis;
+        private final long endMillis;
+
+        Window(long startMillis, long endMillis) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getEndMillis() {
+            return endMillis;
+        }
+
+        public boolean contains(long epochMillis) {
+            return epochMillis >= startMillis && epochMillis < endMillis;
+        }
+    }
+}
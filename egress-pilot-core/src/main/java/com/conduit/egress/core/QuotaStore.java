@@ -0,0 +1,22 @@
+package com.conduit.egress.core;
+
+/**
+ * Durable counters behind {@link QuotaLimiter}. Every agent enforcing a quota shares one
+ * counter per key and window, and takes units from it in chunks, so a store is called
+ * once per lease rather than once per request.
+ */
+public interface QuotaStore {
+
+    /**
+     * Atomically adds up to {@code units} to {@code counter} without taking it past
+     * {@code limit}, and returns how many were added (0 once the quota is spent). The
+     * counter may be dropped after {@code expireAtMillis}.
+     */
+    long reserve(String counter, long units, long limit, long expireAtMillis);
+
+    /**
+     * Gives back {@code units} reserved from {@code counter} but never used. The counter
+     * never goes below zero.
+     */
+    void release(String counter, long units);
+}
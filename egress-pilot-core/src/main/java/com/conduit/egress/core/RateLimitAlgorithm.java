@@ -0,0 +1,31 @@
+package com.conduit.egress.core;
+
+/**
+ * Algorithm a backend uses to enforce a {@link RateLimitConfig}. Every algorithm reads
+ * the same capacity / refill settings, so switching a rule between them keeps its
+ * long-run rate and burst size.
+ */
+public enum RateLimitAlgorithm {
+
+    /**
+     * Token bucket that refills {@code refillTokens} at each whole {@code refillPeriod}.
+     */
+    TOKEN_BUCKET,
+
+    /**
+     * Generic Cell Rate Algorithm: one theoretical arrival time per key, admitting one
+     * permit every {@code refillPeriod / refillTokens} with bursts of up to
+     * {@code capacity}. Smoother than the token bucket (no step at period boundaries)
+     * and reports exact retry-after.
+     */
+    GCRA,
+
+    /**
+     * Sliding-window counter: counts for the current and previous fixed window of
+     * {@link RateLimitConfig#getWindowNanos()}, the previous one weighted by how much of
+     * it still overlaps the window ending now. At most {@code capacity} permits are
+     * admitted in any rolling window (up to the linear-overlap approximation), so there
+     * is no double burst around window boundaries.
+     */
+    SLIDING_WINDOW
+}
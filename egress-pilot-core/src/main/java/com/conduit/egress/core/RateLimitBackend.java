@@ -1,6 +1,9 @@
 package com.conduit.egress.core;
 
 import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 
 /**
  * Pluggable backend contract for token-bucket based rate limiting.
@@ -23,6 +26,115 @@ public interface RateLimitBackend {
             Clock clock
     );
 
+    /**
+     * Try to acquire tokens and report the resulting bucket state in the same call, so
+     * that a denied caller can compute its retry-after without another backend access.
+     * <p>
+     * The default implementation calls {@link #tryAcquire} and, only if denied, estimates
+     * the timings from {@link #getSnapshot}; numeric fields of an allowed result are
+     * {@link AcquireResult#UNKNOWN}. Backends override it to return exact state from the
+     * acquire itself.
+     */
+    default AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (tryAcquire(key, permits, config, clock)) {
+            return new AcquireResult(true, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN);
+        }
+        try {
+            return AcquireResult.estimate(false, getSnapshot(key, config, clock), config, clock.millis());
+        } catch (RuntimeException ex) {
+            return new AcquireResult(false, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN);
+        }
+    }
+
+    /**
+     * Reserves {@code permits} at the earliest instant they will be available, provided
+     * that is no more than {@code maxWait} away, in the manner of Guava's
+     * {@code RateLimiter.reserve}. A granted reservation consumes the permits immediately
+     * (later callers queue behind it), so the caller sleeps once until
+     * {@link Reservation#getAdmitAt()} and proceeds without acquiring again. A denied
+     * reservation consumes nothing.
+     * <p>
+     * The default implementation cannot hold future capacity: it grants only permits
+     * available now and otherwise returns a denial whose wait is the backend's estimate
+     * of the next token, which may lie within {@code maxWait}; callers can sleep for it
+     * and reserve again.
+     */
+    default Reservation reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        Instant now = clock.instant();
+        AcquireResult result = tryAcquireWithResult(key, permits, config, clock);
+        if (result.isAllowed()) {
+            return Reservation.granted(now, 0L);
+        }
+        return Reservation.denied(now, result.getNanosToNextToken());
+    }
+
+    /**
+     * Try to acquire tokens for each request in the batch. Items are evaluated
+     * independently and in order, so a denied item does not affect the others and
+     * repeated keys draw from the same bucket.
+     * <p>
+     * The default implementation calls {@link #tryAcquire} per item; backends override it
+     * to evaluate the whole batch in one pass or one round trip.
+     *
+     * @return per-item results, in request order
+     */
+    default boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        boolean[] results = new boolean[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            AcquireRequest request = requests.get(i);
+            results[i] = tryAcquire(request.getKey(), request.getPermits(), request.getConfig(), clock);
+        }
+        return results;
+    }
+
+    /**
+     * Acquires from every bucket in {@code requests} or from none, for a request governed
+     * by several rules at once (for example per api key and per host). Requests must name
+     * distinct buckets; items with no permits requested are ignored.
+     * <p>
+     * The default implementation acquires in order and stops at the first denial; it
+     * cannot return permits already taken from earlier buckets, so it is not atomic.
+     * Backends override it to debit all buckets or none.
+     *
+     * @return the outcome, naming the binding bucket if denied
+     */
+    default MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        for (int i = 0; i < requests.size(); i++) {
+            AcquireRequest request = requests.get(i);
+            if (request.getPermits() <= 0) {
+                continue;
+            }
+            AcquireResult result = tryAcquireWithResult(request.getKey(), request.getPermits(), request.getConfig(), clock);
+            if (!result.isAllowed()) {
+                return MultiAcquireResult.denied(i, result);
+            }
+        }
+        return MultiAcquireResult.allowed();
+    }
+
+    /**
+     * Takes {@code permits} that a call has already spent, for example when the upstream
+     * reports a higher cost than was acquired up front. Unlike {@link #tryAcquire} the
+     * debit is never denied: whatever the bucket cannot cover becomes debt that delays
+     * later acquires.
+     * <p>
+     * The default implementation can only take what is available: it calls
+     * {@link #tryAcquire}, and a debit the bucket cannot cover is dropped.
+     */
+    default void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits > 0) {
+            tryAcquire(key, permits, config, clock);
+        }
+    }
+
+    /**
+     * Hands back {@code permits} acquired but not spent, for example when the upstream
+     * reports a lower cost than was acquired up front. The bucket never exceeds its
+     * capacity. The default implementation does nothing.
+     */
+    default void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+    }
+
     /**
      * Snapshots the current state of the bucket.
      */
@@ -0,0 +1,48 @@
+package com.conduit.egress.core;
+
+import java.util.List;
+
+/**
+ * An ordered stack of {@link RateLimitBackendDecorator}s, listed outermost first: the
+ * first layer sees each call before the others and the last one wraps the backend
+ * itself.
+ */
+public final class RateLimitBackendChain {
+
+    private static final RateLimitBackendChain EMPTY = new RateLimitBackendChain(List.of());
+
+    private final List<RateLimitBackendDecorator> layers;
+
+    public RateLimitBackendChain(List<? extends RateLimitBackendDecorator> layers) {
+        this.layers = List.copyOf(layers);
+    }
+
+    public static RateLimitBackendChain empty() {
+        return EMPTY;
+    }
+
+    public RateLimitBackend decorate(RateLimitBackend backend) {
+        RateLimitBackend decorated = backend;
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            decorated = layers.get(i).decorate(decorated);
+        }
+        return decorated;
+    }
+
+    public AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        AsyncRateLimitBackend decorated = backend;
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            decorated = layers.get(i).decorateAsync(decorated);
+        }
+        return decorated;
+    }
+
+    public List<RateLimitBackendDecorator> getLayers() {
+        return layers;
+    }
+
+    @Override
+    public String toString() {
+        return layers.stream().map(layer -> layer.getClass().getSimpleName()).toList().toString();
+    }
+}
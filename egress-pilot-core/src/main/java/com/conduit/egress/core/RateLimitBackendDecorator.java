@@ -0,0 +1,22 @@
+package com.conduit.egress.core;
+
+/**
+ * A reusable layer around a backend, such as timing, negative caching, fallback or a
+ * latency budget. A layer wraps the blocking and the async view of a backend alike, or
+ * only one of them: each method returns its argument unchanged by default.
+ * <p>
+ * A layer should keep any state it needs (caches, counters) in the decorator itself, so
+ * that both views share it.
+ *
+ * @see RateLimitBackendChain
+ */
+public interface RateLimitBackendDecorator {
+
+    default RateLimitBackend decorate(RateLimitBackend backend) {
+        return backend;
+    }
+
+    default AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        return backend;
+    }
+}
@@ -1,19 +1,34 @@
 package com.conduit.egress.core;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
 
 /**
- * Immutable description of a single rate limit.
+ * Immutable description of a single rate limit. A token-bucket limit may carry further
+ * {@linkplain #withBand bands}, such as 10/s and 500/min and 20k/hour on the same key,
+ * all kept in one bucket and debited together.
  */
 public final class RateLimitConfig {
 
+    /**
+     * How many times the configured rate a cold token bucket is slowed down to at the
+     * start of its {@linkplain #getWarmUpPeriod() warm-up}, as in Guava's
+     * {@code SmoothWarmingUp}.
+     */
+    public static final int COLD_FACTOR = 3;
+
     private final String name;
     private final long capacity;
     private final long refillTokens;
     private final Duration refillPeriod;
     private final EnumSet<RateLimitDimension> dimensions;
+    private final int dimensionMask;
+    private final RateLimitAlgorithm algorithm;
+    private final long warmUpNanos;
+    private final List<RateLimitConfig> bands;
 
     public RateLimitConfig(
             String name,
@@ -21,6 +36,33 @@ public final class RateLimitConfig {
             long refillTokens,
             Duration refillPeriod,
             EnumSet<RateLimitDimension> dimensions
+    ) {
+        this(name, capacity, refillTokens, refillPeriod, dimensions, RateLimitAlgorithm.TOKEN_BUCKET);
+    }
+
+    public RateLimitConfig(
+            String name,
+            long capacity,
+            long refillTokens,
+            Duration refillPeriod,
+            EnumSet<RateLimitDimension> dimensions,
+            RateLimitAlgorithm algorithm
+    ) {
+        this(name, capacity, refillTokens, refillPeriod, dimensions, algorithm, null);
+    }
+
+    /**
+     * @param warmUpPeriod how long a cold token bucket takes to ramp up to the configured
+     *                     rate; null or zero for no warm-up
+     */
+    public RateLimitConfig(
+            String name,
+            long capacity,
+            long refillTokens,
+            Duration refillPeriod,
+            EnumSet<RateLimitDimension> dimensions,
+            RateLimitAlgorithm algorithm,
+            Duration warmUpPeriod
     ) {
         this.name = Objects.requireNonNull(name, "name must not be null");
         if (capacity <= 0) {
@@ -35,12 +77,95 @@ public final class RateLimitConfig {
         if (capacity < refillTokens) {
             throw new IllegalArgumentException("capacity must be >= refillTokens");
         }
+        if (warmUpPeriod != null && warmUpPeriod.isNegative()) {
+            throw new IllegalArgumentException("warmUpPeriod must not be negative");
+        }
         this.capacity = capacity;
         this.refillTokens = refillTokens;
         this.refillPeriod = refillPeriod;
         this.dimensions = dimensions == null
                 ? EnumSet.of(RateLimitDimension.HOST, RateLimitDimension.PATH)
                 : dimensions.clone();
+        int mask = 0;
+        for (RateLimitDimension dimension : this.dimensions) {
+            mask |= dimension.mask();
+        }
+        this.dimensionMask = mask;
+        this.algorithm = algorithm == null ? RateLimitAlgorithm.TOKEN_BUCKET : algorithm;
+        this.warmUpNanos = warmUpPeriod == null ? 0L : warmUpPeriod.toNanos();
+        this.bands = List.of(this);
+    }
+
+    private RateLimitConfig(RateLimitConfig first, List<RateLimitConfig> bands) {
+        this.name = first.name;
+        this.capacity = first.capacity;
+        this.refillTokens = first.refillTokens;
+        this.refillPeriod = first.refillPeriod;
+        this.dimensions = first.dimensions;
+        this.dimensionMask = first.dimensionMask;
+        this.algorithm = first.algorithm;
+        this.warmUpNanos = first.warmUpNanos;
+        this.bands = List.copyOf(bands);
+    }
+
+    /**
+     * Config for a rate-style spec: {@code permitsPerSecond} refilled smoothly, a permit
+     * at a time, with bursts of up to {@code burst}. The refill period is the interval
+     * between two permits, to the nanosecond, so a high-rate rule paces evenly instead of
+     * refilling in one step per second. Above a million permits per second the period is
+     * held at about a microsecond and refills the permits due in it together, which keeps
+     * the refill stamp of a {@link PackedTokenBucket} unambiguous for over half an hour.
+     */
+    public static RateLimitConfig ofRate(
+            String name,
+            double permitsPerSecond,
+            long burst,
+            EnumSet<RateLimitDimension> dimensions,
+            RateLimitAlgorithm algorithm,
+            Duration warmUpPeriod
+    ) {
+        if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        long refillTokens = Math.max(1L, Math.min(burst, (long) Math.ceil(permitsPerSecond / 1_000_000d)));
+        long periodNanos = Math.max(1L, Math.round(refillTokens * 1_000_000_000d / permitsPerSecond));
+        return new RateLimitConfig(name, burst, refillTokens, Duration.ofNanos(periodNanos), dimensions,
+                algorithm, warmUpPeriod);
+    }
+
+    /**
+     * Copy of this limit with a further band of {@code capacity} tokens refilled by
+     * {@code refillTokens} every {@code refillPeriod}. A call is admitted only if every
+     * band can cover it, and then costs each band the same permits. This config's own
+     * capacity and refill remain the first band, which is also the one reported by
+     * snapshots and the one any warm-up is computed against.
+     *
+     * @throws IllegalStateException if the algorithm is not {@link RateLimitAlgorithm#TOKEN_BUCKET}
+     */
+    public RateLimitConfig withBand(long capacity, long refillTokens, Duration refillPeriod) {
+        if (algorithm != RateLimitAlgorithm.TOKEN_BUCKET) {
+            throw new IllegalStateException("Only token-bucket limits can have several bands");
+        }
+        RateLimitConfig band = new RateLimitConfig(name, capacity, refillTokens, refillPeriod, dimensions);
+        List<RateLimitConfig> next = new ArrayList<>(bands);
+        if (next.get(0) == this) {
+            next.set(0, new RateLimitConfig(name, this.capacity, this.refillTokens, this.refillPeriod, dimensions,
+                    algorithm, getWarmUpPeriod()));
+        }
+        next.add(band);
+        return new RateLimitConfig(this, next);
+    }
+
+    /**
+     * Single-band configs of every band, this config's own limits first. A config
+     * without further bands returns just itself.
+     */
+    public List<RateLimitConfig> getBands() {
+        return bands;
+    }
+
+    public boolean isMultiBand() {
+        return bands.size() > 1;
     }
 
     public String getName() {
@@ -59,7 +184,69 @@ public final class RateLimitConfig {
         return refillPeriod;
     }
 
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Warm-up of a cold token bucket, or null if it starts at the configured rate. A
+     * bucket is cold when it is created, which is also what happens to an idle bucket
+     * once it has refilled and been dropped.
+     */
+    public Duration getWarmUpPeriod() {
+        return warmUpNanos == 0 ? null : Duration.ofNanos(warmUpNanos);
+    }
+
+    /**
+     * Tokens that {@code permits} cost a token bucket that went cold
+     * {@code sinceColdNanos} ago. Over the warm-up, the rate the bucket admits ramps
+     * linearly from {@code 1 / COLD_FACTOR} of the configured rate to all of it, and
+     * so does the burst a cold bucket lets through; a cost never exceeds capacity, so
+     * that any call the warm bucket would admit stays admissible. Equals
+     * {@code permits} once warm.
+     */
+    public long warmUpCost(long permits, long sinceColdNanos) {
+        if (warmUpNanos == 0 || permits <= 0 || sinceColdNanos >= warmUpNanos) {
+            return permits;
+        }
+        double warmth = Math.max(0L, sinceColdNanos) / (double) warmUpNanos;
+        long cost = (long) Math.ceil(permits * COLD_FACTOR / (1d + (COLD_FACTOR - 1) * warmth));
+        return Math.max(permits, Math.min(cost, capacity));
+    }
+
+    /**
+     * Nanos between two permits at the sustained rate, the GCRA emission interval.
+     */
+    public long getEmissionIntervalNanos() {
+        return Math.max(1L, refillPeriod.toNanos() / refillTokens);
+    }
+
+    /**
+     * Nanos to refill from empty to capacity at the sustained rate, the length of a
+     * sliding window admitting {@code capacity} permits. Equals the refill period when
+     * {@code refillTokens == capacity}.
+     */
+    public long getWindowNanos() {
+        long periodNanos = refillPeriod.toNanos();
+        if (capacity > Long.MAX_VALUE / periodNanos) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1L, periodNanos * capacity / refillTokens);
+    }
+
     public EnumSet<RateLimitDimension> getDimensions() {
         return dimensions.clone();
     }
+
+    /**
+     * Dimensions as a bitmask of {@link RateLimitDimension#mask()} values, precomputed
+     * so that building a key per request does not copy the dimension set.
+     */
+    public int getDimensionMask() {
+        return dimensionMask;
+    }
+
+    public boolean hasDimension(RateLimitDimension dimension) {
+        return (dimensionMask & dimension.mask()) != 0;
+    }
 }
@@ -9,5 +9,14 @@ public enum RateLimitDimension {
     METHOD,
     PACKAGE,
     PRINCIPAL,
-    API_KEY
+    API_KEY;
+
+    private final int mask = 1 << ordinal();
+
+    /**
+     * Single-bit mask of this dimension, see {@link RateLimitConfig#getDimensionMask()}.
+     */
+    public int mask() {
+        return mask;
+    }
 }
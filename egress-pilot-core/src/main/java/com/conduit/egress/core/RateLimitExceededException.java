@@ -2,6 +2,10 @@ package com.conduit.egress.core;
 
 /**
  * Thrown when a rate limit bucket denies a request.
+ * <p>
+ * Denials are expected control flow on a throttled hot key, so the exception records no
+ * stack trace and takes no suppressed exceptions: creating one costs an allocation, not
+ * a stack walk. The key and retry-after identify the denial instead.
  */
 public class RateLimitExceededException extends RuntimeException {
 
@@ -9,7 +13,7 @@ public class RateLimitExceededException extends RuntimeException {
     private final long retryAfterMillis;
 
     public RateLimitExceededException(RateLimitKey key, String message, long retryAfterMillis) {
-        super(message);
+        super(message, null, false, false);
         this.key = key;
         this.retryAfterMillis = retryAfterMillis;
     }
@@ -1,9 +1,19 @@
 package com.conduit.egress.core;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Objects;
 
 /**
  * Immutable composite key for identifying a particular rate limit bucket.
+ * <p>
+ * The canonical byte encoding, 64-bit fingerprint and hash code are computed once when
+ * the key is built, and the SHA-256 {@link #digest() digest} once on first use, so map
+ * lookups and backend key derivation do no per-call hashing.
  */
 public final class RateLimitKey {
 
@@ -14,6 +24,10 @@ public final class RateLimitKey {
     private final String pkg;
     private final String principal;
     private final String apiKey;
+    private final byte[] canonicalBytes;
+    private final long fingerprint;
+    private final int hash;
+    private String digest;
 
     private RateLimitKey(Builder builder) {
         this.name = builder.name;
@@ -23,6 +37,9 @@ public final class RateLimitKey {
         this.pkg = builder.pkg;
         this.principal = builder.principal;
         this.apiKey = builder.apiKey;
+        this.canonicalBytes = encode(name, host, path, method, pkg, principal, apiKey);
+        this.fingerprint = fingerprint(canonicalBytes);
+        this.hash = (int) (fingerprint ^ (fingerprint >>> 32));
     }
 
     public String getName() {
@@ -53,23 +70,99 @@ public final class RateLimitKey {
         return apiKey;
     }
 
+    /**
+     * 64-bit fingerprint of all key fields, used by tables and stores that address
+     * buckets without retaining the key itself. Distinct keys collide with probability
+     * ~2^-64 per pair.
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * URL-safe Base64 SHA-256 digest of the canonical bytes, for stores that name state
+     * after the key and must not let a crafted key collide with another's. Computed on
+     * first use and cached; racing threads compute the same value.
+     */
+    public String digest() {
+        String d = digest;
+        if (d == null) {
+            d = Base64.getUrlEncoder().withoutPadding().encodeToString(sha256(canonicalBytes));
+            digest = d;
+        }
+        return d;
+    }
+
+    /**
+     * Canonical encoding of all key fields: for each field in declaration order, a
+     * 4-byte big-endian UTF-8 length (-1 for null) followed by the UTF-8 bytes. Two keys
+     * are equal exactly when their canonical bytes are equal.
+     */
+    public byte[] canonicalBytes() {
+        return canonicalBytes.clone();
+    }
+
+    private static byte[] encode(String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        int size = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                size += encoded[i].length;
+            }
+            size += Integer.BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] field : encoded) {
+            if (field == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(field.length).put(field);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long fingerprint(byte[] bytes) {
+        long h = FNV_OFFSET;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        return fmix64(h);
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof RateLimitKey)) return false;
         RateLimitKey that = (RateLimitKey) o;
-        return Objects.equals(name, that.name)
-                && Objects.equals(host, that.host)
-                && Objects.equals(path, that.path)
-                && Objects.equals(method, that.method)
-                && Objects.equals(pkg, that.pkg)
-                && Objects.equals(principal, that.principal)
-                && Objects.equals(apiKey, that.apiKey);
+        return fingerprint == that.fingerprint
+                && Arrays.equals(canonicalBytes, that.canonicalBytes);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, host, path, method, pkg, principal, apiKey);
+        return hash;
     }
 
     @Override
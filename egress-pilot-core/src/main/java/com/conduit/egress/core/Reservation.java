@@ -0,0 +1,61 @@
+package com.conduit.egress.core;
+
+import java.time.Instant;
+
+/**
+ * Outcome of {@link RateLimitBackend#reserve}: either permits held for the caller from
+ * {@link #getAdmitAt()} onwards, or a refusal that says when capacity is expected.
+ * <p>
+ * A granted reservation has already consumed its permits; the caller only has to wait
+ * {@link #getWaitNanos()} before proceeding and must not acquire again.
+ */
+public final class Reservation {
+
+    private final boolean granted;
+    private final long waitNanos;
+    private final Instant admitAt;
+
+    private Reservation(boolean granted, long waitNanos, Instant admitAt) {
+        this.granted = granted;
+        this.waitNanos = waitNanos;
+        this.admitAt = admitAt;
+    }
+
+    /**
+     * Permits reserved for {@code now + waitNanos}.
+     */
+    public static Reservation granted(Instant now, long waitNanos) {
+        return new Reservation(true, Math.max(0L, waitNanos), now.plusNanos(Math.max(0L, waitNanos)));
+    }
+
+    /**
+     * Nothing reserved; the permits are expected to be available in {@code waitNanos},
+     * which may be {@link AcquireResult#UNKNOWN}.
+     */
+    public static Reservation denied(Instant now, long waitNanos) {
+        if (waitNanos == AcquireResult.UNKNOWN) {
+            return new Reservation(false, AcquireResult.UNKNOWN, null);
+        }
+        return new Reservation(false, waitNanos, now.plusNanos(waitNanos));
+    }
+
+    public boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Nanos from the reservation until the permits are available: the delay to sleep
+     * if granted, or the retry hint if denied. {@link AcquireResult#UNKNOWN} if the
+     * backend could not tell.
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Instant the permits are (or would be) available, or null if unknown.
+     */
+    public Instant getAdmitAt() {
+        return admitAt;
+    }
+}
@@ -0,0 +1,283 @@
+package com.conduit.egress.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+
+/**
+ * Sliding-window counter: permits counted in the current and the previous fixed window
+ * of {@link RateLimitConfig#getWindowNanos()}, aligned to the epoch. A request is
+ * admitted if {@code previous * (1 - elapsed / window) + current + permits} stays
+ * within {@code capacity}, which approximates a rolling window ending now without the
+ * double burst a fixed window allows around its boundary.
+ * <p>
+ * The state is one immutable {@link Window} of three longs, replaced by CAS, so memory
+ * per key is constant. Counts only ever cover admitted permits: a reservation cannot
+ * hold a permit in a future window, so {@link #reserve} admits now or reports how long
+ * until the permits fit.
+ */
+public final class SlidingWindowBucket implements LocalBucket {
+
+    /**
+     * Counts of the window with the given index and of the one before it.
+     */
+    static final class Window {
+        final long index;
+        final long previous;
+        final long current;
+
+        Window(long index, long previous, long current) {
+            this.index = index;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        /**
+         * This window as seen from window {@code nowIndex}; a clock that went backwards
+         * keeps the newer window.
+         */
+        Window rollTo(long nowIndex) {
+            if (nowIndex <= index) {
+                return this;
+            }
+            if (nowIndex == index + 1) {
+                return new Window(nowIndex, current, 0L);
+            }
+            return new Window(nowIndex, 0L, 0L);
+        }
+    }
+
+    private static final Window EMPTY = new Window(Long.MIN_VALUE, 0L, 0L);
+
+    static final Window RETIRED = new Window(Long.MIN_VALUE, 0L, 0L);
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(SlidingWindowBucket.class, "state", Window.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Window state = EMPTY;
+
+    @Override
+    public RateLimitAlgorithm algorithm() {
+        return RateLimitAlgorithm.SLIDING_WINDOW;
+    }
+
+    @Override
+    public boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return true;
+        }
+        long windowNanos = config.getWindowNanos();
+        long nowIndex = Math.floorDiv(nowNanos, windowNanos);
+        while (true) {
+            Window current = state;
+            if (current == RETIRED) {
+                return false;
+            }
+            Window rolled = current.rollTo(nowIndex);
+            long elapsed = elapsedNanos(rolled, nowNanos, windowNanos);
+            if (!fits(permits, rolled, config.getCapacity(), windowNanos, elapsed)) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, new Window(rolled.index, rolled.previous, rolled.current + permits))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos) {
+        long wanted = Math.max(0L, permits);
+        long windowNanos = config.getWindowNanos();
+        long nowIndex = Math.floorDiv(nowNanos, windowNanos);
+        while (true) {
+            Window current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            Window rolled = current.rollTo(nowIndex);
+            long elapsed = elapsedNanos(rolled, nowNanos, windowNanos);
+            boolean allowed = fits(wanted, rolled, config.getCapacity(), windowNanos, elapsed);
+            Window next = allowed && wanted > 0
+                    ? new Window(rolled.index, rolled.previous, rolled.current + wanted)
+                    : rolled;
+            // A denied caller does not publish the roll-over: the next admitted acquire does.
+            if (!allowed || next == current || STATE.compareAndSet(this, current, next)) {
+                return AcquireResult.ofSlidingWindow(allowed, next.previous, next.current, config.getCapacity(),
+                        windowNanos, elapsed);
+            }
+        }
+    }
+
+    @Override
+    public Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos) {
+        long wanted = Math.max(0L, permits);
+        long windowNanos = config.getWindowNanos();
+        long nowIndex = Math.floorDiv(nowNanos, windowNanos);
+        Instant now = Instant.ofEpochSecond(0L, nowNanos);
+        while (true) {
+            Window current = state;
+            if (current == RETIRED) {
+                return null;
+            }
+            Window rolled = current.rollTo(nowIndex);
+            long elapsed = elapsedNanos(rolled, nowNanos, windowNanos);
+            if (!fits(wanted, rolled, config.getCapacity(), windowNanos, elapsed)) {
+                return Reservation.denied(now, nanosUntilFits(wanted, rolled.previous, rolled.current,
+                        config.getCapacity(), windowNanos, elapsed));
+            }
+            Window next = new Window(rolled.index, rolled.previous, rolled.current + wanted);
+            if (STATE.compareAndSet(this, current, next)) {
+                return Reservation.granted(now, 0L);
+            }
+        }
+    }
+
+    /**
+     * Counts the permits in the current window even past capacity; the window then
+     * admits nothing until enough of the excess has slid out of it.
+     */
+    @Override
+    public void debit(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long nowIndex = Math.floorDiv(nowNanos, config.getWindowNanos());
+        while (true) {
+            Window current = state;
+            if (current == RETIRED) {
+                return;
+            }
+            Window rolled = current.rollTo(nowIndex);
+            Window next = new Window(rolled.index, rolled.previous, rolled.current + permits);
+            if (STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the permits off the window they were counted in, if it is still the current
+     * or previous one.
+     */
+    @Override
+    public void refund(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return;
+        }
+        long index = Math.floorDiv(nowNanos, config.getWindowNanos());
+        while (true) {
+            Window current = state;
+            if (current == RETIRED || current == EMPTY) {
+                return;
+            }
+            Window next;
+            if (current.index == index) {
+                next = new Window(current.index, current.previous, Math.max(0L, current.current - permits));
+            } else if (current.index == index + 1) {
+                next = new Window(current.index, Math.max(0L, current.previous - permits), current.current);
+            } else {
+                return;
+            }
+            if (STATE.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos) {
+        Window current = state;
+        if (current == RETIRED) {
+            return null;
+        }
+        long windowNanos = config.getWindowNanos();
+        Window rolled = current.rollTo(Math.floorDiv(nowNanos, windowNanos));
+        AcquireResult result = AcquireResult.ofSlidingWindow(true, rolled.previous, rolled.current,
+                config.getCapacity(), windowNanos, elapsedNanos(rolled, nowNanos, windowNanos));
+        return new RateLimitSnapshot(result.getRemainingTokens(), config.getCapacity(), nowNanos / 1_000_000L);
+    }
+
+    /**
+     * Retires the bucket once neither window holds any permit.
+     */
+    @Override
+    public boolean retireIfFull(RateLimitConfig config, long nowNanos) {
+        long nowIndex = Math.floorDiv(nowNanos, config.getWindowNanos());
+        while (true) {
+            Window current = state;
+            if (current == RETIRED) {
+                return false;
+            }
+            Window rolled = current.rollTo(nowIndex);
+            if (rolled.previous > 0 || rolled.current > 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, RETIRED)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean retire() {
+        return STATE.getAndSet(this, RETIRED) != RETIRED;
+    }
+
+    @Override
+    public boolean isRetired() {
+        return state == RETIRED;
+    }
+
+    /**
+     * Permits counted by the window ending {@code elapsedNanos} into the current window.
+     */
+    static double estimate(long previous, long current, long windowNanos, long elapsedNanos) {
+        double overlap = (double) (windowNanos - elapsedNanos) / windowNanos;
+        return previous * overlap + current;
+    }
+
+    /**
+     * Nanos until {@code permits} more fit into the window, as the previous window's
+     * weight decays and then the current window becomes the previous one; 0 if they fit
+     * now and {@link Long#MAX_VALUE} if they never fit.
+     */
+    public static long nanosUntilFits(long permits,
+                                      long previous,
+                                      long current,
+                                      long capacity,
+                                      long windowNanos,
+                                      long elapsedNanos) {
+        if (permits > capacity) {
+            return Long.MAX_VALUE;
+        }
+        if (estimate(previous, current, windowNanos, elapsedNanos) + permits <= capacity) {
+            return 0L;
+        }
+        long room = capacity - current - permits;
+        if (room >= 0) {
+            // Fits within this window once previous * (1 - t / window) <= room.
+            double at = windowNanos - (double) room * windowNanos / previous;
+            return Math.max(0L, (long) Math.ceil(at) - elapsedNanos);
+        }
+        // Only after the roll-over, when this window's count decays instead.
+        double at = current == 0 ? 0d : windowNanos - (double) (capacity - permits) * windowNanos / current;
+        return (long) Math.min(Long.MAX_VALUE, (windowNanos - elapsedNanos) + Math.ceil(Math.max(0d, at)));
+    }
+
+    private static boolean fits(long permits, Window window, long capacity, long windowNanos, long elapsedNanos) {
+        return permits <= 0
+                || estimate(window.previous, window.current, windowNanos, elapsedNanos) + permits <= capacity;
+    }
+
+    private static long elapsedNanos(Window window, long nowNanos, long windowNanos) {
+        long windowStart = window.index * windowNanos;
+        return Math.min(windowNanos, Math.max(0L, nowNanos - windowStart));
+    }
+}
@@ -0,0 +1,365 @@
+package com.conduit.egress.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+
+/**
+ * Token bucket for a single very hot key whose tokens are split across padded cells,
+ * in the manner of {@link java.util.concurrent.atomic.LongAdder}, so that threads
+ * acquiring on one key mostly CAS different cache lines.
+ * <p>
+ * A thread takes permits from its home cell, picked from its thread id, and steals from
+ * the other cells when its own runs short, handing back what it gathered if the cells
+ * together cannot cover the request. Refills are not applied per cell: once at least a
+ * refill period, and at least {@link #MIN_REBALANCE_NANOS}, has passed, one thread
+ * drains every cell, adds the refill, caps the total at capacity and spreads it evenly
+ * again. Permits cannot be taken twice; the precision traded for throughput is:
+ * <ul>
+ * <li>while a rebalance or another thread's steal holds tokens in transit, an acquire
+ * may be denied although the bucket as a whole could cover it;</li>
+ * <li>refills arrive in chunks at least {@link #MIN_REBALANCE_NANOS} apart, so a rule
+ * refilling more than {@code capacity} tokens in that time admits less than its rate;</li>
+ * <li>a refund racing with acquires may leave the bucket a few permits above capacity
+ * until the next rebalance;</li>
+ * <li>reported tokens are a sum of cells read one after another.</li>
+ * </ul>
+ * Reservations and debits take what the cells hold and carry the rest as a negative
+ * balance that the next refills pay off, so later callers queue behind them as with
+ * {@link PackedTokenBucket}. Warm-up applies as usual; rules with several bands are
+ * not striped.
+ */
+final class StripedTokenBucket implements LocalBucket {
+
+    /**
+     * Minimum time between rebalances, so that rules refilling every few nanoseconds do
+     * not have every acquire drain the cells.
+     */
+    static final long MIN_REBALANCE_NANOS = 100_000L;
+
+    /**
+     * Longs per cell: 128 bytes keep neighbouring cells off each other's cache lines,
+     * including adjacent-line prefetch.
+     */
+    private static final int PADDING = 16;
+
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final VarHandle STAMP;
+    private static final VarHandle RETIRED_FLAG;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STAMP = lookup.findVarHandle(StripedTokenBucket.class, "refillStamp", long.class);
+            RETIRED_FLAG = lookup.findVarHandle(StripedTokenBucket.class, "retired", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long originNanos;
+    private final int mask;
+    private final long[] cells;
+    private volatile long refillStamp;
+    private volatile boolean retired;
+
+    /**
+     * @param stripes number of cells, rounded up to a power of two
+     */
+    StripedTokenBucket(long capacity, int stripes, long nowNanos) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be > 0");
+        }
+        int n = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.originNanos = nowNanos;
+        this.mask = n - 1;
+        // Cell 0 starts one padding in, away from the array header.
+        this.cells = new long[(n + 1) * PADDING];
+        spread(capacity);
+    }
+
+    /**
+     * Whether a bucket for {@code config} may be striped: a single-band token bucket for
+     * a rule with no dimensions, whose one key every caller shares.
+     */
+    static boolean supports(RateLimitConfig config) {
+        return config.getAlgorithm() == RateLimitAlgorithm.TOKEN_BUCKET
+                && !config.isMultiBand()
+                && config.getDimensionMask() == 0;
+    }
+
+    @Override
+    public RateLimitAlgorithm algorithm() {
+        return RateLimitAlgorithm.TOKEN_BUCKET;
+    }
+
+    @Override
+    public boolean tryAcquire(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0) {
+            return true;
+        }
+        if (retired) {
+            return false;
+        }
+        rebalance(config, nowNanos);
+        return take(config.warmUpCost(permits, nowNanos - originNanos)) == 1;
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(long permits, RateLimitConfig config, long nowNanos) {
+        if (retired) {
+            return null;
+        }
+        rebalance(config, nowNanos);
+        int taken = take(config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos));
+        return taken < 0 ? null : result(taken == 1, config, nowNanos);
+    }
+
+    @Override
+    public Reservation reserve(long permits, RateLimitConfig config, long maxWaitNanos, long nowNanos) {
+        if (retired) {
+            return null;
+        }
+        rebalance(config, nowNanos);
+        long wanted = config.warmUpCost(Math.max(0L, permits), nowNanos - originNanos);
+        Instant now = Instant.ofEpochSecond(0L, nowNanos);
+        int taken = take(wanted);
+        if (taken != 0) {
+            return taken < 0 ? null : Reservation.granted(now, 0L);
+        }
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long deficit = wanted - sum();
+        long periodsNeeded = (deficit + config.getRefillTokens() - 1) / config.getRefillTokens();
+        long wait = PackedTokenBucket.waitForPeriods(periodsNeeded,
+                PackedTokenBucket.nanosToNextRefill(originNanos, nowNanos, periodNanos), periodNanos);
+        if (wait > maxWaitNanos) {
+            return Reservation.denied(now, wait);
+        }
+        takeIntoDebt(wanted);
+        return Reservation.granted(now, wait);
+    }
+
+    @Override
+    public void debit(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0 || retired) {
+            return;
+        }
+        rebalance(config, nowNanos);
+        takeIntoDebt(config.warmUpCost(permits, nowNanos - originNanos));
+    }
+
+    @Override
+    public void refund(long permits, RateLimitConfig config, long nowNanos) {
+        if (permits <= 0 || retired) {
+            return;
+        }
+        rebalance(config, nowNanos);
+        long room = config.getCapacity() - sum();
+        if (room > 0) {
+            add(home(), Math.min(room, config.warmUpCost(permits, nowNanos - originNanos)));
+        }
+    }
+
+    @Override
+    public RateLimitSnapshot snapshot(RateLimitConfig config, long nowNanos) {
+        if (retired) {
+            return null;
+        }
+        long lastRefillNanos = originNanos + refillStamp * config.getRefillPeriod().toNanos();
+        return new RateLimitSnapshot(sum(), config.getCapacity(), lastRefillNanos / 1_000_000L);
+    }
+
+    @Override
+    public boolean retireIfFull(RateLimitConfig config, long nowNanos) {
+        if (retired) {
+            return false;
+        }
+        rebalance(config, nowNanos);
+        return sum() >= config.getCapacity() && retire();
+    }
+
+    /**
+     * Seals every cell, so that acquires racing the retirement see it on the cell they
+     * try to take from.
+     */
+    @Override
+    public boolean retire() {
+        if (!RETIRED_FLAG.compareAndSet(this, false, true)) {
+            return false;
+        }
+        for (int c = 0; c <= mask; c++) {
+            CELLS.setVolatile(cells, index(c), RETIRED);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Takes {@code cost} tokens, from the home cell if it can cover them and otherwise
+     * from every cell in turn.
+     *
+     * @return 1 if taken, 0 if the cells could not cover them, -1 if retired
+     */
+    private int take(long cost) {
+        if (cost <= 0) {
+            return 1;
+        }
+        int home = home();
+        while (true) {
+            long v = (long) CELLS.getVolatile(cells, index(home));
+            if (v == RETIRED) {
+                return -1;
+            }
+            if (v < cost) {
+                break;
+            }
+            if (CELLS.compareAndSet(cells, index(home), v, v - cost)) {
+                return 1;
+            }
+        }
+        long gathered = 0L;
+        for (int i = 0; i <= mask && gathered < cost; i++) {
+            long t = takeUpTo((home + i) & mask, cost - gathered);
+            if (t < 0) {
+                return -1;
+            }
+            gathered += t;
+        }
+        if (gathered == cost) {
+            return 1;
+        }
+        add(home, gathered);
+        return 0;
+    }
+
+    /**
+     * Takes whatever the cells hold up to {@code cost} and books the rest as a negative
+     * balance on the home cell.
+     */
+    private void takeIntoDebt(long cost) {
+        int home = home();
+        long gathered = 0L;
+        for (int i = 0; i <= mask && gathered < cost; i++) {
+            long t = takeUpTo((home + i) & mask, cost - gathered);
+            if (t < 0) {
+                return;
+            }
+            gathered += t;
+        }
+        add(home, gathered - cost);
+    }
+
+    /**
+     * @return the tokens taken from the cell, at most {@code max}, or -1 if retired
+     */
+    private long takeUpTo(int cell, long max) {
+        while (true) {
+            long v = (long) CELLS.getVolatile(cells, index(cell));
+            if (v == RETIRED) {
+                return -1L;
+            }
+            if (v <= 0) {
+                return 0L;
+            }
+            long t = Math.min(v, max);
+            if (CELLS.compareAndSet(cells, index(cell), v, v - t)) {
+                return t;
+            }
+        }
+    }
+
+    private void add(int cell, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        while (true) {
+            long v = (long) CELLS.getVolatile(cells, index(cell));
+            if (v == RETIRED || CELLS.compareAndSet(cells, index(cell), v, v + delta)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the refills due at {@code nowNanos}, if one is due and this thread wins the
+     * stamp, and evens the cells out again.
+     */
+    private void rebalance(RateLimitConfig config, long nowNanos) {
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long stamp = refillStamp;
+        long elapsed = nowNanos - originNanos - stamp * periodNanos;
+        if (elapsed < Math.max(periodNanos, MIN_REBALANCE_NANOS)) {
+            return;
+        }
+        long periods = elapsed / periodNanos;
+        if (!STAMP.compareAndSet(this, stamp, stamp + periods)) {
+            return;
+        }
+        long capacity = config.getCapacity();
+        long total = 0L;
+        for (int c = 0; c <= mask; c++) {
+            long v = (long) CELLS.getAndSet(cells, index(c), 0L);
+            if (v == RETIRED) {
+                CELLS.setVolatile(cells, index(c), RETIRED);
+                return;
+            }
+            total += v;
+        }
+        // Debt left by reservations is repaid first; whatever would overflow capacity is lost.
+        long room = capacity - total;
+        long refillTokens = config.getRefillTokens();
+        spread(room <= 0 || periods > room / refillTokens ? capacity : total + periods * refillTokens);
+    }
+
+    private void spread(long total) {
+        int n = mask + 1;
+        long share = Math.floorDiv(total, n);
+        long extra = total - share * n;
+        for (int c = 0; c < n; c++) {
+            add(c, c < extra ? share + 1 : share);
+        }
+    }
+
+    private long sum() {
+        long total = 0L;
+        for (int c = 0; c <= mask; c++) {
+            long v = (long) CELLS.getVolatile(cells, index(c));
+            if (v != RETIRED) {
+                total += v;
+            }
+        }
+        return total;
+    }
+
+    private AcquireResult result(boolean allowed, RateLimitConfig config, long nowNanos) {
+        long tokens = sum();
+        long refillTokens = config.getRefillTokens();
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long toNextRefill = PackedTokenBucket.nanosToNextRefill(originNanos, nowNanos, periodNanos);
+        AcquireResult result = AcquireResult.ofBucket(allowed, tokens, config.getCapacity(), refillTokens,
+                periodNanos, toNextRefill);
+        if (tokens >= 0) {
+            return result;
+        }
+        // A reservation or debit left the bucket in debt: the next token comes once it is repaid.
+        long refillsToToken = (1 - tokens + refillTokens - 1) / refillTokens;
+        return new AcquireResult(allowed, 0L, toNextRefill + (refillsToToken - 1) * periodNanos,
+                result.getNanosToFull());
+    }
+
+    private int home() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int index(int cell) {
+        return (cell + 1) * PADDING;
+    }
+}
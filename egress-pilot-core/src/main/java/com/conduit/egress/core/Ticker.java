@@ -0,0 +1,97 @@
+package com.conduit.egress.core;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A {@link Clock} that also reads a monotonic nanosecond counter.
+ * <p>
+ * Local backends take bucket time from {@link #read()} when they are handed a ticker:
+ * no {@link Instant} is built per acquire, and wall-clock steps (NTP, manual changes)
+ * neither refill nor starve buckets. {@link #instant()} and {@link #millis()} stay on
+ * the wall clock, for shared backends such as Redis and for reported timestamps. Any
+ * other {@code Clock} still works; its epoch nanos are then used as bucket time.
+ */
+public abstract class Ticker extends Clock {
+
+    private static final Ticker SYSTEM = new SystemTicker();
+
+    /**
+     * Nanoseconds from an arbitrary fixed origin; only differences are meaningful.
+     */
+    public abstract long read();
+
+    /**
+     * {@link System#nanoTime()} for bucket time and the UTC system clock for wall time.
+     */
+    public static Ticker system() {
+        return SYSTEM;
+    }
+
+    /**
+     * Bucket time for {@code clock}: {@link #read()} for a ticker, epoch nanos otherwise.
+     * Values from one clock are comparable only with each other.
+     */
+    public static long nanos(Clock clock) {
+        if (clock instanceof Ticker ticker) {
+            return ticker.read();
+        }
+        Instant now = clock.instant();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Maps a snapshot whose refill stamp was derived from bucket time {@code nowNanos}
+     * back onto the wall clock.
+     */
+    static RateLimitSnapshot onWallClock(RateLimitSnapshot snapshot, Clock clock, long nowNanos) {
+        if (snapshot == null || !(clock instanceof Ticker)) {
+            return snapshot;
+        }
+        long age = Math.max(0L, Math.floorDiv(nowNanos, 1_000_000L) - snapshot.getLastRefillEpochMillis());
+        return new RateLimitSnapshot(snapshot.getRemainingTokens(), snapshot.getCapacity(), clock.millis() - age);
+    }
+
+    /**
+     * Re-anchors a reservation computed on bucket time to the wall clock.
+     */
+    static Reservation onWallClock(Reservation reservation, Clock clock) {
+        if (reservation == null || !(clock instanceof Ticker)) {
+            return reservation;
+        }
+        Instant now = clock.instant();
+        return reservation.isGranted()
+                ? Reservation.granted(now, reservation.getWaitNanos())
+                : Reservation.denied(now, reservation.getWaitNanos());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return this;
+    }
+
+    private static final class SystemTicker extends Ticker {
+
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.now();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Records the latency of every backend operation as
+ * {@code conduit.egress.agent.backend.latency}, tagged with the operation and whether
+ * it succeeded. Async operations are timed until their stage completes.
+ */
+public final class TimingLayer implements RateLimitBackendDecorator {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public TimingLayer(MeterRegistry registry) {
+        this.registry = Objects.requireNonNull(registry, "registry must not be null");
+    }
+
+    @Override
+    public RateLimitBackend decorate(RateLimitBackend backend) {
+        return new ForwardingRateLimitBackend(backend) {
+            @Override
+            protected <T> T call(String operation, Function<RateLimitBackend, T> call) {
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    T result = super.call(operation, call);
+                    success = true;
+                    return result;
+                } finally {
+                    record(operation, success, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    @Override
+    public AsyncRateLimitBackend decorateAsync(AsyncRateLimitBackend backend) {
+        return new ForwardingAsyncRateLimitBackend(backend) {
+            @Override
+            protected <T> CompletionStage<T> call(String operation,
+                                                  Function<AsyncRateLimitBackend, CompletionStage<T>> call) {
+                long start = System.nanoTime();
+                return super.call(operation, call).whenComplete(
+                        (result, ex) -> record(operation, ex == null, System.nanoTime() - start));
+            }
+        };
+    }
+
+    private void record(String operation, boolean success, long nanos) {
+        String outcome = success ? "success" : "error";
+        timers.computeIfAbsent(operation + '/' + outcome, k -> Timer.builder("conduit.egress.agent.backend.latency")
+                        .tag("operation", operation)
+                        .tag("outcome", outcome)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
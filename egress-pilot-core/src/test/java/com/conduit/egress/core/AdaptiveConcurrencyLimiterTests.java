@@ -0,0 +1,82 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTests {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final RateLimitKey key = RateLimitKey.builder("rule").host("api.example.com").build();
+
+    private AdaptiveConcurrencyLimiter limiter(int initial) {
+        return new AdaptiveConcurrencyLimiter(initial, 1, 10, Duration.ofMillis(100), 0.5d, nanos::get);
+    }
+
+    @Test
+    void rejectsBeyondLimitUntilAPermitIsReleased() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2);
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire(key);
+        AdaptiveConcurrencyLimiter.Permit second = limiter.tryAcquire(key);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(limiter.tryAcquire(key)).isNull();
+
+        second.release();
+        second.onSuccess();
+
+        assertThat(limiter.inFlight(key)).isEqualTo(1);
+        assertThat(limiter.tryAcquire(key)).isNotNull();
+    }
+
+    @Test
+    void growsOnFastCallsAndBacksOffOnSlowOrDroppedOnes() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4);
+
+        AdaptiveConcurrencyLimiter.Permit a = limiter.tryAcquire(key);
+        AdaptiveConcurrencyLimiter.Permit b = limiter.tryAcquire(key);
+        nanos.addAndGet(Duration.ofMillis(50).toNanos());
+        a.onSuccess();
+        assertThat(limiter.limit(key)).isEqualTo(5);
+
+        nanos.addAndGet(Duration.ofMillis(100).toNanos());
+        b.onSuccess();
+        assertThat(limiter.limit(key)).isEqualTo(2);
+
+        limiter.tryAcquire(key).onDropped();
+        assertThat(limiter.limit(key)).isEqualTo(1);
+        assertThat(limiter.inFlight(key)).isZero();
+    }
+
+    @Test
+    void sweepsKeysIdleSinceThePreviousSweep() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire(key);
+
+        assertThat(limiter.sweepIdle()).isZero();
+        assertThat(limiter.sweepIdle()).isZero();
+        permit.release();
+        assertThat(limiter.sweepIdle()).isEqualTo(1);
+        assertThat(limiter.size()).isZero();
+    }
+
+    @Test
+    void exposesLimitAndInFlightGaugesPerRule() {
+        AdaptiveConcurrencyLimiter limiter = limiter(3);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        limiter.bindTo(registry);
+
+        limiter.tryAcquire(key);
+
+        assertThat(registry.get("conduit.egress.agent.concurrency.limit").tag("rule", "rule").gauge().value())
+                .isEqualTo(3.0d);
+        assertThat(registry.get("conduit.egress.agent.concurrency.inflight").tag("rule", "rule").gauge().value())
+                .isEqualTo(1.0d);
+    }
+}
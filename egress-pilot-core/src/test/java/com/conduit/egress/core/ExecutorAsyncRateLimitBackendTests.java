@@ -0,0 +1,76 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExecutorAsyncRateLimitBackendTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 1, 1, Duration.ofSeconds(10), null);
+    private final RateLimitKey key = RateLimitKey.builder("test").build();
+
+    @Test
+    void runsBlockingBackendOnExecutor() {
+        InMemoryTokenBucketBackend local = new InMemoryTokenBucketBackend();
+        RateLimitBackend blocking = new RateLimitBackend() {
+            @Override
+            public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+                return local.tryAcquire(key, permits, config, clock);
+            }
+
+            @Override
+            public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+                return local.getSnapshot(key, config, clock);
+            }
+        };
+        AtomicReference<String> thread = new AtomicReference<>();
+        Executor executor = task -> {
+            Thread t = new Thread(() -> {
+                thread.set(Thread.currentThread().getName());
+                task.run();
+            }, "backend-worker");
+            t.start();
+        };
+
+        AsyncRateLimitBackend async = AsyncRateLimitBackend.adapt(blocking, executor);
+        CompletableFuture<Boolean> first = async.tryAcquireAsync(key, 1, config, Clock.systemUTC()).toCompletableFuture();
+        CompletableFuture<Boolean> second = async.tryAcquireAsync(key, 1, config, Clock.systemUTC()).toCompletableFuture();
+
+        assertThat(first.join()).isTrue();
+        assertThat(second.join()).isFalse();
+        assertThat(thread.get()).isEqualTo("backend-worker");
+    }
+
+    @Test
+    void rejectedExecutionFailsTheStage() {
+        Executor saturated = task -> {
+            throw new RejectedExecutionException("full");
+        };
+        AsyncRateLimitBackend async = new ExecutorAsyncRateLimitBackend(new InMemoryTokenBucketBackend(), saturated);
+
+        CompletableFuture<Boolean> result = async.tryAcquireAsync(key, 1, config, Clock.systemUTC()).toCompletableFuture();
+
+        assertThatThrownBy(result::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void localBackendsAreUsedDirectly() {
+        InMemoryTokenBucketBackend local = new InMemoryTokenBucketBackend();
+
+        assertThat(AsyncRateLimitBackend.adapt(local, task -> {
+            throw new AssertionError("must not be used");
+        })).isSameAs(local);
+        assertThat(local.tryAcquireAsync(key, 1, config, Clock.systemUTC()).toCompletableFuture().join()).isTrue();
+    }
+}
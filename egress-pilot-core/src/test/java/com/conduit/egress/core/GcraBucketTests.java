@@ -0,0 +1,59 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GcraBucketTests {
+
+    private static final long MILLI = 1_000_000L;
+
+    private static final RateLimitConfig CONFIG = new RateLimitConfig(
+            "test", 3, 3, Duration.ofMillis(300), null, RateLimitAlgorithm.GCRA);
+
+    @Test
+    void admitsBurstThenOnePermitPerEmissionInterval() {
+        GcraBucket bucket = new GcraBucket(0);
+
+        assertThat(bucket.tryAcquire(3, CONFIG, 0)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 0)).isFalse();
+        assertThat(bucket.tryAcquire(1, CONFIG, 99 * MILLI)).isFalse();
+        assertThat(bucket.tryAcquire(1, CONFIG, 100 * MILLI)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 100 * MILLI)).isFalse();
+    }
+
+    @Test
+    void reportsExactWaitForDeniedRequest() {
+        GcraBucket bucket = new GcraBucket(0);
+        bucket.tryAcquire(3, CONFIG, 0);
+
+        AcquireResult denied = bucket.tryAcquireWithResult(1, CONFIG, 30 * MILLI);
+
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getRemainingTokens()).isZero();
+        assertThat(denied.getNanosToNextToken()).isEqualTo(70 * MILLI);
+        assertThat(denied.getNanosToFull()).isEqualTo(270 * MILLI);
+    }
+
+    @Test
+    void reservationQueuesBehindTheoreticalArrivalTime() {
+        GcraBucket bucket = new GcraBucket(0);
+        bucket.tryAcquire(3, CONFIG, 0);
+
+        assertThat(bucket.reserve(1, CONFIG, Long.MAX_VALUE, 0).getWaitNanos()).isEqualTo(100 * MILLI);
+        assertThat(bucket.reserve(1, CONFIG, Long.MAX_VALUE, 0).getWaitNanos()).isEqualTo(200 * MILLI);
+        assertThat(bucket.reserve(1, CONFIG, 250 * MILLI, 0).isGranted()).isFalse();
+    }
+
+    @Test
+    void retiresOnlyOnceFull() {
+        GcraBucket bucket = new GcraBucket(0);
+        bucket.tryAcquire(1, CONFIG, 0);
+
+        assertThat(bucket.retireIfFull(CONFIG, 50 * MILLI)).isFalse();
+        assertThat(bucket.retireIfFull(CONFIG, 100 * MILLI)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 100 * MILLI)).isFalse();
+    }
+}
@@ -0,0 +1,126 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryBucketEvictionTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+
+    @Test
+    void sweepDropsOnlyBucketsThatRefilledToCapacity() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitKey idle = RateLimitKey.builder("test").path("/idle").build();
+        RateLimitKey busy = RateLimitKey.builder("test").path("/busy").build();
+
+        backend.tryAcquire(idle, 1, config, clock);
+        clock.advance(Duration.ofMillis(1500));
+        backend.tryAcquire(busy, 2, config, clock);
+
+        assertThat(backend.sweepIdleBuckets(clock)).isEqualTo(1);
+        assertThat(backend.size()).isEqualTo(1);
+        assertThat(backend.tryAcquire(busy, 1, config, clock)).isFalse();
+    }
+
+    @Test
+    void sweptBucketIsRecreatedFull() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitKey key = RateLimitKey.builder("test").build();
+
+        backend.tryAcquire(key, 2, config, clock);
+        clock.advance(Duration.ofMillis(2000));
+        backend.sweepIdleBuckets(clock);
+
+        assertThat(backend.size()).isZero();
+        assertThat(backend.tryAcquire(key, 2, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+    }
+
+    @Test
+    void evictsWhenMaxBucketsReached() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend(4);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        for (int i = 0; i < 10; i++) {
+            backend.tryAcquire(RateLimitKey.builder("test").apiKey("k" + i).build(), 1, config, clock);
+        }
+
+        assertThat(backend.size()).isLessThanOrEqualTo(4);
+    }
+
+    @Test
+    void insertAfterConcurrentInsertsRestoresTheBound() throws InterruptedException {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend(16);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            String prefix = "t" + t + "-";
+            threads[t] = new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < 500; i++) {
+                    backend.tryAcquire(RateLimitKey.builder("test").apiKey(prefix + i).build(), 1, config, clock);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        backend.tryAcquire(RateLimitKey.builder("test").apiKey("last").build(), 1, config, clock);
+
+        assertThat(backend.size()).isLessThanOrEqualTo(16);
+    }
+
+    @Test
+    void evictionPrefersRarelyUsedBuckets() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend(BucketStore.EVICTION_SAMPLE_SIZE);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig generous = new RateLimitConfig("test", 1_000_000, 1, Duration.ofSeconds(1), null);
+        RateLimitKey hot = RateLimitKey.builder("test").apiKey("hot").build();
+
+        for (int i = 0; i < 5_000; i++) {
+            backend.tryAcquire(hot, 1, generous, clock);
+        }
+        for (int i = 0; i < 3 * BucketStore.EVICTION_SAMPLE_SIZE; i++) {
+            backend.tryAcquire(RateLimitKey.builder("test").apiKey("cold" + i).build(), 1, generous, clock);
+        }
+
+        RateLimitSnapshot snapshot = backend.getSnapshot(hot, generous, clock);
+        assertThat(snapshot.getRemainingTokens()).isEqualTo(1_000_000 - 5_000);
+    }
+
+    @Test
+    void exposesBucketGauges() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        backend.bindTo(registry);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        for (int i = 0; i < 3; i++) {
+            backend.tryAcquire(RateLimitKey.builder("test").apiKey("k" + i).build(), 1, config, clock);
+        }
+
+        assertThat(registry.get("conduit.egress.agent.buckets.live").gauge().value()).isEqualTo(2.0d);
+        assertThat(registry.get("conduit.egress.agent.buckets.evicted").tag("reason", "capacity")
+                .functionCounter().count()).isEqualTo(1.0d);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
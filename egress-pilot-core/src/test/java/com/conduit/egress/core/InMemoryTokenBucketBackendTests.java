@@ -2,57 +2,121 @@ package com.conduit.egress.core;
 
 import org.junit.jupiter.api.Test;
 
-import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.ZoneId;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class InMemoryTokenBucketBackendTests {
 
-    static class MutableClock extends Clock {
-        private Instant instant;
+    @Test
+    void acquiresWithinCapacity() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 10, 5, Duration.ofSeconds(1), null);
+        RateLimitKey key = RateLimitKey.builder("test").build();
 
-        MutableClock(Instant instant) {
-            this.instant = instant;
-        }
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+    }
 
-        void plusMillis(long millis) {
-            this.instant = this.instant.plusMillis(millis);
-        }
+    @Test
+    void resultReportsRemainingTokensAndRefillTiming() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 10, 5, Duration.ofSeconds(1), null);
+        RateLimitKey key = RateLimitKey.builder("test").build();
 
-        @Override
-        public ZoneId getZone() {
-            return ZoneId.systemDefault();
-        }
+        AcquireResult first = backend.tryAcquireWithResult(key, 4, config, clock);
+        assertThat(first.isAllowed()).isTrue();
+        assertThat(first.getRemainingTokens()).isEqualTo(6);
+
+        clock.advance(Duration.ofMillis(400));
+        AcquireResult denied = backend.tryAcquireWithResult(key, 7, config, clock);
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getRemainingTokens()).isEqualTo(6);
+        assertThat(denied.getNanosToNextToken()).isEqualTo(600_000_000L);
+        assertThat(denied.getNanosToFull()).isEqualTo(600_000_000L);
+        assertThat(denied.retryAfterMillis(1_000L)).isEqualTo(600L);
+    }
 
-        @Override
-        public Clock withZone(ZoneId zone) {
-            return this;
-        }
+    @Test
+    void reservesPermitAtNextRefillWithinMaxWait() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 1, 1, Duration.ofMillis(100), null);
+        RateLimitKey key = RateLimitKey.builder("test").build();
+
+        assertThat(backend.reserve(key, 1, config, Duration.ZERO, clock).isGranted()).isTrue();
+        Reservation queued = backend.reserve(key, 1, config, Duration.ofSeconds(1), clock);
+        Reservation tooLate = backend.reserve(key, 1, config, Duration.ofMillis(150), clock);
 
-        @Override
-        public Instant instant() {
-            return instant;
-        }
+        assertThat(queued.isGranted()).isTrue();
+        assertThat(queued.getAdmitAt()).isAfter(clock.instant());
+        assertThat(tooLate.isGranted()).isFalse();
+        assertThat(tooLate.getWaitNanos()).isGreaterThan(queued.getWaitNanos());
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
     }
 
     @Test
-    void acquiresWithinCapacity() {
+    void switchingRuleAlgorithmReplacesBucket() {
         InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
-        MutableClock clock = new MutableClock(Instant.now());
-        RateLimitConfig config = new RateLimitConfig("test", 10, 5, Duration.ofSeconds(1), null);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig bucket = new RateLimitConfig("test", 2, 2, Duration.ofSeconds(1), null);
+        RateLimitConfig gcra = new RateLimitConfig("test", 2, 2, Duration.ofSeconds(1), null, RateLimitAlgorithm.GCRA);
         RateLimitKey key = RateLimitKey.builder("test").build();
 
-        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 2, bucket, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 2, gcra, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, gcra, clock)).isFalse();
+
+        clock.advance(Duration.ofMillis(500));
+        assertThat(backend.tryAcquire(key, 1, gcra, clock)).isTrue();
+        assertThat(backend.size()).isEqualTo(1);
+    }
+
+    @Test
+    void batchEvaluatesItemsIndependentlyAndInOrder() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(10), null);
+        RateLimitKey a = RateLimitKey.builder("test").path("/a").build();
+        RateLimitKey b = RateLimitKey.builder("test").path("/b").build();
+
+        boolean[] results = backend.tryAcquireAll(List.of(
+                new AcquireRequest(a, 2, config),
+                new AcquireRequest(a, 1, config),
+                new AcquireRequest(b, 1, config),
+                new AcquireRequest(b, 0, config)), clock);
+
+        assertThat(results).containsExactly(true, false, true, true);
+        assertThat(backend.getSnapshot(b, config, clock).getRemainingTokens()).isEqualTo(1);
+    }
+
+    @Test
+    void allOrNothingRefundsEarlierBucketsAndReportsBindingOne() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig perSecond = new RateLimitConfig("second", 5, 5, Duration.ofSeconds(1), null);
+        RateLimitConfig perMinute = new RateLimitConfig("minute", 1, 1, Duration.ofMinutes(1), null);
+        RateLimitKey a = RateLimitKey.builder("second").build();
+        RateLimitKey b = RateLimitKey.builder("minute").build();
+        List<AcquireRequest> requests = List.of(new AcquireRequest(a, 1, perSecond), new AcquireRequest(b, 1, perMinute));
+
+        assertThat(backend.tryAcquireAllOrNothing(requests, clock).isAllowed()).isTrue();
+        MultiAcquireResult denied = backend.tryAcquireAllOrNothing(requests, clock);
+
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getBindingIndex()).isEqualTo(1);
+        assertThat(denied.getBindingResult().getNanosToNextToken()).isEqualTo(Duration.ofMinutes(1).toNanos());
+        assertThat(backend.getSnapshot(a, perSecond, clock).getRemainingTokens()).isEqualTo(4);
     }
 
     @Test
     void deniesWhenExhausted() {
         InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
-        MutableClock clock = new MutableClock(Instant.now());
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
         RateLimitConfig config = new RateLimitConfig("test", 3, 1, Duration.ofSeconds(10), null);
         RateLimitKey key = RateLimitKey.builder("test").build();
 
@@ -65,17 +129,60 @@ class InMemoryTokenBucketBackendTests {
     @Test
     void refillsOverTime() {
         InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
-        MutableClock clock = new MutableClock(Instant.now());
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
         RateLimitConfig config = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
         RateLimitKey key = RateLimitKey.builder("test").build();
 
         assertThat(backend.tryAcquire(key, 2, config, clock)).isTrue();
         assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
 
-        clock.plusMillis(1100);
+        clock.advance(Duration.ofMillis(1100));
         assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
     }
 
+    @Test
+    void debitRunsIntoDebtAndRefundReturnsPermits() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+        RateLimitKey key = RateLimitKey.builder("test").build();
+
+        assertThat(backend.tryAcquire(key, 2, config, clock)).isTrue();
+        backend.debit(key, 2, config, clock);
+        clock.advance(Duration.ofMillis(1100));
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+        clock.advance(Duration.ofMillis(2000));
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+
+        backend.refund(key, 1, config, clock);
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+    }
+
+    @Test
+    void slowestBandDeniesWithoutDebitingTheOthers() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        RateLimitConfig cfg = new RateLimitConfig("bands", 2, 2, Duration.ofSeconds(1), null)
+                .withBand(3, 3, Duration.ofMinutes(1));
+        ManualTicker ticker = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitKey key = RateLimitKey.builder("bands").build();
+
+        assertThat(backend.tryAcquire(key, 2, cfg, ticker)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, cfg, ticker)).isFalse();
+
+        ticker.advance(Duration.ofSeconds(1));
+        assertThat(backend.tryAcquire(key, 1, cfg, ticker)).isTrue();
+        AcquireResult denied = backend.tryAcquireWithResult(key, 1, cfg, ticker);
+
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getRemainingTokens()).isZero();
+        assertThat(denied.getNanosToNextToken()).isEqualTo(Duration.ofSeconds(59).toNanos());
+        assertThat(backend.getSnapshot(key, cfg, ticker).getRemainingTokens()).isZero();
+
+        ticker.advance(Duration.ofSeconds(59));
+        assertThat(backend.tryAcquire(key, 2, cfg, ticker)).isTrue();
+    }
+
     @Test
     void invalidConfigThrows() {
         assertThatThrownBy(() -> new RateLimitConfig("bad", 0, 1, Duration.ofSeconds(1), null))
@@ -0,0 +1,103 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NegativeCacheLayerTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 1, 1, Duration.ofSeconds(10), null);
+    private final RateLimitKey key = RateLimitKey.builder("test").build();
+    private final ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+    private final AtomicInteger calls = new AtomicInteger();
+    private final InMemoryTokenBucketBackend local = new InMemoryTokenBucketBackend();
+    private final RateLimitBackend counting = new ForwardingRateLimitBackend(local) {
+        @Override
+        protected <T> T call(String operation, Function<RateLimitBackend, T> call) {
+            calls.incrementAndGet();
+            return super.call(operation, call);
+        }
+    };
+
+    @Test
+    void deniesEmptyBucketLocallyUntilNextTokenIsDue() {
+        NegativeCacheLayer cache = new NegativeCacheLayer(100);
+        RateLimitBackend backend = cache.decorate(counting);
+
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+        AcquireResult cached = backend.tryAcquireWithResult(key, 1, config, clock.advance(Duration.ofSeconds(4)));
+
+        assertThat(cached.isAllowed()).isFalse();
+        assertThat(cached.getNanosToNextToken()).isEqualTo(Duration.ofSeconds(6).toNanos());
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(cache.hits()).isEqualTo(1);
+
+        assertThat(backend.tryAcquire(key, 1, config, clock.advance(Duration.ofSeconds(6)))).isTrue();
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void partialDenialIsNotCached() {
+        RateLimitConfig wide = new RateLimitConfig("test", 5, 1, Duration.ofSeconds(10), null);
+        NegativeCacheLayer cache = new NegativeCacheLayer(100);
+        RateLimitBackend backend = cache.decorate(counting);
+
+        assertThat(backend.tryAcquire(key, 3, wide, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 3, wide, clock)).isFalse();
+
+        assertThat(cache.size()).isZero();
+        assertThat(backend.tryAcquire(key, 2, wide, clock)).isTrue();
+    }
+
+    @Test
+    void refundForgetsTheKey() {
+        NegativeCacheLayer cache = new NegativeCacheLayer(100);
+        RateLimitBackend backend = cache.decorate(counting);
+
+        backend.tryAcquire(key, 1, config, clock);
+        backend.tryAcquire(key, 1, config, clock);
+        backend.refund(key, 1, config, clock);
+
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+    }
+
+    @Test
+    void allOrNothingIsDeniedByAnyCachedKey() {
+        NegativeCacheLayer cache = new NegativeCacheLayer(100);
+        AsyncRateLimitBackend backend = cache.decorateAsync(AsyncRateLimitBackend.adapt(counting, Runnable::run));
+        RateLimitKey other = RateLimitKey.builder("other").build();
+
+        backend.tryAcquireAsync(key, 1, config, clock).toCompletableFuture().join();
+        backend.tryAcquireAsync(key, 1, config, clock).toCompletableFuture().join();
+        int before = calls.get();
+        MultiAcquireResult result = backend.tryAcquireAllOrNothingAsync(List.of(
+                new AcquireRequest(other, 1, config),
+                new AcquireRequest(key, 1, config)), clock).toCompletableFuture().join();
+
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getBindingIndex()).isEqualTo(1);
+        assertThat(calls.get()).isEqualTo(before);
+    }
+
+    @Test
+    void fullCacheLeavesNewDenialsUncached() {
+        NegativeCacheLayer cache = new NegativeCacheLayer(1);
+        RateLimitBackend backend = cache.decorate(counting);
+        RateLimitKey other = RateLimitKey.builder("other").build();
+
+        for (RateLimitKey k : List.of(key, other)) {
+            backend.tryAcquire(k, 1, config, clock);
+            backend.tryAcquire(k, 1, config, clock);
+        }
+
+        assertThat(cache.size()).isEqualTo(1);
+    }
+}
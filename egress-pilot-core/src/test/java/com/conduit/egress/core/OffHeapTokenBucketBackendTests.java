@@ -0,0 +1,301 @@
+package com.conduit.egress.core;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class OffHeapTokenBucketBackendTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+
+    @Test
+    void allowsUpToCapacityThenDenies() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(16);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+
+        clock.advance(Duration.ofMillis(1000));
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+    }
+
+    @Test
+    void resultMatchesInMemoryBackend() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(64);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig config = new RateLimitConfig("test", 10, 2, Duration.ofSeconds(1), null);
+        RateLimitKey key = RateLimitKey.builder("test").build();
+        // A bucket created at bucket time zero is moved one nanosecond back; keep clear of it.
+        clock.advance(Duration.ofSeconds(1));
+
+        assertThat(backend.tryAcquireWithResult(key, 10, config, clock).getRemainingTokens()).isZero();
+        clock.advance(Duration.ofMillis(250));
+        AcquireResult denied = backend.tryAcquireWithResult(key, 1, config, clock);
+
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getNanosToNextToken()).isEqualTo(750_000_000L);
+        assertThat(denied.getNanosToFull()).isEqualTo(4_750_000_000L);
+    }
+
+    @Test
+    void keysDoNotShareBuckets() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(16);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        for (int i = 0; i < 12; i++) {
+            RateLimitKey key = RateLimitKey.builder("test").apiKey("k" + i).build();
+            assertThat(backend.tryAcquire(key, 2, config, clock)).isTrue();
+        }
+
+        assertThat(backend.size()).isEqualTo(12);
+        RateLimitSnapshot snapshot = backend.getSnapshot(RateLimitKey.builder("test").apiKey("k3").build(), config, clock);
+        assertThat(snapshot.getRemainingTokens()).isZero();
+    }
+
+    @Test
+    void sweepRetiresFullBucketsAndSlotsAreReused() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(12);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        List<RateLimitKey> keys = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            keys.add(RateLimitKey.builder("test").apiKey("k" + i).build());
+            backend.tryAcquire(keys.get(i), 1, config, clock);
+        }
+        RateLimitKey busy = keys.get(0);
+        clock.advance(Duration.ofMillis(1000));
+        backend.tryAcquire(busy, 2, config, clock);
+
+        assertThat(backend.sweepIdleBuckets(clock)).isEqualTo(15);
+        assertThat(backend.size()).isEqualTo(1);
+        assertThat(backend.tryAcquire(busy, 1, config, clock)).isFalse();
+
+        for (int i = 0; i < 15; i++) {
+            RateLimitKey key = RateLimitKey.builder("test").apiKey("other" + i).build();
+            assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        }
+        assertThat(backend.size()).isEqualTo(16);
+    }
+
+    @Test
+    void allOrNothingLeavesEveryBucketUntouchedOnDenial() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(64);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig wide = new RateLimitConfig("wide", 3, 3, Duration.ofSeconds(1), null);
+        RateLimitConfig narrow = new RateLimitConfig("narrow", 1, 1, Duration.ofSeconds(1), null);
+        RateLimitKey a = RateLimitKey.builder("wide").build();
+        RateLimitKey b = RateLimitKey.builder("narrow").build();
+        List<AcquireRequest> requests = List.of(new AcquireRequest(a, 1, wide), new AcquireRequest(b, 1, narrow));
+
+        assertThat(backend.tryAcquireAllOrNothing(requests, clock).isAllowed()).isTrue();
+        MultiAcquireResult denied = backend.tryAcquireAllOrNothing(requests, clock);
+
+        assertThat(denied.getBindingIndex()).isEqualTo(1);
+        assertThat(backend.getSnapshot(a, wide, clock).getRemainingTokens()).isEqualTo(2);
+    }
+
+    @Test
+    void mappedTableResumesAfterRestartCreditingDowntime(@TempDir Path dir) {
+        Path file = dir.resolve("buckets.bin");
+        RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+
+        try (OffHeapTokenBucketBackend before = new OffHeapTokenBucketBackend(16, file, new ManualTicker(start))) {
+            ManualTicker ticker = new ManualTicker(start);
+            assertThat(before.tryAcquire(key, 2, config, ticker)).isTrue();
+        }
+
+        // A new process: its ticker restarts from zero, one refill period later on the wall clock.
+        ManualTicker ticker = new ManualTicker(start.plusSeconds(1));
+        OffHeapTokenBucketBackend after = new OffHeapTokenBucketBackend(16, file, ticker);
+
+        assertThat(after.size()).isEqualTo(1);
+        assertThat(after.tryAcquire(key, 1, config, ticker)).isTrue();
+        assertThat(after.tryAcquire(key, 1, config, ticker)).isFalse();
+        assertThat(after.sweepIdleBuckets(ticker.advance(Duration.ofSeconds(2)))).isEqualTo(1);
+    }
+
+    @Test
+    void mappedTableOfAnotherSizeStartsEmpty(@TempDir Path dir) {
+        Path file = dir.resolve("buckets.bin");
+        RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+        ManualTicker ticker = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        new OffHeapTokenBucketBackend(16, file, ticker).tryAcquire(key, 2, config, ticker);
+        OffHeapTokenBucketBackend resized = new OffHeapTokenBucketBackend(64, file, ticker);
+
+        assertThat(resized.size()).isZero();
+        assertThat(resized.tryAcquire(key, 2, config, ticker)).isTrue();
+    }
+
+    @Test
+    void sharedTableEnforcesOneLimitAcrossProcesses(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("shared.bin");
+        RateLimitConfig hourly = new RateLimitConfig("test", 3, 1, Duration.ofHours(1), null);
+        RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+
+        try (OffHeapTokenBucketBackend parent = OffHeapTokenBucketBackend.shared(16, file, Ticker.system())) {
+            assertThat(parent.tryAcquire(key, 2, hourly, Ticker.system())).isTrue();
+
+            Process child = new ProcessBuilder(
+                    ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", System.getProperty("java.class.path"),
+                    SharedTableChild.class.getName(), file.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(child.getInputStream().readAllBytes()).trim();
+
+            assertThat(child.waitFor()).isZero();
+            assertThat(output).isEqualTo("true false");
+            assertThat(parent.tryAcquire(key, 1, hourly, Ticker.system())).isFalse();
+            assertThat(parent.size()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void sharedTableReclaimsSlotClaimedByExitedProcess(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("shared.bin");
+        RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+
+        try (OffHeapTokenBucketBackend backend = OffHeapTokenBucketBackend.shared(16, file, Ticker.system())) {
+            // The state word of the key's home slot, claimed under owner tag 5, which no process holds.
+            int home = (int) key.fingerprint() & (BucketTable.slotsFor(16) - 1);
+            ByteBuffer claim = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder()).putLong(0, 0xFFFF_FFFF_0000_0005L);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(claim, BucketTable.HEADER_BYTES + (long) home * BucketTable.SLOT_BYTES + 16);
+            }
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThat(backend.tryAcquire(key, 1, config, Ticker.system())).isTrue());
+            assertThat(backend.size()).isEqualTo(1);
+        }
+    }
+
+    /**
+     * Joins the table held open by the test and takes two permits from the same bucket.
+     */
+    static final class SharedTableChild {
+        public static void main(String[] args) {
+            RateLimitConfig hourly = new RateLimitConfig("test", 3, 1, Duration.ofHours(1), null);
+            RateLimitKey key = RateLimitKey.builder("test").path("/a").build();
+            try (OffHeapTokenBucketBackend child = OffHeapTokenBucketBackend.shared(16, Path.of(args[0]), Ticker.system())) {
+                System.out.println(child.tryAcquire(key, 1, hourly, Ticker.system()) + " "
+                        + child.tryAcquire(key, 1, hourly, Ticker.system()));
+            }
+        }
+    }
+
+    @Test
+    void multiBandRuleIsHeldToItsFirstBand() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(16);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig banded = new RateLimitConfig("test", 2, 2, Duration.ofSeconds(1), null)
+                .withBand(3, 3, Duration.ofHours(1));
+        RateLimitKey key = RateLimitKey.builder("test").build();
+        Logger logger = (Logger) LoggerFactory.getLogger(OffHeapTokenBucketBackend.class);
+        ListAppender<ILoggingEvent> warnings = new ListAppender<>();
+        warnings.start();
+        logger.addAppender(warnings);
+
+        try {
+            assertThat(backend.tryAcquire(key, 2, banded, clock)).isTrue();
+            clock.advance(Duration.ofSeconds(1));
+            assertThat(backend.tryAcquire(key, 2, banded, clock)).isTrue();
+            assertThat(backend.tryAcquire(key, 1, banded, clock)).isFalse();
+
+            assertThat(warnings.list).singleElement()
+                    .satisfies(event -> assertThat(event.getLevel()).isEqualTo(Level.WARN))
+                    .satisfies(event -> assertThat(event.getFormattedMessage()).contains("'test'", "2 bands"));
+        } finally {
+            logger.detachAppender(warnings);
+        }
+    }
+
+    @Test
+    void warmUpRuleAdmitsFullBurstFromTheStart() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(16);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig warming = new RateLimitConfig("test", 9, 3, Duration.ofSeconds(1), null,
+                RateLimitAlgorithm.TOKEN_BUCKET, Duration.ofSeconds(10));
+        RateLimitKey key = RateLimitKey.builder("test").build();
+
+        assertThat(backend.tryAcquire(key, 9, warming, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, warming, clock)).isFalse();
+    }
+
+    @Test
+    void failsWhenTableIsFull() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(12);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        for (int i = 0; i < 16; i++) {
+            backend.tryAcquire(RateLimitKey.builder("test").apiKey("k" + i).build(), 1, config, clock);
+        }
+
+        assertThatThrownBy(() -> backend.tryAcquire(RateLimitKey.builder("test").apiKey("new").build(), 1, config, clock))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void concurrentAcquireNeverExceedsCapacity() throws InterruptedException {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(1024);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+        RateLimitConfig cfg = new RateLimitConfig("rule", 100, 10, Duration.ofSeconds(60), null);
+        RateLimitKey key = RateLimitKey.builder("rule").build();
+
+        int threads = 16;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger successCount = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 20; j++) {
+                    if (backend.tryAcquire(key, 1, cfg, clock)) {
+                        successCount.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertThat(successCount.get()).isEqualTo(100);
+        assertThat(backend.size()).isEqualTo(1);
+    }
+
+    @Test
+    void exposesTableGauges() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(12);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        backend.bindTo(registry);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        backend.tryAcquire(RateLimitKey.builder("test").build(), 1, config, clock);
+
+        assertThat(registry.get("conduit.egress.agent.buckets.live").gauge().value()).isEqualTo(1.0d);
+        assertThat(registry.get("conduit.egress.agent.buckets.offheap.bytes").gauge().value())
+                .isEqualTo(16.0d * BucketTable.SLOT_BYTES);
+    }
+}
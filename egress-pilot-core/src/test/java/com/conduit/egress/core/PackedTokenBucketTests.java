@@ -0,0 +1,162 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackedTokenBucketTests {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void packsTokensAndStampIntoOneWord() {
+        long word = PackedTokenBucket.pack(42, 7);
+
+        assertThat(PackedTokenBucket.tokens(word)).isEqualTo(42);
+        assertThat(PackedTokenBucket.stamp(word)).isEqualTo(7);
+    }
+
+    @Test
+    void refillsWholePeriodsOnly() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 5, 2, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(5, 0);
+
+        assertThat(bucket.tryAcquire(5, cfg, 0)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, SECOND - 1)).isFalse();
+        assertThat(bucket.tryAcquire(2, cfg, SECOND)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, SECOND)).isFalse();
+    }
+
+    @Test
+    void refillIsCappedAtCapacity() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 3, 1, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(3, 0);
+
+        assertThat(bucket.tryAcquire(3, cfg, 0)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, 100 * SECOND)).isTrue();
+        assertThat(bucket.storedTokens()).isEqualTo(2);
+    }
+
+    @Test
+    void highRateSpecPacesPermitsEvenly() {
+        RateLimitConfig cfg = RateLimitConfig.ofRate("test", 10_000, 1, null, null, null);
+        PackedTokenBucket bucket = new PackedTokenBucket(1, 0);
+
+        assertThat(bucket.tryAcquire(1, cfg, 0)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, 99_999)).isFalse();
+        assertThat(bucket.tryAcquire(1, cfg, 100_000)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, 150_000)).isFalse();
+        assertThat(bucket.tryAcquire(1, cfg, 200_000)).isTrue();
+    }
+
+    @Test
+    void refillsFullyAfterIdleGapPastHalfTheStampRange() {
+        RateLimitConfig cfg = RateLimitConfig.ofRate("test", 2_000_000, 100, null, null, null);
+        long periodNanos = cfg.getRefillPeriod().toNanos();
+        PackedTokenBucket bucket = new PackedTokenBucket(100, 0);
+        assertThat(bucket.tryAcquire(100, cfg, 0)).isTrue();
+
+        long idle = ((1L << 31) + 1000) * periodNanos;
+
+        assertThat(bucket.tryAcquire(100, cfg, idle)).isTrue();
+        assertThat(bucket.retireIfFull(cfg, 2 * idle)).isTrue();
+    }
+
+    @Test
+    void coldBucketAdmitsReducedBurstUntilWarm() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 9, 3, Duration.ofSeconds(1), null,
+                RateLimitAlgorithm.TOKEN_BUCKET, Duration.ofSeconds(10));
+        PackedTokenBucket bucket = new PackedTokenBucket(9, 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(bucket.tryAcquire(1, cfg, 0)).isTrue();
+        }
+        assertThat(bucket.tryAcquire(1, cfg, 0)).isFalse();
+
+        for (int i = 0; i < 9; i++) {
+            assertThat(bucket.tryAcquire(1, cfg, 10 * SECOND)).isTrue();
+        }
+        assertThat(bucket.tryAcquire(1, cfg, 10 * SECOND)).isFalse();
+    }
+
+    @Test
+    void reservationHoldsFutureRefillsAndQueuesLaterCallers() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(2, 0);
+
+        assertThat(bucket.reserve(2, cfg, 0, 0).getWaitNanos()).isZero();
+
+        Reservation first = bucket.reserve(1, cfg, 5 * SECOND, SECOND / 4);
+        assertThat(first.isGranted()).isTrue();
+        assertThat(first.getWaitNanos()).isEqualTo(3 * SECOND / 4);
+
+        Reservation second = bucket.reserve(1, cfg, 5 * SECOND, SECOND / 4);
+        assertThat(second.isGranted()).isTrue();
+        assertThat(second.getWaitNanos()).isEqualTo(SECOND + 3 * SECOND / 4);
+
+        // Capacity up to the second reservation is spoken for.
+        assertThat(bucket.tryAcquire(1, cfg, SECOND)).isFalse();
+        assertThat(bucket.tryAcquireWithResult(1, cfg, SECOND).getNanosToNextToken()).isEqualTo(2 * SECOND);
+        assertThat(bucket.tryAcquire(1, cfg, 3 * SECOND)).isTrue();
+    }
+
+    @Test
+    void reservationBeyondMaxWaitConsumesNothing() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 4, 2, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(4, 0);
+        bucket.tryAcquire(4, cfg, 0);
+
+        Reservation denied = bucket.reserve(5, cfg, 2 * SECOND, 0);
+        assertThat(denied.isGranted()).isFalse();
+        assertThat(denied.getWaitNanos()).isEqualTo(3 * SECOND);
+
+        assertThat(bucket.tryAcquire(2, cfg, SECOND)).isTrue();
+    }
+
+    @Test
+    void clockGoingBackwardsDoesNotRefill() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(2, 10 * SECOND);
+
+        assertThat(bucket.tryAcquire(2, cfg, 10 * SECOND)).isTrue();
+        assertThat(bucket.tryAcquire(1, cfg, 5 * SECOND)).isFalse();
+    }
+
+    @Test
+    void lastRefillTracksAppliedBoundary() {
+        RateLimitConfig cfg = new RateLimitConfig("test", 2, 1, Duration.ofSeconds(1), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(2, 0);
+
+        bucket.tryAcquire(1, cfg, 3 * SECOND + 500);
+
+        assertThat(bucket.lastRefillNanos(cfg, 4 * SECOND + 200)).isEqualTo(3 * SECOND);
+    }
+
+    @Test
+    void concurrentAcquireNeverOverspends() throws InterruptedException {
+        RateLimitConfig cfg = new RateLimitConfig("test", 1000, 1, Duration.ofSeconds(60), null);
+        PackedTokenBucket bucket = new PackedTokenBucket(1000, 0);
+
+        int threads = 16;
+        CountDownLatch latch = new CountDownLatch(threads);
+        AtomicInteger successCount = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < 200; j++) {
+                    if (bucket.tryAcquire(1, cfg, 0)) {
+                        successCount.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+
+        assertThat(successCount.get()).isEqualTo(1000);
+        assertThat(bucket.storedTokens()).isZero();
+    }
+}
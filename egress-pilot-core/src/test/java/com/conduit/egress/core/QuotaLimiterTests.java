@@ -0,0 +1,98 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QuotaLimiterTests {
+
+    private final RateLimitKey key = RateLimitKey.builder("partner").build();
+
+    @Test
+    void agentsShareOneCounterAndLeaseFromItInChunks() {
+        LocalQuotaStore store = new LocalQuotaStore();
+        QuotaPolicy policy = new QuotaPolicy(10, QuotaPeriod.DAY, ZoneOffset.UTC);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-15T10:00:00Z"));
+        QuotaLimiter first = new QuotaLimiter(store, 4);
+        QuotaLimiter second = new QuotaLimiter(store, 4);
+
+        assertThat(first.tryAcquireCached(key, 1, policy, clock)).isFalse();
+        assertThat(first.tryAcquire(key, 1, policy, clock)).isTrue();
+        assertThat(first.tryAcquireCached(key, 3, policy, clock)).isTrue();
+        assertThat(store.used(QuotaLimiter.counter(key, policy.window(clock.millis())))).isEqualTo(4);
+
+        assertThat(second.tryAcquire(key, 4, policy, clock)).isTrue();
+        assertThat(first.tryAcquire(key, 2, policy, clock)).isTrue();
+        assertThat(second.tryAcquire(key, 1, policy, clock)).isFalse();
+        assertThat(first.tryAcquire(key, 1, policy, clock)).isFalse();
+
+        clock.advance(Duration.ofHours(14));
+        assertThat(second.tryAcquire(key, 4, policy, clock)).isTrue();
+    }
+
+    @Test
+    void closingGivesUnspentLeasesBack() {
+        LocalQuotaStore store = new LocalQuotaStore();
+        QuotaPolicy policy = new QuotaPolicy(10, QuotaPeriod.DAY, ZoneOffset.UTC);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-15T10:00:00Z"));
+        String counter = QuotaLimiter.counter(key, policy.window(clock.millis()));
+
+        QuotaLimiter limiter = new QuotaLimiter(store, 8);
+        limiter.tryAcquire(key, 3, policy, clock);
+        limiter.close();
+
+        assertThat(store.used(counter)).isEqualTo(3);
+    }
+
+    @Test
+    void keysThatPrintAlikeKeepSeparateCounters() {
+        LocalQuotaStore store = new LocalQuotaStore();
+        QuotaPolicy policy = new QuotaPolicy(2, QuotaPeriod.DAY, ZoneOffset.UTC);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-01-15T10:00:00Z"));
+        RateLimitKey victim = RateLimitKey.builder("partner").principal("p;apiKey=k").build();
+        RateLimitKey crafted = RateLimitKey.builder("partner").principal("p").apiKey("k;apiKey=null").build();
+        QuotaLimiter limiter = new QuotaLimiter(store, 1);
+
+        assertThat(limiter.tryAcquire(crafted, 2, policy, clock)).isTrue();
+        assertThat(limiter.tryAcquire(crafted, 1, policy, clock)).isFalse();
+        assertThat(limiter.tryAcquire(victim, 2, policy, clock)).isTrue();
+    }
+
+    @Test
+    void fileBackedCountersSurviveRestartAndExpireWithTheirWindow(@TempDir Path dir) {
+        Path file = dir.resolve("quotas");
+        QuotaPolicy policy = new QuotaPolicy(5, QuotaPeriod.MONTH, ZoneOffset.UTC);
+        ManualTicker clock = new ManualTicker(Instant.parse("2024-02-28T23:00:00Z"));
+
+        assertThat(new QuotaLimiter(new LocalQuotaStore(file, clock), 5).tryAcquire(key, 5, policy, clock)).isTrue();
+
+        QuotaLimiter restarted = new QuotaLimiter(new LocalQuotaStore(file, clock), 5);
+        assertThat(restarted.tryAcquire(key, 1, policy, clock)).isFalse();
+
+        clock.advance(Duration.ofDays(2));
+        assertThat(new QuotaLimiter(new LocalQuotaStore(file, clock), 5).tryAcquire(key, 5, policy, clock)).isTrue();
+    }
+
+    @Test
+    void windowsFollowTheCalendarInTheQuotaZone() {
+        ZoneId newYork = ZoneId.of("America/New_York");
+        QuotaPolicy daily = new QuotaPolicy(1, QuotaPeriod.DAY, newYork);
+        QuotaPolicy monthly = new QuotaPolicy(1, QuotaPeriod.MONTH, newYork);
+
+        // DST starts on 2024-03-10 in New York, so that day lasts 23 hours
+        QuotaPolicy.Window day = daily.window(Instant.parse("2024-03-10T12:00:00Z").toEpochMilli());
+        assertThat(Instant.ofEpochMilli(day.getStartMillis())).isEqualTo(Instant.parse("2024-03-10T05:00:00Z"));
+        assertThat(Instant.ofEpochMilli(day.getEndMillis())).isEqualTo(Instant.parse("2024-03-11T04:00:00Z"));
+
+        QuotaPolicy.Window month = monthly.window(Instant.parse("2024-03-01T02:00:00Z").toEpochMilli());
+        assertThat(Instant.ofEpochMilli(month.getStartMillis())).isEqualTo(Instant.parse("2024-02-01T05:00:00Z"));
+        assertThat(Instant.ofEpochMilli(month.getEndMillis())).isEqualTo(Instant.parse("2024-03-01T05:00:00Z"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.conduit.egress.core;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitBackendChainTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 1, 1, Duration.ofSeconds(10), null);
+    private final RateLimitKey key = RateLimitKey.builder("test").build();
+    private final Clock clock = Clock.systemUTC();
+
+    private final RateLimitBackend failing = new RateLimitBackend() {
+        @Override
+        public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+            throw new IllegalStateException("down");
+        }
+
+        @Override
+        public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+            throw new IllegalStateException("down");
+        }
+    };
+
+    @Test
+    void firstLayerIsOutermost() {
+        List<String> seen = new ArrayList<>();
+        RateLimitBackendChain chain = new RateLimitBackendChain(List.of(recording("outer", seen), recording("inner", seen)));
+
+        chain.decorate(new InMemoryTokenBucketBackend()).tryAcquire(key, 1, config, clock);
+
+        assertThat(seen).containsExactly("outer", "inner");
+    }
+
+    @Test
+    void fallbackServesOperationsTheBackendFails() {
+        FallbackLayer fallback = new FallbackLayer(new InMemoryTokenBucketBackend());
+        RateLimitBackend backend = new RateLimitBackendChain(List.of(fallback)).decorate(failing);
+
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isTrue();
+        assertThat(backend.tryAcquire(key, 1, config, clock)).isFalse();
+        assertThat(fallback.fallbacks()).isEqualTo(2);
+    }
+
+    @Test
+    void slowAsyncCallsFallBackOnceOverBudget() {
+        AsyncRateLimitBackend hanging = new AsyncRateLimitBackend() {
+            @Override
+            public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+                return new CompletableFuture<>();
+            }
+
+            @Override
+            public CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+                return new CompletableFuture<>();
+            }
+        };
+        FallbackLayer fallback = new FallbackLayer(new InMemoryTokenBucketBackend());
+        AsyncRateLimitBackend backend = new RateLimitBackendChain(List.of(
+                fallback, new LatencyBudgetLayer(Duration.ofMillis(20)))).decorateAsync(hanging);
+
+        assertThat(backend.tryAcquireAsync(key, 1, config, clock).toCompletableFuture().join()).isTrue();
+        assertThat(fallback.fallbacks()).isEqualTo(1);
+    }
+
+    @Test
+    void timingRecordsOperationAndOutcome() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TimingLayer timing = new TimingLayer(registry);
+
+        timing.decorate(new InMemoryTokenBucketBackend()).tryAcquire(key, 1, config, clock);
+        timing.decorateAsync(AsyncRateLimitBackend.adapt(failing, Runnable::run))
+                .tryAcquireAsync(key, 1, config, clock)
+                .exceptionally(ex -> false)
+                .toCompletableFuture()
+                .join();
+
+        assertThat(registry.get("conduit.egress.agent.backend.latency")
+                .tags("operation", "acquire", "outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("conduit.egress.agent.backend.latency")
+                .tags("operation", "acquire", "outcome", "error").timer().count()).isEqualTo(1);
+    }
+
+    private static RateLimitBackendDecorator recording(String name, List<String> seen) {
+        return new RateLimitBackendDecorator() {
+            @Override
+            public RateLimitBackend decorate(RateLimitBackend backend) {
+                return new ForwardingRateLimitBackend(backend) {
+                    @Override
+                    protected <T> T call(String operation, Function<RateLimitBackend, T> call) {
+                        seen.add(name);
+                        return super.call(operation, call);
+                    }
+                };
+            }
+        };
+    }
+}
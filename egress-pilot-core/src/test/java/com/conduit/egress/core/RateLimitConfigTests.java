@@ -29,6 +29,36 @@ class RateLimitConfigTests {
         );
     }
 
+    @Test
+    void defaultsToTokenBucketAlgorithm() {
+        RateLimitConfig cfg = new RateLimitConfig("rule", 100, 10, Duration.ofSeconds(1), null);
+        RateLimitConfig gcra = new RateLimitConfig("rule", 100, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.GCRA);
+
+        assertThat(cfg.getAlgorithm()).isEqualTo(RateLimitAlgorithm.TOKEN_BUCKET);
+        assertThat(gcra.getAlgorithm()).isEqualTo(RateLimitAlgorithm.GCRA);
+        assertThat(gcra.getEmissionIntervalNanos()).isEqualTo(100_000_000L);
+    }
+
+    @Test
+    void slidingWindowSpansOneFullRefill() {
+        RateLimitConfig cfg = new RateLimitConfig(
+                "rule", 100, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.SLIDING_WINDOW);
+
+        assertThat(cfg.getWindowNanos()).isEqualTo(10_000_000_000L);
+    }
+
+    @Test
+    void precomputesDimensionMask() {
+        RateLimitConfig cfg = new RateLimitConfig(
+                "rule", 100, 10, Duration.ofSeconds(1),
+                EnumSet.of(RateLimitDimension.PATH, RateLimitDimension.API_KEY));
+
+        assertThat(cfg.getDimensionMask())
+                .isEqualTo(RateLimitDimension.PATH.mask() | RateLimitDimension.API_KEY.mask());
+        assertThat(cfg.hasDimension(RateLimitDimension.API_KEY)).isTrue();
+        assertThat(cfg.hasDimension(RateLimitDimension.HOST)).isFalse();
+    }
+
     @Test
     void rejectsInvalidCapacity() {
         assertThatThrownBy(() -> new RateLimitConfig(
@@ -56,4 +86,59 @@ class RateLimitConfigTests {
                 "x", 5, 10, Duration.ofSeconds(1), null))
                 .isInstanceOf(IllegalArgumentException.class);
     }
+
+    @Test
+    void warmUpCostRampsFromColdFactorToOnePermit() {
+        RateLimitConfig cfg = new RateLimitConfig("x", 30, 10, Duration.ofSeconds(1), null,
+                RateLimitAlgorithm.TOKEN_BUCKET, Duration.ofSeconds(10));
+
+        assertThat(cfg.warmUpCost(1, 0)).isEqualTo(RateLimitConfig.COLD_FACTOR);
+        assertThat(cfg.warmUpCost(1, Duration.ofSeconds(5).toNanos())).isEqualTo(2);
+        assertThat(cfg.warmUpCost(4, Duration.ofSeconds(10).toNanos())).isEqualTo(4);
+        assertThat(cfg.warmUpCost(20, 0)).isEqualTo(30);
+        assertThat(new RateLimitConfig("x", 30, 10, Duration.ofSeconds(1), null).warmUpCost(1, 0)).isEqualTo(1);
+    }
+
+    @Test
+    void rateSpecRefillsOnePermitPerInterval() {
+        RateLimitConfig cfg = RateLimitConfig.ofRate("x", 5000, 50, null, null, null);
+
+        assertThat(cfg.getCapacity()).isEqualTo(50);
+        assertThat(cfg.getRefillTokens()).isEqualTo(1);
+        assertThat(cfg.getRefillPeriod()).isEqualTo(Duration.ofNanos(200_000));
+    }
+
+    @Test
+    void veryHighRateRefillsAboutEveryMicrosecond() {
+        RateLimitConfig cfg = RateLimitConfig.ofRate("x", 4_000_000, 1000, null, null, null);
+
+        assertThat(cfg.getRefillTokens()).isEqualTo(4);
+        assertThat(cfg.getRefillPeriod()).isEqualTo(Duration.ofNanos(1_000));
+    }
+
+    @Test
+    void withBandAddsBandsAfterTheRuleItself() {
+        RateLimitConfig cfg = new RateLimitConfig("x", 10, 10, Duration.ofSeconds(1), null)
+                .withBand(500, 500, Duration.ofMinutes(1))
+                .withBand(20_000, 20_000, Duration.ofHours(1));
+
+        assertThat(cfg.isMultiBand()).isTrue();
+        assertThat(cfg.getCapacity()).isEqualTo(10);
+        assertThat(cfg.getBands()).extracting(RateLimitConfig::getCapacity).containsExactly(10L, 500L, 20_000L);
+        assertThat(cfg.getBands()).allMatch(band -> !band.isMultiBand());
+    }
+
+    @Test
+    void bandsRequireTokenBucket() {
+        RateLimitConfig gcra = new RateLimitConfig("x", 10, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.GCRA);
+
+        assertThatThrownBy(() -> gcra.withBand(500, 500, Duration.ofMinutes(1)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void rejectsNonPositiveRate() {
+        assertThatThrownBy(() -> RateLimitConfig.ofRate("x", 0, 10, null, null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
 }
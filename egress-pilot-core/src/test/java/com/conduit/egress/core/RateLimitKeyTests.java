@@ -38,6 +38,38 @@ class RateLimitKeyTests {
         assertThat(base).isNotEqualTo(different);
     }
 
+    @Test
+    void fingerprintDistinguishesFieldBoundariesAndNulls() {
+        RateLimitKey key = RateLimitKey.builder("rule").host("ab").path("c").build();
+
+        assertThat(key.fingerprint())
+                .isEqualTo(RateLimitKey.builder("rule").host("ab").path("c").build().fingerprint())
+                .isNotEqualTo(RateLimitKey.builder("rule").host("a").path("bc").build().fingerprint())
+                .isNotEqualTo(RateLimitKey.builder("rule").host("ab").path("c").method("").build().fingerprint());
+    }
+
+    @Test
+    void canonicalBytesMatchEquality() {
+        RateLimitKey key = RateLimitKey.builder("rule").host("h").apiKey("\u00e9").build();
+
+        assertThat(key.canonicalBytes())
+                .isEqualTo(RateLimitKey.builder("rule").host("h").apiKey("\u00e9").build().canonicalBytes())
+                .isNotEqualTo(RateLimitKey.builder("rule").host("h").principal("\u00e9").build().canonicalBytes());
+    }
+
+    @Test
+    void digestIsStableAndDistinguishesKeysThatPrintAlike() {
+        RateLimitKey key = RateLimitKey.builder("rule").principal("p;apiKey=k").build();
+        RateLimitKey lookalike = RateLimitKey.builder("rule").principal("p").apiKey("k;apiKey=null").build();
+
+        assertThat(key.toString()).isEqualTo(lookalike.toString());
+        assertThat(key.digest())
+                .isSameAs(key.digest())
+                .isEqualTo(RateLimitKey.builder("rule").principal("p;apiKey=k").build().digest())
+                .isNotEqualTo(lookalike.digest())
+                .matches("[A-Za-z0-9_-]{43}");
+    }
+
     @Test
     void toStringContainsAllFields() {
         RateLimitKey key = RateLimitKey.builder("rule")
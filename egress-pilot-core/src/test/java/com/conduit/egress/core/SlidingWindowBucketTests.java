@@ -0,0 +1,52 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlidingWindowBucketTests {
+
+    private static final long MILLI = 1_000_000L;
+
+    private static final RateLimitConfig CONFIG = new RateLimitConfig(
+            "test", 10, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.SLIDING_WINDOW);
+
+    @Test
+    void doesNotAdmitDoubleBurstAcrossWindowBoundary() {
+        SlidingWindowBucket bucket = new SlidingWindowBucket();
+
+        assertThat(bucket.tryAcquire(10, CONFIG, 900 * MILLI)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 1_000 * MILLI)).isFalse();
+        assertThat(bucket.tryAcquire(5, CONFIG, 1_500 * MILLI)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 1_500 * MILLI)).isFalse();
+    }
+
+    @Test
+    void reportsTimeUntilPermitsFit() {
+        SlidingWindowBucket bucket = new SlidingWindowBucket();
+        bucket.tryAcquire(10, CONFIG, 900 * MILLI);
+        bucket.tryAcquire(5, CONFIG, 1_500 * MILLI);
+
+        Reservation denied = bucket.reserve(1, CONFIG, Duration.ofSeconds(1).toNanos(), 1_500 * MILLI);
+        AcquireResult result = bucket.tryAcquireWithResult(1, CONFIG, 1_500 * MILLI);
+
+        assertThat(denied.isGranted()).isFalse();
+        assertThat(denied.getWaitNanos()).isEqualTo(100 * MILLI);
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getRemainingTokens()).isZero();
+        assertThat(result.getNanosToNextToken()).isEqualTo(100 * MILLI);
+        assertThat(result.getNanosToFull()).isEqualTo(1_500 * MILLI);
+    }
+
+    @Test
+    void retiresOnlyOnceBothWindowsAreEmpty() {
+        SlidingWindowBucket bucket = new SlidingWindowBucket();
+        bucket.tryAcquire(1, CONFIG, 0);
+
+        assertThat(bucket.retireIfFull(CONFIG, 1_500 * MILLI)).isFalse();
+        assertThat(bucket.retireIfFull(CONFIG, 2_000 * MILLI)).isTrue();
+        assertThat(bucket.tryAcquire(1, CONFIG, 2_000 * MILLI)).isFalse();
+    }
+}
@@ -0,0 +1,105 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StripedTokenBucketTests {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void stealsFromOtherCellsOnceHomeCellRunsShort() {
+        RateLimitConfig config = new RateLimitConfig("hot", 8, 4, Duration.ofSeconds(1), null);
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 4, 0L);
+
+        assertThat(bucket.tryAcquire(5, config, 0L)).isTrue();
+        assertThat(bucket.tryAcquire(3, config, 0L)).isTrue();
+        assertThat(bucket.tryAcquire(1, config, 0L)).isFalse();
+    }
+
+    @Test
+    void refillIsSpreadAcrossCellsAndCappedAtCapacity() {
+        RateLimitConfig config = new RateLimitConfig("hot", 8, 4, Duration.ofSeconds(1), null);
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 4, 0L);
+        bucket.tryAcquire(8, config, 0L);
+
+        AcquireResult refilled = bucket.tryAcquireWithResult(4, config, SECOND);
+        assertThat(refilled.isAllowed()).isTrue();
+        assertThat(bucket.tryAcquire(1, config, SECOND)).isFalse();
+
+        assertThat(bucket.tryAcquireWithResult(0, config, 10 * SECOND).getRemainingTokens()).isEqualTo(8);
+        assertThat(bucket.retireIfFull(config, 10 * SECOND)).isTrue();
+        assertThat(bucket.tryAcquireWithResult(1, config, 10 * SECOND)).isNull();
+    }
+
+    @Test
+    void reservationRunsIntoDebtThatRefillsRepay() {
+        RateLimitConfig config = new RateLimitConfig("hot", 4, 2, Duration.ofSeconds(1), null);
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 4, 0L);
+
+        Reservation reservation = bucket.reserve(8, config, 5 * SECOND, 0L);
+        AcquireResult denied = bucket.tryAcquireWithResult(1, config, 0L);
+
+        assertThat(reservation.isGranted()).isTrue();
+        assertThat(reservation.getWaitNanos()).isEqualTo(2 * SECOND);
+        assertThat(denied.isAllowed()).isFalse();
+        assertThat(denied.getNanosToNextToken()).isEqualTo(3 * SECOND);
+        assertThat(bucket.tryAcquire(1, config, 3 * SECOND)).isTrue();
+    }
+
+    @Test
+    void concurrentAcquiresNeverGrantMoreThanCapacity() throws InterruptedException {
+        RateLimitConfig config = new RateLimitConfig("hot", 10_000, 1, Duration.ofDays(1), null);
+        StripedTokenBucket bucket = new StripedTokenBucket(10_000, 8, 0L);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < 1_000; i++) {
+                    if (bucket.tryAcquire(1 + i % 3, config, 0L)) {
+                        granted.addAndGet(1 + i % 3);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long remaining = bucket.snapshot(config, 0L).getRemainingTokens();
+        assertThat(granted.get()).isLessThanOrEqualTo(10_000);
+        assertThat(granted.get() + remaining).isEqualTo(10_000);
+    }
+
+    @Test
+    void storeStripesOnlyRulesWithoutDimensions() {
+        BucketStore store = new BucketStore(10, 4);
+        RateLimitConfig global = new RateLimitConfig("global", 10, 10, Duration.ofSeconds(1),
+                EnumSet.noneOf(RateLimitDimension.class));
+        RateLimitConfig perPath = new RateLimitConfig("per-path", 10, 10, Duration.ofSeconds(1),
+                EnumSet.of(RateLimitDimension.PATH));
+
+        assertThat(store.getOrCreate(RateLimitKey.builder("global").build(), global, 0L).bucket)
+                .isInstanceOf(StripedTokenBucket.class);
+        assertThat(store.getOrCreate(RateLimitKey.builder("per-path").path("/a").build(), perPath, 0L).bucket)
+                .isInstanceOf(PackedTokenBucket.class);
+    }
+}
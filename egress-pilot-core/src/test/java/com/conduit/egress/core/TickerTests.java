@@ -0,0 +1,67 @@
+package com.conduit.egress.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TickerTests {
+
+    private final RateLimitConfig config = new RateLimitConfig("test", 2, 2, Duration.ofSeconds(1), null);
+    private final RateLimitKey key = RateLimitKey.builder("test").build();
+
+    @Test
+    void bucketsFollowTheTickerAndIgnoreWallClockSteps() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        ManualTicker ticker = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        assertThat(backend.tryAcquire(key, 2, config, ticker)).isTrue();
+        ticker.stepWallClock(Duration.ofHours(1));
+        assertThat(backend.tryAcquire(key, 1, config, ticker)).isFalse();
+
+        ticker.stepWallClock(Duration.ofHours(-2)).advance(Duration.ofSeconds(1));
+        assertThat(backend.tryAcquire(key, 2, config, ticker)).isTrue();
+    }
+
+    @Test
+    void offHeapBucketsFollowTheTicker() {
+        OffHeapTokenBucketBackend backend = new OffHeapTokenBucketBackend(16);
+        ManualTicker ticker = new ManualTicker(Instant.parse("2024-01-01T00:00:00Z"));
+
+        assertThat(backend.tryAcquire(key, 2, config, ticker)).isTrue();
+        ticker.stepWallClock(Duration.ofHours(1));
+        assertThat(backend.tryAcquire(key, 1, config, ticker)).isFalse();
+
+        ticker.advance(Duration.ofSeconds(1));
+        assertThat(backend.tryAcquire(key, 1, config, ticker)).isTrue();
+    }
+
+    @Test
+    void snapshotsAndReservationsAreReportedOnTheWallClock() {
+        InMemoryTokenBucketBackend backend = new InMemoryTokenBucketBackend();
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        ManualTicker ticker = new ManualTicker(start);
+
+        backend.tryAcquire(key, 2, config, ticker);
+        ticker.advance(Duration.ofMillis(250));
+
+        assertThat(backend.getSnapshot(key, config, ticker).getLastRefillEpochMillis())
+                .isEqualTo(start.toEpochMilli());
+        Reservation reservation = backend.reserve(key, 1, config, Duration.ofSeconds(1), ticker);
+        assertThat(reservation.isGranted()).isTrue();
+        assertThat(reservation.getAdmitAt()).isEqualTo(start.plusSeconds(1));
+    }
+
+    @Test
+    void manualTickerOnlyMovesForward() {
+        ManualTicker ticker = new ManualTicker(Instant.EPOCH);
+
+        assertThat(ticker.advance(Duration.ofMillis(5)).read()).isEqualTo(5_000_000L);
+        assertThat(Ticker.nanos(ticker)).isEqualTo(5_000_000L);
+        assertThatThrownBy(() -> ticker.advance(Duration.ofMillis(-1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,57 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.RateLimitConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks out the calls that the Redis scripts cannot serve for multi-band rules, which
+ * the backends hand to the generic default instead, and warns once per rule and
+ * operation that the rule is enforced more weakly there.
+ */
+final class MultiBandFallback {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiBandFallback.class);
+
+    static final String RESERVE = "reserve";
+    static final String ALL_OR_NOTHING = "all-or-nothing acquire";
+
+    private final Set<String> warned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether {@code operation} must fall back for {@code config}.
+     */
+    boolean appliesTo(RateLimitConfig config, String operation) {
+        if (!config.isMultiBand()) {
+            return false;
+        }
+        if (warned.add(operation + ':' + config.getName())) {
+            log.warn("Rule '{}' has {} bands, which the Redis {} script does not handle; {}",
+                    config.getName(), config.getBands().size(), operation, consequence(operation));
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@code operation} must fall back for the batch, which it does if any of
+     * its rules has several bands.
+     */
+    boolean appliesTo(List<AcquireRequest> requests, String operation) {
+        boolean applies = false;
+        for (AcquireRequest request : requests) {
+            applies |= appliesTo(request.getConfig(), operation);
+        }
+        return applies;
+    }
+
+    private static String consequence(String operation) {
+        return RESERVE.equals(operation)
+                ? "reservations for it only admit permits available now"
+                : "batches with it are acquired one key at a time and are not atomic";
+    }
+}
@@ -0,0 +1,456 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.AsyncRateLimitBackend;
+import com.conduit.egress.core.MultiAcquireResult;
+import com.conduit.egress.core.RateLimitAlgorithm;
+import com.conduit.egress.core.RateLimitBackend;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Redis / Dragonfly token bucket on one shared, multiplexed Lettuce connection whose
+ * commands are pipelined in batches. Runs the same scripts and key layout as
+ * {@link RedisTokenBucketBackend}, so both can share buckets.
+ * <p>
+ * The connection does not flush each command as it is written. Concurrent calls queue
+ * their {@code EVALSHA} on it, and the queue is flushed to Redis in one write once
+ * {@code maxBatchSize} commands are waiting, or {@code maxDelay} after the first of
+ * them, whichever comes first. Replies complete each call's stage as they arrive, so a
+ * batch costs about one round trip and one syscall each way instead of one per call,
+ * and throughput is no longer bounded by a connection pool times the round-trip time.
+ * <p>
+ * Scripts are loaded with {@code SCRIPT LOAD} when the backend starts. If Redis has lost
+ * them since (restart, failover, {@code SCRIPT FLUSH}), the call is sent again as
+ * {@code EVAL} with the script body, which caches it for later calls.
+ * <p>
+ * The blocking methods wait for the same pipelined calls, so annotated methods share
+ * the connection with the WebClient filter. The connection must not be used for
+ * anything else: with flushing left to this backend, other commands on it would wait
+ * for the next batch.
+ */
+public class PipelinedRedisTokenBucketBackend implements RateLimitBackend, AsyncRateLimitBackend, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PipelinedRedisTokenBucketBackend.class);
+
+    private final StatefulRedisConnection<String, String> connection;
+    private final RedisAsyncCommands<String, String> commands;
+    private final RedisClient client;
+    private final String keyPrefix;
+    private final MultiBandFallback multiBandFallback = new MultiBandFallback();
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService flusher;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final Script script;
+    private final Script reserveScript;
+    private final Script allOrNothingScript;
+    private final Script gcraScript;
+    private final Script gcraReserveScript;
+    private final Script slidingWindowScript;
+    private final Script bandsScript;
+    private final Script adjustScript;
+
+    /**
+     * @param connection   a connection dedicated to this backend, which takes it over
+     *                     and closes it on {@link #close()}
+     * @param maxBatchSize commands queued before the batch is flushed at once
+     * @param maxDelay     longest a queued command waits for the batch to fill
+     */
+    public PipelinedRedisTokenBucketBackend(StatefulRedisConnection<String, String> connection,
+                                            String keyPrefix,
+                                            int maxBatchSize,
+                                            Duration maxDelay) {
+        this(connection, null, keyPrefix, maxBatchSize, maxDelay);
+    }
+
+    private PipelinedRedisTokenBucketBackend(StatefulRedisConnection<String, String> connection,
+                                             RedisClient client,
+                                             String keyPrefix,
+                                             int maxBatchSize,
+                                             Duration maxDelay) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        }
+        if (maxDelay.isNegative()) {
+            throw new IllegalArgumentException("maxDelay must not be negative");
+        }
+        this.connection = Objects.requireNonNull(connection, "connection must not be null");
+        this.client = client;
+        this.keyPrefix = keyPrefix;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+
+        // Loaded while the connection still flushes each command, so the sync calls return.
+        RedisCommands<String, String> sync = connection.sync();
+        this.script = Script.load(sync, RedisBucketScripts.ACQUIRE, ScriptOutputType.MULTI);
+        this.reserveScript = Script.load(sync, RedisBucketScripts.RESERVE, ScriptOutputType.MULTI);
+        this.allOrNothingScript = Script.load(sync, RedisBucketScripts.ACQUIRE_ALL, ScriptOutputType.MULTI);
+        this.gcraScript = Script.load(sync, RedisBucketScripts.GCRA_ACQUIRE, ScriptOutputType.MULTI);
+        this.gcraReserveScript = Script.load(sync, RedisBucketScripts.GCRA_RESERVE, ScriptOutputType.MULTI);
+        this.slidingWindowScript = Script.load(sync, RedisBucketScripts.SLIDING_WINDOW_ACQUIRE, ScriptOutputType.MULTI);
+        this.bandsScript = Script.load(sync, RedisBucketScripts.ACQUIRE_BANDS, ScriptOutputType.MULTI);
+        this.adjustScript = Script.load(sync, RedisBucketScripts.ADJUST, ScriptOutputType.INTEGER);
+
+        connection.setAutoFlushCommands(false);
+        this.commands = connection.async();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "egress-redis-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Connects to {@code redisUri} with its own client, closed with the backend. Calls
+     * that get no reply within {@code commandTimeout} fail.
+     */
+    public static PipelinedRedisTokenBucketBackend create(String redisUri,
+                                                          int maxBatchSize,
+                                                          Duration maxDelay,
+                                                          Duration commandTimeout) {
+        RedisURI uri = RedisURI.create(redisUri);
+        uri.setTimeout(commandTimeout);
+        RedisClient client = RedisClient.create(uri);
+        client.setOptions(ClientOptions.builder().timeoutOptions(TimeoutOptions.enabled()).build());
+        try {
+            return new PipelinedRedisTokenBucketBackend(client.connect(), client, "egress:bucket:",
+                    maxBatchSize, maxDelay);
+        } catch (RuntimeException ex) {
+            client.shutdown();
+            throw ex;
+        }
+    }
+
+    @Override
+    public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return evaluate(key, permits, config, clock.millis()).thenApply(result -> {
+            if (result == null || result.isEmpty()) {
+                log.error("Redis script returned null/empty result for key {}", key);
+                return false;
+            }
+            return result.get(0) instanceof Long allowed && allowed == 1L;
+        });
+    }
+
+    /**
+     * Tokens and refill timing come back from the same script call as the decision.
+     */
+    @Override
+    public CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                    long permits,
+                                                                    RateLimitConfig config,
+                                                                    Clock clock) {
+        long nowMs = clock.millis();
+        return evaluate(key, Math.max(0L, permits), config, nowMs).thenApply(result -> {
+            if (result == null || result.size() < RedisBucketScripts.replySize(config)) {
+                log.error("Redis script returned null/incomplete result for key {}", key);
+                return new AcquireResult(permits <= 0, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN,
+                        AcquireResult.UNKNOWN);
+            }
+            boolean allowed = permits <= 0 || (result.get(0) instanceof Long flag && flag == 1L);
+            return RedisBucketScripts.toResult(allowed, result, config, nowMs);
+        });
+    }
+
+    /**
+     * See {@link RedisTokenBucketBackend#reserve}.
+     */
+    @Override
+    public CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                     long permits,
+                                                     RateLimitConfig config,
+                                                     Duration maxWait,
+                                                     Clock clock) {
+        if (multiBandFallback.appliesTo(config, MultiBandFallback.RESERVE)) {
+            return AsyncRateLimitBackend.super.reserveAsync(key, permits, config, maxWait, clock);
+        }
+        Instant now = clock.instant();
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            return evaluate(key, Math.max(0L, permits), config, now.toEpochMilli()).thenApply(result -> {
+                if (result == null || result.size() < RedisBucketScripts.replySize(config)) {
+                    log.error("Redis script returned null/incomplete result for key {}", key);
+                    return Reservation.denied(now, AcquireResult.UNKNOWN);
+                }
+                return RedisBucketScripts.toSlidingReservation(result, Math.max(0L, permits), config, now);
+            });
+        }
+        List<String> args = RedisBucketScripts.reserveArgs(config, now.toEpochMilli(), Math.max(0L, permits),
+                maxWait.toMillis());
+        CompletionStage<List<Object>> reply = eval(isGcra(config) ? gcraReserveScript : reserveScript,
+                List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)), args);
+        return reply.thenApply(result -> {
+            if (result == null || result.size() < 2) {
+                log.error("Redis reserve script returned null/incomplete result for key {}", key);
+                return Reservation.denied(now, AcquireResult.UNKNOWN);
+            }
+            return RedisBucketScripts.toReservation(result, now);
+        });
+    }
+
+    /**
+     * See {@link RedisTokenBucketBackend#tryAcquireAllOrNothing}. Batches with a
+     * multi-band rule fall back to the non-atomic default.
+     */
+    @Override
+    public CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        if (multiBandFallback.appliesTo(requests, MultiBandFallback.ALL_OR_NOTHING)) {
+            return AsyncRateLimitBackend.super.tryAcquireAllOrNothingAsync(requests, clock);
+        }
+        List<AcquireRequest> evaluated = new ArrayList<>(requests.size());
+        int[] indexes = new int[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).getPermits() > 0) {
+                indexes[evaluated.size()] = i;
+                evaluated.add(requests.get(i));
+            }
+        }
+        if (evaluated.isEmpty()) {
+            return CompletableFuture.completedFuture(MultiAcquireResult.allowed());
+        }
+        long nowMs = clock.millis();
+        CompletionStage<List<Object>> reply = eval(allOrNothingScript,
+                RedisBucketScripts.distinctKeys(keyPrefix, evaluated), RedisBucketScripts.batchArgs(evaluated, nowMs));
+        return reply.thenApply(result -> {
+            if (result == null || result.size() != 1 + 4 * evaluated.size()) {
+                log.error("Redis all-or-nothing script returned {} values for {} keys",
+                        result == null ? null : result.size(), evaluated.size());
+                return MultiAcquireResult.denied(indexes[0], new AcquireResult(
+                        false, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+            }
+            return RedisBucketScripts.toMultiResult(result, evaluated, indexes, nowMs);
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return adjust(key, Math.max(0L, permits), config, clock);
+    }
+
+    @Override
+    public CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return adjust(key, -Math.max(0L, permits), config, clock);
+    }
+
+    @Override
+    public CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        if (isGcra(config)) {
+            CompletionStage<String> tat = commands.get(RedisBucketScripts.redisKey(keyPrefix, key, config));
+            submitted();
+            return tat.thenApply(value -> RedisBucketScripts.gcraSnapshot(value, config, clock.millis()));
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            return hmget(RedisBucketScripts.redisKey(keyPrefix, key, config), List.of("window", "previous", "current"))
+                    .thenApply(values -> RedisBucketScripts.slidingSnapshot(values, config, clock.millis()));
+        }
+        return hmget(RedisBucketScripts.redisKey(keyPrefix, key), RedisBucketScripts.bucketFields(config))
+                .thenApply(values -> RedisBucketScripts.bucketSnapshot(values, config, clock.millis()));
+    }
+
+    @Override
+    public boolean tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return await(tryAcquireAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return await(tryAcquireWithResultAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public Reservation reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        return await(reserveAsync(key, permits, config, maxWait, clock));
+    }
+
+    /**
+     * Queues every item before waiting for any, so the batch shares one pipeline flush.
+     */
+    @Override
+    public boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        List<CompletionStage<Boolean>> replies = new ArrayList<>(requests.size());
+        for (AcquireRequest request : requests) {
+            replies.add(tryAcquireAsync(request.getKey(), request.getPermits(), request.getConfig(), clock));
+        }
+        boolean[] results = new boolean[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = await(replies.get(i));
+        }
+        return results;
+    }
+
+    @Override
+    public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        return await(tryAcquireAllOrNothingAsync(requests, clock));
+    }
+
+    @Override
+    public void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        await(debitAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        await(refundAsync(key, permits, config, clock));
+    }
+
+    @Override
+    public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        return await(getSnapshotAsync(key, config, clock));
+    }
+
+    /**
+     * Sends what is still queued, then closes the connection, and the client if this
+     * backend created it.
+     */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        connection.flushCommands();
+        connection.close();
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    private CompletionStage<List<Object>> evaluate(RateLimitKey key, long permits, RateLimitConfig config, long nowMs) {
+        return eval(acquireScript(config), List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)),
+                RedisBucketScripts.acquireArgs(config, nowMs, permits));
+    }
+
+    private CompletionStage<Void> adjust(RateLimitKey key, long delta, RateLimitConfig config, Clock clock) {
+        if (delta == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Object[] args = RedisBucketScripts.adjustArgs(config, clock.millis(), delta);
+        List<String> values = new ArrayList<>(args.length);
+        for (Object arg : args) {
+            values.add((String) arg);
+        }
+        return eval(config.isMultiBand() ? bandsScript : adjustScript,
+                List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)), values)
+                .thenApply(ignored -> null);
+    }
+
+    /**
+     * Queues an {@code EVALSHA} of {@code script}, retried as {@code EVAL} if Redis no
+     * longer has the script cached.
+     */
+    private <T> CompletionStage<T> eval(Script script, List<String> keys, List<String> args) {
+        String[] keyArray = keys.toArray(new String[0]);
+        String[] argArray = args.toArray(new String[0]);
+        CompletionStage<T> reply = commands.evalsha(script.sha(), script.type(), keyArray, argArray);
+        submitted();
+        return reply.exceptionallyCompose(ex -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (!(cause instanceof RedisNoScriptException)) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            log.debug("Redis lost script {}, sending it again with EVAL", script.sha());
+            CompletionStage<T> retry = commands.eval(script.source(), script.type(), keyArray, argArray);
+            submitted();
+            return retry;
+        });
+    }
+
+    private CompletionStage<List<Object>> hmget(String key, List<String> fields) {
+        CompletionStage<List<KeyValue<String, String>>> reply = commands.hmget(key, fields.toArray(new String[0]));
+        submitted();
+        return reply.thenApply(values -> {
+            List<Object> result = new ArrayList<>(values.size());
+            for (KeyValue<String, String> value : values) {
+                result.add(value.getValueOrElse(null));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Counts a command just queued on the connection: a full batch is flushed by the
+     * caller, otherwise the flusher sends it within {@code maxDelay}.
+     */
+    private void submitted() {
+        if (pending.incrementAndGet() >= maxBatchSize || maxDelayNanos == 0L) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * The flag and count are reset before flushing, so a command queued while the flush
+     * runs either goes out with it or schedules the next one.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        pending.set(0);
+        connection.flushCommands();
+    }
+
+    private boolean isGcra(RateLimitConfig config) {
+        return config.getAlgorithm() == RateLimitAlgorithm.GCRA;
+    }
+
+    private Script acquireScript(RateLimitConfig config) {
+        if (config.isMultiBand()) {
+            return bandsScript;
+        }
+        return switch (config.getAlgorithm()) {
+            case GCRA -> gcraScript;
+            case SLIDING_WINDOW -> slidingWindowScript;
+            case TOKEN_BUCKET -> script;
+        };
+    }
+
+    private static <T> T await(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    private record Script(String source, String sha, ScriptOutputType type) {
+
+        static Script load(RedisCommands<String, String> sync, String source, ScriptOutputType type) {
+            return new Script(source, sync.scriptLoad(source), type);
+        }
+    }
+}
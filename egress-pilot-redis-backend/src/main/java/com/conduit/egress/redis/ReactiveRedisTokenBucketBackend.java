@@ -0,0 +1,282 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.MultiAcquireResult;
+import com.conduit.egress.core.AsyncRateLimitBackend;
+import com.conduit.egress.core.RateLimitAlgorithm;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking Redis / Dragonfly token bucket on the reactive (Lettuce) driver. Runs the
+ * same Lua script and key layout as {@link RedisTokenBucketBackend}, so both can share
+ * buckets, but never parks the calling thread while Redis answers.
+ */
+public class ReactiveRedisTokenBucketBackend implements AsyncRateLimitBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveRedisTokenBucketBackend.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final RedisScript<List> script;
+    private final RedisScript<List> reserveScript;
+    private final RedisScript<List> allOrNothingScript;
+    private final RedisScript<List> gcraScript;
+    private final RedisScript<List> gcraReserveScript;
+    private final RedisScript<List> slidingWindowScript;
+    private final RedisScript<List> bandsScript;
+    private final RedisScript<Long> adjustScript;
+    private final String keyPrefix;
+    private final MultiBandFallback multiBandFallback = new MultiBandFallback();
+
+    public ReactiveRedisTokenBucketBackend(ReactiveStringRedisTemplate redisTemplate) {
+        this(redisTemplate, "egress:bucket:");
+    }
+
+    public ReactiveRedisTokenBucketBackend(ReactiveStringRedisTemplate redisTemplate, String keyPrefix) {
+        this.redisTemplate = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null");
+        this.keyPrefix = keyPrefix;
+        this.script = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE, List.class);
+        this.reserveScript = new DefaultRedisScript<>(RedisBucketScripts.RESERVE, List.class);
+        this.allOrNothingScript = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE_ALL, List.class);
+        this.gcraScript = new DefaultRedisScript<>(RedisBucketScripts.GCRA_ACQUIRE, List.class);
+        this.gcraReserveScript = new DefaultRedisScript<>(RedisBucketScripts.GCRA_RESERVE, List.class);
+        this.slidingWindowScript = new DefaultRedisScript<>(RedisBucketScripts.SLIDING_WINDOW_ACQUIRE, List.class);
+        this.bandsScript = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE_BANDS, List.class);
+        this.adjustScript = new DefaultRedisScript<>(RedisBucketScripts.ADJUST, Long.class);
+    }
+
+    /**
+     * Lazy acquire: nothing is sent to Redis until the returned Mono is subscribed.
+     */
+    public Mono<Boolean> tryAcquire(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits <= 0) {
+            return Mono.just(true);
+        }
+        return Mono.defer(() -> evaluate(key, permits, config, clock.millis())
+                .map(result -> {
+                    if (result.isEmpty()) {
+                        log.error("Redis script returned empty result for key {}", key);
+                        return false;
+                    }
+                    return result.get(0) instanceof Long allowed && allowed == 1L;
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.error("Redis script returned no result for key {}", key);
+                    return false;
+                })));
+    }
+
+    /**
+     * Lazy acquire that also reports tokens and refill timing from the same script call.
+     */
+    public Mono<AcquireResult> tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return Mono.defer(() -> {
+            long nowMs = clock.millis();
+            AcquireResult unknown = new AcquireResult(
+                    permits <= 0, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN);
+            return evaluate(key, Math.max(0L, permits), config, nowMs)
+                    .map(result -> {
+                        if (result.size() < RedisBucketScripts.replySize(config)) {
+                            log.error("Redis script returned incomplete result for key {}", key);
+                            return unknown;
+                        }
+                        boolean allowed = permits <= 0 || (result.get(0) instanceof Long flag && flag == 1L);
+                        return RedisBucketScripts.toResult(allowed, result, config, nowMs);
+                    })
+                    .defaultIfEmpty(unknown);
+        });
+    }
+
+    /**
+     * Lazy reservation; see {@link RedisTokenBucketBackend#reserve}.
+     */
+    public Mono<Reservation> reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        if (multiBandFallback.appliesTo(config, MultiBandFallback.RESERVE)) {
+            return Mono.defer(() -> Mono.fromCompletionStage(
+                    AsyncRateLimitBackend.super.reserveAsync(key, permits, config, maxWait, clock)));
+        }
+        return Mono.defer(() -> {
+            Instant now = clock.instant();
+            if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+                return evaluate(key, Math.max(0L, permits), config, now.toEpochMilli())
+                        .map(result -> {
+                            if (result.size() < RedisBucketScripts.replySize(config)) {
+                                log.error("Redis script returned incomplete result for key {}", key);
+                                return Reservation.denied(now, AcquireResult.UNKNOWN);
+                            }
+                            return RedisBucketScripts.toSlidingReservation(result, Math.max(0L, permits), config, now);
+                        })
+                        .defaultIfEmpty(Reservation.denied(now, AcquireResult.UNKNOWN));
+            }
+            List<String> args = RedisBucketScripts.reserveArgs(config, now.toEpochMilli(), Math.max(0L, permits),
+                    maxWait.toMillis());
+            return redisTemplate.execute(isGcra(config) ? gcraReserveScript : reserveScript,
+                            List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)), args)
+                    .next()
+                    .map(result -> {
+                        if (result.size() < 2) {
+                            log.error("Redis reserve script returned incomplete result for key {}", key);
+                            return Reservation.denied(now, AcquireResult.UNKNOWN);
+                        }
+                        return RedisBucketScripts.toReservation(result, now);
+                    })
+                    .defaultIfEmpty(Reservation.denied(now, AcquireResult.UNKNOWN));
+        });
+    }
+
+    /**
+     * Lazy all-or-nothing acquire; see {@link RedisTokenBucketBackend#tryAcquireAllOrNothing}.
+     * Batches with a multi-band rule fall back to the non-atomic default.
+     */
+    public Mono<MultiAcquireResult> tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        if (multiBandFallback.appliesTo(requests, MultiBandFallback.ALL_OR_NOTHING)) {
+            return Mono.defer(() -> Mono.fromCompletionStage(
+                    AsyncRateLimitBackend.super.tryAcquireAllOrNothingAsync(requests, clock)));
+        }
+        return Mono.defer(() -> {
+            List<AcquireRequest> evaluated = new ArrayList<>(requests.size());
+            int[] indexes = new int[requests.size()];
+            for (int i = 0; i < requests.size(); i++) {
+                if (requests.get(i).getPermits() > 0) {
+                    indexes[evaluated.size()] = i;
+                    evaluated.add(requests.get(i));
+                }
+            }
+            if (evaluated.isEmpty()) {
+                return Mono.just(MultiAcquireResult.allowed());
+            }
+            long nowMs = clock.millis();
+            MultiAcquireResult unknown = MultiAcquireResult.denied(indexes[0], new AcquireResult(
+                    false, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+            return redisTemplate.execute(allOrNothingScript, RedisBucketScripts.distinctKeys(keyPrefix, evaluated),
+                            RedisBucketScripts.batchArgs(evaluated, nowMs))
+                    .next()
+                    .map(reply -> {
+                        if (reply.size() != 1 + 4 * evaluated.size()) {
+                            log.error("Redis all-or-nothing script returned {} values for {} keys",
+                                    reply.size(), evaluated.size());
+                            return unknown;
+                        }
+                        return RedisBucketScripts.toMultiResult(reply, evaluated, indexes, nowMs);
+                    })
+                    .defaultIfEmpty(unknown);
+        });
+    }
+
+    /**
+     * Lazy debit (positive {@code delta}) or refund (negative) of a call already made;
+     * see {@link RedisTokenBucketBackend#debit}.
+     */
+    public Mono<Void> adjust(RateLimitKey key, long delta, RateLimitConfig config, Clock clock) {
+        if (delta == 0) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> redisTemplate.execute(adjustScript(config),
+                        List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)),
+                        List.of(RedisBucketScripts.adjustArgs(config, clock.millis(), delta)))
+                .then());
+    }
+
+    private Mono<List> evaluate(RateLimitKey key, long permits, RateLimitConfig config, long nowMs) {
+        List<String> args = RedisBucketScripts.acquireArgs(config, nowMs, permits);
+        return redisTemplate.execute(acquireScript(config),
+                List.of(RedisBucketScripts.redisKey(keyPrefix, key, config)), args).next();
+    }
+
+    private boolean isGcra(RateLimitConfig config) {
+        return config.getAlgorithm() == RateLimitAlgorithm.GCRA;
+    }
+
+    private RedisScript<?> adjustScript(RateLimitConfig config) {
+        return config.isMultiBand() ? bandsScript : adjustScript;
+    }
+
+    private RedisScript<List> acquireScript(RateLimitConfig config) {
+        if (config.isMultiBand()) {
+            return bandsScript;
+        }
+        return switch (config.getAlgorithm()) {
+            case GCRA -> gcraScript;
+            case SLIDING_WINDOW -> slidingWindowScript;
+            case TOKEN_BUCKET -> script;
+        };
+    }
+
+    public Mono<RateLimitSnapshot> getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        if (isGcra(config)) {
+            return Mono.defer(() -> redisTemplate.opsForValue()
+                    .get(RedisBucketScripts.redisKey(keyPrefix, key, config))
+                    .map(tat -> RedisBucketScripts.gcraSnapshot(tat, config, clock.millis()))
+                    .defaultIfEmpty(RedisBucketScripts.gcraSnapshot(null, config, clock.millis())));
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            return Mono.defer(() -> redisTemplate.opsForHash()
+                    .multiGet(RedisBucketScripts.redisKey(keyPrefix, key, config), List.of("window", "previous", "current"))
+                    .map(values -> RedisBucketScripts.slidingSnapshot(values, config, clock.millis()))
+                    .defaultIfEmpty(RedisBucketScripts.slidingSnapshot(null, config, clock.millis())));
+        }
+        return Mono.defer(() -> redisTemplate.opsForHash()
+                .multiGet(RedisBucketScripts.redisKey(keyPrefix, key), List.copyOf(RedisBucketScripts.bucketFields(config)))
+                .map(values -> RedisBucketScripts.bucketSnapshot(values, config, clock.millis()))
+                .defaultIfEmpty(RedisBucketScripts.bucketSnapshot(null, config, clock.millis())));
+    }
+
+    @Override
+    public CompletionStage<Boolean> tryAcquireAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return tryAcquire(key, permits, config, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<AcquireResult> tryAcquireWithResultAsync(RateLimitKey key,
+                                                                    long permits,
+                                                                    RateLimitConfig config,
+                                                                    Clock clock) {
+        return tryAcquireWithResult(key, permits, config, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<Reservation> reserveAsync(RateLimitKey key,
+                                                     long permits,
+                                                     RateLimitConfig config,
+                                                     Duration maxWait,
+                                                     Clock clock) {
+        return reserve(key, permits, config, maxWait, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<MultiAcquireResult> tryAcquireAllOrNothingAsync(List<AcquireRequest> requests, Clock clock) {
+        return tryAcquireAllOrNothing(requests, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<Void> debitAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return adjust(key, Math.max(0L, permits), config, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<Void> refundAsync(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        return adjust(key, -Math.max(0L, permits), config, clock).toFuture();
+    }
+
+    @Override
+    public CompletionStage<RateLimitSnapshot> getSnapshotAsync(RateLimitKey key, RateLimitConfig config, Clock clock) {
+        return getSnapshot(key, config, clock).toFuture();
+    }
+}
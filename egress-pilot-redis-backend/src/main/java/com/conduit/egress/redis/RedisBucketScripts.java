@@ -0,0 +1,791 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.MultiAcquireResult;
+import com.conduit.egress.core.RateLimitAlgorithm;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
+import com.conduit.egress.core.SlidingWindowBucket;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Lua scripts and key naming shared by the blocking and reactive Redis backends.
+ */
+final class RedisBucketScripts {
+
+    /**
+     * Bucket load/store and refill-and-consume for one bucket, shared by all scripts.
+     * Tokens go negative while a reservation is outstanding; the key is kept alive
+     * until the bucket has refilled to capacity, so that it never comes back fuller than
+     * it would be. The refill interval may be a fraction of a millisecond. {@code cold}
+     * is when the key was created, from which {@code warm_cost} ramps a rule with a
+     * warm-up the same way as {@link RateLimitConfig#warmUpCost}; keys written before it
+     * was recorded count as warm.
+     */
+    private static final String BUCKET_FUNCTIONS =
+            "local function load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local state = redis.call('HMGET', key, 'tokens', 'last_refill', 'cold')\n" +
+            "  local tokens = tonumber(state[1])\n" +
+            "  local last_refill = tonumber(state[2])\n" +
+            "  if tokens == nil then\n" +
+            "    return capacity, now_ms, now_ms\n" +
+            "  end\n" +
+            "  local elapsed = now_ms - last_refill\n" +
+            "  if elapsed > 0 then\n" +
+            "    local periods = math.floor(elapsed / refill_interval_ms)\n" +
+            "    if periods > 0 then\n" +
+            "      tokens = math.min(capacity, tokens + periods * refill_tokens)\n" +
+            "      last_refill = last_refill + periods * refill_interval_ms\n" +
+            "    end\n" +
+            "  end\n" +
+            "  return tokens, last_refill, tonumber(state[3]) or 0\n" +
+            "end\n" +
+            "local function store(key, tokens, last_refill, cold, capacity, refill_tokens, refill_interval_ms)\n" +
+            "  redis.call('HSET', key, 'tokens', tokens, 'last_refill', last_refill, 'cold', cold)\n" +
+            "  local ttl = (math.ceil((capacity - tokens) / refill_tokens) + 1) * refill_interval_ms\n" +
+            "  redis.call('PEXPIRE', key, math.max(1, math.ceil(ttl)))\n" +
+            "end\n" +
+            "local function warm_cost(requested, capacity, cold, now_ms, warm_up_ms)\n" +
+            "  local since = now_ms - cold\n" +
+            "  if warm_up_ms <= 0 or requested <= 0 or since >= warm_up_ms then\n" +
+            "    return requested\n" +
+            "  end\n" +
+            "  local cost = math.ceil(requested * " + RateLimitConfig.COLD_FACTOR + " /\n" +
+            "    (1 + " + (RateLimitConfig.COLD_FACTOR - 1) + " * math.max(0, since) / warm_up_ms))\n" +
+            "  return math.max(requested, math.min(cost, capacity))\n" +
+            "end\n" +
+            "local function acquire(key, capacity, refill_tokens, refill_interval_ms, now_ms, requested, warm_up_ms)\n" +
+            "  local tokens, last_refill, cold = load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local cost = warm_cost(requested, capacity, cold, now_ms, warm_up_ms)\n" +
+            "  local allowed = 0\n" +
+            "  if requested > 0 and tokens >= cost then\n" +
+            "    tokens = tokens - cost\n" +
+            "    allowed = 1\n" +
+            "  end\n" +
+            "  store(key, tokens, last_refill, cold, capacity, refill_tokens, refill_interval_ms)\n" +
+            "  return { allowed, tokens, capacity, last_refill }\n" +
+            "end\n";
+
+    /**
+     * GCRA counterpart of {@code acquire}: the bucket is a single string holding the
+     * theoretical arrival time in ms, which expires once it is in the past (the bucket
+     * is full again). Returns {@code {allowed, tat_ms}}.
+     */
+    private static final String GCRA_FUNCTIONS =
+            "local function gcra_tat(key, now_ms)\n" +
+            "  local tat = tonumber(redis.call('GET', key))\n" +
+            "  if tat == nil or tat < now_ms then\n" +
+            "    return now_ms\n" +
+            "  end\n" +
+            "  return tat\n" +
+            "end\n" +
+            "local function gcra_store(key, tat, now_ms)\n" +
+            "  redis.call('SET', key, string.format('%.3f', tat), 'PX', math.max(1, math.ceil(tat - now_ms)))\n" +
+            "end\n" +
+            "local function gcra(key, capacity, refill_tokens, refill_interval_ms, now_ms, requested)\n" +
+            "  local interval = refill_interval_ms / refill_tokens\n" +
+            "  local tat = gcra_tat(key, now_ms)\n" +
+            "  local new_tat = tat + requested * interval\n" +
+            "  if requested <= 0 or new_tat - now_ms > capacity * interval then\n" +
+            "    return { 0, math.ceil(tat) }\n" +
+            "  end\n" +
+            "  gcra_store(key, new_tat, now_ms)\n" +
+            "  return { 1, math.ceil(new_tat) }\n" +
+            "end\n";
+
+    /**
+     * Sliding-window counterpart of {@code acquire}: a hash with the current window index
+     * and the previous and current window counts, for windows of
+     * {@code refill_interval_ms * capacity / refill_tokens}. Only admitted permits are
+     * written. Returns {@code {allowed, previous, current, elapsed_ms}}.
+     */
+    private static final String SLIDING_WINDOW_FUNCTIONS =
+            "local function sliding_load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local window = refill_interval_ms * capacity / refill_tokens\n" +
+            "  local index = math.floor(now_ms / window)\n" +
+            "  local state = redis.call('HMGET', key, 'window', 'previous', 'current')\n" +
+            "  local stored = tonumber(state[1])\n" +
+            "  local previous = tonumber(state[2]) or 0\n" +
+            "  local current = tonumber(state[3]) or 0\n" +
+            "  if stored == nil or stored < index - 1 then\n" +
+            "    previous, current = 0, 0\n" +
+            "  elseif stored == index - 1 then\n" +
+            "    previous, current = current, 0\n" +
+            "  elseif stored > index then\n" +
+            "    index = stored\n" +
+            "  end\n" +
+            "  local elapsed = math.max(0, math.min(window, now_ms - index * window))\n" +
+            "  return window, index, previous, current, elapsed\n" +
+            "end\n" +
+            "local function sliding_store(key, window, index, previous, current, elapsed)\n" +
+            "  redis.call('HSET', key, 'window', index, 'previous', previous, 'current', current)\n" +
+            "  redis.call('PEXPIRE', key, math.max(1, math.ceil(2 * window - elapsed)))\n" +
+            "end\n" +
+            "local function sliding(key, capacity, refill_tokens, refill_interval_ms, now_ms, requested)\n" +
+            "  local window, index, previous, current, elapsed =\n" +
+            "    sliding_load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local allowed = 0\n" +
+            "  if requested > 0 and previous * (window - elapsed) / window + current + requested <= capacity then\n" +
+            "    current = current + requested\n" +
+            "    allowed = 1\n" +
+            "    sliding_store(key, window, index, previous, current, elapsed)\n" +
+            "  end\n" +
+            "  return { allowed, previous, current, math.floor(elapsed) }\n" +
+            "end\n";
+
+    /**
+     * KEYS[1] bucket; ARGV: capacity, refill_tokens, refill_interval_ms, now_ms,
+     * requested and, for a rule with a warm-up, warm_up_ms.
+     */
+    static final String ACQUIRE =
+            BUCKET_FUNCTIONS +
+            "return acquire(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]),\n" +
+            "  tonumber(ARGV[4]), tonumber(ARGV[5]), tonumber(ARGV[6]) or 0)\n";
+
+    /**
+     * Same arguments as {@link #ACQUIRE}, for rules using {@link RateLimitAlgorithm#GCRA}.
+     */
+    static final String GCRA_ACQUIRE =
+            GCRA_FUNCTIONS +
+            "return gcra(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]),\n" +
+            "  tonumber(ARGV[4]), tonumber(ARGV[5]))\n";
+
+    /**
+     * Same arguments as {@link #ACQUIRE}, for rules using
+     * {@link RateLimitAlgorithm#SLIDING_WINDOW}. Also serves reservations, since a
+     * sliding window cannot hold permits in a future window.
+     */
+    static final String SLIDING_WINDOW_ACQUIRE =
+            SLIDING_WINDOW_FUNCTIONS +
+            "return sliding(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]),\n" +
+            "  tonumber(ARGV[4]), tonumber(ARGV[5]))\n";
+
+    /**
+     * Batch variant: ARGV[1] is now_ms, followed by capacity, refill_tokens,
+     * refill_interval_ms, requested, {@linkplain #engine engine} and warm_up_ms for each
+     * key. Returns one allowed flag per key.
+     */
+    static final String ACQUIRE_BATCH =
+            BUCKET_FUNCTIONS +
+            GCRA_FUNCTIONS +
+            SLIDING_WINDOW_FUNCTIONS +
+            "local now_ms = tonumber(ARGV[1])\n" +
+            "local results = {}\n" +
+            "for i = 1, #KEYS do\n" +
+            "  local base = 1 + (i - 1) * 6\n" +
+            "  local engine = acquire\n" +
+            "  if ARGV[base + 5] == 'gcra' then\n" +
+            "    engine = gcra\n" +
+            "  elseif ARGV[base + 5] == 'sw' then\n" +
+            "    engine = sliding\n" +
+            "  end\n" +
+            "  results[i] = engine(KEYS[i], tonumber(ARGV[base + 1]), tonumber(ARGV[base + 2]),\n" +
+            "    tonumber(ARGV[base + 3]), now_ms, tonumber(ARGV[base + 4]), tonumber(ARGV[base + 6]))[1]\n" +
+            "end\n" +
+            "return results\n";
+
+    /**
+     * All-or-nothing variant of {@link #ACQUIRE_BATCH}, with the same arguments. Every
+     * bucket is checked before any is written, so either all are debited or none.
+     * Returns {@code {allowed}} followed by four fields per key: its flag and its
+     * {@linkplain #toResult acquire reply} fields (GCRA padded with zeros), which show the
+     * state after the debit if allowed and before it otherwise.
+     */
+    static final String ACQUIRE_ALL =
+            BUCKET_FUNCTIONS +
+            GCRA_FUNCTIONS +
+            SLIDING_WINDOW_FUNCTIONS +
+            "local function check(engine, key, capacity, refill_tokens, refill_interval_ms, now_ms, requested,\n" +
+            "    warm_up_ms)\n" +
+            "  if engine == 'gcra' then\n" +
+            "    local interval = refill_interval_ms / refill_tokens\n" +
+            "    local tat = gcra_tat(key, now_ms)\n" +
+            "    local new_tat = tat + requested * interval\n" +
+            "    return new_tat - now_ms <= capacity * interval, { math.ceil(tat), 0, 0 }, function()\n" +
+            "      gcra_store(key, new_tat, now_ms)\n" +
+            "      return { math.ceil(new_tat), 0, 0 }\n" +
+            "    end\n" +
+            "  elseif engine == 'sw' then\n" +
+            "    local window, index, previous, current, elapsed =\n" +
+            "      sliding_load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "    local fits = previous * (window - elapsed) / window + current + requested <= capacity\n" +
+            "    return fits, { previous, current, math.floor(elapsed) }, function()\n" +
+            "      sliding_store(key, window, index, previous, current + requested, elapsed)\n" +
+            "      return { previous, current + requested, math.floor(elapsed) }\n" +
+            "    end\n" +
+            "  end\n" +
+            "  local tokens, last_refill, cold = load(key, capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local cost = warm_cost(requested, capacity, cold, now_ms, warm_up_ms)\n" +
+            "  return tokens >= cost, { tokens, capacity, last_refill }, function()\n" +
+            "    store(key, tokens - cost, last_refill, cold, capacity, refill_tokens, refill_interval_ms)\n" +
+            "    return { tokens - cost, capacity, last_refill }\n" +
+            "  end\n" +
+            "end\n" +
+            "local now_ms = tonumber(ARGV[1])\n" +
+            "local checks = {}\n" +
+            "local all = 1\n" +
+            "for i = 1, #KEYS do\n" +
+            "  local base = 1 + (i - 1) * 6\n" +
+            "  local ok, state, commit = check(ARGV[base + 5], KEYS[i], tonumber(ARGV[base + 1]),\n" +
+            "    tonumber(ARGV[base + 2]), tonumber(ARGV[base + 3]), now_ms, tonumber(ARGV[base + 4]),\n" +
+            "    tonumber(ARGV[base + 6]))\n" +
+            "  checks[i] = { ok, state, commit }\n" +
+            "  if not ok then\n" +
+            "    all = 0\n" +
+            "  end\n" +
+            "end\n" +
+            "local reply = { all }\n" +
+            "for i = 1, #KEYS do\n" +
+            "  local flag, state = 0, checks[i][2]\n" +
+            "  if all == 1 then\n" +
+            "    flag, state = 1, checks[i][3]()\n" +
+            "  elseif checks[i][1] then\n" +
+            "    flag = 1\n" +
+            "  end\n" +
+            "  table.insert(reply, flag)\n" +
+            "  for j = 1, 3 do\n" +
+            "    table.insert(reply, state[j])\n" +
+            "  end\n" +
+            "end\n" +
+            "return reply\n";
+
+    /**
+     * Debits (positive) or refunds (negative) ARGV[5] permits of a call already made,
+     * with the arguments of {@link #ACQUIRE}, the {@linkplain #engine engine} as ARGV[6]
+     * and, for a rule with a warm-up, warm_up_ms as ARGV[7]. A debit is never denied:
+     * token buckets go negative, a GCRA TAT moves past the burst limit and a sliding
+     * window counts past capacity. A refund never takes a bucket past capacity. Returns 1.
+     */
+    static final String ADJUST =
+            BUCKET_FUNCTIONS +
+            GCRA_FUNCTIONS +
+            SLIDING_WINDOW_FUNCTIONS +
+            "local capacity = tonumber(ARGV[1])\n" +
+            "local refill_tokens = tonumber(ARGV[2])\n" +
+            "local refill_interval_ms = tonumber(ARGV[3])\n" +
+            "local now_ms = tonumber(ARGV[4])\n" +
+            "local delta = tonumber(ARGV[5])\n" +
+            "if ARGV[6] == 'gcra' then\n" +
+            "  local new_tat = gcra_tat(KEYS[1], now_ms) + delta * refill_interval_ms / refill_tokens\n" +
+            "  if new_tat > now_ms then\n" +
+            "    gcra_store(KEYS[1], new_tat, now_ms)\n" +
+            "  else\n" +
+            "    redis.call('DEL', KEYS[1])\n" +
+            "  end\n" +
+            "elseif ARGV[6] == 'sw' then\n" +
+            "  local window, index, previous, current, elapsed =\n" +
+            "    sliding_load(KEYS[1], capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  sliding_store(KEYS[1], window, index, previous, math.max(0, current + delta), elapsed)\n" +
+            "else\n" +
+            "  local tokens, last_refill, cold = load(KEYS[1], capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "  local cost = warm_cost(math.abs(delta), capacity, cold, now_ms, tonumber(ARGV[7]) or 0)\n" +
+            "  if delta < 0 then\n" +
+            "    cost = -cost\n" +
+            "  end\n" +
+            "  store(KEYS[1], math.min(capacity, tokens - cost), last_refill, cold, capacity, refill_tokens, refill_interval_ms)\n" +
+            "end\n" +
+            "return 1\n";
+
+    /**
+     * Reserves ARGV[5] permits at the earliest refill boundary that covers them, unless
+     * that is more than ARGV[6] ms away; ARGV[7] is warm_up_ms for a rule with a
+     * warm-up. Granted permits are taken at once, driving the bucket into debt so later
+     * callers queue behind them. Returns {granted, wait_ms}.
+     */
+    static final String RESERVE =
+            BUCKET_FUNCTIONS +
+            "local capacity = tonumber(ARGV[1])\n" +
+            "local refill_tokens = tonumber(ARGV[2])\n" +
+            "local refill_interval_ms = tonumber(ARGV[3])\n" +
+            "local now_ms = tonumber(ARGV[4])\n" +
+            "local tokens, last_refill, cold = load(KEYS[1], capacity, refill_tokens, refill_interval_ms, now_ms)\n" +
+            "local requested = warm_cost(tonumber(ARGV[5]), capacity, cold, now_ms, tonumber(ARGV[7]) or 0)\n" +
+            "local wait_ms = 0\n" +
+            "if tokens < requested then\n" +
+            "  local periods = math.ceil((requested - tokens) / refill_tokens)\n" +
+            "  wait_ms = math.ceil(last_refill + periods * refill_interval_ms - now_ms)\n" +
+            "end\n" +
+            "if wait_ms > tonumber(ARGV[6]) then\n" +
+            "  return { 0, wait_ms }\n" +
+            "end\n" +
+            "store(KEYS[1], tokens - requested, last_refill, cold, capacity, refill_tokens, refill_interval_ms)\n" +
+            "return { 1, wait_ms }\n";
+
+    /**
+     * GCRA reservation, same arguments and reply as {@link #RESERVE}: the TAT simply
+     * moves past the burst limit by the wait.
+     */
+    static final String GCRA_RESERVE =
+            GCRA_FUNCTIONS +
+            "local capacity = tonumber(ARGV[1])\n" +
+            "local interval = tonumber(ARGV[3]) / tonumber(ARGV[2])\n" +
+            "local now_ms = tonumber(ARGV[4])\n" +
+            "local new_tat = gcra_tat(KEYS[1], now_ms) + tonumber(ARGV[5]) * interval\n" +
+            "local wait_ms = math.max(0, math.ceil(new_tat - now_ms - capacity * interval))\n" +
+            "if wait_ms > tonumber(ARGV[6]) then\n" +
+            "  return { 0, wait_ms }\n" +
+            "end\n" +
+            "gcra_store(KEYS[1], new_tat, now_ms)\n" +
+            "return { 1, wait_ms }\n";
+
+    /**
+     * Token bucket with several {@linkplain RateLimitConfig#getBands() bands} in one hash:
+     * the first band keeps the {@code tokens} and {@code last_refill} fields of
+     * {@link #ACQUIRE}, band {@code i > 1} adds {@code tokens:i} and
+     * {@code last_refill:i}, and all share {@code cold}. A band missing from the hash
+     * starts full. ARGV: mode, now_ms, amount, warm_up_ms (0 for none), the number of
+     * bands n, then capacity, refill_tokens and refill_interval_ms per band. In mode
+     * {@code acquire} the permits are debited from every band only if every band holds
+     * them; in mode {@code adjust} a signed amount is debited or refunded as in
+     * {@link #ADJUST}. The key lives until the slowest band is full. Returns
+     * {@code {allowed}} followed by each band's tokens and last_refill.
+     */
+    static final String ACQUIRE_BANDS =
+            BUCKET_FUNCTIONS +
+            "local mode = ARGV[1]\n" +
+            "local now_ms = tonumber(ARGV[2])\n" +
+            "local amount = tonumber(ARGV[3])\n" +
+            "local n = tonumber(ARGV[5])\n" +
+            "local fields = { 'cold' }\n" +
+            "for i = 1, n do\n" +
+            "  local suffix = i == 1 and '' or (':' .. i)\n" +
+            "  table.insert(fields, 'tokens' .. suffix)\n" +
+            "  table.insert(fields, 'last_refill' .. suffix)\n" +
+            "end\n" +
+            "local state = redis.call('HMGET', KEYS[1], unpack(fields))\n" +
+            "local cold = now_ms\n" +
+            "if state[2] then\n" +
+            "  cold = tonumber(state[1]) or 0\n" +
+            "end\n" +
+            "local bands = {}\n" +
+            "for i = 1, n do\n" +
+            "  local base = 5 + (i - 1) * 3\n" +
+            "  local band = { capacity = tonumber(ARGV[base + 1]), refill_tokens = tonumber(ARGV[base + 2]),\n" +
+            "    interval = tonumber(ARGV[base + 3]), tokens = tonumber(state[2 * i]),\n" +
+            "    last_refill = tonumber(state[2 * i + 1]) }\n" +
+            "  if band.tokens == nil or band.last_refill == nil then\n" +
+            "    band.tokens, band.last_refill = band.capacity, now_ms\n" +
+            "  else\n" +
+            "    local periods = math.floor((now_ms - band.last_refill) / band.interval)\n" +
+            "    if periods > 0 then\n" +
+            "      band.tokens = math.min(band.capacity, band.tokens + periods * band.refill_tokens)\n" +
+            "      band.last_refill = band.last_refill + periods * band.interval\n" +
+            "    end\n" +
+            "  end\n" +
+            "  bands[i] = band\n" +
+            "end\n" +
+            "local cost = warm_cost(math.abs(amount), bands[1].capacity, cold, now_ms, tonumber(ARGV[4]))\n" +
+            "local allowed = 1\n" +
+            "if mode == 'acquire' then\n" +
+            "  if amount <= 0 then\n" +
+            "    allowed = 0\n" +
+            "  end\n" +
+            "  for i = 1, n do\n" +
+            "    if bands[i].tokens < cost then\n" +
+            "      allowed = 0\n" +
+            "    end\n" +
+            "  end\n" +
+            "  if allowed == 1 then\n" +
+            "    for i = 1, n do\n" +
+            "      bands[i].tokens = bands[i].tokens - cost\n" +
+            "    end\n" +
+            "  end\n" +
+            "else\n" +
+            "  if amount < 0 then\n" +
+            "    cost = -cost\n" +
+            "  end\n" +
+            "  for i = 1, n do\n" +
+            "    bands[i].tokens = math.min(bands[i].capacity, bands[i].tokens - cost)\n" +
+            "  end\n" +
+            "end\n" +
+            "local values, ttl, reply = { 'cold', cold }, 1, { allowed }\n" +
+            "for i = 1, n do\n" +
+            "  local band = bands[i]\n" +
+            "  table.insert(values, fields[2 * i])\n" +
+            "  table.insert(values, band.tokens)\n" +
+            "  table.insert(values, fields[2 * i + 1])\n" +
+            "  table.insert(values, band.last_refill)\n" +
+            "  ttl = math.max(ttl, (math.ceil((band.capacity - band.tokens) / band.refill_tokens) + 1) * band.interval)\n" +
+            "  table.insert(reply, band.tokens)\n" +
+            "  table.insert(reply, band.last_refill)\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], unpack(values))\n" +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil(ttl))\n" +
+            "return reply\n";
+
+    private RedisBucketScripts() {
+    }
+
+    /**
+     * Arguments of {@link #ADJUST} for a signed permit {@code delta}, or of
+     * {@link #ACQUIRE_BANDS} in mode {@code adjust} for a multi-band rule.
+     */
+    static Object[] adjustArgs(RateLimitConfig config, long nowMs, long delta) {
+        if (config.isMultiBand()) {
+            return bandArgs("adjust", config, nowMs, delta).toArray();
+        }
+        List<String> args = new ArrayList<>(7);
+        args.add(Long.toString(config.getCapacity()));
+        args.add(Long.toString(config.getRefillTokens()));
+        args.add(intervalMillis(config));
+        args.add(Long.toString(nowMs));
+        args.add(Long.toString(delta));
+        args.add(engine(config));
+        addWarmUp(args, config);
+        return args.toArray();
+    }
+
+    /**
+     * Arguments of {@link #ACQUIRE} and its GCRA, sliding-window and
+     * {@linkplain #ACQUIRE_BANDS multi-band} variants.
+     */
+    static List<String> acquireArgs(RateLimitConfig config, long nowMs, long permits) {
+        if (config.isMultiBand()) {
+            return bandArgs("acquire", config, nowMs, permits);
+        }
+        List<String> args = new ArrayList<>(6);
+        args.add(Long.toString(config.getCapacity()));
+        args.add(Long.toString(config.getRefillTokens()));
+        args.add(intervalMillis(config));
+        args.add(Long.toString(nowMs));
+        args.add(Long.toString(permits));
+        return addWarmUp(args, config);
+    }
+
+    /**
+     * Arguments of {@link #ACQUIRE_BANDS} in the given mode.
+     */
+    static List<String> bandArgs(String mode, RateLimitConfig config, long nowMs, long amount) {
+        List<RateLimitConfig> bands = config.getBands();
+        List<String> args = new ArrayList<>(5 + 3 * bands.size());
+        args.add(mode);
+        args.add(Long.toString(nowMs));
+        args.add(Long.toString(amount));
+        args.add(warmUpMillis(config));
+        args.add(Integer.toString(bands.size()));
+        for (RateLimitConfig band : bands) {
+            args.add(Long.toString(band.getCapacity()));
+            args.add(Long.toString(band.getRefillTokens()));
+            args.add(intervalMillis(band));
+        }
+        return args;
+    }
+
+    /**
+     * Whether any of {@code requests} has a multi-band rule, which the batch scripts do
+     * not handle.
+     */
+    static boolean anyMultiBand(List<AcquireRequest> requests) {
+        for (AcquireRequest request : requests) {
+            if (request.getConfig().isMultiBand()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Arguments of {@link #RESERVE} and {@link #GCRA_RESERVE}.
+     */
+    static List<String> reserveArgs(RateLimitConfig config, long nowMs, long permits, long maxWaitMs) {
+        List<String> args = new ArrayList<>(7);
+        args.add(Long.toString(config.getCapacity()));
+        args.add(Long.toString(config.getRefillTokens()));
+        args.add(intervalMillis(config));
+        args.add(Long.toString(nowMs));
+        args.add(Long.toString(permits));
+        args.add(Long.toString(maxWaitMs));
+        return addWarmUp(args, config);
+    }
+
+    /**
+     * Appends the optional trailing warm_up_ms argument of the single-bucket scripts, if
+     * the rule has a warm-up.
+     */
+    static List<String> addWarmUp(List<String> args, RateLimitConfig config) {
+        if (config.getWarmUpPeriod() != null) {
+            args.add(warmUpMillis(config));
+        }
+        return args;
+    }
+
+    /**
+     * Refill period in ms as passed to the scripts: a whole number when it is one, and a
+     * decimal fraction for sub-millisecond or uneven periods.
+     */
+    static String intervalMillis(RateLimitConfig config) {
+        long nanos = config.getRefillPeriod().toNanos();
+        if (nanos % 1_000_000L == 0) {
+            return Long.toString(nanos / 1_000_000L);
+        }
+        return BigDecimal.valueOf(nanos, 6).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Warm-up of a rule in ms as passed per key to the batch scripts, 0 for none.
+     */
+    static String warmUpMillis(RateLimitConfig config) {
+        Duration warmUp = config.getWarmUpPeriod();
+        return warmUp == null ? "0" : Long.toString(Math.max(1L, warmUp.toMillis()));
+    }
+
+    /**
+     * Engine name passed per key to {@link #ACQUIRE_BATCH}.
+     */
+    static String engine(RateLimitConfig config) {
+        return switch (config.getAlgorithm()) {
+            case GCRA -> "gcra";
+            case SLIDING_WINDOW -> "sw";
+            case TOKEN_BUCKET -> "tb";
+        };
+    }
+
+    /**
+     * Number of elements in a well-formed acquire reply for the config's algorithm.
+     */
+    static int replySize(RateLimitConfig config) {
+        if (config.isMultiBand()) {
+            return 1 + 2 * config.getBands().size();
+        }
+        return config.getAlgorithm() == RateLimitAlgorithm.GCRA ? 2 : 4;
+    }
+
+    /**
+     * Builds an acquire result from the reply of the acquire script
+     * ({@code {allowed, tokens, capacity, last_refill}}, {@code {allowed, tat_ms}} for
+     * GCRA, {@code {allowed, previous, current, elapsed_ms}} for a sliding window, or
+     * {@code {allowed}} and each band's tokens and last refill for several bands),
+     * without another round trip.
+     */
+    static AcquireResult toResult(boolean allowed, List<?> reply, RateLimitConfig config, long nowMs) {
+        if (config.isMultiBand()) {
+            List<RateLimitConfig> bands = config.getBands();
+            List<AcquireResult> results = new ArrayList<>(bands.size());
+            for (int i = 0; i < bands.size(); i++) {
+                RateLimitConfig band = bands.get(i);
+                results.add(toResult(allowed, List.of(reply.get(0), reply.get(1 + 2 * i), band.getCapacity(),
+                        reply.get(2 + 2 * i)), band, nowMs));
+            }
+            return AcquireResult.ofBands(allowed, results);
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.GCRA) {
+            long tatMs = ((Number) reply.get(1)).longValue();
+            return AcquireResult.ofGcra(allowed, tatMs * 1_000_000L, config.getCapacity(),
+                    config.getEmissionIntervalNanos(), nowMs * 1_000_000L);
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            long windowNanos = config.getWindowNanos();
+            return AcquireResult.ofSlidingWindow(allowed, ((Number) reply.get(1)).longValue(),
+                    ((Number) reply.get(2)).longValue(), config.getCapacity(), windowNanos,
+                    slidingElapsedNanos(reply, windowNanos));
+        }
+        long tokens = ((Number) reply.get(1)).longValue();
+        long lastRefillMs = ((Number) reply.get(3)).longValue();
+        long periodNanos = config.getRefillPeriod().toNanos();
+        long nanosToNextRefill = Math.max(0L, (lastRefillMs - nowMs) * 1_000_000L + periodNanos);
+        AcquireResult result = AcquireResult.ofBucket(allowed, tokens, config.getCapacity(), config.getRefillTokens(),
+                periodNanos, nanosToNextRefill);
+        if (tokens >= 0) {
+            return result;
+        }
+        // Reservations hold the bucket in debt: the next usable token comes only once it is repaid.
+        long refillsToToken = (1 - tokens + config.getRefillTokens() - 1) / config.getRefillTokens();
+        return new AcquireResult(allowed, 0L, nanosToNextRefill + (refillsToToken - 1) * periodNanos,
+                result.getNanosToFull());
+    }
+
+    /**
+     * Arguments of {@link #ACQUIRE_BATCH} and {@link #ACQUIRE_ALL} for {@code requests}.
+     */
+    static List<String> batchArgs(List<AcquireRequest> requests, long nowMs) {
+        List<String> args = new ArrayList<>(1 + 6 * requests.size());
+        args.add(Long.toString(nowMs));
+        for (AcquireRequest request : requests) {
+            RateLimitConfig config = request.getConfig();
+            args.add(Long.toString(config.getCapacity()));
+            args.add(Long.toString(config.getRefillTokens()));
+            args.add(intervalMillis(config));
+            args.add(Long.toString(request.getPermits()));
+            args.add(engine(config));
+            args.add(warmUpMillis(config));
+        }
+        return args;
+    }
+
+    /**
+     * Redis keys of {@code requests}, which must be distinct: {@link #ACQUIRE_ALL} checks
+     * every bucket before writing any, so a repeated key would be debited only once.
+     */
+    static List<String> distinctKeys(String keyPrefix, List<AcquireRequest> requests) {
+        List<String> keys = new ArrayList<>(requests.size());
+        for (AcquireRequest request : requests) {
+            keys.add(redisKey(keyPrefix, request.getKey(), request.getConfig()));
+        }
+        if (new HashSet<>(keys).size() != keys.size()) {
+            throw new IllegalArgumentException("All-or-nothing acquire requires distinct buckets");
+        }
+        return keys;
+    }
+
+    /**
+     * Maps the reply of {@link #ACQUIRE_ALL} for the evaluated requests, given in the
+     * order of the script's keys; {@code indexes} maps them back to batch positions.
+     */
+    static MultiAcquireResult toMultiResult(List<?> reply, List<AcquireRequest> evaluated, int[] indexes, long nowMs) {
+        if (((Number) reply.get(0)).longValue() == 1L) {
+            return MultiAcquireResult.allowed();
+        }
+        int binding = -1;
+        AcquireResult bindingResult = null;
+        for (int k = 0; k < evaluated.size(); k++) {
+            int base = 1 + 4 * k;
+            if (((Number) reply.get(base)).longValue() == 1L) {
+                continue;
+            }
+            AcquireResult result = toResult(false, reply.subList(base, base + 4), evaluated.get(k).getConfig(), nowMs);
+            if (bindingResult == null || result.getNanosToNextToken() > bindingResult.getNanosToNextToken()) {
+                binding = indexes[k];
+                bindingResult = result;
+            }
+        }
+        return MultiAcquireResult.denied(binding, bindingResult);
+    }
+
+    /**
+     * Maps the acquire reply of a sliding window to a reservation: admitted now, or
+     * denied with the time until {@code permits} fit.
+     */
+    static Reservation toSlidingReservation(List<?> reply, long permits, RateLimitConfig config, Instant now) {
+        if (((Number) reply.get(0)).longValue() == 1L) {
+            return Reservation.granted(now, 0L);
+        }
+        long windowNanos = config.getWindowNanos();
+        return Reservation.denied(now, SlidingWindowBucket.nanosUntilFits(permits,
+                ((Number) reply.get(1)).longValue(), ((Number) reply.get(2)).longValue(),
+                config.getCapacity(), windowNanos, slidingElapsedNanos(reply, windowNanos)));
+    }
+
+    /**
+     * Snapshot of a sliding window from its {@code window, previous, current} hash
+     * fields (null values if the key has expired).
+     */
+    static RateLimitSnapshot slidingSnapshot(List<?> values, RateLimitConfig config, long nowMs) {
+        if (values == null || values.size() != 3 || values.get(0) == null) {
+            return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), nowMs);
+        }
+        double windowMs = config.getWindowNanos() / 1_000_000d;
+        long index = (long) Math.floor(nowMs / windowMs);
+        long stored = (long) Double.parseDouble(values.get(0).toString());
+        long previous = Long.parseLong(values.get(1).toString());
+        long current = Long.parseLong(values.get(2).toString());
+        if (stored < index - 1) {
+            previous = 0L;
+            current = 0L;
+        } else if (stored == index - 1) {
+            previous = current;
+            current = 0L;
+        } else {
+            index = stored;
+        }
+        long elapsedNanos = (long) Math.min(config.getWindowNanos(), Math.max(0d, (nowMs - index * windowMs) * 1_000_000d));
+        AcquireResult state = AcquireResult.ofSlidingWindow(true, previous, current, config.getCapacity(),
+                config.getWindowNanos(), elapsedNanos);
+        return new RateLimitSnapshot(state.getRemainingTokens(), config.getCapacity(), nowMs);
+    }
+
+    private static long slidingElapsedNanos(List<?> reply, long windowNanos) {
+        return Math.min(windowNanos, Math.max(0L, ((Number) reply.get(3)).longValue()) * 1_000_000L);
+    }
+
+    /**
+     * Hash fields holding the token counts and last refills of the config's
+     * {@linkplain #ACQUIRE_BANDS bands}, in pairs.
+     */
+    static List<String> bucketFields(RateLimitConfig config) {
+        int bands = config.getBands().size();
+        List<String> fields = new ArrayList<>(2 * bands);
+        for (int i = 1; i <= bands; i++) {
+            String suffix = i == 1 ? "" : ":" + i;
+            fields.add("tokens" + suffix);
+            fields.add("last_refill" + suffix);
+        }
+        return fields;
+    }
+
+    /**
+     * Snapshot of a token bucket from its {@link #bucketFields} (null values if the key
+     * has expired): the first band's last refill, with the fewest tokens stored in any
+     * band. The last refill is a fraction of a ms for sub-millisecond refill periods.
+     */
+    static RateLimitSnapshot bucketSnapshot(List<?> values, RateLimitConfig config, long nowMs) {
+        if (values == null || values.size() < 2 || values.get(0) == null || values.get(1) == null) {
+            return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), nowMs);
+        }
+        long tokens = Long.MAX_VALUE;
+        for (int i = 0; i < values.size(); i += 2) {
+            tokens = Math.min(tokens, values.get(i) == null
+                    ? config.getBands().get(i / 2).getCapacity()
+                    : (long) Double.parseDouble(values.get(i).toString()));
+        }
+        return new RateLimitSnapshot(tokens, config.getCapacity(), (long) Double.parseDouble(values.get(1).toString()));
+    }
+
+    /**
+     * Snapshot of a GCRA bucket from its stored TAT (null if the key has expired).
+     */
+    static RateLimitSnapshot gcraSnapshot(String tat, RateLimitConfig config, long nowMs) {
+        if (tat == null) {
+            return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), nowMs);
+        }
+        long tatNanos = (long) (Double.parseDouble(tat) * 1_000_000d);
+        AcquireResult state = AcquireResult.ofGcra(true, tatNanos, config.getCapacity(),
+                config.getEmissionIntervalNanos(), nowMs * 1_000_000L);
+        return new RateLimitSnapshot(state.getRemainingTokens(), config.getCapacity(), nowMs);
+    }
+
+    /**
+     * Maps the {@code {granted, wait_ms}} reply of the reserve script.
+     */
+    static Reservation toReservation(List<?> reply, Instant now) {
+        long waitNanos = Math.max(0L, ((Number) reply.get(1)).longValue()) * 1_000_000L;
+        if (((Number) reply.get(0)).longValue() == 1L) {
+            return Reservation.granted(now, waitNanos);
+        }
+        return Reservation.denied(now, waitNanos);
+    }
+
+    /**
+     * Redis key for a bucket: the prefix followed by the key's cached SHA-256
+     * {@link RateLimitKey#digest() digest}. Keeps keys free of raw key fields (paths,
+     * principals, api keys) and, unlike the key's 64-bit fingerprint, out of reach of
+     * collisions crafted through those fields, which would let one caller drain another's
+     * bucket.
+     */
+    static String redisKey(String keyPrefix, RateLimitKey key) {
+        return keyPrefix + key.digest();
+    }
+
+    /**
+     * Redis key for a bucket under the config's algorithm. GCRA buckets are plain strings
+     * and sliding windows hashes with other fields, so each gets its own suffix; a rule
+     * that switches algorithm starts afresh instead of misreading the old state or
+     * hitting a WRONGTYPE error.
+     */
+    static String redisKey(String keyPrefix, RateLimitKey key, RateLimitConfig config) {
+        String base = redisKey(keyPrefix, key);
+        return switch (config.getAlgorithm()) {
+            case GCRA -> base + ":gcra";
+            case SLIDING_WINDOW -> base + ":sw";
+            case TOKEN_BUCKET -> base;
+        };
+    }
+}
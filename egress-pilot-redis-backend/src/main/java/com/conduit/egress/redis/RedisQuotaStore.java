@@ -0,0 +1,70 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.QuotaStore;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Redis / Dragonfly {@link QuotaStore}: one integer string per counter, capped at the
+ * quota by a Lua script and expiring at the end of its window ({@code PEXPIREAT}), so
+ * the count survives agent restarts and is shared by every agent on the server.
+ */
+public class RedisQuotaStore implements QuotaStore {
+
+    /**
+     * KEYS[1] counter; ARGV: units, limit, expire_at_ms. Returns the units granted.
+     */
+    static final String RESERVE =
+            "local used = tonumber(redis.call('GET', KEYS[1]) or '0')\n" +
+            "local granted = math.min(tonumber(ARGV[1]), tonumber(ARGV[2]) - used)\n" +
+            "if granted <= 0 then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('INCRBY', KEYS[1], granted)\n" +
+            "redis.call('PEXPIREAT', KEYS[1], ARGV[3])\n" +
+            "return granted\n";
+
+    /**
+     * KEYS[1] counter; ARGV[1] units to give back, never taking the counter below zero.
+     */
+    static final String RELEASE =
+            "local used = tonumber(redis.call('GET', KEYS[1]) or '0')\n" +
+            "local released = math.min(tonumber(ARGV[1]), used)\n" +
+            "if released > 0 then\n" +
+            "  redis.call('DECRBY', KEYS[1], released)\n" +
+            "end\n" +
+            "return released\n";
+
+    private final StringRedisTemplate redisTemplate;
+    private final String keyPrefix;
+    private final RedisScript<Long> reserveScript = new DefaultRedisScript<>(RESERVE, Long.class);
+    private final RedisScript<Long> releaseScript = new DefaultRedisScript<>(RELEASE, Long.class);
+
+    public RedisQuotaStore(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, "egress:quota:");
+    }
+
+    public RedisQuotaStore(StringRedisTemplate redisTemplate, String keyPrefix) {
+        this.redisTemplate = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null");
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public long reserve(String counter, long units, long limit, long expireAtMillis) {
+        Long granted = redisTemplate.execute(reserveScript, Collections.singletonList(keyPrefix + counter),
+                Long.toString(units), Long.toString(limit), Long.toString(expireAtMillis));
+        return granted == null ? 0L : granted;
+    }
+
+    @Override
+    public void release(String counter, long units) {
+        if (units <= 0) {
+            return;
+        }
+        redisTemplate.execute(releaseScript, Collections.singletonList(keyPrefix + counter), Long.toString(units));
+    }
+}
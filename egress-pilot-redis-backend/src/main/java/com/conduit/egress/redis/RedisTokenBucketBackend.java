@@ -1,68 +1,51 @@
 package com.conduit.egress.redis;
 
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.MultiAcquireResult;
+import com.conduit.egress.core.RateLimitAlgorithm;
 import com.conduit.egress.core.RateLimitBackend;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitKey;
 import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
 import java.time.Duration;
-import java.util.Base64;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 /**
- * Redis / Dragonfly-based token bucket using a Lua script for atomic updates.
+ * Redis / Dragonfly-based token bucket using a Lua script for atomic updates. Rules using
+ * {@link com.conduit.egress.core.RateLimitAlgorithm#GCRA} keep a single
+ * {@code SET PX} string per key instead of a hash; rules using
+ * {@link com.conduit.egress.core.RateLimitAlgorithm#SLIDING_WINDOW} keep a hash of two
+ * window counts.
  */
 public class RedisTokenBucketBackend implements RateLimitBackend {
 
     private static final Logger log = LoggerFactory.getLogger(RedisTokenBucketBackend.class);
 
-    private static final String SCRIPT_TEXT =
-            "local key = KEYS[1]\n" +
-            "local capacity = tonumber(ARGV[1])\n" +
-            "local refill_tokens = tonumber(ARGV[2])\n" +
-            "local refill_interval_ms = tonumber(ARGV[3])\n" +
-            "local now_ms = tonumber(ARGV[4])\n" +
-            "local requested = tonumber(ARGV[5])\n" +
-            "local state = redis.call('HMGET', key, 'tokens', 'last_refill')\n" +
-            "local tokens = tonumber(state[1])\n" +
-            "local last_refill = tonumber(state[2])\n" +
-            "if tokens == nil then\n" +
-            "  tokens = capacity\n" +
-            "  last_refill = now_ms\n" +
-            "else\n" +
-            "  local elapsed = now_ms - last_refill\n" +
-            "  if elapsed > 0 then\n" +
-            "    local periods = math.floor(elapsed / refill_interval_ms)\n" +
-            "    if periods > 0 then\n" +
-            "      local to_add = periods * refill_tokens\n" +
-            "      tokens = math.min(capacity, tokens + to_add)\n" +
-            "      last_refill = last_refill + periods * refill_interval_ms\n" +
-            "    end\n" +
-            "  end\n" +
-            "end\n" +
-            "local allowed = 0\n" +
-            "if requested > 0 and tokens >= requested then\n" +
-            "  tokens = tokens - requested\n" +
-            "  allowed = 1\n" +
-            "end\n" +
-            "redis.call('HSET', key, 'tokens', tokens, 'last_refill', last_refill)\n" +
-            "redis.call('PEXPIRE', key, refill_interval_ms * 3)\n" +
-            "return { allowed, tokens, capacity, last_refill }\n";
-
     private final StringRedisTemplate redisTemplate;
     private final RedisScript<List> script;
+    private final RedisScript<List> batchScript;
+    private final RedisScript<List> allOrNothingScript;
+    private final RedisScript<List> reserveScript;
+    private final RedisScript<List> gcraScript;
+    private final RedisScript<List> gcraReserveScript;
+    private final RedisScript<List> slidingWindowScript;
+    private final RedisScript<List> bandsScript;
+    private final RedisScript<Long> adjustScript;
     private final String keyPrefix;
+    private final MultiBandFallback multiBandFallback = new MultiBandFallback();
 
     public RedisTokenBucketBackend(StringRedisTemplate redisTemplate) {
         this(redisTemplate, "egress:bucket:");
@@ -71,19 +54,42 @@ public class RedisTokenBucketBackend implements RateLimitBackend {
     public RedisTokenBucketBackend(StringRedisTemplate redisTemplate, String keyPrefix) {
         this.redisTemplate = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null");
         this.keyPrefix = keyPrefix;
-        this.script = new DefaultRedisScript<>(SCRIPT_TEXT, List.class);
+        this.script = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE, List.class);
+        this.batchScript = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE_BATCH, List.class);
+        this.allOrNothingScript = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE_ALL, List.class);
+        this.reserveScript = new DefaultRedisScript<>(RedisBucketScripts.RESERVE, List.class);
+        this.gcraScript = new DefaultRedisScript<>(RedisBucketScripts.GCRA_ACQUIRE, List.class);
+        this.gcraReserveScript = new DefaultRedisScript<>(RedisBucketScripts.GCRA_RESERVE, List.class);
+        this.slidingWindowScript = new DefaultRedisScript<>(RedisBucketScripts.SLIDING_WINDOW_ACQUIRE, List.class);
+        this.bandsScript = new DefaultRedisScript<>(RedisBucketScripts.ACQUIRE_BANDS, List.class);
+        this.adjustScript = new DefaultRedisScript<>(RedisBucketScripts.ADJUST, Long.class);
+    }
+
+    String toRedisKey(RateLimitKey key) {
+        return RedisBucketScripts.redisKey(keyPrefix, key);
+    }
+
+    private String toRedisKey(RateLimitKey key, RateLimitConfig config) {
+        return RedisBucketScripts.redisKey(keyPrefix, key, config);
+    }
+
+    private boolean isGcra(RateLimitConfig config) {
+        return config.getAlgorithm() == RateLimitAlgorithm.GCRA;
     }
 
-    private String toRedisKey(RateLimitKey key) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(key.toString().getBytes(StandardCharsets.UTF_8));
-            String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
-            return keyPrefix + encoded;
-        } catch (NoSuchAlgorithmException e) {
-            log.warn("SHA-256 not available, falling back to plain key", e);
-            return keyPrefix + key.toString();
+    private RedisScript<?> adjustScript(RateLimitConfig config) {
+        return config.isMultiBand() ? bandsScript : adjustScript;
+    }
+
+    private RedisScript<List> acquireScript(RateLimitConfig config) {
+        if (config.isMultiBand()) {
+            return bandsScript;
         }
+        return switch (config.getAlgorithm()) {
+            case GCRA -> gcraScript;
+            case SLIDING_WINDOW -> slidingWindowScript;
+            case TOKEN_BUCKET -> script;
+        };
     }
 
     @Override
@@ -91,19 +97,7 @@ public class RedisTokenBucketBackend implements RateLimitBackend {
         if (permits <= 0) {
             return true;
         }
-        long nowMs = clock.millis();
-        List<String> keys = Collections.singletonList(toRedisKey(key));
-        Duration period = config.getRefillPeriod();
-        List<String> args = List.of(
-                Long.toString(config.getCapacity()),
-                Long.toString(config.getRefillTokens()),
-                Long.toString(period.toMillis()),
-                Long.toString(nowMs),
-                Long.toString(permits)
-        );
-
-        @SuppressWarnings("unchecked")
-        List<Long> result = (List<Long>) redisTemplate.execute(script, keys, args.toArray());
+        List<Long> result = evaluate(key, permits, config, clock.millis());
         if (result == null || result.isEmpty()) {
             log.error("Redis script returned null/empty result for key {}", key);
             return false;
@@ -112,15 +106,167 @@ public class RedisTokenBucketBackend implements RateLimitBackend {
         return allowed != null && allowed == 1L;
     }
 
+    /**
+     * Single script call; tokens and last refill come back with the decision, so no
+     * follow-up HMGET is needed to compute retry-after.
+     */
+    @Override
+    public AcquireResult tryAcquireWithResult(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        long nowMs = clock.millis();
+        List<Long> result = evaluate(key, Math.max(0L, permits), config, nowMs);
+        if (result == null || result.size() < RedisBucketScripts.replySize(config)) {
+            log.error("Redis script returned null/incomplete result for key {}", key);
+            return new AcquireResult(permits <= 0, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN);
+        }
+        Long allowed = result.get(0);
+        return RedisBucketScripts.toResult(permits <= 0 || (allowed != null && allowed == 1L), result, config, nowMs);
+    }
+
+    /**
+     * Reserves in one script call; the bucket is left in debt for granted future permits.
+     * Rules with several bands fall back to the default, which only admits permits
+     * available now; the first such call for a rule logs a warning.
+     */
+    @Override
+    public Reservation reserve(RateLimitKey key, long permits, RateLimitConfig config, Duration maxWait, Clock clock) {
+        if (multiBandFallback.appliesTo(config, MultiBandFallback.RESERVE)) {
+            return RateLimitBackend.super.reserve(key, permits, config, maxWait, clock);
+        }
+        Instant now = clock.instant();
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            List<Long> result = evaluate(key, Math.max(0L, permits), config, now.toEpochMilli());
+            if (result == null || result.size() < RedisBucketScripts.replySize(config)) {
+                log.error("Redis script returned null/incomplete result for key {}", key);
+                return Reservation.denied(now, AcquireResult.UNKNOWN);
+            }
+            return RedisBucketScripts.toSlidingReservation(result, Math.max(0L, permits), config, now);
+        }
+        List<String> args = RedisBucketScripts.reserveArgs(config, now.toEpochMilli(), Math.max(0L, permits),
+                maxWait.toMillis());
+        List<?> result = redisTemplate.execute(isGcra(config) ? gcraReserveScript : reserveScript,
+                Collections.singletonList(toRedisKey(key, config)), args.toArray());
+        if (result == null || result.size() < 2) {
+            log.error("Redis reserve script returned null/incomplete result for key {}", key);
+            return Reservation.denied(now, AcquireResult.UNKNOWN);
+        }
+        return RedisBucketScripts.toReservation(result, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> evaluate(RateLimitKey key, long permits, RateLimitConfig config, long nowMs) {
+        List<String> keys = Collections.singletonList(toRedisKey(key, config));
+        List<String> args = RedisBucketScripts.acquireArgs(config, nowMs, permits);
+        return (List<Long>) redisTemplate.execute(acquireScript(config), keys, args.toArray());
+    }
+
+    /**
+     * Evaluates the whole batch in one script call, so a batch costs a single round
+     * trip. Items with no permits requested are allowed without touching Redis. A batch
+     * with a multi-band rule is acquired one item at a time instead.
+     */
+    @Override
+    public boolean[] tryAcquireAll(List<AcquireRequest> requests, Clock clock) {
+        if (RedisBucketScripts.anyMultiBand(requests)) {
+            return RateLimitBackend.super.tryAcquireAll(requests, clock);
+        }
+        boolean[] results = new boolean[requests.size()];
+        List<AcquireRequest> evaluated = new ArrayList<>(requests.size());
+        List<String> keys = new ArrayList<>(requests.size());
+        int[] positions = new int[requests.size()];
+        for (int i = 0; i < results.length; i++) {
+            AcquireRequest request = requests.get(i);
+            if (request.getPermits() <= 0) {
+                results[i] = true;
+                continue;
+            }
+            positions[keys.size()] = i;
+            keys.add(toRedisKey(request.getKey(), request.getConfig()));
+            evaluated.add(request);
+        }
+        if (keys.isEmpty()) {
+            return results;
+        }
+        List<String> args = RedisBucketScripts.batchArgs(evaluated, clock.millis());
+
+        @SuppressWarnings("unchecked")
+        List<Long> allowed = (List<Long>) redisTemplate.execute(batchScript, keys, args.toArray());
+        if (allowed == null || allowed.size() != keys.size()) {
+            log.error("Redis batch script returned {} results for {} keys", allowed == null ? null : allowed.size(), keys.size());
+            return results;
+        }
+        for (int k = 0; k < keys.size(); k++) {
+            Long flag = allowed.get(k);
+            results[positions[k]] = flag != null && flag == 1L;
+        }
+        return results;
+    }
+
+    /**
+     * Checks and debits every bucket in one multi-key script call, so the batch is atomic
+     * in Redis and costs a single round trip. A batch with a multi-band rule falls back to
+     * the default, which is not atomic; the first such batch for a rule logs a warning.
+     */
+    @Override
+    public MultiAcquireResult tryAcquireAllOrNothing(List<AcquireRequest> requests, Clock clock) {
+        if (multiBandFallback.appliesTo(requests, MultiBandFallback.ALL_OR_NOTHING)) {
+            return RateLimitBackend.super.tryAcquireAllOrNothing(requests, clock);
+        }
+        List<AcquireRequest> evaluated = new ArrayList<>(requests.size());
+        int[] indexes = new int[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).getPermits() > 0) {
+                indexes[evaluated.size()] = i;
+                evaluated.add(requests.get(i));
+            }
+        }
+        if (evaluated.isEmpty()) {
+            return MultiAcquireResult.allowed();
+        }
+        long nowMs = clock.millis();
+        List<String> keys = RedisBucketScripts.distinctKeys(keyPrefix, evaluated);
+        List<?> reply = redisTemplate.execute(allOrNothingScript, keys,
+                RedisBucketScripts.batchArgs(evaluated, nowMs).toArray());
+        if (reply == null || reply.size() != 1 + 4 * evaluated.size()) {
+            log.error("Redis all-or-nothing script returned {} values for {} keys",
+                    reply == null ? null : reply.size(), keys.size());
+            return MultiAcquireResult.denied(indexes[0], new AcquireResult(
+                    false, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN, AcquireResult.UNKNOWN));
+        }
+        return RedisBucketScripts.toMultiResult(reply, evaluated, indexes, nowMs);
+    }
+
+    @Override
+    public void debit(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits > 0) {
+            adjust(key, permits, config, clock);
+        }
+    }
+
+    @Override
+    public void refund(RateLimitKey key, long permits, RateLimitConfig config, Clock clock) {
+        if (permits > 0) {
+            adjust(key, -permits, config, clock);
+        }
+    }
+
+    private void adjust(RateLimitKey key, long delta, RateLimitConfig config, Clock clock) {
+        redisTemplate.execute(adjustScript(config), Collections.singletonList(toRedisKey(key, config)),
+                RedisBucketScripts.adjustArgs(config, clock.millis(), delta));
+    }
+
     @Override
     public RateLimitSnapshot getSnapshot(RateLimitKey key, RateLimitConfig config, Clock clock) {
-        String redisKey = toRedisKey(key);
-        List<Object> values = redisTemplate.opsForHash().multiGet(redisKey, List.of("tokens", "last_refill"));
-        if (values == null || values.get(0) == null || values.get(1) == null) {
-            return new RateLimitSnapshot(config.getCapacity(), config.getCapacity(), clock.millis());
-        }
-        long tokens = Long.parseLong(values.get(0).toString());
-        long lastRefill = Long.parseLong(values.get(1).toString());
-        return new RateLimitSnapshot(tokens, config.getCapacity(), lastRefill);
+        if (isGcra(config)) {
+            String tat = redisTemplate.opsForValue().get(toRedisKey(key, config));
+            return RedisBucketScripts.gcraSnapshot(tat, config, clock.millis());
+        }
+        if (config.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            List<Object> values = redisTemplate.opsForHash()
+                    .multiGet(toRedisKey(key, config), List.of("window", "previous", "current"));
+            return RedisBucketScripts.slidingSnapshot(values, config, clock.millis());
+        }
+        List<Object> values = redisTemplate.opsForHash()
+                .multiGet(toRedisKey(key), List.copyOf(RedisBucketScripts.bucketFields(config)));
+        return RedisBucketScripts.bucketSnapshot(values, config, clock.millis());
     }
 }
@@ -0,0 +1,133 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class PipelinedRedisTokenBucketBackendTests {
+
+    private StatefulRedisConnection<String, String> connection;
+    private RedisCommands<String, String> sync;
+    private RedisAsyncCommands<String, String> async;
+    private PipelinedRedisTokenBucketBackend backend;
+    private final Clock clock = Clock.fixed(Instant.ofEpochMilli(1_000_000), ZoneOffset.UTC);
+    private final RateLimitConfig cfg = new RateLimitConfig("rule", 60, 60, Duration.ofSeconds(60), null);
+    private final RateLimitKey key = RateLimitKey.builder("rule").host("api.github.com").build();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        connection = mock(StatefulRedisConnection.class);
+        sync = mock(RedisCommands.class);
+        async = mock(RedisAsyncCommands.class);
+        when(connection.sync()).thenReturn(sync);
+        when(connection.async()).thenReturn(async);
+        when(sync.scriptLoad(anyString())).thenAnswer(invocation -> sha(invocation.getArgument(0)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (backend != null) {
+            backend.close();
+        }
+    }
+
+    @Test
+    void loadsScriptsUpFrontAndFlushesOnceTheBatchIsFull() {
+        doReturn(reply(List.of(1L, 59L, 60L, 1_000_000L)))
+                .when(async).evalsha(anyString(), any(), any(String[].class), any(String[].class));
+        backend = new PipelinedRedisTokenBucketBackend(connection, "test:", 3, Duration.ofHours(1));
+
+        CompletionStage<Boolean> first = backend.tryAcquireAsync(key, 1, cfg, clock);
+        CompletionStage<AcquireResult> second = backend.tryAcquireWithResultAsync(key, 1, cfg, clock);
+        verify(connection, never()).flushCommands();
+        boolean third = backend.tryAcquire(key, 1, cfg, clock);
+
+        verify(sync).scriptLoad(RedisBucketScripts.ACQUIRE);
+        verify(connection).setAutoFlushCommands(false);
+        verify(connection, times(1)).flushCommands();
+        verify(async, times(3)).evalsha(eq(sha(RedisBucketScripts.ACQUIRE)), eq(ScriptOutputType.MULTI),
+                eq(new String[]{RedisBucketScripts.redisKey("test:", key)}),
+                eq(new String[]{"60", "60", "60000", "1000000", "1"}));
+        assertThat(first.toCompletableFuture().join()).isTrue();
+        assertThat(second.toCompletableFuture().join().getRemainingTokens()).isEqualTo(59);
+        assertThat(third).isTrue();
+    }
+
+    @Test
+    void flushesAPartialBatchOnceTheDelayPasses() {
+        doReturn(reply(List.of(0L, 0L, 60L, 1_000_000L)))
+                .when(async).evalsha(anyString(), any(), any(String[].class), any(String[].class));
+        backend = new PipelinedRedisTokenBucketBackend(connection, "test:", 100, Duration.ofMillis(1));
+
+        CompletionStage<Boolean> acquire = backend.tryAcquireAsync(key, 1, cfg, clock);
+
+        verify(connection, timeout(1_000)).flushCommands();
+        assertThat(acquire.toCompletableFuture().join()).isFalse();
+    }
+
+    @Test
+    void sendsTheScriptBodyWhenRedisLostItsCache() {
+        doReturn(failed(new RedisNoScriptException("NOSCRIPT No matching script")))
+                .when(async).evalsha(anyString(), any(), any(String[].class), any(String[].class));
+        doReturn(reply(List.of(1L, 59L, 60L, 1_000_000L)))
+                .when(async).eval(anyString(), any(), any(String[].class), any(String[].class));
+        backend = new PipelinedRedisTokenBucketBackend(connection, "test:", 1, Duration.ZERO);
+
+        assertThat(backend.tryAcquire(key, 1, cfg, clock)).isTrue();
+
+        verify(async).eval(eq(RedisBucketScripts.ACQUIRE), eq(ScriptOutputType.MULTI), any(String[].class),
+                any(String[].class));
+        verify(connection, times(2)).flushCommands();
+    }
+
+    private static String sha(String script) {
+        return "sha-" + Integer.toHexString(script.hashCode());
+    }
+
+    private static <T> RedisFuture<T> reply(T value) {
+        DoneFuture<T> future = new DoneFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    private static <T> RedisFuture<T> failed(Throwable error) {
+        DoneFuture<T> future = new DoneFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    static class DoneFuture<T> extends CompletableFuture<T> implements RedisFuture<T> {
+
+        @Override
+        public String getError() {
+            return null;
+        }
+
+        @Override
+        public boolean await(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
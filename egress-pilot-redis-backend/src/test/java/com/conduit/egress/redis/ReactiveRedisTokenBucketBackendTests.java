@@ -0,0 +1,86 @@
+package com.conduit.egress.redis;
+
+import com.conduit.egress.core.RateLimitConfig;
+import com.conduit.egress.core.RateLimitKey;
+import com.conduit.egress.core.RateLimitSnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class ReactiveRedisTokenBucketBackendTests {
+
+    private ReactiveStringRedisTemplate redisTemplate;
+    private ReactiveHashOperations<String, Object, Object> hashOps;
+    private ReactiveRedisTokenBucketBackend backend;
+    private final Clock clock = Clock.fixed(Instant.ofEpochMilli(1_000_000), ZoneOffset.UTC);
+    private final RateLimitConfig cfg = new RateLimitConfig("rule", 60, 60, Duration.ofSeconds(60), null);
+    private final RateLimitKey key = RateLimitKey.builder("rule").host("api.github.com").build();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        hashOps = mock(ReactiveHashOperations.class);
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOps);
+        backend = new ReactiveRedisTokenBucketBackend(redisTemplate, "test:");
+    }
+
+    @Test
+    void acquireIsLazyAndMapsScriptResult() {
+        doReturn(Flux.just(List.of(1L, 59L, 60L, 1_000_000L)))
+                .when(redisTemplate)
+                .execute(ArgumentMatchers.<RedisScript<List>>any(), anyList(), anyList());
+
+        Mono<Boolean> acquire = backend.tryAcquire(key, 1, cfg, clock);
+        verifyNoInteractions(redisTemplate);
+
+        assertThat(acquire.block()).isTrue();
+        verify(redisTemplate).execute(any(RedisScript.class),
+                eq(List.of(RedisBucketScripts.redisKey("test:", key))),
+                eq(List.of("60", "60", "60000", "1000000", "1")));
+    }
+
+    @Test
+    void deniesWhenScriptReturnsDenied() {
+        doReturn(Flux.just(List.of(0L, 0L, 60L, 1_000_000L)))
+                .when(redisTemplate)
+                .execute(ArgumentMatchers.<RedisScript<List>>any(), anyList(), anyList());
+
+        assertThat(backend.tryAcquireAsync(key, 1, cfg, clock).toCompletableFuture().join()).isFalse();
+    }
+
+    @Test
+    void snapshotFallsBackToCapacityWhenNoState() {
+        when(hashOps.multiGet(anyString(), anyCollection())).thenReturn(Mono.just(Arrays.asList(null, null)));
+
+        RateLimitSnapshot snapshot = backend.getSnapshot(key, cfg, clock).block();
+
+        assertThat(snapshot.getRemainingTokens()).isEqualTo(60);
+        assertThat(snapshot.getLastRefillEpochMillis()).isEqualTo(1_000_000L);
+    }
+
+    @Test
+    void snapshotParsesExistingState() {
+        when(hashOps.multiGet(anyString(), anyCollection())).thenReturn(Mono.just(Arrays.asList("42", "900000")));
+
+        RateLimitSnapshot snapshot = backend.getSnapshot(key, cfg, clock).block();
+
+        assertThat(snapshot.getRemainingTokens()).isEqualTo(42);
+        assertThat(snapshot.getLastRefillEpochMillis()).isEqualTo(900_000L);
+    }
+}
@@ -0,0 +1,29 @@
+package com.conduit.egress.redis;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class RedisQuotaStoreTests {
+
+    @Test
+    void reservesThroughScriptWithLimitAndWindowExpiry() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        doReturn(3L).when(redisTemplate).execute(
+                ArgumentMatchers.<RedisScript<Long>>any(), anyList(), any(), any(), any());
+
+        long granted = new RedisQuotaStore(redisTemplate).reserve("abc:0", 10, 100, 86_400_000L);
+
+        assertThat(granted).isEqualTo(3L);
+        verify(redisTemplate).execute(
+                ArgumentMatchers.<RedisScript<Long>>any(),
+                eq(List.of("egress:quota:abc:0")),
+                eq("10"), eq("100"), eq("86400000"));
+    }
+}
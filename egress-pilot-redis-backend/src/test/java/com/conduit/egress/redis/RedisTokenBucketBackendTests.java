@@ -1,12 +1,23 @@
 package com.conduit.egress.redis;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.conduit.egress.core.AcquireRequest;
+import com.conduit.egress.core.AcquireResult;
+import com.conduit.egress.core.MultiAcquireResult;
+import com.conduit.egress.core.RateLimitAlgorithm;
 import com.conduit.egress.core.RateLimitConfig;
 import com.conduit.egress.core.RateLimitDimension;
 import com.conduit.egress.core.RateLimitKey;
 import com.conduit.egress.core.RateLimitSnapshot;
+import com.conduit.egress.core.Reservation;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
+import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.HashOperations;
 
@@ -60,6 +71,61 @@ class RedisTokenBucketBackendTests {
         clock = new FixedClock(Instant.ofEpochMilli(1_000_000));
     }
 
+    @Test
+    void resultCarriesTokensAndRefillTimingFromScriptReply() {
+        // last refill 400 ms ago on a 1 s period: next token in 600 ms
+        doReturn(List.of(0L, 0L, 10L, 999_600L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 10, 5, Duration.ofSeconds(1), null);
+        AcquireResult result = backend.tryAcquireWithResult(RateLimitKey.builder("rule").build(), 1, cfg, clock);
+
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getRemainingTokens()).isZero();
+        assertThat(result.getNanosToNextToken()).isEqualTo(600_000_000L);
+        assertThat(result.getNanosToFull()).isEqualTo(1_600_000_000L);
+        verify(hashOps, never()).multiGet(anyString(), anyList());
+    }
+
+    @Test
+    void reservationMapsGrantAndWaitFromScriptReply() {
+        doReturn(List.of(1L, 250L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 10, 5, Duration.ofSeconds(1), null);
+        Reservation reservation = backend.reserve(
+                RateLimitKey.builder("rule").build(), 1, cfg, Duration.ofSeconds(2), clock);
+
+        assertThat(reservation.isGranted()).isTrue();
+        assertThat(reservation.getWaitNanos()).isEqualTo(250_000_000L);
+        assertThat(reservation.getAdmitAt()).isEqualTo(Instant.ofEpochMilli(1_000_250));
+    }
+
+    @Test
+    void resultReportsDebtLeftByReservations() {
+        // three tokens owed, refill 2/s, next refill in 600 ms: first usable token after two refills
+        doReturn(List.of(0L, -3L, 10L, 999_600L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 10, 2, Duration.ofSeconds(1), null);
+        AcquireResult result = backend.tryAcquireWithResult(RateLimitKey.builder("rule").build(), 1, cfg, clock);
+
+        assertThat(result.getRemainingTokens()).isZero();
+        assertThat(result.getNanosToNextToken()).isEqualTo(1_600_000_000L);
+    }
+
     @Test
     void allowsWhenScriptReturnsAllowed() {
         doReturn(List.of(1L, 59L, 60L, 1_000_000L))
@@ -146,4 +212,218 @@ class RedisTokenBucketBackendTests {
         assertThat(snapshot.getRemainingTokens()).isEqualTo(42);
         assertThat(snapshot.getLastRefillEpochMillis()).isEqualTo(900000L);
     }
+
+    @Test
+    void redisKeyIsPrefixedDigest() {
+        RateLimitKey key = RateLimitKey.builder("rule").host("api.github.com").apiKey("secret").build();
+
+        String redisKey = backend.toRedisKey(key);
+
+        assertThat(redisKey)
+                .isEqualTo(backend.toRedisKey(RateLimitKey.builder("rule").host("api.github.com").apiKey("secret").build()))
+                .matches("test:[A-Za-z0-9_-]{43}")
+                .doesNotContain("secret");
+    }
+
+    @Test
+    void batchEvaluatesAllKeysInOneScriptCall() {
+        doReturn(List.of(1L, 0L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(Object[].class));
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 60, 60, Duration.ofSeconds(60), null);
+        List<AcquireRequest> requests = List.of(
+                new AcquireRequest(RateLimitKey.builder("rule").path("/a").build(), 1, cfg),
+                new AcquireRequest(RateLimitKey.builder("rule").path("/b").build(), 0, cfg),
+                new AcquireRequest(RateLimitKey.builder("rule").path("/c").build(), 2, cfg));
+
+        boolean[] results = backend.tryAcquireAll(requests, clock);
+
+        assertThat(results).containsExactly(true, true, false);
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate, times(1)).execute(any(), keys.capture(), args.capture());
+        assertThat(keys.getValue()).hasSize(2);
+        assertThat(args.getValue()).containsExactly(
+                "1000000", "60", "60", "60000", "1", "tb", "0", "60", "60", "60000", "2", "tb", "0");
+    }
+
+    @Test
+    void allOrNothingChecksEveryKeyInOneCallAndNamesBindingRequest() {
+        // Only /c is short: its last refill was 400 ms ago on a 1 s period
+        doReturn(List.of(0L, 1L, 4L, 0L, 999_000L, 0L, 0L, 0L, 999_600L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(Object[].class));
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 5, 5, Duration.ofSeconds(1), null);
+        List<AcquireRequest> requests = List.of(
+                new AcquireRequest(RateLimitKey.builder("rule").path("/a").build(), 1, cfg),
+                new AcquireRequest(RateLimitKey.builder("rule").path("/b").build(), 0, cfg),
+                new AcquireRequest(RateLimitKey.builder("rule").path("/c").build(), 1, cfg));
+
+        MultiAcquireResult result = backend.tryAcquireAllOrNothing(requests, clock);
+
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getBindingIndex()).isEqualTo(2);
+        assertThat(result.getBindingResult().getNanosToNextToken()).isEqualTo(600_000_000L);
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redisTemplate, times(1)).execute(any(), keys.capture(), any(Object[].class));
+        assertThat(keys.getValue()).hasSize(2);
+    }
+
+    @Test
+    void gcraRuleUsesStringKeyAndReportsExactWait() {
+        // TAT 1.5 s ahead with a 1 s burst (10 permits at 100 ms): next permit in 600 ms
+        doReturn(List.of(0L, 1_001_500L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig(
+                "rule", 10, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.GCRA);
+        AcquireResult result = backend.tryAcquireWithResult(RateLimitKey.builder("rule").build(), 1, cfg, clock);
+
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getNanosToNextToken()).isEqualTo(600_000_000L);
+        assertThat(result.getNanosToFull()).isEqualTo(1_500_000_000L);
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redisTemplate).execute(any(), keys.capture(), any(), any(), any(), any(), any());
+        assertThat(keys.getValue()).singleElement().asString().endsWith(":gcra");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void slidingWindowReservationReportsWaitUntilPermitsFit() {
+        // Previous window full, half-way through the current one: 5 of 10 still counted,
+        // so 6 permits fit once the previous window's weight drops to 0.4, 100 ms later.
+        doReturn(List.of(0L, 10L, 0L, 500L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig(
+                "rule", 10, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.SLIDING_WINDOW);
+        Reservation reservation = backend.reserve(RateLimitKey.builder("rule").build(), 6, cfg,
+                Duration.ofSeconds(1), clock);
+
+        assertThat(reservation.isGranted()).isFalse();
+        assertThat(reservation.getWaitNanos()).isEqualTo(100_000_000L);
+        ArgumentCaptor<List<String>> keys = ArgumentCaptor.forClass(List.class);
+        verify(redisTemplate).execute(any(), keys.capture(), any(), any(), any(), any(), any());
+        assertThat(keys.getValue()).singleElement().asString().endsWith(":sw");
+    }
+
+    @Test
+    void debitAndRefundSendSignedDeltaToAdjustScript() {
+        RateLimitConfig cfg = new RateLimitConfig(
+                "rule", 10, 10, Duration.ofSeconds(1), null, RateLimitAlgorithm.GCRA);
+        RateLimitKey key = RateLimitKey.builder("rule").build();
+
+        backend.debit(key, 4, cfg, clock);
+        backend.refund(key, 3, cfg, clock);
+        backend.refund(key, 0, cfg, clock);
+
+        verify(redisTemplate).execute(any(), anyList(),
+                eq("10"), eq("10"), eq("1000"), eq("1000000"), eq("4"), eq("gcra"));
+        verify(redisTemplate).execute(any(), anyList(),
+                eq("10"), eq("10"), eq("1000"), eq("1000000"), eq("-3"), eq("gcra"));
+        verifyNoMoreInteractions(redisTemplate);
+    }
+
+    @Test
+    void tokenBucketWithWarmUpPassesWarmUpToScript() {
+        doReturn(List.of(1L, 9L, 10L, 1_000_000L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 10, 10, Duration.ofSeconds(1), null,
+                RateLimitAlgorithm.TOKEN_BUCKET, Duration.ofSeconds(30));
+
+        assertThat(backend.tryAcquire(RateLimitKey.builder("rule").build(), 1, cfg, clock)).isTrue();
+        verify(redisTemplate).execute(any(), anyList(),
+                eq("10"), eq("10"), eq("1000"), eq("1000000"), eq("1"), eq("30000"));
+    }
+
+    @Test
+    void multiBandRuleChecksEveryBandInOneScriptCall() {
+        // per-second band has 9 left; the per-minute band is empty and refilled 10 s ago
+        doReturn(List.of(0L, 9L, 1_000_000L, 0L, 990_000L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = new RateLimitConfig("rule", 10, 10, Duration.ofSeconds(1), null)
+                .withBand(500, 500, Duration.ofMinutes(1));
+        AcquireResult result = backend.tryAcquireWithResult(RateLimitKey.builder("rule").build(), 1, cfg, clock);
+
+        verify(redisTemplate).execute(any(), eq(List.of(RedisBucketScripts.redisKey("test:", RateLimitKey.builder("rule").build()))),
+                eq("acquire"), eq("1000000"), eq("1"), eq("0"), eq("2"),
+                eq("10"), eq("10"), eq("1000"), eq("500"), eq("500"), eq("60000"));
+        assertThat(result.isAllowed()).isFalse();
+        assertThat(result.getRemainingTokens()).isZero();
+        assertThat(result.getNanosToNextToken()).isEqualTo(Duration.ofSeconds(50).toNanos());
+    }
+
+    @Test
+    void multiBandReserveFallsBackToAcquireAndWarnsOncePerRule() {
+        doReturn(List.of(1L, 9L, 1_000_000L, 499L, 1_000_000L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any());
+        Logger logger = (Logger) LoggerFactory.getLogger(MultiBandFallback.class);
+        ListAppender<ILoggingEvent> warnings = new ListAppender<>();
+        warnings.start();
+        logger.addAppender(warnings);
+
+        try {
+            RateLimitConfig cfg = new RateLimitConfig("rule", 10, 10, Duration.ofSeconds(1), null)
+                    .withBand(500, 500, Duration.ofMinutes(1));
+            RateLimitKey key = RateLimitKey.builder("rule").build();
+
+            assertThat(backend.reserve(key, 1, cfg, Duration.ofSeconds(5), clock).isGranted()).isTrue();
+            assertThat(backend.reserve(key, 1, cfg, Duration.ofSeconds(5), clock).isGranted()).isTrue();
+
+            verify(redisTemplate, times(2)).execute(any(), anyList(),
+                    eq("acquire"), eq("1000000"), eq("1"), eq("0"), eq("2"),
+                    eq("10"), eq("10"), eq("1000"), eq("500"), eq("500"), eq("60000"));
+            assertThat(warnings.list).singleElement()
+                    .satisfies(event -> assertThat(event.getLevel()).isEqualTo(Level.WARN))
+                    .satisfies(event -> assertThat(event.getFormattedMessage()).contains("'rule'", "reserve"));
+        } finally {
+            logger.detachAppender(warnings);
+        }
+    }
+
+    @Test
+    void subMillisecondRefillIntervalIsPassedAsFraction() {
+        doReturn(List.of(1L, 9L, 10L, 1_000L))
+                .when(redisTemplate)
+                .execute(
+                        ArgumentMatchers.<org.springframework.data.redis.core.script.RedisScript<List>>any(),
+                        anyList(),
+                        any(), any(), any(), any(), any());
+
+        RateLimitConfig cfg = RateLimitConfig.ofRate("rule", 5000, 10, null, null, null);
+
+        assertThat(backend.tryAcquire(RateLimitKey.builder("rule").build(), 1, cfg, clock)).isTrue();
+        verify(redisTemplate).execute(any(), anyList(),
+                eq("10"), eq("1"), eq("0.2"), eq("1000000"), eq("1"));
+    }
 }